@@ -0,0 +1,211 @@
+package com.example.mvdecision.bench;
+
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.VectorBlockBuilder;
+import com.example.mvdecision.pose.PoseFeatureBackfillService;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import com.example.mvdecision.pose.PoseSampleSummary;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * ベンチマーク用の合成データ。
+ * 立ちポーズの 17 点をもとに、位置・大きさ・関節ごとのずれを乱数で変えたスケルトンを作る。
+ * DB は使わず、インデックスには VectorBlockBuilder で直接詰める
+ */
+public final class SyntheticPoses {
+
+    /** COCO 17 点の立ちポーズ（512 × 512 の画像上の座標） */
+    private static final double[][] BASE = {
+            {256, 100}, {266, 90}, {246, 90}, {278, 96}, {234, 96},
+            {290, 160}, {222, 160}, {310, 230}, {202, 230}, {320, 300}, {192, 300},
+            {280, 300}, {232, 300}, {285, 400}, {227, 400}, {288, 490}, {224, 490}
+    };
+
+    /** 1 カットあたりの行数（絞り込み検索のパーティションの大きさ） */
+    private static final int ROWS_PER_CUT = 500;
+
+    private SyntheticPoses() {
+    }
+
+    /**
+     * 画像座標の 17 点（正規化前）
+     */
+    public static double[][] randomKeypoints(SplittableRandom random) {
+        double scale = 0.5 + random.nextDouble();
+        double tx = random.nextDouble(-100, 100);
+        double ty = random.nextDouble(-50, 50);
+        double[][] pts = new double[PoseFeatureUtil.NUM_KEYPOINTS][2];
+        for (int i = 0; i < pts.length; i++) {
+            pts[i][0] = 256 + (BASE[i][0] - 256) * scale + tx + gaussian(random) * 25 * scale;
+            pts[i][1] = 256 + (BASE[i][1] - 256) * scale + ty + gaussian(random) * 25 * scale;
+        }
+        return pts;
+    }
+
+    /**
+     * 取り込み時の 1 フレーム分の JSON（persons が 2 人。keypoints / keypoint_scores は MMPose の出力と同じ形）
+     */
+    public static String randomPoseJson(SplittableRandom random) {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"image_path\":\"C001/B/B001.png\",\"frame_id\":0,\"persons\":[");
+        for (int p = 0; p < 2; p++) {
+            if (p > 0) {
+                sb.append(',');
+            }
+            double[][] pts = randomKeypoints(random);
+            sb.append("{\"bbox\":[100.0,50.0,400.0,500.0],\"keypoints\":[");
+            for (int i = 0; i < pts.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(String.format(Locale.US, "[%.4f,%.4f]", pts[i][0], pts[i][1]));
+            }
+            sb.append("],\"keypoint_scores\":[");
+            for (int i = 0; i < pts.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(String.format(Locale.US, "%.4f", random.nextDouble(0.2, 1.0)));
+            }
+            sb.append("]}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * 正規化済みの特徴量ベクトル（x0,y0,x1,y1,...）
+     */
+    public static double[] randomFeature(SplittableRandom random) {
+        double[][] norm = PoseFeatureUtil.normalizeKeypoints(randomKeypoints(random));
+        double[] out = new double[PoseFeatureUtil.FEATURE_DIM];
+        for (int i = 0; i < norm.length; i++) {
+            out[2 * i] = norm[i][0];
+            out[2 * i + 1] = norm[i][1];
+        }
+        return out;
+    }
+
+    /**
+     * size 行の合成データを詰めたインデックスを作る（HNSW は作らない）。
+     * pq なら直積量子化の符号ができるまで待つ
+     */
+    public static PoseFeatureIndex buildIndex(int size, boolean pq, long seed) {
+        PoseSampleRepository repository = repository();
+        PoseFeatureIndex index = new PoseFeatureIndex(repository, new PoseFeatureBackfillService(repository),
+                transactionManager(), false, "target/bench-index", false, 16, 200, 64, pq, 4);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        VectorBlockBuilder rows = new VectorBlockBuilder(size);
+        double[] scoreValues = new double[PoseFeatureUtil.NUM_KEYPOINTS];
+        for (int i = 0; i < size; i++) {
+            double[][] norm = PoseFeatureUtil.normalizeKeypoints(randomKeypoints(random));
+            for (int j = 0; j < scoreValues.length; j++) {
+                scoreValues[j] = random.nextDouble(0.2, 1.0);
+            }
+            rows.addBinary(i + 1, PoseFeatureUtil.encodeFeatureVector(norm),
+                    PoseFeatureUtil.encodeKeypointScores(scoreValues),
+                    "dataset" + (i % 4), cutCode(i));
+        }
+        index.append(rows);
+
+        while (pq && !index.isPqReady()) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+        return index;
+    }
+
+    public static String cutCode(int row) {
+        return String.format("C%05d", row / ROWS_PER_CUT);
+    }
+
+    /**
+     * findSummariesByIdIn だけに答えるリポジトリ（検索結果の DTO 化に使う）
+     */
+    public static PoseSampleRepository repository() {
+        return (PoseSampleRepository) Proxy.newProxyInstance(SyntheticPoses.class.getClassLoader(),
+                new Class<?>[] {PoseSampleRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findSummariesByIdIn": {
+                            List<PoseSampleSummary> out = new ArrayList<>();
+                            for (Object id : (Collection<?>) args[0]) {
+                                out.add(new Summary((Long) id));
+                            }
+                            return out;
+                        }
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "SyntheticPoses.repository";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static PlatformTransactionManager transactionManager() {
+        return (PlatformTransactionManager) Proxy.newProxyInstance(SyntheticPoses.class.getClassLoader(),
+                new Class<?>[] {PlatformTransactionManager.class}, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller（SplittableRandom には nextGaussian が無い）
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+    }
+
+    private record Summary(long id) implements PoseSampleSummary {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String getDatasetName() {
+            return "dataset" + (id % 4);
+        }
+
+        @Override
+        public String getImageFileName() {
+            return id + ".png";
+        }
+
+        @Override
+        public String getImagePath() {
+            return "data/datasets/bench/" + id + ".png";
+        }
+
+        @Override
+        public String getSourceImagePath() {
+            return "C001/B/" + id + ".png";
+        }
+
+        @Override
+        public String getCutCode() {
+            return cutCode((int) (id - 1));
+        }
+
+        @Override
+        public String getImageEtag() {
+            return null;
+        }
+    }
+}
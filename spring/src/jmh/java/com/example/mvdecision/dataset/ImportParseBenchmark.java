@@ -0,0 +1,83 @@
+package com.example.mvdecision.dataset;
+
+import com.example.mvdecision.bench.SyntheticPoses;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * データセット取り込みで JSON 1 ファイルごとにかかる処理
+ * （読み込み → 人物の選択 → 17 点と信頼度の取り出し → 正規化 → バイナリ化）のベンチマーク
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportParseBenchmark {
+
+    private static final int POOL = 256;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[][] files;
+    private JsonNode[] roots;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SplittableRandom random = new SplittableRandom(3);
+        files = new byte[POOL][];
+        roots = new JsonNode[POOL];
+        for (int i = 0; i < POOL; i++) {
+            files[i] = SyntheticPoses.randomPoseJson(random).getBytes(StandardCharsets.UTF_8);
+            roots[i] = objectMapper.readTree(files[i]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (POOL - 1);
+        return next;
+    }
+
+    @Benchmark
+    public JsonNode readTree() throws IOException {
+        return objectMapper.readTree(files[nextIndex()]);
+    }
+
+    /** パース済みのツリーから 17 点と信頼度を取り出すところだけ */
+    @Benchmark
+    public void extract(Blackhole bh) {
+        JsonNode best = DatasetImportService.pickBestPerson(roots[nextIndex()].path("persons"));
+        bh.consume(DatasetImportService.extract17Keypoints(best.path("keypoints")));
+        bh.consume(DatasetImportService.extract17Scores(best));
+    }
+
+    /** 1 ファイル分すべて（DB への保存は除く） */
+    @Benchmark
+    public void parseAndEncode(Blackhole bh) throws IOException {
+        JsonNode root = objectMapper.readTree(files[nextIndex()]);
+        JsonNode best = DatasetImportService.pickBestPerson(root.path("persons"));
+        double[][] kps = DatasetImportService.extract17Keypoints(best.path("keypoints"));
+        bh.consume(PoseFeatureUtil.encodeKeypointScores(DatasetImportService.extract17Scores(best)));
+        bh.consume(PoseFeatureUtil.encodeFeatureVector(PoseFeatureUtil.normalizeKeypoints(kps)));
+    }
+}
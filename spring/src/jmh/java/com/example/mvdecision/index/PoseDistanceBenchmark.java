@@ -0,0 +1,160 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.bench.SyntheticPoses;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1 行あたりの距離計算のベンチマーク（スキャンの内側のループと同じく、連続した行のブロックを順に読む）。
+ * limit は打ち切りあり（topK の境界に近い値）と無し（+∞）の両方を測る。
+ * 結果は 1 行あたりの時間
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseDistanceBenchmark {
+
+    /** スキャンのブロック（BLOCK_ROWS と同程度。L1/L2 に載る大きさ） */
+    private static final int ROWS = 1_024;
+
+    private static final int DIM = PoseFeatureIndex.DIM;
+
+    @Param({"false", "true"})
+    public boolean earlyExit;
+
+    private float[] query;
+    private float[] vectors;
+    private float[] weights;
+    private byte[] codes;
+    private float[] pqTable;
+    private PoseFeatureIndex.ScanQuery l2;
+    private PoseFeatureIndex.ScanQuery weighted;
+    private PoseFeatureIndex.ScanQuery mirror;
+    private PoseFeatureIndex.ScanQuery weightedMirror;
+    private PoseFeatureIndex.ScanQuery partial;
+    private float limit;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(7);
+        query = toFloats(SyntheticPoses.randomFeature(random));
+        vectors = new float[ROWS * DIM];
+        weights = new float[ROWS * PoseFeatureUtil.NUM_KEYPOINTS];
+        for (int row = 0; row < ROWS; row++) {
+            float[] v = toFloats(SyntheticPoses.randomFeature(random));
+            System.arraycopy(v, 0, vectors, row * DIM, DIM);
+            for (int j = 0; j < PoseFeatureUtil.NUM_KEYPOINTS; j++) {
+                weights[row * PoseFeatureUtil.NUM_KEYPOINTS + j] = (float) random.nextDouble(0.5, 1.5);
+            }
+        }
+
+        // 打ち切りありは「上位 1% に入るかどうか」くらいの境界にする
+        float[] all = new float[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            all[row] = PoseFeatureIndex.squaredDistance(query, vectors, row * DIM, Float.POSITIVE_INFINITY);
+        }
+        Arrays.sort(all);
+        limit = earlyExit ? all[ROWS / 100] : Float.POSITIVE_INFINITY;
+
+        l2 = PoseFeatureIndex.ScanQuery.of(query, DistanceMetric.L2);
+        weighted = PoseFeatureIndex.ScanQuery.of(query, DistanceMetric.WEIGHTED);
+        mirror = PoseFeatureIndex.ScanQuery.of(query, DistanceMetric.MIRROR);
+        weightedMirror = PoseFeatureIndex.ScanQuery.of(query, DistanceMetric.WEIGHTED_MIRROR);
+        // 上半身だけ（頭・肩・肘・手首・腰）
+        partial = PoseFeatureIndex.ScanQuery.of(query, DistanceMetric.L2, (1 << 13) - 1);
+
+        ProductQuantizer pq = ProductQuantizer.build(FloatBuffer.wrap(vectors), ROWS, 11);
+        codes = new byte[ROWS * ProductQuantizer.SUBSPACES];
+        pq.copyCodes(0, ROWS, codes);
+        pqTable = pq.distanceTable(query);
+    }
+
+    private static float[] toFloats(double[] src) {
+        float[] out = new float[src.length];
+        for (int i = 0; i < src.length; i++) {
+            out[i] = (float) src[i];
+        }
+        return out;
+    }
+
+    /** 旧 euclideanDistance に当たる素の L2 */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float squaredDistance() {
+        float acc = 0f;
+        for (int row = 0; row < ROWS; row++) {
+            acc += PoseFeatureIndex.squaredDistance(query, vectors, row * DIM, limit);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float fusedL2() {
+        return fused(l2, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float fusedWeighted() {
+        return fused(weighted, weights);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float fusedMirror() {
+        return fused(mirror, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float fusedWeightedMirror() {
+        return fused(weightedMirror, weights);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float fusedPartial() {
+        return fused(partial, null);
+    }
+
+    /** mode=pq の非対称距離（表引き 17 回） */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float pqDistance() {
+        float acc = 0f;
+        for (int row = 0; row < ROWS; row++) {
+            acc += ProductQuantizer.distance(pqTable, codes, row * ProductQuantizer.SUBSPACES, limit);
+        }
+        return acc;
+    }
+
+    private float fused(PoseFeatureIndex.ScanQuery q, float[] w) {
+        float acc = 0f;
+        int joints = PoseFeatureUtil.NUM_KEYPOINTS;
+        for (int row = 0; row < ROWS; row++) {
+            acc += PoseFeatureIndex.fusedDistance(q, vectors, row * DIM, w, row * joints, limit);
+        }
+        return acc;
+    }
+}
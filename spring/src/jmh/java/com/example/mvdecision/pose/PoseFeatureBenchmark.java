@@ -0,0 +1,112 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.bench.SyntheticPoses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * クエリ 1 件あたりの前処理（正規化 → 文字列化 → パース）のベンチマーク。
+ * 入力は毎回違うポーズを順番に使う（同じ配列ばかりだと分岐予測やキャッシュで速く見えるため）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseFeatureBenchmark {
+
+    private static final int POOL = 1024;
+
+    private double[][][] keypoints;
+    private List<List<List<Double>>> keypointLists;
+    private final float[] flat = new float[PoseFeatureUtil.FEATURE_DIM];
+    private double[][][] normalized;
+    private String[] featureVectors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        keypoints = new double[POOL][][];
+        normalized = new double[POOL][][];
+        featureVectors = new String[POOL];
+        keypointLists = new ArrayList<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            keypoints[i] = SyntheticPoses.randomKeypoints(random);
+            List<List<Double>> list = new ArrayList<>();
+            for (double[] p : keypoints[i]) {
+                list.add(Arrays.asList(p[0], p[1]));
+            }
+            keypointLists.add(list);
+            normalized[i] = PoseFeatureUtil.normalizeKeypoints(keypoints[i]);
+            featureVectors[i] = PoseFeatureUtil.buildFeatureVector(normalized[i]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (POOL - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double[][] normalizeKeypoints() {
+        return PoseFeatureUtil.normalizeKeypoints(keypoints[nextIndex()]);
+    }
+
+    @Benchmark
+    public String buildFeatureVector() {
+        return PoseFeatureUtil.buildFeatureVector(normalized[nextIndex()]);
+    }
+
+    @Benchmark
+    public double[] parseFeatureVector() {
+        return PoseSearchService.parseFeatureVector(featureVectors[nextIndex()]);
+    }
+
+    /** /api/query/pose/feature → /api/search/by-feature の往復で毎回かかる分 */
+    @Benchmark
+    public double[] roundTrip() {
+        double[][] norm = PoseFeatureUtil.normalizeKeypoints(keypoints[nextIndex()]);
+        return PoseSearchService.parseFeatureVector(PoseFeatureUtil.buildFeatureVector(norm));
+    }
+
+    /** 以前の /api/query/pose/feature（List → double[][] → 正規化 → String.format → List） */
+    @Benchmark
+    public Object computeFeatureBoxed() {
+        List<List<Double>> kps = keypointLists.get(nextIndex());
+        double[][] norm = PoseFeatureUtil.normalizeKeypoints(PoseFeatureUtil.toArray(kps));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < norm.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.US, "%.6f", norm[i][0])).append(',')
+                    .append(String.format(Locale.US, "%.6f", norm[i][1]));
+        }
+        return new Object[] {PoseFeatureUtil.toList(norm), sb.toString()};
+    }
+
+    /** 今の /api/query/pose/feature（List から float[34] へ直接正規化 → Formatter なしで文字列化） */
+    @Benchmark
+    public Object computeFeatureFused() {
+        PoseFeatureUtil.normalizeInto(keypointLists.get(nextIndex()), PoseFeatureUtil.ALL_JOINTS, flat);
+        return new Object[] {PoseFeatureUtil.toPoints(flat), PoseFeatureUtil.buildFeatureVector(flat)};
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.bench.SyntheticPoses;
+import com.example.mvdecision.index.DistanceMetric;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.SearchFilter;
+import com.example.mvdecision.index.SearchMode;
+import com.example.mvdecision.index.SearchOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /api/search/by-feature の 1 リクエスト分（パース → 常駐インデックスの検索 → DTO 化）のベンチマーク。
+ * ライブラリの件数 size ごとに合成データでインデックスを作る（10M 件はヒープが数 GB 要る）。
+ * 結果キャッシュは切ってあるので、毎回インデックスを引く
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class PoseSearchBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"exact", "pq"})
+    public String mode;
+
+    @Param({"10"})
+    public int topK;
+
+    private PoseFeatureIndex index;
+    private PoseSearchService service;
+    private String[] featureVectors;
+    private double[][] queries;
+    private SearchFilter cutFilter;
+    private SearchOptions options;
+    private SearchOptions mirrorOptions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean pq = SearchMode.parse(mode) == SearchMode.PQ;
+        index = SyntheticPoses.buildIndex(size, pq, 1);
+        PoseSearchCache cache = new PoseSearchCache(false, 0, 0.001);
+        service = new PoseSearchService(SyntheticPoses.repository(), index, cache,
+                new PoseSearchMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP, cache));
+
+        SplittableRandom random = new SplittableRandom(2);
+        featureVectors = new String[QUERIES];
+        queries = new double[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = SyntheticPoses.randomFeature(random);
+            featureVectors[i] = PoseFeatureUtil.buildFeatureVector(unflatten(queries[i]));
+        }
+        // 全体の 1% 程度のカットに絞る
+        int cuts = Math.max(1, size / 500 / 100);
+        List<String> include = new ArrayList<>();
+        for (int c = 0; c < cuts; c++) {
+            include.add(SyntheticPoses.cutCode(c * 500 * 100));
+        }
+        cutFilter = SearchFilter.of(include, null, null, null);
+        options = SearchOptions.of(SearchMode.parse(mode));
+        mirrorOptions = new SearchOptions(options.mode(), null, null, null, DistanceMetric.MIRROR,
+                PoseFeatureUtil.ALL_JOINTS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        index.shutdown();
+    }
+
+    private static double[][] unflatten(double[] flat) {
+        double[][] out = new double[flat.length / 2][2];
+        for (int i = 0; i < out.length; i++) {
+            out[i][0] = flat[2 * i];
+            out[i][1] = flat[2 * i + 1];
+        }
+        return out;
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int nextIndex() {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    /** HTTP を除いた /api/search/by-feature 全体 */
+    @Benchmark
+    public PoseSearchByFeatureResponse searchByFeature(Cursor cursor) {
+        PoseSearchByFeatureRequest request = new PoseSearchByFeatureRequest();
+        request.setFeatureVector(featureVectors[cursor.nextIndex()]);
+        request.setTopK(topK);
+        request.setMode(mode);
+        return service.searchByFeature(request);
+    }
+
+    /** インデックスの検索だけ（パースと DTO 化の分を差し引くため） */
+    @Benchmark
+    public List<PoseFeatureIndex.Hit> indexSearch(Cursor cursor) {
+        return index.search(queries[cursor.nextIndex()], topK, options, null);
+    }
+
+    @Benchmark
+    public List<PoseFeatureIndex.Hit> indexSearchMirror(Cursor cursor) {
+        return index.search(queries[cursor.nextIndex()], topK, mirrorOptions, null);
+    }
+
+    /** cutCode で 1% 程度に絞った検索（パーティションの区間だけをスキャンする） */
+    @Benchmark
+    public List<PoseFeatureIndex.Hit> indexSearchFiltered(Cursor cursor) {
+        return index.search(queries[cursor.nextIndex()], topK, options.withFilter(cutFilter), null);
+    }
+}
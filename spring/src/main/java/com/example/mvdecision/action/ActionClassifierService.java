@@ -0,0 +1,240 @@
+package com.example.mvdecision.action;
+
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.PoseSequenceIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 骨格時系列の行動推定（proto_action_recognizer.py の build_prototypes / classify_action の Java 版）。
+ *
+ * 行動ごとの代表カット（app.action.prototypes、または PUT /api/query/action/prototypes/{action}）の
+ * フレーム列から動作特徴ベクトル（{@link MotionFeatures}）を作り、メモリに置いておく。
+ * 分類はクエリの特徴ベクトルと全プロトタイプのコサイン類似度を取り、行動ごとの最大値をスコアにする。
+ *
+ * カットのフレーム列は取り込み済みの PoseSample（{@link PoseSequenceIndex}）から取るので、
+ * インデックスの epoch が変わったら（取り込み・削除があったら）次の分類時に作り直す。
+ */
+@Service
+public class ActionClassifierService {
+
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final PoseSequenceIndex poseSequenceIndex;
+
+    /** 行動名 → 代表カットの cutCode（定義順） */
+    private final Map<String, List<String>> definitions = new LinkedHashMap<>();
+    private volatile long definitionVersion;
+
+    private volatile Prototypes prototypes;
+
+    public ActionClassifierService(PoseFeatureIndex poseFeatureIndex,
+                                   PoseSequenceIndex poseSequenceIndex,
+                                   @Value("${app.action.prototypes:}") String prototypeSpec) {
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.poseSequenceIndex = poseSequenceIndex;
+        parseDefinitions(prototypeSpec);
+    }
+
+    /**
+     * "run=C101,C102;walk=C110" 形式の設定を読む
+     */
+    private void parseDefinitions(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return;
+        }
+        for (String entry : spec.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("app.action.prototypes must be action=cut,cut;...: " + entry);
+            }
+            List<String> cuts = new ArrayList<>();
+            for (String cut : entry.substring(eq + 1).split(",")) {
+                if (!cut.isBlank()) {
+                    cuts.add(cut.trim());
+                }
+            }
+            definitions.put(entry.substring(0, eq).trim(), cuts);
+        }
+    }
+
+    /**
+     * 行動 action の代表カットを設定する（既にあれば置き換える）
+     */
+    public synchronized ActionPrototypeDto putPrototype(String action, List<String> cutCodes) {
+        if (action == null || action.isBlank()) {
+            throw new IllegalArgumentException("action is required");
+        }
+        if (cutCodes == null || cutCodes.isEmpty()) {
+            throw new IllegalArgumentException("cutCodes is required");
+        }
+        List<String> cuts = new ArrayList<>();
+        for (String cut : cutCodes) {
+            if (cut != null && !cut.isBlank()) {
+                cuts.add(cut.trim());
+            }
+        }
+        definitions.put(action, cuts);
+        definitionVersion++;
+        return toDto(action, prototypes());
+    }
+
+    public synchronized boolean removePrototype(String action) {
+        if (definitions.remove(action) == null) {
+            return false;
+        }
+        definitionVersion++;
+        return true;
+    }
+
+    public synchronized List<ActionPrototypeDto> listPrototypes() {
+        Prototypes p = prototypes();
+        List<ActionPrototypeDto> out = new ArrayList<>(p.actions.length);
+        for (String action : p.actions) {
+            out.add(toDto(action, p));
+        }
+        return out;
+    }
+
+    /**
+     * frames（T * FEATURE_DIM 個の float, フレームごとに正規化済み）の行動を推定する
+     *
+     * @throws IllegalStateException 行動が 1 つも定義されていないとき
+     */
+    public ActionClassifyResponse classify(float[] frames, int t) {
+        Prototypes p = prototypes();
+        if (p.actions.length == 0) {
+            throw new IllegalStateException("No action prototypes are defined");
+        }
+
+        float[] query = new float[MotionFeatures.DIM];
+        MotionFeatures.compute(frames, 0, t, query, 0);
+
+        // 行動ごとに最大の類似度（プロトタイプが 1 つも作れなかった行動は 0）
+        float[] best = new float[p.actions.length];
+        int[] bestPrototype = new int[p.actions.length];
+        Arrays.fill(bestPrototype, -1);
+        for (int i = 0; i < p.count(); i++) {
+            float sim = MotionFeatures.dot(query, 0, p.features, i * MotionFeatures.DIM);
+            int a = p.actionOf[i];
+            if (bestPrototype[a] < 0 || sim > best[a]) {
+                best[a] = sim;
+                bestPrototype[a] = i;
+            }
+        }
+
+        Map<String, Double> scores = new LinkedHashMap<>();
+        int bestAction = 0;
+        for (int a = 0; a < p.actions.length; a++) {
+            scores.put(p.actions[a], (double) best[a]);
+            if (best[a] > best[bestAction]) {
+                bestAction = a;
+            }
+        }
+
+        ActionClassifyResponse response = new ActionClassifyResponse();
+        response.setAction(p.actions[bestAction]);
+        response.setScores(scores);
+        int proto = bestPrototype[bestAction];
+        response.setMatchedCutCode(proto >= 0 ? p.cutOf[proto] : null);
+        response.setFrames(t);
+        return response;
+    }
+
+    /**
+     * 今の定義とインデックスに対応するプロトタイプ（古ければ作り直す）
+     */
+    private Prototypes prototypes() {
+        long epoch = poseFeatureIndex.epoch();
+        Prototypes p = this.prototypes;
+        if (p != null && p.epoch == epoch && p.version == definitionVersion) {
+            return p;
+        }
+        synchronized (this) {
+            p = this.prototypes;
+            if (p != null && p.epoch == epoch && p.version == definitionVersion) {
+                return p;
+            }
+            p = build(epoch);
+            this.prototypes = p;
+            return p;
+        }
+    }
+
+    /**
+     * 定義されたカットのフレーム列から特徴ベクトルを作る（build_prototypes 相当）。
+     * ライブラリに無い（まだ取り込まれていない）カットは飛ばす
+     */
+    private Prototypes build(long epoch) {
+        String[] actions = definitions.keySet().toArray(new String[0]);
+        List<float[]> frameLists = new ArrayList<>();
+        List<Integer> actionOf = new ArrayList<>();
+        List<String> cutOf = new ArrayList<>();
+        for (int a = 0; a < actions.length; a++) {
+            for (String cut : definitions.get(actions[a])) {
+                float[] frames = poseSequenceIndex.cutFrames(cut);
+                if (frames == null || frames.length == 0) {
+                    System.err.println("Action prototype cut not found: " + actions[a] + " / " + cut);
+                    continue;
+                }
+                frameLists.add(frames);
+                actionOf.add(a);
+                cutOf.add(cut);
+            }
+        }
+
+        int n = frameLists.size();
+        float[] features = new float[n * MotionFeatures.DIM];
+        int[] actionIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            float[] frames = frameLists.get(i);
+            MotionFeatures.compute(frames, 0, frames.length / PoseFeatureIndex.DIM, features, i * MotionFeatures.DIM);
+            actionIndex[i] = actionOf.get(i);
+        }
+        return new Prototypes(epoch, definitionVersion, actions, actionIndex, cutOf.toArray(new String[0]), features);
+    }
+
+    private ActionPrototypeDto toDto(String action, Prototypes p) {
+        ActionPrototypeDto dto = new ActionPrototypeDto();
+        dto.setAction(action);
+        dto.setCutCodes(new ArrayList<>(definitions.getOrDefault(action, List.of())));
+        List<String> built = new ArrayList<>();
+        for (int i = 0; i < p.count(); i++) {
+            if (action.equals(p.actions[p.actionOf[i]])) {
+                built.add(p.cutOf[i]);
+            }
+        }
+        dto.setBuiltCutCodes(built);
+        return dto;
+    }
+
+    /**
+     * ある時点のプロトタイプ一式。features[i * DIM ..] が i 番目のプロトタイプで、行動は actions[actionOf[i]]
+     */
+    private static final class Prototypes {
+        final long epoch;
+        final long version;
+        final String[] actions;
+        final int[] actionOf;
+        final String[] cutOf;
+        final float[] features;
+
+        Prototypes(long epoch, long version, String[] actions, int[] actionOf, String[] cutOf, float[] features) {
+            this.epoch = epoch;
+            this.version = version;
+            this.actions = actions;
+            this.actionOf = actionOf;
+            this.cutOf = cutOf;
+            this.features = features;
+        }
+
+        int count() {
+            return actionOf.length;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.mvdecision.action;
+
+import java.util.List;
+
+public class ActionClassifyRequest {
+
+    /**
+     * クエリの骨格時系列 (T, 17, 2)。フレームごとに [[x0,y0], ..., [x16,y16]]。
+     * 検出できなかった点は null でよい（前のフレームの値で埋める）
+     */
+    private List<List<List<Double>>> keypointSequence;
+
+    public List<List<List<Double>>> getKeypointSequence() {
+        return keypointSequence;
+    }
+
+    public void setKeypointSequence(List<List<List<Double>>> keypointSequence) {
+        this.keypointSequence = keypointSequence;
+    }
+}
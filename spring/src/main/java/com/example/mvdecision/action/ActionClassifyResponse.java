@@ -0,0 +1,50 @@
+package com.example.mvdecision.action;
+
+import java.util.Map;
+
+public class ActionClassifyResponse {
+
+    /** 最もスコアの高い行動名 */
+    private String action;
+
+    /** 行動ごとのスコア（プロトタイプとのコサイン類似度の最大値） */
+    private Map<String, Double> scores;
+
+    /** action のスコアを出したプロトタイプのカット */
+    private String matchedCutCode;
+
+    /** クエリのフレーム数 */
+    private int frames;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public Map<String, Double> getScores() {
+        return scores;
+    }
+
+    public void setScores(Map<String, Double> scores) {
+        this.scores = scores;
+    }
+
+    public String getMatchedCutCode() {
+        return matchedCutCode;
+    }
+
+    public void setMatchedCutCode(String matchedCutCode) {
+        this.matchedCutCode = matchedCutCode;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public void setFrames(int frames) {
+        this.frames = frames;
+    }
+}
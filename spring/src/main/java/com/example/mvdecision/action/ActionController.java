@@ -0,0 +1,79 @@
+package com.example.mvdecision.action;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/query/action")
+public class ActionController {
+
+    /** クエリのフレーム数の上限 */
+    private static final int MAX_QUERY_FRAMES = 1000;
+
+    private final ActionClassifierService actionClassifierService;
+
+    public ActionController(ActionClassifierService actionClassifierService) {
+        this.actionClassifierService = actionClassifierService;
+    }
+
+    /**
+     * 骨格時系列 (T, 17, 2) の行動を推定する
+     *
+     * 例:
+     * curl -X POST http://localhost:8081/api/query/action/classify \
+     *   -H "Content-Type: application/json" \
+     *   -d '{ "keypointSequence": [ [[x0,y0], ..., [x16,y16]], ... ] }'
+     */
+    @PostMapping("/classify")
+    public ActionClassifyResponse classify(@RequestBody ActionClassifyRequest request) {
+        List<List<List<Double>>> sequence = request.getKeypointSequence();
+        if (sequence == null || sequence.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "keypointSequence is required");
+        }
+        if (sequence.size() > MAX_QUERY_FRAMES) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Too many frames: " + sequence.size() + " (max " + MAX_QUERY_FRAMES + ")");
+        }
+        try {
+            float[] frames = PoseFeatureUtil.normalizeSequence(sequence);
+            return actionClassifierService.classify(frames, sequence.size());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 行動ごとの代表カットの一覧
+     */
+    @GetMapping("/prototypes")
+    public List<ActionPrototypeDto> prototypes() {
+        return actionClassifierService.listPrototypes();
+    }
+
+    /**
+     * 行動の代表カットを設定する（メモリ上のみ。再起動すると app.action.prototypes に戻る）
+     * 例: curl -X PUT http://localhost:8081/api/query/action/prototypes/run \
+     *       -H "Content-Type: application/json" -d '{ "cutCodes": ["C101", "C102"] }'
+     */
+    @PutMapping("/prototypes/{action}")
+    public ActionPrototypeDto putPrototype(@PathVariable String action, @RequestBody ActionPrototypeRequest request) {
+        try {
+            return actionClassifierService.putPrototype(action, request.getCutCodes());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @DeleteMapping("/prototypes/{action}")
+    public void deletePrototype(@PathVariable String action) {
+        if (!actionClassifierService.removePrototype(action)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Action not found: " + action);
+        }
+    }
+}
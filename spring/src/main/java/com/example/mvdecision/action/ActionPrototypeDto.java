@@ -0,0 +1,38 @@
+package com.example.mvdecision.action;
+
+import java.util.List;
+
+public class ActionPrototypeDto {
+
+    private String action;
+
+    /** 代表カットとして指定された cutCode */
+    private List<String> cutCodes;
+
+    /** そのうち取り込み済みで、プロトタイプを作れた cutCode */
+    private List<String> builtCutCodes;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public List<String> getCutCodes() {
+        return cutCodes;
+    }
+
+    public void setCutCodes(List<String> cutCodes) {
+        this.cutCodes = cutCodes;
+    }
+
+    public List<String> getBuiltCutCodes() {
+        return builtCutCodes;
+    }
+
+    public void setBuiltCutCodes(List<String> builtCutCodes) {
+        this.builtCutCodes = builtCutCodes;
+    }
+}
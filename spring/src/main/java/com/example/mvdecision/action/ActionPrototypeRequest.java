@@ -0,0 +1,17 @@
+package com.example.mvdecision.action;
+
+import java.util.List;
+
+public class ActionPrototypeRequest {
+
+    /** 代表カットの cutCode（例: ["C101", "C102"]） */
+    private List<String> cutCodes;
+
+    public List<String> getCutCodes() {
+        return cutCodes;
+    }
+
+    public void setCutCodes(List<String> cutCodes) {
+        this.cutCodes = cutCodes;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.mvdecision.action;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+
+/**
+ * 骨格時系列から固定長の動作特徴ベクトルを作る（proto_action_recognizer.py の
+ * preprocess_skeleton_sequence + compute_motion_features と同じもの）。
+ *
+ * 入力は T フレーム分の x0,y0,...,x16,y16（FEATURE_DIM 個ずつ）。出力は
+ *   位置の mean / std, 速度（フレーム差分）の mean / std
+ * を関節・座標ごとに並べた DIM = 17 * 2 * 4 = 136 次元で、最後に L2 正規化する。
+ *
+ * numpy 版のように (T, 17, 2) の中間配列を作らず、座標ごとに 1 回フレームを走査して
+ * 合計と二乗和だけを持つ（ヒープ確保なし）。
+ * 元の実装は腰中心に平行移動してから「平均身長」で割っているが、
+ * 全要素を同じ値で割っても最後の L2 正規化で消えるので、身長の計算は省く。
+ */
+final class MotionFeatures {
+
+    private static final int FRAME_DIM = PoseFeatureUtil.FEATURE_DIM;
+
+    /** 出力の次元数 */
+    static final int DIM = FRAME_DIM * 4;
+
+    // 腰（COCO 11: left_hip, 12: right_hip）の x 座標の位置
+    private static final int LEFT_HIP_X = 11 * 2;
+    private static final int RIGHT_HIP_X = 12 * 2;
+
+    private MotionFeatures() {
+    }
+
+    /**
+     * frames[offset..offset + t * FRAME_DIM) の特徴ベクトルを out[outOffset..outOffset + DIM) に書く。
+     * 動きも位置の広がりも無い（ノルムがほぼ 0）ときは正規化せずにそのまま
+     */
+    static void compute(float[] frames, int offset, int t, float[] out, int outOffset) {
+        for (int d = 0; d < FRAME_DIM; d++) {
+            int axis = d & 1;
+            double sum = 0;
+            double sumSq = 0;
+            double velSum = 0;
+            double velSumSq = 0;
+            double prev = 0;
+            for (int f = 0, base = offset; f < t; f++, base += FRAME_DIM) {
+                // root（両腰の中点）からの相対位置
+                double root = (frames[base + LEFT_HIP_X + axis] + frames[base + RIGHT_HIP_X + axis]) * 0.5;
+                double x = frames[base + d] - root;
+                sum += x;
+                sumSq += x * x;
+                if (f > 0) {
+                    double v = x - prev;
+                    velSum += v;
+                    velSumSq += v * v;
+                }
+                prev = x;
+            }
+            double mean = sum / t;
+            out[outOffset + d] = (float) mean;
+            out[outOffset + FRAME_DIM + d] = (float) Math.sqrt(Math.max(0, sumSq / t - mean * mean));
+            if (t > 1) {
+                double velMean = velSum / (t - 1);
+                out[outOffset + 2 * FRAME_DIM + d] = (float) velMean;
+                out[outOffset + 3 * FRAME_DIM + d] =
+                        (float) Math.sqrt(Math.max(0, velSumSq / (t - 1) - velMean * velMean));
+            } else {
+                out[outOffset + 2 * FRAME_DIM + d] = 0f;
+                out[outOffset + 3 * FRAME_DIM + d] = 0f;
+            }
+        }
+
+        double norm = 0;
+        for (int i = 0; i < DIM; i++) {
+            float v = out[outOffset + i];
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 1e-8) {
+            float inv = (float) (1.0 / norm);
+            for (int i = 0; i < DIM; i++) {
+                out[outOffset + i] *= inv;
+            }
+        }
+    }
+
+    /**
+     * a[aOffset..) と b[bOffset..) の内積（どちらも L2 正規化済みなのでコサイン類似度）
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        float sum = 0f;
+        for (int i = 0; i < DIM; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
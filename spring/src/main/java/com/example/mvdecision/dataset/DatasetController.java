@@ -1,33 +1,69 @@
 // src/main/java/com/example/mvdecision/dataset/DatasetController.java
 package com.example.mvdecision.dataset;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/dataset")
 public class DatasetController {
 
-    private final DatasetImportService datasetImportService;
+    private final DatasetImportJobService datasetImportJobService;
+    private final DatasetDeletionService datasetDeletionService;
 
     // コンストラクタインジェクション
-    public DatasetController(DatasetImportService datasetImportService) {
-        this.datasetImportService = datasetImportService;
+    public DatasetController(DatasetImportJobService datasetImportJobService,
+                             DatasetDeletionService datasetDeletionService) {
+        this.datasetImportJobService = datasetImportJobService;
+        this.datasetDeletionService = datasetDeletionService;
     }
 
+    /**
+     * zip を受け取って取り込みジョブを登録し、すぐにジョブ情報（id 付き）を返す。
+     * 進捗は GET /api/dataset/jobs/{id} で確認する。
+     */
     @PostMapping("/uploadZip")
-    public ResponseEntity<String> upload(@RequestPart("file") MultipartFile file) {
+    public ResponseEntity<DatasetImportJob> upload(@RequestPart("file") MultipartFile file) {
         try {
-            // ★ ここは「呼ぶだけ」：返り値は void なので代入しない
-            datasetImportService.importZip(file);
-
-            return ResponseEntity.ok("Upload & import OK: " + file.getOriginalFilename());
+            DatasetImportJob job = datasetImportJobService.submit(file);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Too many imports in progress, retry later", e);
         } catch (Exception e) {
             e.printStackTrace();
-            return ResponseEntity
-                    .badRequest()
-                    .body("Import failed: " + e.getMessage());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Import failed: " + e.getMessage(), e);
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public DatasetImportJob job(@PathVariable String id) {
+        return datasetImportJobService.find(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Import job not found: " + id));
+    }
+
+    @GetMapping("/jobs")
+    public List<DatasetImportJob> jobs() {
+        return datasetImportJobService.list();
+    }
+
+    /**
+     * datasetName（zip 名）/ cutCode で取り込み済みサンプルを削除する。
+     * 例: DELETE /api/dataset?datasetName=B.zip&cutCode=C392
+     */
+    @DeleteMapping
+    public DatasetDeleteResult delete(@RequestParam(required = false) String datasetName,
+                                      @RequestParam(required = false) String cutCode) {
+        try {
+            return datasetDeletionService.delete(datasetName, cutCode);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
         }
     }
 }
@@ -0,0 +1,53 @@
+package com.example.mvdecision.dataset;
+
+/**
+ * DELETE /api/dataset の結果
+ */
+public class DatasetDeleteResult {
+
+    private String datasetName;
+    private String cutCode;
+    private int deletedRows;
+    private int removedFromIndex;
+    private long indexEpoch;
+
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    public void setDatasetName(String datasetName) {
+        this.datasetName = datasetName;
+    }
+
+    public String getCutCode() {
+        return cutCode;
+    }
+
+    public void setCutCode(String cutCode) {
+        this.cutCode = cutCode;
+    }
+
+    public int getDeletedRows() {
+        return deletedRows;
+    }
+
+    public void setDeletedRows(int deletedRows) {
+        this.deletedRows = deletedRows;
+    }
+
+    public int getRemovedFromIndex() {
+        return removedFromIndex;
+    }
+
+    public void setRemovedFromIndex(int removedFromIndex) {
+        this.removedFromIndex = removedFromIndex;
+    }
+
+    public long getIndexEpoch() {
+        return indexEpoch;
+    }
+
+    public void setIndexEpoch(long indexEpoch) {
+        this.indexEpoch = indexEpoch;
+    }
+}
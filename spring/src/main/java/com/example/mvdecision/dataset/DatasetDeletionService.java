@@ -0,0 +1,66 @@
+package com.example.mvdecision.dataset;
+
+import com.example.mvdecision.image.ImageMetadataCache;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import org.springframework.stereotype.Service;
+
+/**
+ * 取り込み済みのサンプルを datasetName / cutCode 単位で削除するサービス。
+ *
+ * DB の行を消したあと、インデックスには該当行のトゥームストーンを立てるだけにする
+ * （全件の読み直しはしない）。画像ファイルはディスクに残す。
+ * 実行中の取り込みとは {@link DatasetImportService#runDeletion} で順番を揃える。
+ */
+@Service
+public class DatasetDeletionService {
+
+    private final PoseSampleRepository poseSampleRepository;
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final ImageMetadataCache imageMetadataCache;
+    private final DatasetImportService datasetImportService;
+
+    public DatasetDeletionService(PoseSampleRepository poseSampleRepository,
+                                  PoseFeatureIndex poseFeatureIndex,
+                                  ImageMetadataCache imageMetadataCache,
+                                  DatasetImportService datasetImportService) {
+        this.poseSampleRepository = poseSampleRepository;
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.imageMetadataCache = imageMetadataCache;
+        this.datasetImportService = datasetImportService;
+    }
+
+    /**
+     * DB の行を削除し、インデックスからも外す
+     * @throws IllegalArgumentException datasetName と cutCode が両方とも空のとき
+     */
+    public DatasetDeleteResult delete(String datasetName, String cutCode) {
+        String ds = (datasetName == null || datasetName.isBlank()) ? null : datasetName;
+        String cut = (cutCode == null || cutCode.isBlank()) ? null : cutCode;
+        if (ds == null && cut == null) {
+            throw new IllegalArgumentException("datasetName or cutCode is required");
+        }
+
+        // 実行中の取り込みがコミット済みでまだインデックスに入れていない行も、追記されないようにする
+        DatasetDeleteResult result = datasetImportService.runDeletion(ds, cut, () -> deleteRows(ds, cut));
+        // 削除した id の画像を返さないように
+        imageMetadataCache.invalidateAll();
+        System.out.println("Deleted samples: datasetName=" + ds + ", cutCode=" + cut
+                + ", rows=" + result.getDeletedRows() + ", index=" + result.getRemovedFromIndex());
+        return result;
+    }
+
+    private DatasetDeleteResult deleteRows(String ds, String cut) {
+        int deletedRows = poseSampleRepository.deleteByDatasetAndCut(ds, cut);
+        // DB のコミット後に検索対象から外す
+        int removedFromIndex = poseFeatureIndex.delete(ds, cut);
+
+        DatasetDeleteResult result = new DatasetDeleteResult();
+        result.setDatasetName(ds);
+        result.setCutCode(cut);
+        result.setDeletedRows(deletedRows);
+        result.setRemovedFromIndex(removedFromIndex);
+        result.setIndexEpoch(poseFeatureIndex.epoch());
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.mvdecision.dataset;
+
+import java.time.Instant;
+
+/**
+ * 非同期で実行される zip 取り込み 1 件分の状態。
+ * GET /api/dataset/jobs/{id} でそのまま JSON として返す
+ */
+public class DatasetImportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    private final String id;
+    private final String fileName;
+    private final Instant submittedAt = Instant.now();
+    private final ImportProgress progress = new ImportProgress();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    DatasetImportJob(String id, String fileName) {
+        this.id = id;
+        this.fileName = fileName;
+    }
+
+    void markRunning() {
+        this.startedAt = Instant.now();
+        this.status = Status.RUNNING;
+    }
+
+    void markSucceeded() {
+        this.finishedAt = Instant.now();
+        this.status = Status.SUCCEEDED;
+    }
+
+    void markFailed(String error) {
+        this.finishedAt = Instant.now();
+        this.error = error;
+        this.status = Status.FAILED;
+    }
+
+    boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    ImportProgress progress() {
+        return progress;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getEntriesProcessed() {
+        return progress.getEntriesRead();
+    }
+
+    public long getBytesRead() {
+        return progress.getBytesRead();
+    }
+
+    public long getSamplesInserted() {
+        return progress.getSamplesInserted();
+    }
+
+    public long getSkippedJson() {
+        return progress.getSkippedJson();
+    }
+
+    public long getBrokenJson() {
+        return progress.getBrokenJson();
+    }
+
+    public long getImagesWritten() {
+        return progress.getImagesWritten();
+    }
+
+    /** 実行開始からの経過ミリ秒（未開始なら 0） */
+    public long getElapsedMillis() {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0;
+        }
+        Instant end = (finishedAt != null) ? finishedAt : Instant.now();
+        return end.toEpochMilli() - start.toEpochMilli();
+    }
+
+    /** 1 秒あたりに処理したエントリ数 */
+    public double getEntriesPerSecond() {
+        long ms = getElapsedMillis();
+        return (ms > 0) ? getEntriesProcessed() * 1000.0 / ms : 0.0;
+    }
+
+    /** 1 秒あたりに登録したサンプル数 */
+    public double getSamplesPerSecond() {
+        long ms = getElapsedMillis();
+        return (ms > 0) ? getSamplesInserted() * 1000.0 / ms : 0.0;
+    }
+}
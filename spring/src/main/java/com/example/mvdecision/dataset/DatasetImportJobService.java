@@ -0,0 +1,141 @@
+package com.example.mvdecision.dataset;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * zip 取り込みをジョブとして非同期に実行するサービス。
+ *
+ * 同時に走る取り込みは app.import.max-concurrent 件まで、待ち行列は app.import.queue-capacity 件まで。
+ * それを超えたアップロードは受け付けない（MySQL やディスクを詰まらせないため）。
+ */
+@Service
+public class DatasetImportJobService {
+
+    /** 終わったジョブをいくつまで覚えておくか */
+    private static final int MAX_FINISHED_JOBS = 100;
+
+    private final DatasetImportService datasetImportService;
+    private final DatasetImportMetrics importMetrics;
+    private final ThreadPoolExecutor jobExecutor;
+    private final Map<String, DatasetImportJob> jobs = new ConcurrentHashMap<>();
+
+    public DatasetImportJobService(DatasetImportService datasetImportService,
+                                   DatasetImportMetrics importMetrics,
+                                   @Value("${app.import.max-concurrent:2}") int maxConcurrent,
+                                   @Value("${app.import.queue-capacity:16}") int queueCapacity) {
+        this.datasetImportService = datasetImportService;
+        this.importMetrics = importMetrics;
+        AtomicInteger counter = new AtomicInteger();
+        this.jobExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "dataset-import-job-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * アップロードされた zip を一時ファイルに退避し、取り込みジョブとして登録する。
+     * （MultipartFile はリクエストが終わると消えるので、先にコピーしておく必要がある）
+     *
+     * @throws RejectedExecutionException 実行中・待ち行列がいっぱいのとき
+     */
+    public DatasetImportJob submit(MultipartFile zipFile) throws IOException {
+        String zipName = StringUtils.cleanPath(Objects.requireNonNull(zipFile.getOriginalFilename()));
+        Path tmp = Files.createTempFile("mvdecision-upload-", ".zip");
+        try {
+            zipFile.transferTo(tmp);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+
+        DatasetImportJob job = new DatasetImportJob(UUID.randomUUID().toString(), zipName);
+        jobs.put(job.getId(), job);
+        try {
+            jobExecutor.execute(() -> run(job, tmp));
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        evictFinishedJobs();
+        return job;
+    }
+
+    public Optional<DatasetImportJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * 登録順（新しい順）のジョブ一覧
+     */
+    public List<DatasetImportJob> list() {
+        List<DatasetImportJob> out = new ArrayList<>(jobs.values());
+        out.sort(Comparator.comparing(DatasetImportJob::getSubmittedAt).reversed());
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    private void run(DatasetImportJob job, Path zipPath) {
+        job.markRunning();
+        try {
+            importMetrics.observeImport(job.getFileName(), () -> {
+                try (InputStream in = Files.newInputStream(zipPath)) {
+                    datasetImportService.importZip(job.getFileName(), in, job.progress());
+                }
+            });
+            job.markSucceeded();
+        } catch (Exception e) {
+            System.err.println("Import failed: " + job.getFileName());
+            e.printStackTrace();
+            job.markFailed(e.getMessage());
+        } finally {
+            try { Files.deleteIfExists(zipPath); } catch (IOException ignore) {}
+        }
+    }
+
+    private void evictFinishedJobs() {
+        List<DatasetImportJob> finished = new ArrayList<>();
+        for (DatasetImportJob job : jobs.values()) {
+            if (job.isFinished()) {
+                finished.add(job);
+            }
+        }
+        if (finished.size() <= MAX_FINISHED_JOBS) {
+            return;
+        }
+        finished.sort(Comparator.comparing(DatasetImportJob::getSubmittedAt));
+        for (int i = 0; i < finished.size() - MAX_FINISHED_JOBS; i++) {
+            jobs.remove(finished.get(i).getId());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.mvdecision.dataset;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * zip 取り込みのメトリクス（GET /actuator/prometheus）。
+ * {@link ImportProgress} はジョブ 1 回分の進捗、こちらは起動からの累計（rate() で件数/秒になる）。
+ *
+ * 取り込み 1 回を観測 dataset.import で囲み（失敗すれば error タグつき）、
+ * その中の JSON 1 件のパース・INSERT バッチ 1 回・インデックスへの追記の時間をタイマーで取る。
+ * これで遅い取り込みがパース・DB・インデックスのどこで詰まっているかを見分ける
+ */
+@Component
+public class DatasetImportMetrics {
+
+    private final ObservationRegistry observations;
+
+    private final Counter jsonEntries;
+    private final Counter imageEntries;
+    private final Counter bytesRead;
+    private final Counter samplesInserted;
+    private final Counter skippedNoKeypoints;
+    private final Counter skippedBroken;
+    private final Counter imagesWritten;
+    private final Timer jsonParse;
+    private final Timer dbBatch;
+    private final Timer indexAppend;
+
+    public DatasetImportMetrics(MeterRegistry registry, ObservationRegistry observations) {
+        this.observations = observations;
+        this.jsonEntries = Counter.builder("dataset.import.entries").tag("type", "json")
+                .description("zip から読んだエントリ数").register(registry);
+        this.imageEntries = Counter.builder("dataset.import.entries").tag("type", "image")
+                .description("zip から読んだエントリ数").register(registry);
+        this.bytesRead = Counter.builder("dataset.import.bytes").baseUnit("bytes")
+                .description("zip から読んだ（展開後の）バイト数").register(registry);
+        this.samplesInserted = Counter.builder("dataset.import.samples")
+                .description("DB に登録したサンプル数").register(registry);
+        this.skippedNoKeypoints = Counter.builder("dataset.import.json.skipped").tag("reason", "no_keypoints")
+                .description("登録しなかった JSON の数").register(registry);
+        this.skippedBroken = Counter.builder("dataset.import.json.skipped").tag("reason", "broken")
+                .description("登録しなかった JSON の数").register(registry);
+        this.imagesWritten = Counter.builder("dataset.import.images")
+                .description("保存した画像の数").register(registry);
+        this.jsonParse = Timer.builder("dataset.import.json.parse")
+                .description("JSON 1 件のパース・正規化・エンコード").register(registry);
+        this.dbBatch = Timer.builder("dataset.import.db.batch")
+                .description("INSERT バッチ 1 回（最大 BATCH_SIZE 件）").register(registry);
+        this.indexAppend = Timer.builder("dataset.import.index.append")
+                .description("取り込んだ行の常駐インデックスへの追記").register(registry);
+    }
+
+    /**
+     * 取り込み 1 回分を観測で囲んで実行する（例外は観測にエラーとして残してから投げ直す）
+     */
+    void observeImport(String zipName, Observation.CheckedRunnable<Exception> body) throws Exception {
+        Observation.createNotStarted("dataset.import", observations)
+                .highCardinalityKeyValue("zip", zipName)
+                .observeChecked(body);
+    }
+
+    void entryRead(boolean json, long bytes) {
+        (json ? jsonEntries : imageEntries).increment();
+        bytesRead.increment(bytes);
+    }
+
+    void skippedNoKeypoints() {
+        skippedNoKeypoints.increment();
+    }
+
+    void skippedBroken() {
+        skippedBroken.increment();
+    }
+
+    void imageWritten() {
+        imagesWritten.increment();
+    }
+
+    void jsonParsed(long nanos) {
+        jsonParse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void batchSaved(int samples, long nanos) {
+        samplesInserted.increment(samples);
+        dbBatch.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void indexAppended(long nanos) {
+        indexAppend.record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -1,14 +1,20 @@
 package com.example.mvdecision.dataset;
 
+import com.example.mvdecision.image.ImageHashes;
+import com.example.mvdecision.image.ImageMetadataCache;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.VectorBlockBuilder;
+import com.example.mvdecision.pose.CutCodes;
+import com.example.mvdecision.pose.PoseImageEtagService;
 import com.example.mvdecision.pose.PoseSample;
-import com.example.mvdecision.pose.PoseSampleRepository;
+import com.example.mvdecision.pose.PoseSampleBatchInserter;
 import com.example.mvdecision.pose.PoseFeatureUtil;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
-import org.springframework.util.StringUtils;
+import org.springframework.util.FileSystemUtils;
 import java.util.Map;
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,34 +22,70 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 @Service
 public class DatasetImportService {
 
-    private final PoseSampleRepository poseSampleRepository;
+    private final PoseSampleBatchInserter poseSampleBatchInserter;
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final PoseImageEtagService poseImageEtagService;
+    private final ImageMetadataCache imageMetadataCache;
+    private final DatasetImportMetrics importMetrics;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     // ★ ここを String → Path にして、デフォルトの保存ルートを固定
     //   これで常に data/datasets 配下に保存されます
     private final Path datasetRoot = Paths.get("data", "datasets");
 
-    private static final Pattern CUT_CODE_PATTERN = Pattern.compile("C\\d{3,4}");
+    /** 1 回の INSERT バッチ（1 トランザクション）あたりの件数 */
+    private static final int BATCH_SIZE = 500;
 
-    private String extractCutCodeFromSourcePath(String sourceImagePath) {
-        if (sourceImagePath == null) return null;
-        Matcher m = CUT_CODE_PATTERN.matcher(sourceImagePath);
-        return m.find() ? m.group() : null; // 例: "C392"
+    /** image_etag を書き込むときの 1 トランザクションあたりの行数 */
+    private static final int ETAG_CHUNK = 500;
+
+    // JSON パースと画像書き込み用のワーカー。キューが溢れたら読み込みスレッド自身が処理する（背圧）
+    private final ExecutorService importWorkers = newBoundedPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), "dataset-import-");
+
+    /** 実行中の取り込みの DB 書き込みスレッド（インデックスへの追記前の行を削除から外すため） */
+    private final Set<BatchWriter> activeWriters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * INSERT バッチ・インデックスへの追記（read）と削除（write）を重ならないようにする。
+     * 取り込み同士は並行してよい
+     */
+    private final ReadWriteLock deletionLock = new ReentrantReadWriteLock();
+
+    private static ExecutorService newBoundedPool(int threads, String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4),
+                r -> {
+                    Thread t = new Thread(r, namePrefix + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     private String zipBaseName(String zipFileName) {
@@ -53,104 +95,111 @@ public class DatasetImportService {
     }
 
     @Autowired
-    public DatasetImportService(PoseSampleRepository poseSampleRepository) throws IOException {
-        this.poseSampleRepository = poseSampleRepository;
+    public DatasetImportService(PoseSampleBatchInserter poseSampleBatchInserter,
+                                PoseFeatureIndex poseFeatureIndex,
+                                PoseImageEtagService poseImageEtagService,
+                                ImageMetadataCache imageMetadataCache,
+                                DatasetImportMetrics importMetrics) throws IOException {
+        this.poseSampleBatchInserter = poseSampleBatchInserter;
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.poseImageEtagService = poseImageEtagService;
+        this.imageMetadataCache = imageMetadataCache;
+        this.importMetrics = importMetrics;
         // ★ ここで data/datasets を必ず作っておく
         Files.createDirectories(datasetRoot);
     }
 
     /**
-     * フロントから受け取った zip をパースして DB に保存。
-     * 画像は data/datasets/{cutCode}_{zipBase}/ に保存し、そのパスを image_path に入れる。
+     * zip をパースして DB に保存する（{@link DatasetImportJobService} のワーカーから呼ばれる）。
+     * 画像は data/datasets/{cutCode}/{zipBase}/ に保存し、そのパスを image_path に入れる。
+     *
+     * zip はストリームで 1 回だけ読む。
+     *
+     * パイプライン:
+     *  1. 呼び出し元スレッド: zip エントリを順に読む
+     *  2. importWorkers: JSON のパース + 正規化 / 画像の一時保存（並列）
+     *  3. DB 書き込みスレッド: PoseSample を BATCH_SIZE 件ずつ JDBC バッチで INSERT
+     *     （保存できた行は最後にインデックスへ追記する。全件の読み直しはしない）
+     * 画像の保存先（cutCode）は対応する JSON を読むまで分からないので、
+     * 一旦ステージングディレクトリに書き、最後に最終保存先へ移動する。
+     * 画像の SHA-256（配信時の ETag）は一時保存のついでに計算し、移動後に対応するサンプルへ書き込む。
      */
-    public void importZip(MultipartFile zipFile) throws IOException {
-        String zipName = StringUtils.cleanPath(Objects.requireNonNull(zipFile.getOriginalFilename()));
+    public void importZip(String zipName, InputStream zipStream, ImportProgress progress) throws IOException {
         String zipBase = zipBaseName(zipName);
         if (zipBase == null || zipBase.isBlank()) zipBase = "unknown";
-    
-        // 1) アップロードを一時ファイルへ
-        Path tmp = Files.createTempFile("mvdecision-upload-", ".zip");
-        zipFile.transferTo(tmp.toFile());
-    
+
         // 画像ファイル名 -> 最終保存先パス の対応を貯める
-        Map<String, Path> imageDestMap = new HashMap<>();
-    
-        try (ZipFile zf = new ZipFile(tmp.toFile())) {
-        
-            // ---------- パス1：JSON だけ読む ----------
-            Enumeration<? extends ZipEntry> entries1 = zf.entries();
-            while (entries1.hasMoreElements()) {
-                ZipEntry e = entries1.nextElement();
-                if (e.isDirectory()) continue;
-            
-                String entryName = e.getName();
-                String fileNameOnly = Paths.get(entryName).getFileName().toString();
-                if (!fileNameOnly.toLowerCase().endsWith(".json")) continue;           // JSON 以外スキップ
-                if (entryName.startsWith("__MACOSX/")) continue;                        // mac のメタは無視
-            
-                try (InputStream in = zf.getInputStream(e)) {
-                    String jsonText = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-                    JsonNode root = objectMapper.readTree(jsonText);
-                
-                    // 元のフルパス（例: .../C392/B/B001.png）から C*** を抽出
-                    String sourceImagePath = null;
-                    JsonNode node = root.get("image_path");
-                    if (node != null && node.isTextual()) sourceImagePath = node.asText();
-                    String cutCode = extractCutCodeFromSourcePath(sourceImagePath);
-                    if (cutCode == null) cutCode = "unknown";
-                
-                    // 保存先ディレクトリ: data/datasets/C392_B
-                    Path datasetDir = datasetRoot.resolve(cutCode).resolve(zipBase);
-                    Files.createDirectories(datasetDir);
-                
-                    // 対応する画像ファイル名（B001.png など）
-                    String imageFileName = guessImageFileNameFromJsonOrEntry(root, entryName);
-                    Path imagePath = datasetDir.resolve(imageFileName);
-                
-                    // === 17点を取り出し → 正規化 → 特徴量 ===
-                    JsonNode persons = root.path("persons");
-                    if (!persons.isArray() || persons.isEmpty()) continue;
-                    JsonNode best = pickBestPerson(persons);
-                    if (best == null) continue;
-                    JsonNode kps = best.path("keypoints");
-                    if (!kps.isArray() || kps.size() == 0) continue;
-                
-                    double[][] pts17 = extract17Keypoints(kps);
-                    double[][] norm = PoseFeatureUtil.normalizeKeypoints(pts17);
-                    String featureVector = PoseFeatureUtil.buildFeatureVector(norm);
-                    String normalizedJson = objectMapper.writeValueAsString(norm);
-                
-                    // DB 登録
-                    PoseSample sample = new PoseSample();
-                    sample.setDatasetName(zipName);
-                    sample.setImageFileName(imageFileName);
-                    sample.setImagePath(imagePath.toString());   // アプリ内の配置先
-                    sample.setSourceImagePath(sourceImagePath);  // 元データのフルパス
-                    sample.setRawJson(jsonText);
-                    sample.setNormalizedKeypointsJson(normalizedJson);
-                    sample.setFeatureVector(featureVector);
-                    poseSampleRepository.save(sample);
-                
-                    // 画像の最終保存先を覚えておく
-                    imageDestMap.put(imageFileName.toLowerCase(), imagePath);
-                } catch (Exception ex) {
-                    System.err.println("Skip broken JSON: " + fileNameOnly);
-                    ex.printStackTrace();
+        Map<String, Path> imageDestMap = new ConcurrentHashMap<>();
+        // 画像ファイル名 -> ステージングに書いたファイル（同名なら zip で後ろにあった方を採用）
+        Map<String, StagedImage> stagedImages = new ConcurrentHashMap<>();
+        Path stagingDir = Files.createDirectories(
+                datasetRoot.resolve(".staging").resolve(UUID.randomUUID().toString()));
+
+        BatchWriter writer = new BatchWriter(zipName, progress);
+        activeWriters.add(writer);
+        writer.start();
+
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            try (ZipInputStream zis = new ZipInputStream(zipStream)) {
+                ZipEntry e;
+                int seq = 0;
+                String base = zipBase;
+                while ((e = zis.getNextEntry()) != null) {
+                    if (e.isDirectory()) continue;
+
+                    String entryName = e.getName();
+                    if (entryName.startsWith("__MACOSX/")) continue;                        // mac のメタは無視
+                    String fileNameOnly = Paths.get(entryName).getFileName().toString();
+                    boolean isJson = fileNameOnly.toLowerCase().endsWith(".json");
+                    boolean isImage = isImageFile(fileNameOnly);
+                    if (!isJson && !isImage) continue;
+
+                    byte[] bytes = zis.readAllBytes();
+                    progress.entriesRead.incrementAndGet();
+                    progress.bytesRead.addAndGet(bytes.length);
+                    importMetrics.entryRead(isJson, bytes.length);
+
+                    if (isJson) {
+                        tasks.add(importWorkers.submit(() ->
+                                parseSample(zipName, base, entryName, fileNameOnly, bytes, imageDestMap, writer, progress)));
+                    } else {
+                        int order = seq++;
+                        tasks.add(importWorkers.submit(() -> {
+                            stageImage(stagingDir, order, fileNameOnly, bytes, stagedImages);
+                            return null;
+                        }));
+                    }
                 }
             }
-        
-            // ---------- パス2：画像だけコピー ----------
-            Enumeration<? extends ZipEntry> entries2 = zf.entries();
-            while (entries2.hasMoreElements()) {
-                ZipEntry e = entries2.nextElement();
-                if (e.isDirectory()) continue;
-            
-                String entryName = e.getName();
-                String fileNameOnly = Paths.get(entryName).getFileName().toString();
-                if (entryName.startsWith("__MACOSX/")) continue;
-                if (!isImageFile(fileNameOnly)) continue;  // png/jpg/jpeg 以外は無視
-            
-                Path dest = imageDestMap.get(fileNameOnly.toLowerCase());
+
+            // パース・画像の一時保存がすべて終わるまで待つ
+            for (Future<?> task : tasks) {
+                waitFor(task);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // 途中で失敗したら残りのタスクは止める（DB 書き込み待ちで詰まらないように）
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            FileSystemUtils.deleteRecursively(stagingDir);
+            // 書き込みスレッドは止めるが、そこでの失敗は元の例外に添えるだけにする（原因を上書きしない）
+            try {
+                writer.finish();
+            } catch (IOException | RuntimeException finishEx) {
+                ex.addSuppressed(finishEx);
+            }
+            throw ex;
+        }
+        writer.finish();
+
+        // 画像パス -> ETag（DB に書き込む分）
+        Map<String, String> etagByPath = new HashMap<>();
+        try {
+            // ステージングから最終保存先へ移動
+            for (Map.Entry<String, StagedImage> entry : stagedImages.entrySet()) {
+                Path dest = imageDestMap.get(entry.getKey());
+                String fileNameOnly = entry.getValue().fileName();
                 if (dest == null) {
                     // 対応する JSON が無かった画像は unknown に避難
                     Path fallbackDir = datasetRoot.resolve("unknown_" + zipBase);
@@ -158,12 +207,267 @@ public class DatasetImportService {
                     dest = fallbackDir.resolve(fileNameOnly);
                 }
                 Files.createDirectories(dest.getParent());
-                try (InputStream in = zf.getInputStream(e)) {
-                    Files.copy(in, dest, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                Files.move(entry.getValue().path(), dest, StandardCopyOption.REPLACE_EXISTING);
+                etagByPath.put(dest.toString(), entry.getValue().etag());
+                progress.imagesWritten.incrementAndGet();
+                importMetrics.imageWritten();
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(stagingDir);
+        }
+        writeImageEtags(writer.idsByImagePath, etagByPath);
+
+        // 同じパスの画像を上書きしたかもしれないので、配信用のキャッシュは捨てる
+        imageMetadataCache.invalidateAll();
+
+        System.out.println("Imported " + zipName + ": " + progress);
+    }
+
+    /**
+     * 移動した画像の ETag を、その画像を指すサンプルに書き込む
+     */
+    private void writeImageEtags(Map<String, List<Long>> idsByImagePath, Map<String, String> etagByPath) {
+        List<Long> idList = new ArrayList<>();
+        List<String> etagList = new ArrayList<>();
+        for (Map.Entry<String, String> entry : etagByPath.entrySet()) {
+            List<Long> sampleIds = idsByImagePath.get(entry.getKey());
+            if (sampleIds == null) {
+                continue;
+            }
+            for (Long sampleId : sampleIds) {
+                idList.add(sampleId);
+                etagList.add(entry.getValue());
+            }
+        }
+        long[] ids = new long[idList.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idList.get(i);
+        }
+        String[] etags = etagList.toArray(new String[0]);
+        for (int from = 0; from < ids.length; from += ETAG_CHUNK) {
+            poseImageEtagService.writeImageEtags(ids, etags, from, Math.min(ids.length, from + ETAG_CHUNK));
+        }
+    }
+
+    /**
+     * 削除（DB の行の削除とインデックスからの除外）を、取り込みの INSERT バッチ・インデックスへの追記と
+     * 重ならないように実行する（{@link DatasetDeletionService} から呼ばれる）。
+     * 取り込みは行をコミットしながら最後にまとめてインデックスへ追記するので、削除より前にコミットされて
+     * まだ追記していない行は、ここでその取り込みの追記対象から外す（削除した行が検索に戻ってこないように）。
+     * 削除より後にコミットされた行は DB にもインデックスにも残る
+     */
+    <T> T runDeletion(String datasetName, String cutCode, Supplier<T> deletion) {
+        deletionLock.writeLock().lock();
+        try {
+            T result = deletion.get();
+            for (BatchWriter writer : activeWriters) {
+                int dropped = writer.indexRows.removeMatching(datasetName, cutCode);
+                if (dropped > 0) {
+                    System.out.println("Dropped " + dropped + " rows of running import " + writer.getName()
+                            + " from index append: datasetName=" + datasetName + ", cutCode=" + cutCode);
                 }
             }
+            return result;
         } finally {
-            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+            deletionLock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        importWorkers.shutdownNow();
+    }
+
+    /**
+     * JSON 1 件をパース → 17点を正規化 → PoseSample にして DB 書き込みスレッドへ渡す
+     */
+    private Void parseSample(String zipName, String zipBase, String entryName, String fileNameOnly, byte[] bytes,
+                             Map<String, Path> imageDestMap, BatchWriter writer, ImportProgress progress)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        PoseSample sample;
+        try {
+            String jsonText = new String(bytes, StandardCharsets.UTF_8);
+            JsonNode root = objectMapper.readTree(jsonText);
+
+            // 元のフルパス（例: .../C392/B/B001.png）から C*** を抽出
+            String sourceImagePath = null;
+            JsonNode node = root.get("image_path");
+            if (node != null && node.isTextual()) sourceImagePath = node.asText();
+            String cutCode = CutCodes.fromSourceImagePath(sourceImagePath);
+
+            // 保存先ディレクトリ: data/datasets/C392/B
+            Path datasetDir = datasetRoot.resolve(cutCode).resolve(zipBase);
+
+            // 対応する画像ファイル名（B001.png など）
+            String imageFileName = guessImageFileNameFromJsonOrEntry(root, entryName);
+            Path imagePath = datasetDir.resolve(imageFileName);
+
+            // === 17点を取り出し → 正規化 → 特徴量 ===
+            JsonNode persons = root.path("persons");
+            JsonNode best = (persons.isArray() && !persons.isEmpty()) ? pickBestPerson(persons) : null;
+            JsonNode kps = (best != null) ? best.path("keypoints") : null;
+            if (kps == null || !kps.isArray() || kps.size() == 0) {
+                progress.skippedJson.incrementAndGet();
+                importMetrics.skippedNoKeypoints();
+                return null;
+            }
+
+            double[][] pts17 = extract17Keypoints(kps);
+            double[][] norm = PoseFeatureUtil.normalizeKeypoints(pts17);
+            // 特徴量はバイナリ (float32) で保存する。文字列版 feature_vector は旧データ用
+            byte[] featureVectorBin = PoseFeatureUtil.encodeFeatureVector(norm);
+            double[] scores17 = extract17Scores(best);
+            String normalizedJson = objectMapper.writeValueAsString(norm);
+
+            sample = new PoseSample();
+            sample.setDatasetName(zipName);
+            sample.setImageFileName(imageFileName);
+            sample.setImagePath(imagePath.toString());   // アプリ内の配置先
+            sample.setSourceImagePath(sourceImagePath);  // 元データのフルパス
+            sample.setCutCode(cutCode);
+            sample.setRawJson(jsonText);
+            sample.setNormalizedKeypointsJson(normalizedJson);
+            sample.setFeatureVectorBin(featureVectorBin);
+            sample.setKeypointScoresBin((scores17 != null) ? PoseFeatureUtil.encodeKeypointScores(scores17) : null);
+
+            // 画像の最終保存先を覚えておく
+            imageDestMap.put(imageFileName.toLowerCase(), imagePath);
+        } catch (Exception ex) {
+            progress.brokenJson.incrementAndGet();
+            importMetrics.skippedBroken();
+            System.err.println("Skip broken JSON: " + fileNameOnly);
+            ex.printStackTrace();
+            return null;
+        }
+        importMetrics.jsonParsed(System.nanoTime() - start);
+        writer.put(sample);
+        return null;
+    }
+
+    private void stageImage(Path stagingDir, int order, String fileNameOnly, byte[] bytes,
+                            Map<String, StagedImage> stagedImages) throws IOException {
+        Path staged = stagingDir.resolve(order + "_" + fileNameOnly);
+        Files.write(staged, bytes);
+        String etag = ImageHashes.sha256Hex(bytes);
+        stagedImages.merge(fileNameOnly.toLowerCase(), new StagedImage(order, fileNameOnly, staged, etag),
+                (a, b) -> (a.order() > b.order()) ? a : b);
+    }
+
+    private static void waitFor(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Import failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private record StagedImage(int order, String fileName, Path path, String etag) {}
+
+    /**
+     * PoseSample を受け取って BATCH_SIZE 件ずつ INSERT する DB 書き込みスレッド。
+     * キューが満杯になるとパース側が待たされる（背圧）。
+     * 保存できた行の (id, ベクトル) は indexRows に貯めておき、終了時にまとめてインデックスへ追記する
+     * （その間に削除された行は {@link #runDeletion} が indexRows から外す）
+     */
+    private final class BatchWriter extends Thread {
+        private final BlockingQueue<PoseSample> queue = new ArrayBlockingQueue<>(BATCH_SIZE * 4);
+        private final ImportProgress progress;
+        private final VectorBlockBuilder indexRows = new VectorBlockBuilder(BATCH_SIZE);
+        /** image_path -> 保存できたサンプルの id（ETag の書き込み先。finish の後に読む） */
+        private final Map<String, List<Long>> idsByImagePath = new HashMap<>();
+        private volatile boolean done;
+        private volatile RuntimeException failure;
+
+        BatchWriter(String zipName, ImportProgress progress) {
+            super("dataset-import-db-" + zipName);
+            this.progress = progress;
+            setDaemon(true);
+        }
+
+        void put(PoseSample sample) throws InterruptedException {
+            queue.put(sample);
+        }
+
+        @Override
+        public void run() {
+            List<PoseSample> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                while (!done || !queue.isEmpty()) {
+                    PoseSample sample = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (sample != null) {
+                        batch.add(sample);
+                        queue.drainTo(batch, BATCH_SIZE - batch.size());
+                    }
+                    if (batch.size() >= BATCH_SIZE || (sample == null && !batch.isEmpty())) {
+                        flush(batch);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void flush(List<PoseSample> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (failure == null) {
+                deletionLock.readLock().lock();
+                try {
+                    long start = System.nanoTime();
+                    poseSampleBatchInserter.insertAll(batch);
+                    importMetrics.batchSaved(batch.size(), System.nanoTime() - start);
+                    progress.samplesInserted.addAndGet(batch.size());
+                    for (PoseSample sample : batch) {
+                        indexRows.addBinary(sample.getId(), sample.getFeatureVectorBin(),
+                                sample.getKeypointScoresBin(), sample.getDatasetName(), sample.getCutCode());
+                        idsByImagePath.computeIfAbsent(sample.getImagePath(), p -> new ArrayList<>(1))
+                                .add(sample.getId());
+                    }
+                } catch (RuntimeException ex) {
+                    // 以降のバッチは捨てるが、パース側が詰まらないようキューは読み続ける
+                    failure = ex;
+                } finally {
+                    deletionLock.readLock().unlock();
+                }
+            }
+            batch.clear();
+        }
+
+        /**
+         * 残りを書き切って終了するまで待ち、保存済みの行をインデックスへ追記する。
+         * DB 書き込みに失敗していたら（それまでに保存できた行は追記した上で）例外にする
+         */
+        void finish() throws IOException {
+            done = true;
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", ex);
+            }
+            // 追記し終わるまでは削除を待たせる（追記前に来た削除は indexRows から、後に来た削除はインデックスから外す）
+            deletionLock.readLock().lock();
+            try {
+                activeWriters.remove(this);
+                long start = System.nanoTime();
+                poseFeatureIndex.append(indexRows);
+                importMetrics.indexAppended(System.nanoTime() - start);
+            } finally {
+                deletionLock.readLock().unlock();
+            }
+            if (failure != null) {
+                throw new IOException("Failed to save pose samples: " + failure.getMessage(), failure);
+            }
         }
     }
 
@@ -175,7 +479,7 @@ public class DatasetImportService {
     }
 
     /** persons[] から平均 keypoint_scores 最大の person を選ぶ */
-    private JsonNode pickBestPerson(JsonNode personsNode) {
+    static JsonNode pickBestPerson(JsonNode personsNode) {
         JsonNode best = null;
         double bestScore = -Double.MAX_VALUE;
 
@@ -200,8 +504,27 @@ public class DatasetImportService {
         return best;
     }
 
+    /**
+     * person の keypoint_scores から 17点分の信頼度を取り出す（keypoints と同じく足りなければ最後を複製、余れば先頭17）。
+     * スコアが無い person は null
+     */
+    static double[] extract17Scores(JsonNode person) {
+        JsonNode scores = person.get("keypoint_scores");
+        if (scores == null || !scores.isArray() || scores.isEmpty()) {
+            return null;
+        }
+        double[] out = new double[17];
+        for (int i = 0; i < 17; i++) {
+            JsonNode s = scores.get(Math.min(i, scores.size() - 1));
+            // 負のスコアや NaN は重みとして使えないので 0 にする
+            double v = s.asDouble(0.0);
+            out[i] = (v > 0.0) ? v : 0.0;
+        }
+        return out;
+    }
+
     /** keypoints 配列から 17点 [ [x,y], ... ] を取り出す（足りなければ最後を複製、余れば先頭17） */
-    private double[][] extract17Keypoints(JsonNode kpsNode) {
+    static double[][] extract17Keypoints(JsonNode kpsNode) {
         List<double[]> list = new ArrayList<>();
         for (JsonNode kp : kpsNode) {
             if (!kp.isArray() || kp.size() < 2) continue;
@@ -0,0 +1,55 @@
+package com.example.mvdecision.dataset;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取り込み 1 回分の進捗カウンタ。パイプラインの各ステージから同時に更新される
+ */
+public class ImportProgress {
+
+    /** zip から読んだエントリ数（ディレクトリ・__MACOSX を除く） */
+    final AtomicLong entriesRead = new AtomicLong();
+    /** zip から読んだ（展開後の）バイト数 */
+    final AtomicLong bytesRead = new AtomicLong();
+    /** DB に登録したサンプル数 */
+    final AtomicLong samplesInserted = new AtomicLong();
+    /** persons / keypoints が無くて登録しなかった JSON の数 */
+    final AtomicLong skippedJson = new AtomicLong();
+    /** パースに失敗した JSON の数 */
+    final AtomicLong brokenJson = new AtomicLong();
+    /** 保存した画像の数 */
+    final AtomicLong imagesWritten = new AtomicLong();
+
+    public long getEntriesRead() {
+        return entriesRead.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getSamplesInserted() {
+        return samplesInserted.get();
+    }
+
+    public long getSkippedJson() {
+        return skippedJson.get();
+    }
+
+    public long getBrokenJson() {
+        return brokenJson.get();
+    }
+
+    public long getImagesWritten() {
+        return imagesWritten.get();
+    }
+
+    @Override
+    public String toString() {
+        return "entries=" + getEntriesRead()
+                + ", samples=" + getSamplesInserted()
+                + ", skipped=" + getSkippedJson()
+                + ", broken=" + getBrokenJson()
+                + ", images=" + getImagesWritten();
+    }
+}
@@ -1,39 +1,138 @@
 package com.example.mvdecision.image;
 
-import com.example.mvdecision.pose.PoseSample;
+import com.example.mvdecision.pose.PoseImageEtagService;
 import com.example.mvdecision.pose.PoseSampleRepository;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import com.example.mvdecision.pose.PoseSampleSummary;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/images")
 public class ImageController {
 
+    /**
+     * 取り込んだ画像は後から変わらない（変わるときは別 id になる）ので、ブラウザには 1 年間キャッシュさせる
+     */
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
     private final PoseSampleRepository poseSampleRepository;
+    private final PoseImageEtagService poseImageEtagService;
+    private final ThumbnailService thumbnailService;
+    private final ImageMetadataCache imageMetadataCache;
+    private final ImageFileSender imageFileSender;
+    private final ImageServingStats imageServingStats;
 
-    public ImageController(PoseSampleRepository poseSampleRepository) {
+    public ImageController(PoseSampleRepository poseSampleRepository,
+                           PoseImageEtagService poseImageEtagService,
+                           ThumbnailService thumbnailService,
+                           ImageMetadataCache imageMetadataCache,
+                           ImageFileSender imageFileSender,
+                           ImageServingStats imageServingStats) {
         this.poseSampleRepository = poseSampleRepository;
+        this.poseImageEtagService = poseImageEtagService;
+        this.thumbnailService = thumbnailService;
+        this.imageMetadataCache = imageMetadataCache;
+        this.imageFileSender = imageFileSender;
+        this.imageServingStats = imageServingStats;
     }
 
+    /**
+     * 画像を返す。size=thumb / medium なら縮小した JPEG（初回アクセス時に作ってキャッシュ）を返す。
+     * ETag は画像ファイルの SHA-256 で、If-None-Match が一致すれば 304 を返す。
+     * Range が付いていれば該当部分だけを 206 で返す（{@link ImageFileSender}）
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<Resource> getImage(@PathVariable Long id) {
-        // 1) DBからレコード取得
-        PoseSample sample = poseSampleRepository.findById(id)
+    public void getImage(@PathVariable Long id,
+                         @RequestParam(required = false) String size,
+                         HttpServletRequest request,
+                         HttpServletResponse response) {
+        ImageSize imageSize;
+        try {
+            imageSize = ImageSize.parse(size);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+
+        // 1) パス・Content-Type・ETag（2 回目以降はプロセス内キャッシュから）
+        ImageMetadataCache.ImageMetadata meta = imageMetadataCache.get(id);
+        if (meta == null) {
+            meta = loadMetadata(id);
+            imageMetadataCache.put(id, meta);
+        }
+
+        // 2) ブラウザが同じものを持っていれば 304（縮小版はサイズごとに別の ETag）
+        String etag = (imageSize == ImageSize.ORIGINAL)
+                ? "\"" + meta.etag() + "\""
+                : "\"" + meta.etag() + "-" + imageSize.name().toLowerCase() + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag, meta.lastModified())) {
+            imageServingStats.recordNotModified();
+            return;
+        }
+
+        try {
+            if (imageSize == ImageSize.ORIGINAL) {
+                // 3) 元画像はファイルから直接（sendfile / transferTo）
+                setCacheHeaders(response, meta.contentType(), etag, meta.lastModified());
+                imageFileSender.sendFile(request, response, meta.path(), meta.length(), etag);
+            } else {
+                // 3') 縮小版はキャッシュ済みの JPEG を返す
+                byte[] thumbnail = thumbnailService.thumbnail(id, meta.path(), imageSize);
+                setCacheHeaders(response, MediaType.IMAGE_JPEG_VALUE, etag, meta.lastModified());
+                imageFileSender.sendBytes(request, response, thumbnail, etag);
+            }
+        } catch (NoSuchFileException e) {
+            // キャッシュした後にファイルが消された
+            imageMetadataCache.remove(id);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Image file not found: " + meta.path(), e);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                // 送信途中でクライアントが切断した（Range で動画をシークしたときなど）
+                return;
+            }
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read image file", e);
+        }
+    }
+
+    /**
+     * 画像配信の件数・転送バイト数
+     */
+    @GetMapping("/stats")
+    public ImageServingStats stats() {
+        return imageServingStats;
+    }
+
+    private static void setCacheHeaders(HttpServletResponse response, String contentType, String etag,
+                                        long lastModified) {
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE.getHeaderValue());
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+    }
+
+    /**
+     * DB とファイルから配信用のメタ情報を作る。
+     * image_etag がまだ無い（取り込み時に計算していなかった）行は、ここで計算して書き戻す
+     */
+    private ImageMetadataCache.ImageMetadata loadMetadata(Long id) {
+        // DBからレコード取得（画像パスだけ欲しいので LOB を含まない射影で）
+        PoseSampleSummary sample = poseSampleRepository.findSummaryById(id)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "PoseSample not found: " + id));
 
-        // 2) DBに保存されているパスを Path に変換
+        // DBに保存されているパスを Path に変換
         Path path = Paths.get(sample.getImagePath());
 
         // 相対パスの場合はプロジェクトルートを基準に解決
@@ -42,15 +141,13 @@ public class ImageController {
             path = baseDir.resolve(path).normalize();
         }
 
-        // 3) ファイル存在チェック
+        // ファイル存在チェック
         if (!Files.exists(path)) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Image file not found: " + path);
         }
 
         try {
-            Resource resource = new UrlResource(path.toUri());
-
-            // 4) Content-Type 判定（png/jpgなど）
+            // Content-Type 判定（png/jpgなど）
             String contentType = Files.probeContentType(path);
             if (contentType == null) {
                 // 拡張子から雑に決めてもOK
@@ -64,14 +161,15 @@ public class ImageController {
                 }
             }
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    // 必要ならキャッシュコントロール（お好みで）
-                    .cacheControl(CacheControl.noCache())
-                    .body(resource);
+            String etag = sample.getImageEtag();
+            if (etag == null) {
+                etag = ImageHashes.sha256Hex(path);
+                poseImageEtagService.writeImageEtag(id, etag);
+            }
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            long length = Files.size(path);
+            return new ImageMetadataCache.ImageMetadata(path, contentType, etag, lastModified, length);
 
-        } catch (MalformedURLException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid image path", e);
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to read image file", e);
         }
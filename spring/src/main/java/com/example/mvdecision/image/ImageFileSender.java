@@ -0,0 +1,193 @@
+package com.example.mvdecision.image;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 画像ファイルをレスポンスに書き出す。
+ *
+ *  - Range: bytes=a-b / a- / -n（1 区間のみ）に 206 Partial Content で応える。
+ *    複数区間の指定や、If-Range が ETag と一致しないときは全体を 200 で返す
+ *  - ある程度大きいファイルは Tomcat の sendfile に任せ、ヒープを経由せずにソケットへ送る
+ *  - sendfile が使えない（TLS など）ときは FileChannel.transferTo で書く
+ */
+@Component
+public class ImageFileSender {
+
+    /** これより小さい部分は sendfile を使わずに書く（Tomcat の DefaultServlet と同じ既定値） */
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    // Tomcat の sendfile 用のリクエスト属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ImageServingStats stats;
+
+    public ImageFileSender(ImageServingStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * file の全体、または Range で指定された部分を書き出す。
+     * Content-Type / ETag / Cache-Control は呼び出し側で設定しておくこと
+     */
+    public void sendFile(HttpServletRequest request, HttpServletResponse response,
+                         Path file, long length, String etag) throws IOException {
+        long[] range = prepare(request, response, length, etag);
+        if (range == null) {
+            return;
+        }
+        long start = range[0];
+        long end = range[1];
+        long count = end - start;
+        boolean isPartial = count != length;
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 本文は書かずに、レスポンスの終わりで Tomcat がファイルから直接ソケットへ送る
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            stats.recordSendfile(count, isPartial);
+            return;
+        }
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long pos = start;
+            while (pos < end) {
+                long n = ch.transferTo(pos, end - pos, out);
+                if (n <= 0) {
+                    // 途中でファイルが短くなった
+                    break;
+                }
+                pos += n;
+            }
+            stats.recordTransfer(pos - start, isPartial);
+        }
+    }
+
+    /**
+     * メモリ上のバイト列（縮小画像）を、Range を考慮して書き出す
+     */
+    public void sendBytes(HttpServletRequest request, HttpServletResponse response,
+                          byte[] body, String etag) throws IOException {
+        long[] range = prepare(request, response, body.length, etag);
+        if (range == null) {
+            return;
+        }
+        int start = (int) range[0];
+        int count = (int) (range[1] - range[0]);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        response.getOutputStream().write(body, start, count);
+        stats.recordMemory(count, count != body.length);
+    }
+
+    /**
+     * ステータス・Content-Length・Content-Range を決めて設定し、送る区間 [start, end) を返す。
+     * 416 を返したときは null
+     */
+    private long[] prepare(HttpServletRequest request, HttpServletResponse response, long length, String etag) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        long[] range = parseRange(request, length, etag);
+        if (range == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLengthLong(length);
+            return new long[] {0, length};
+        }
+        if (range.length == 0) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setContentLength(0);
+            return null;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range[0] + "-" + (range[1] - 1) + "/" + length);
+        response.setContentLengthLong(range[1] - range[0]);
+        return range;
+    }
+
+    /**
+     * Range ヘッダを [start, end) にする。
+     * 全体を返すべきときは null、満たせない区間なら長さ 0 の配列
+     */
+    static long[] parseRange(HttpServletRequest request, long length, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        // If-Range が今の ETag と違えば、手元の部分は古いので全体を返す
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            // 複数区間（multipart/byteranges）はサポートしない
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-n: 末尾 n バイト
+                long suffix = parseBytePos(last);
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, length - suffix);
+                end = length;
+            } else {
+                start = parseBytePos(first);
+                if (last.isEmpty()) {
+                    end = length;
+                } else {
+                    long lastByte = parseBytePos(last);
+                    if (lastByte < start) {
+                        // 構文として不正な Range は無視する
+                        return null;
+                    }
+                    end = Math.min(length, lastByte + 1);
+                }
+            }
+            if (start >= length || start >= end) {
+                return new long[0];
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException ex) {
+            // 解釈できない Range は無視する
+            return null;
+        }
+    }
+
+    /**
+     * Range のバイト位置（数字だけ）。Long.parseLong と違い、符号つき（bytes=--5 など）は不正として扱う
+     */
+    private static long parseBytePos(String value) {
+        if (value.isEmpty() || value.charAt(0) < '0' || value.charAt(0) > '9') {
+            throw new NumberFormatException("Not a byte position: " + value);
+        }
+        return Long.parseLong(value);
+    }
+}
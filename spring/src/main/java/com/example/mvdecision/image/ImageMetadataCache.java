@@ -0,0 +1,76 @@
+package com.example.mvdecision.image;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * id → (画像パス, Content-Type, ETag, 更新時刻) のプロセス内キャッシュ。
+ * よく見られる画像は DB を引かず、ファイル属性も調べずに返せるようにする。
+ *
+ * 件数は app.image.metadata-cache-size まで（超えたら最近使っていないものから捨てる）。
+ * 取り込み・削除のあとは画像と id の対応が変わりうるので丸ごと捨てる。
+ */
+@Component
+public class ImageMetadataCache {
+
+    private final Map<Long, ImageMetadata> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ImageMetadataCache(@Value("${app.image.metadata-cache-size:100000}") int maxEntries) {
+        this.entries = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ImageMetadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized ImageMetadata get(long id) {
+        ImageMetadata metadata = entries.get(id);
+        if (metadata != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return metadata;
+    }
+
+    public synchronized void put(long id, ImageMetadata metadata) {
+        entries.put(id, metadata);
+    }
+
+    public synchronized void remove(long id) {
+        entries.remove(id);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 画像 1 枚分の配信用メタ情報
+     *
+     * @param etag         画像ファイルの SHA-256（16 進、引用符なし）
+     * @param lastModified ファイルの更新時刻（エポックミリ秒）
+     * @param length       ファイルサイズ（バイト）
+     */
+    public record ImageMetadata(Path path, String contentType, String etag, long lastModified, long length) {}
+}
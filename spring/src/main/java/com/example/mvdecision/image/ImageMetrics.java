@@ -0,0 +1,94 @@
+package com.example.mvdecision.image;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 画像配信のメトリクス（GET /actuator/prometheus）。
+ * カウンタ本体は {@link ImageServingStats}・{@link ImageMetadataCache}・{@link ThumbnailService} が持っていて、
+ * ここではスクレイプのたびにその値を読むだけ（配信中の処理は増やさない）。
+ * リクエストごとのレイテンシは http.server.requests（uri="/api/images/{id}"）に出る
+ */
+@Component
+public class ImageMetrics implements MeterBinder {
+
+    private final ImageServingStats stats;
+    private final ImageMetadataCache metadataCache;
+    private final ThumbnailService thumbnailService;
+
+    public ImageMetrics(ImageServingStats stats,
+                        ImageMetadataCache metadataCache,
+                        ThumbnailService thumbnailService) {
+        this.stats = stats;
+        this.metadataCache = metadataCache;
+        this.thumbnailService = thumbnailService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // 転送バイト数（書き方ごと）
+        servedBytes(registry, "sendfile", ImageServingStats::getSendfileBytes);
+        servedBytes(registry, "transfer", ImageServingStats::getTransferBytes);
+        servedBytes(registry, "memory", ImageServingStats::getMemoryBytes);
+
+        FunctionCounter.builder("image.responses", stats, ImageServingStats::getResponses)
+                .description("画像リクエストに返したレスポンス数（304 を含む）")
+                .register(registry);
+        FunctionCounter.builder("image.responses.not.modified", stats, ImageServingStats::getNotModified)
+                .register(registry);
+        FunctionCounter.builder("image.responses.partial", stats, ImageServingStats::getPartialContent)
+                .register(registry);
+
+        // id -> パス・ETag のキャッシュ
+        cacheRequests(registry, "image.metadata.cache", metadataCache,
+                ImageMetadataCache::getHits, ImageMetadataCache::getMisses);
+        Gauge.builder("image.metadata.cache.size", metadataCache, ImageMetadataCache::size)
+                .baseUnit("entries")
+                .register(registry);
+
+        // 縮小画像のディスクキャッシュ（ミスのたびに縮小して書き出す）
+        cacheRequests(registry, "image.thumbnail.cache", thumbnailService,
+                ThumbnailService::getHits, ThumbnailService::getMisses);
+        Gauge.builder("image.thumbnail.cache.size", thumbnailService, ThumbnailService::getCachedBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionTimer.builder("image.thumbnail.generate", thumbnailService,
+                        ThumbnailService::getMisses, ThumbnailService::getGenerateNanos, TimeUnit.NANOSECONDS)
+                .description("縮小画像を作る（読み込み → 縮小 → JPEG 書き出し）のにかかった時間")
+                .register(registry);
+    }
+
+    private void servedBytes(MeterRegistry registry, String path, ToDoubleFunction<ImageServingStats> bytes) {
+        FunctionCounter.builder("image.served.bytes", stats, bytes)
+                .tag("path", path)
+                .baseUnit("bytes")
+                .description("画像レスポンスで送ったバイト数")
+                .register(registry);
+    }
+
+    /**
+     * name.requests{result=hit|miss} と name.hit.ratio（起動からのヒット率）
+     */
+    private static <T> void cacheRequests(MeterRegistry registry, String name, T cache,
+                                          ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        FunctionCounter.builder(name + ".requests", cache, hits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder(name + ".requests", cache, misses)
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder(name + ".hit.ratio", cache, c -> {
+                    double h = hits.applyAsDouble(c);
+                    double total = h + misses.applyAsDouble(c);
+                    return (total > 0) ? h / total : 0.0;
+                })
+                .register(registry);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.mvdecision.image;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 画像配信の件数・転送バイト数のカウンタ（GET /api/images/stats でそのまま JSON にする）
+ */
+@Component
+public class ImageServingStats {
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final LongAdder sendfileBytes = new LongAdder();
+    private final LongAdder transferBytes = new LongAdder();
+    private final LongAdder memoryBytes = new LongAdder();
+
+    void recordNotModified() {
+        responses.increment();
+        notModified.increment();
+    }
+
+    /** Tomcat の sendfile に任せた分 */
+    void recordSendfile(long bytes, boolean isPartial) {
+        record(isPartial);
+        sendfileBytes.add(bytes);
+    }
+
+    /** FileChannel.transferTo で書いた分 */
+    void recordTransfer(long bytes, boolean isPartial) {
+        record(isPartial);
+        transferBytes.add(bytes);
+    }
+
+    /** メモリ上のバイト列（縮小画像）を書いた分 */
+    void recordMemory(long bytes, boolean isPartial) {
+        record(isPartial);
+        memoryBytes.add(bytes);
+    }
+
+    private void record(boolean isPartial) {
+        responses.increment();
+        if (isPartial) {
+            partial.increment();
+        }
+    }
+
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    public long getPartialContent() {
+        return partial.sum();
+    }
+
+    public long getSendfileBytes() {
+        return sendfileBytes.sum();
+    }
+
+    public long getTransferBytes() {
+        return transferBytes.sum();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes.sum();
+    }
+
+    public long getTotalBytes() {
+        return getSendfileBytes() + getTransferBytes() + getMemoryBytes();
+    }
+
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    /** 起動からの平均転送速度 */
+    public double getBytesPerSecond() {
+        long ms = getUptimeMillis();
+        return (ms > 0) ? getTotalBytes() * 1000.0 / ms : 0.0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.mvdecision.image;
+
+/**
+ * GET /api/images/{id}?size= で選べる画像サイズ
+ *  - ORIGINAL: 取り込んだ画像そのもの
+ *  - MEDIUM:   長辺 960px に縮小
+ *  - THUMB:    長辺 320px に縮小（検索結果の一覧用）
+ */
+public enum ImageSize {
+    ORIGINAL(0),
+    MEDIUM(960),
+    THUMB(320);
+
+    /** 縮小後の長辺（ORIGINAL は 0） */
+    private final int maxEdge;
+
+    ImageSize(int maxEdge) {
+        this.maxEdge = maxEdge;
+    }
+
+    public int getMaxEdge() {
+        return maxEdge;
+    }
+
+    /**
+     * リクエストの "thumb" / "medium" / "original" を変換する（null / 空なら ORIGINAL）
+     */
+    public static ImageSize parse(String value) {
+        if (value == null || value.isBlank()) {
+            return ORIGINAL;
+        }
+        switch (value.trim().toLowerCase()) {
+            case "original":
+                return ORIGINAL;
+            case "medium":
+                return MEDIUM;
+            case "thumb":
+                return THUMB;
+            default:
+                throw new IllegalArgumentException("size must be thumb, medium or original: " + value);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.mvdecision.image;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 検索結果の一覧などで使う縮小画像（thumb / medium）を作り、ディスクにキャッシュするサービス。
+ *
+ * 初回アクセス時に元画像から JPEG を作り、
+ *   {app.storage.thumbnail-dir}/{size}/{id の下位 8bit を 16 進 2 桁}/{id}.jpg
+ * に置く（1 ディレクトリのファイル数が増えすぎないよう 256 個に分ける）。
+ * 元画像の方が新しければ作り直す。
+ *
+ * キャッシュの合計サイズが app.thumbnail.max-bytes を超えたら、
+ * 最終更新時刻（ヒット時に 1 時間に 1 回だけ更新する）の古い順に消して 9 割まで減らす。
+ */
+@Service
+public class ThumbnailService {
+
+    private static final String EXTENSION = ".jpg";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    /** ヒット時に最終更新時刻を更新する間隔（毎回ファイル属性を書かないため） */
+    private static final long TOUCH_INTERVAL_MILLIS = 60 * 60 * 1000L;
+
+    /** 削除するときは上限のこの割合まで減らす */
+    private static final double EVICT_TARGET_RATIO = 0.9;
+
+    private final Path cacheRoot;
+    private final long maxBytes;
+
+    /** キャッシュ内のファイルの合計サイズ（起動時の走査が終わるまでは -1） */
+    private final AtomicLong cachedBytes = new AtomicLong(-1);
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+    /** キャッシュから返した回数 / 作った回数と、作るのにかかった時間の合計 */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder generateNanos = new LongAdder();
+
+    // キャッシュの走査・削除は画像リクエストを止めないよう専用スレッドで行う
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "thumbnail-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ThumbnailService(@Value("${app.storage.thumbnail-dir:data/thumbnails}") String thumbnailDir,
+                            @Value("${app.thumbnail.max-bytes:536870912}") long maxBytes) {
+        this.cacheRoot = Paths.get(thumbnailDir);
+        this.maxBytes = maxBytes;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(cacheRoot);
+        evictionScheduled.set(true);
+        evictor.execute(this::evictIfNeeded);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictor.shutdownNow();
+    }
+
+    /**
+     * source を size に縮小した JPEG を返す。キャッシュに無い・古いときはその場で作る。
+     * 縮小版は数十 KB なので、返している途中で削除されても困らないようバイト列で返す
+     *
+     * @throws IOException 元画像が読めない・画像として解釈できないとき
+     */
+    public byte[] thumbnail(long id, Path source, ImageSize size) throws IOException {
+        if (size == ImageSize.ORIGINAL) {
+            throw new IllegalArgumentException("ORIGINAL has no thumbnail");
+        }
+        Path cached = cachePath(id, size);
+        try {
+            FileTime cachedTime = Files.getLastModifiedTime(cached);
+            if (cachedTime.compareTo(Files.getLastModifiedTime(source)) >= 0) {
+                byte[] bytes = Files.readAllBytes(cached);
+                touch(cached, cachedTime);
+                hits.increment();
+                return bytes;
+            }
+        } catch (NoSuchFileException ignore) {
+            // まだ作っていない（または削除された）
+        }
+        long start = System.nanoTime();
+        byte[] jpeg = generate(source, cached, size.getMaxEdge());
+        misses.increment();
+        generateNanos.add(System.nanoTime() - start);
+        return jpeg;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getGenerateNanos() {
+        return generateNanos.sum();
+    }
+
+    /** キャッシュ内のファイルの合計サイズ（起動時の走査が終わるまでは -1） */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    private Path cachePath(long id, ImageSize size) {
+        String shard = String.format("%02x", id & 0xff);
+        return cacheRoot.resolve(size.name().toLowerCase()).resolve(shard).resolve(id + EXTENSION);
+    }
+
+    private void touch(Path cached, FileTime cachedTime) {
+        long now = System.currentTimeMillis();
+        if (now - cachedTime.toMillis() < TOUCH_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(now));
+        } catch (IOException ignore) {
+            // 削除の順番が少しずれるだけなので無視
+        }
+    }
+
+    /**
+     * 長辺が maxEdge 以下になるよう縮小して JPEG で書き出す。
+     * 同じ画像への同時リクエストがあっても壊れたファイルが見えないよう、一時ファイルから rename する
+     */
+    private byte[] generate(Path source, Path cached, int maxEdge) throws IOException {
+        BufferedImage src = ImageIO.read(source.toFile());
+        if (src == null) {
+            throw new IOException("Unsupported image format: " + source);
+        }
+        byte[] jpeg = encodeJpeg(scale(src, maxEdge));
+
+        Files.createDirectories(cached.getParent());
+        Path tmp = Files.createTempFile(cached.getParent(), cached.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, jpeg);
+            Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+
+        long total = cachedBytes.get();
+        if (total >= 0 && cachedBytes.addAndGet(jpeg.length) > maxBytes
+                && evictionScheduled.compareAndSet(false, true)) {
+            evictor.execute(this::evictIfNeeded);
+        }
+        return jpeg;
+    }
+
+    /**
+     * 1/2 ずつ段階的に縮めてから最後に目標サイズへ合わせる（一気に縮めるとジャギーが出るため）。
+     * 透過部分は白で塗る（JPEG にするため）
+     */
+    private static BufferedImage scale(BufferedImage src, int maxEdge) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        double ratio = Math.min(1.0, (double) maxEdge / Math.max(w, h));
+        int targetW = Math.max(1, (int) Math.round(w * ratio));
+        int targetH = Math.max(1, (int) Math.round(h * ratio));
+
+        BufferedImage current = src;
+        boolean first = true;
+        do {
+            if (w / 2 >= targetW && h / 2 >= targetH) {
+                w /= 2;
+                h /= 2;
+            } else {
+                w = targetW;
+                h = targetH;
+            }
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (first) {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, w, h);
+                }
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+            first = false;
+        } while (w != targetW || h != targetH);
+        return current;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * キャッシュを走査して合計サイズを数え直し、上限を超えていれば古い順に消す
+     */
+    private void evictIfNeeded() {
+        evictionScheduled.set(false);
+        List<CachedFile> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(cacheRoot)) {
+            walk.forEach(p -> {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        files.add(new CachedFile(p, attrs.lastModifiedTime().toMillis(), attrs.size()));
+                    }
+                } catch (IOException ignore) {
+                    // 走査中に消えたファイル
+                }
+            });
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Thumbnail cache scan failed: " + cacheRoot);
+            ex.printStackTrace();
+            return;
+        }
+
+        long total = 0;
+        for (CachedFile f : files) {
+            total += f.size();
+        }
+        if (total > maxBytes) {
+            long target = (long) (maxBytes * EVICT_TARGET_RATIO);
+            files.sort(Comparator.comparingLong(CachedFile::lastModified));
+            int removed = 0;
+            for (CachedFile f : files) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(f.path());
+                    total -= f.size();
+                    removed++;
+                } catch (IOException ignore) {
+                    // 次回の削除で再挑戦
+                }
+            }
+            System.out.println("Thumbnail cache evicted " + removed + " files, " + total + " bytes left");
+        }
+        cachedBytes.set(total);
+    }
+
+    private record CachedFile(Path path, long lastModified, long size) {}
+}
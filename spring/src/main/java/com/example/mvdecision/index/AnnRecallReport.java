@@ -0,0 +1,112 @@
+package com.example.mvdecision.index;
+
+/**
+ * 近似検索 (HNSW / 直積量子化) と全件スキャンの比較結果。
+ * recall = 近似検索の topK のうち、正確な topK にも含まれていた割合の平均
+ *  - mode: "approx"（HNSW）/ "pq"（直積量子化）
+ *  - m / efSearch: approx のときの HNSW のパラメータ
+ *  - rerank: pq のとき、正確な距離で並べ直した候補数
+ *  - bytesPerVector: スキャンで 1 行あたりに読むバイト数（pq なら符号の 17 バイト、それ以外は float32 の 136 バイト）
+ */
+public class AnnRecallReport {
+
+    private String mode;
+    private int indexSize;
+    private int k;
+    private int queries;
+    private int m;
+    private int efSearch;
+    private double recall;
+    private double exactAvgMillis;
+    private double approxAvgMillis;
+    private int rerank;
+    private int bytesPerVector;
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    public void setIndexSize(int indexSize) {
+        this.indexSize = indexSize;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public void setK(int k) {
+        this.k = k;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public void setQueries(int queries) {
+        this.queries = queries;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public void setM(int m) {
+        this.m = m;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public double getRecall() {
+        return recall;
+    }
+
+    public void setRecall(double recall) {
+        this.recall = recall;
+    }
+
+    public double getExactAvgMillis() {
+        return exactAvgMillis;
+    }
+
+    public void setExactAvgMillis(double exactAvgMillis) {
+        this.exactAvgMillis = exactAvgMillis;
+    }
+
+    public double getApproxAvgMillis() {
+        return approxAvgMillis;
+    }
+
+    public void setApproxAvgMillis(double approxAvgMillis) {
+        this.approxAvgMillis = approxAvgMillis;
+    }
+
+    public int getRerank() {
+        return rerank;
+    }
+
+    public void setRerank(int rerank) {
+        this.rerank = rerank;
+    }
+
+    public int getBytesPerVector() {
+        return bytesPerVector;
+    }
+
+    public void setBytesPerVector(int bytesPerVector) {
+        this.bytesPerVector = bytesPerVector;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.mvdecision.index;
+
+/**
+ * 検索時の距離の測り方
+ *  - L2:              正規化座標のユークリッド距離（既定）
+ *  - WEIGHTED:        関節ごとの二乗誤差を、インデックス側の行の信頼度（keypoint_scores）で重み付けした L2
+ *  - MIRROR:          そのままのクエリと左右反転したクエリ（x を反転し左右の関節を入れ替える）の近い方
+ *  - WEIGHTED_MIRROR: WEIGHTED と MIRROR の組み合わせ
+ *
+ * 反転版の距離は別スキャンにせず、同じ行を読んだついでに計算する（{@link PoseFeatureIndex}）。
+ */
+public enum DistanceMetric {
+    L2(false, false),
+    WEIGHTED(true, false),
+    MIRROR(false, true),
+    WEIGHTED_MIRROR(true, true);
+
+    private final boolean weighted;
+    private final boolean mirrored;
+
+    DistanceMetric(boolean weighted, boolean mirrored) {
+        this.weighted = weighted;
+        this.mirrored = mirrored;
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    /**
+     * リクエストの "l2" / "weighted" / "mirror" / "weighted_mirror" を変換する（null / 空なら L2）
+     */
+    public static DistanceMetric parse(String value) {
+        if (value == null || value.isBlank()) {
+            return L2;
+        }
+        switch (value.trim().toLowerCase().replace('-', '_')) {
+            case "l2":
+                return L2;
+            case "weighted":
+                return WEIGHTED;
+            case "mirror":
+                return MIRROR;
+            case "weighted_mirror":
+                return WEIGHTED_MIRROR;
+            default:
+                throw new IllegalArgumentException("metric must be l2, weighted, mirror or weighted_mirror: " + value);
+        }
+    }
+}
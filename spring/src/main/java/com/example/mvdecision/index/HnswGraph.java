@@ -0,0 +1,516 @@
+package com.example.mvdecision.index;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 近似最近傍探索用の HNSW (Hierarchical Navigable Small World) グラフ。
+ *
+ * ノード番号は {@link IndexSegment} の行番号そのもので、
+ * ベクトル本体は持たずにセグメントの FloatBuffer（ヒープ or スナップショットファイルの mmap）を参照する。
+ *  - level 0 のリンク: links0[node * maxM0 ..] に平たく詰める
+ *  - level 1 以上のリンク: upperLinks[node] に (件数, id × m) を level ごとに並べる
+ *
+ * 構築は 1 スレッドで行い、構築後は読み取り専用（検索は複数スレッドから可）。
+ */
+final class HnswGraph {
+
+    private static final int NO_NODE = -1;
+
+    private final FloatBuffer vectors;
+    private final int dim;
+    private final int size;
+
+    /** 上位レベルでの最大リンク数 */
+    private final int m;
+    /** level 0 での最大リンク数（慣例どおり 2M） */
+    private final int maxM0;
+    private final int efConstruction;
+
+    private final int[] levels;
+    private final int[] links0;
+    private final int[] counts0;
+    private final int[][] upperLinks;
+
+    private int entryPoint = NO_NODE;
+    private int maxLevel = -1;
+
+    // 検索ごとの訪問済みフラグ。世代番号を上げるだけでクリアできるようにする。
+    // グラフ自身が持つプールから借りて返す（ThreadLocal だとグラフを作り直しても
+    // 検索スレッドごとの int[size] が残り続けるので使わない）。グラフが捨てられればプールごと回収される
+    private final ConcurrentLinkedQueue<VisitedSet> visitedPool = new ConcurrentLinkedQueue<>();
+
+    private HnswGraph(FloatBuffer vectors, int dim, int size, int m, int efConstruction) {
+        this(vectors, dim, size, m, m * 2, efConstruction,
+                new int[size], new int[size * m * 2], new int[size], new int[size][]);
+    }
+
+    private HnswGraph(FloatBuffer vectors, int dim, int size, int m, int maxM0, int efConstruction,
+                      int[] levels, int[] links0, int[] counts0, int[][] upperLinks) {
+        this.vectors = vectors;
+        this.dim = dim;
+        this.size = size;
+        this.m = m;
+        this.maxM0 = maxM0;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levels = levels;
+        this.links0 = links0;
+        this.counts0 = counts0;
+        this.upperLinks = upperLinks;
+    }
+
+    /**
+     * セグメントの全行からグラフを作る
+     */
+    static HnswGraph build(FloatBuffer vectors, int dim, int size, int m, int efConstruction, long seed) {
+        HnswGraph g = new HnswGraph(vectors, dim, size, m, efConstruction);
+        SplittableRandom random = new SplittableRandom(seed);
+        double levelMult = 1.0 / Math.log(Math.max(m, 2));
+        float[] q = new float[dim];
+        for (int node = 0; node < size; node++) {
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMult);
+            vectors.get(node * dim, q, 0, dim);
+            g.insert(node, level, q);
+        }
+        return g;
+    }
+
+    /**
+     * スナップショットファイルにリンク構造を書き出す（ベクトルはセグメント側で書く）
+     */
+    void writeTo(IndexSnapshotFile.Output out) throws IOException {
+        out.putInt(m);
+        out.putInt(maxM0);
+        out.putInt(efConstruction);
+        out.putInt(entryPoint);
+        out.putInt(maxLevel);
+        out.putInts(levels, 0, size);
+        out.putInts(counts0, 0, size);
+        out.putInts(links0, 0, size * maxM0);
+        for (int node = 0; node < size; node++) {
+            if (levels[node] > 0) {
+                out.putInts(upperLinks[node], 0, upperLinks[node].length);
+            }
+        }
+    }
+
+    /**
+     * {@link #writeTo} で書いたリンク構造を読み、vectors と組み合わせてグラフに戻す
+     */
+    static HnswGraph readFrom(IndexSnapshotFile.Input in, FloatBuffer vectors, int dim, int size) throws IOException {
+        int m = in.readInt();
+        int maxM0 = in.readInt();
+        int efConstruction = in.readInt();
+        int entryPoint = in.readInt();
+        int maxLevel = in.readInt();
+        int[] levels = in.readInts(size);
+        int[] counts0 = in.readInts(size);
+        int[] links0 = in.readInts(size * maxM0);
+        int[][] upperLinks = new int[size][];
+        for (int node = 0; node < size; node++) {
+            if (levels[node] > 0) {
+                upperLinks[node] = in.readInts(levels[node] * (m + 1));
+            }
+        }
+        HnswGraph g = new HnswGraph(vectors, dim, size, m, maxM0, efConstruction, levels, links0, counts0, upperLinks);
+        g.entryPoint = entryPoint;
+        g.maxLevel = maxLevel;
+        return g;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int m() {
+        return m;
+    }
+
+    /**
+     * query に近い行を最大 k 件、ヒープに入れて返す。
+     * efSearch が大きいほど精度が上がり、遅くなる。
+     *
+     * @param excluded 結果に含めない行（削除済みなど）。経路としてはたどる。null 可
+     */
+    TopKHeap search(float[] query, int k, int efSearch, BitSet excluded) {
+        return search(query, k, efSearch, excluded, null);
+    }
+
+    /**
+     * search の統計つき版。stats（null 可）に最下層で距離を計算したノード数を足す
+     */
+    TopKHeap search(float[] query, int k, int efSearch, BitSet excluded, SearchStats stats) {
+        if (entryPoint == NO_NODE) {
+            return new TopKHeap(Math.max(k, 1));
+        }
+        int ep = entryPoint;
+        float epDist = distance(query, 0, ep);
+        for (int level = maxLevel; level > 0; level--) {
+            ep = greedyClosest(query, 0, ep, epDist, level);
+            epDist = distance(query, 0, ep);
+        }
+        int ef = Math.max(efSearch, k);
+        TopKHeap candidates = searchLayer(query, 0, ep, epDist, ef, 0, excluded, stats);
+
+        // ef 件の候補から近い k 件だけ残す
+        float[] dist = new float[candidates.size()];
+        int[] rows = new int[candidates.size()];
+        int n = candidates.drainSorted(dist, rows);
+        TopKHeap top = new TopKHeap(Math.max(k, 1));
+        for (int i = 0; i < n && i < k; i++) {
+            top.offer(dist[i], rows[i]);
+        }
+        return top;
+    }
+
+    // ----------------- 構築 -----------------
+
+    /**
+     * @param q node のベクトル（vectors からコピーしたもの）
+     */
+    private void insert(int node, int level, float[] q) {
+        levels[node] = level;
+        if (level > 0) {
+            upperLinks[node] = new int[level * (m + 1)];
+        }
+        if (entryPoint == NO_NODE) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        float epDist = distance(q, 0, ep);
+        for (int lc = maxLevel; lc > level; lc--) {
+            ep = greedyClosest(q, 0, ep, epDist, lc);
+            epDist = distance(q, 0, ep);
+        }
+
+        for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+            TopKHeap found = searchLayer(q, 0, ep, epDist, efConstruction, lc, null, null);
+            float[] dist = new float[found.size()];
+            int[] rows = new int[found.size()];
+            int n = found.drainSorted(dist, rows);
+
+            int maxLinks = (lc == 0) ? maxM0 : m;
+            int selected = selectNeighbors(rows, dist, n, m);
+            for (int i = 0; i < selected; i++) {
+                addLink(node, rows[i], lc, maxLinks);
+                addLink(rows[i], node, lc, maxLinks);
+            }
+            // 次のレベルは今回見つかった最も近い点から始める
+            ep = rows[0];
+            epDist = dist[0];
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 近い順に並んだ候補から、既に選んだ点より query に近いものだけを選ぶ（HNSW のヒューリスティック）。
+     * 選ばれた点は rows / dist の先頭に詰め直し、その件数を返す。
+     */
+    private int selectNeighbors(int[] rows, float[] dist, int n, int limit) {
+        int selected = 0;
+        for (int i = 0; i < n && selected < limit; i++) {
+            int cand = rows[i];
+            boolean good = true;
+            for (int j = 0; j < selected; j++) {
+                if (distanceBetween(cand, rows[j]) < dist[i]) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                rows[selected] = cand;
+                dist[selected] = dist[i];
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    private void addLink(int from, int to, int level, int maxLinks) {
+        int[] links;
+        int base;
+        int count;
+        if (level == 0) {
+            links = links0;
+            base = from * maxM0;
+            count = counts0[from];
+        } else {
+            links = upperLinks[from];
+            base = (level - 1) * (m + 1) + 1;
+            count = links[base - 1];
+        }
+        for (int i = 0; i < count; i++) {
+            if (links[base + i] == to) {
+                return;
+            }
+        }
+        if (count < maxLinks) {
+            links[base + count] = to;
+            setCount(from, level, count + 1);
+            return;
+        }
+
+        // 満杯なら、今のリンク + 新しい点からヒューリスティックで選び直す
+        int[] rows = new int[count + 1];
+        float[] dist = new float[count + 1];
+        for (int i = 0; i < count; i++) {
+            rows[i] = links[base + i];
+        }
+        rows[count] = to;
+        for (int i = 0; i <= count; i++) {
+            dist[i] = distanceBetween(from, rows[i]);
+        }
+        sortByDistance(rows, dist, count + 1);
+        int selected = selectNeighbors(rows, dist, count + 1, maxLinks);
+        System.arraycopy(rows, 0, links, base, selected);
+        setCount(from, level, selected);
+    }
+
+    private void setCount(int node, int level, int count) {
+        if (level == 0) {
+            counts0[node] = count;
+        } else {
+            upperLinks[node][(level - 1) * (m + 1)] = count;
+        }
+    }
+
+    private static void sortByDistance(int[] rows, float[] dist, int n) {
+        // 件数は高々 2M+1 なので挿入ソートで十分
+        for (int i = 1; i < n; i++) {
+            float d = dist[i];
+            int r = rows[i];
+            int j = i - 1;
+            while (j >= 0 && dist[j] > d) {
+                dist[j + 1] = dist[j];
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            dist[j + 1] = d;
+            rows[j + 1] = r;
+        }
+    }
+
+    // ----------------- 探索 -----------------
+
+    /**
+     * 指定レベルで近傍をたどり、これ以上近づけなくなった点を返す（ef = 1 の探索）
+     */
+    private int greedyClosest(float[] q, int qOff, int ep, float epDist, int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = upperLinks[ep];
+            int base = (level - 1) * (m + 1) + 1;
+            int count = links[base - 1];
+            for (int i = 0; i < count; i++) {
+                int cand = links[base + i];
+                float d = distance(q, qOff, cand);
+                if (d < epDist) {
+                    epDist = d;
+                    ep = cand;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * 1 レベル分の best-first 探索。見つかった近い点を最大 ef 件ヒープで返す。
+     * excluded の行は結果には入れないが、探索の経路としては使う。
+     */
+    private TopKHeap searchLayer(float[] q, int qOff, int ep, float epDist, int ef, int level, BitSet excluded,
+                                 SearchStats stats) {
+        VisitedSet seen = visitedPool.poll();
+        if (seen == null) {
+            seen = new VisitedSet(size);
+        }
+        try {
+            return searchLayer(q, qOff, ep, epDist, ef, level, excluded, stats, seen);
+        } finally {
+            visitedPool.offer(seen);
+        }
+    }
+
+    private TopKHeap searchLayer(float[] q, int qOff, int ep, float epDist, int ef, int level, BitSet excluded,
+                                 SearchStats stats, VisitedSet seen) {
+        int evaluated = 1;
+        seen.next();
+        seen.add(ep);
+
+        TopKHeap results = new TopKHeap(ef);
+        MinHeap candidates = new MinHeap(ef * 2);
+        if (excluded == null || !excluded.get(ep)) {
+            results.offer(epDist, ep);
+        }
+        candidates.push(epDist, ep);
+
+        while (candidates.size() > 0) {
+            float cd = candidates.peekDist();
+            if (cd > results.threshold()) {
+                break;
+            }
+            int c = candidates.pop();
+
+            int[] links;
+            int base;
+            int count;
+            if (level == 0) {
+                links = links0;
+                base = c * maxM0;
+                count = counts0[c];
+            } else {
+                links = upperLinks[c];
+                base = (level - 1) * (m + 1) + 1;
+                count = links[base - 1];
+            }
+            for (int i = 0; i < count; i++) {
+                int e = links[base + i];
+                if (!seen.add(e)) {
+                    continue;
+                }
+                float d = distance(q, qOff, e);
+                evaluated++;
+                if (d < results.threshold()) {
+                    candidates.push(d, e);
+                    if (excluded == null || !excluded.get(e)) {
+                        results.offer(d, e);
+                    }
+                }
+            }
+        }
+        if (stats != null) {
+            stats.addEvaluated(evaluated);
+        }
+        return results;
+    }
+
+    private float distance(float[] q, int qOff, int node) {
+        int base = node * dim;
+        float sum = 0f;
+        for (int d = 0; d < dim; d++) {
+            float diff = q[qOff + d] - vectors.get(base + d);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private float distanceBetween(int a, int b) {
+        int baseA = a * dim;
+        int baseB = b * dim;
+        float sum = 0f;
+        for (int d = 0; d < dim; d++) {
+            float diff = vectors.get(baseA + d) - vectors.get(baseB + d);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * (距離, ノード) の最小ヒープ。足りなくなったら配列を伸ばす
+     */
+    private static final class MinHeap {
+        private float[] dist;
+        private int[] nodes;
+        private int size;
+
+        MinHeap(int capacity) {
+            this.dist = new float[Math.max(capacity, 4)];
+            this.nodes = new int[Math.max(capacity, 4)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekDist() {
+            return dist[0];
+        }
+
+        void push(float d, int node) {
+            if (size == dist.length) {
+                dist = Arrays.copyOf(dist, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (dist[parent] <= d) {
+                    break;
+                }
+                dist[i] = dist[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            dist[i] = d;
+            nodes[i] = node;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                float d = dist[size];
+                int node = nodes[size];
+                int i = 0;
+                int half = size >>> 1;
+                while (i < half) {
+                    int child = 2 * i + 1;
+                    int right = child + 1;
+                    if (right < size && dist[right] < dist[child]) {
+                        child = right;
+                    }
+                    if (dist[child] >= d) {
+                        break;
+                    }
+                    dist[i] = dist[child];
+                    nodes[i] = nodes[child];
+                    i = child;
+                }
+                dist[i] = d;
+                nodes[i] = node;
+            }
+            return top;
+        }
+    }
+
+    /**
+     * 世代番号つきの訪問済み集合。clear のたびに配列を埋め直さずに済む
+     */
+    private static final class VisitedSet {
+        private final int[] marks;
+        private int generation;
+
+        VisitedSet(int size) {
+            this.marks = new int[size];
+        }
+
+        void next() {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /** 未訪問なら印をつけて true */
+        boolean add(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mvdecision.index;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * インデックスを構成するセグメント 1 つ分。生成後は変更しない（更新はコピーを作って差し替える）。
+ *
+ *  - ids / vectors / weights / datasetNames / cutCodes: 行ごとの平行配列
+ *    （vectors / weights はヒープの float[] を包んだものか、スナップショットファイルを mmap したもの）
+ *  - weights: 行ごとに NUM_KEYPOINTS 個の関節の重み（{@link DistanceMetric#WEIGHTED} 用。{@link VectorBlockBuilder} 参照）
+ *  - deleted: 削除済み（トゥームストーン）の行。null なら削除なし
+ *  - graph: この行集合に対する HNSW グラフ。未構築なら null
+ *  - pq: この行集合の直積量子化符号（mode=pq 用）。未構築なら null
+ *  - runStarts: cutCode / datasetName が同じ行の連続区間（パーティション）の先頭行。
+ *    区間 r は [runStarts[r], runStarts[r + 1])。絞り込み検索はこの区間単位で対象を選ぶ
+ *
+ * 新しく作るセグメントは行を (cutCode, datasetName) 順に並べておくので（{@link VectorBlockBuilder#toSegments}）、
+ * 区間の数はパーティションの数と同じになる。
+ */
+final class IndexSegment {
+
+    /**
+     * 1 セグメントの最大行数。vectors をスナップショットファイルから 1 回の FileChannel.map（2 GB まで）で
+     * マップできる行数で、row * DIM も int に収まる。これを超える分は別のセグメントに分ける
+     */
+    static final int MAX_ROWS = Integer.MAX_VALUE / (PoseFeatureIndex.DIM * Float.BYTES);
+
+    final long[] ids;
+    final FloatBuffer vectors;
+    final FloatBuffer weights;
+    final String[] datasetNames;
+    final String[] cutCodes;
+    final int size;
+    final BitSet deleted;
+    final int liveCount;
+    final HnswGraph graph;
+    final ProductQuantizer pq;
+    final int[] runStarts;
+
+    IndexSegment(long[] ids, FloatBuffer vectors, FloatBuffer weights, String[] datasetNames, String[] cutCodes,
+                 BitSet deleted, HnswGraph graph) {
+        this(ids, vectors, weights, datasetNames, cutCodes, deleted, graph, null, findRuns(datasetNames, cutCodes));
+    }
+
+    private IndexSegment(long[] ids, FloatBuffer vectors, FloatBuffer weights, String[] datasetNames,
+                         String[] cutCodes, BitSet deleted, HnswGraph graph, ProductQuantizer pq, int[] runStarts) {
+        this.ids = ids;
+        this.vectors = vectors;
+        this.weights = weights;
+        this.datasetNames = datasetNames;
+        this.cutCodes = cutCodes;
+        this.size = ids.length;
+        this.deleted = deleted;
+        this.liveCount = size - ((deleted != null) ? deleted.cardinality() : 0);
+        this.graph = graph;
+        this.pq = pq;
+        this.runStarts = runStarts;
+    }
+
+    private static int[] findRuns(String[] datasetNames, String[] cutCodes) {
+        int size = cutCodes.length;
+        int[] starts = new int[size + 1];
+        int runs = 0;
+        for (int row = 0; row < size; row++) {
+            if (row == 0 || !Objects.equals(cutCodes[row], cutCodes[row - 1])
+                    || !Objects.equals(datasetNames[row], datasetNames[row - 1])) {
+                starts[runs++] = row;
+            }
+        }
+        starts[runs] = size;
+        return Arrays.copyOf(starts, runs + 1);
+    }
+
+    boolean isDeleted(int row) {
+        return deleted != null && deleted.get(row);
+    }
+
+    IndexSegment withGraph(HnswGraph graph) {
+        return new IndexSegment(ids, vectors, weights, datasetNames, cutCodes, deleted, graph, pq, runStarts);
+    }
+
+    IndexSegment withPq(ProductQuantizer pq) {
+        return new IndexSegment(ids, vectors, weights, datasetNames, cutCodes, deleted, graph, pq, runStarts);
+    }
+
+    /**
+     * filter を満たす区間を [from, to) の組で並べた配列（長さは区間数 * 2）
+     */
+    int[] selectRuns(SearchFilter filter) {
+        int runs = runStarts.length - 1;
+        int[] out = new int[runs * 2];
+        int n = 0;
+        for (int r = 0; r < runs; r++) {
+            int from = runStarts[r];
+            if (filter.matches(cutCodes[from], datasetNames[from])) {
+                out[n++] = from;
+                out[n++] = runStarts[r + 1];
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * datasetName / cutCode が一致する行にトゥームストーンを立てたコピーを返す（null 条件は無視）。
+     * 該当行が無ければ this をそのまま返す
+     */
+    IndexSegment withDeleted(String datasetName, String cutCode) {
+        BitSet next = null;
+        for (int row = 0; row < size; row++) {
+            if (isDeleted(row)) {
+                continue;
+            }
+            if (datasetName != null && !datasetName.equals(datasetNames[row])) {
+                continue;
+            }
+            if (cutCode != null && !cutCode.equals(cutCodes[row])) {
+                continue;
+            }
+            if (next == null) {
+                next = (deleted != null) ? (BitSet) deleted.clone() : new BitSet(size);
+            }
+            next.set(row);
+        }
+        return (next == null) ? this : new IndexSegment(ids, vectors, weights, datasetNames, cutCodes, next, graph, pq, runStarts);
+    }
+}
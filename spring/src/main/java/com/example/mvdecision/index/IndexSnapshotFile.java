@@ -0,0 +1,382 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * インデックスのスナップショットファイル（app.storage.index-dir/pose-index.snap）の読み書き。
+ *
+ * 起動時に DB を全件スキャンしなくて済むよう、セグメントの中身をそのままファイルに書いておき、
+ * 次回起動時はベクトル部分を FileChannel.map でマップして使う（ヒープにはコピーしない）。
+ * 書き込みは一時ファイルに書いてから rename するので、マップ中の古いファイルはそのまま読める。
+ *
+ * 形式（すべてリトルエンディアン）:
+ * <pre>
+ *   header : long MAGIC, int VERSION, int dim, long highWaterId, int rejectedRows, int segmentCount
+ *   segment: int size, int flags
+ *            long[size] ids
+ *            float[size * dim] vectors            ← mmap
+ *            float[size * joints] weights         ← mmap（関節ごとの重み）
+ *            文字列辞書 + int[size] datasetName, int[size] cutCode
+ *            (flags & DELETED) int words, long[words] 削除済み行のビット列
+ *            (flags & GRAPH)   HNSW のリンク構造（{@link HnswGraph#writeTo}）
+ *            (flags & PQ)      直積量子化のコードブックと符号（{@link ProductQuantizer#writeTo}。符号は mmap）
+ *   trailer: long MAGIC
+ * </pre>
+ */
+final class IndexSnapshotFile {
+
+    /** "MVPOSIDX" */
+    private static final long MAGIC = 0x4D56504F53494458L;
+    private static final int VERSION = 3;
+
+    private static final int JOINTS = PoseFeatureUtil.NUM_KEYPOINTS;
+
+    private static final int FLAG_DELETED = 1;
+    private static final int FLAG_GRAPH = 2;
+    private static final int FLAG_PQ = 4;
+
+    private IndexSnapshotFile() {
+    }
+
+    /**
+     * 読み込んだスナップショット。highWaterId はファイルが反映している最大の id（入れなかった行も含む）、
+     * rejectedRows は id が highWaterId 以下でベクトルにできずに入れなかった行数
+     */
+    record Loaded(IndexSegment[] segments, long highWaterId, int rejectedRows) {}
+
+    /**
+     * segments を path に書き出す。rejectedRows / rejectedMaxId はベクトルにできずに入れなかった行の数と最大の id。
+     * dim が違うファイルや壊れたファイルは読み込み時に捨てられる
+     */
+    static void write(Path path, IndexSegment[] segments, int rejectedRows, long rejectedMaxId, int dim)
+            throws IOException {
+        long highWaterId = rejectedMaxId;
+        for (IndexSegment seg : segments) {
+            for (int row = 0; row < seg.size; row++) {
+                highWaterId = Math.max(highWaterId, seg.ids[row]);
+            }
+        }
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(ch);
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(dim);
+            out.putLong(highWaterId);
+            out.putInt(rejectedRows);
+            out.putInt(segments.length);
+            for (IndexSegment seg : segments) {
+                writeSegment(out, seg, dim);
+            }
+            out.putLong(MAGIC);
+            out.flush();
+            ch.force(false);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeSegment(Output out, IndexSegment seg, int dim) throws IOException {
+        // 読み込み時に 1 回でマップできないセグメントは書かない（書いても次回起動時に捨てられるだけ）
+        if (seg.size > IndexSegment.MAX_ROWS) {
+            throw new IOException("Index segment has " + seg.size + " rows (max " + IndexSegment.MAX_ROWS + ")");
+        }
+        int flags = (seg.deleted != null ? FLAG_DELETED : 0) | (seg.graph != null ? FLAG_GRAPH : 0)
+                | (seg.pq != null ? FLAG_PQ : 0);
+        out.putInt(seg.size);
+        out.putInt(flags);
+        for (int row = 0; row < seg.size; row++) {
+            out.putLong(seg.ids[row]);
+        }
+        for (long i = 0, n = (long) seg.size * dim; i < n; i++) {
+            out.putFloat(seg.vectors.get((int) i));
+        }
+        for (long i = 0, n = (long) seg.size * JOINTS; i < n; i++) {
+            out.putFloat(seg.weights.get((int) i));
+        }
+
+        // datasetName / cutCode は種類が少ないので辞書 + 番号で持つ
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dict = new ArrayList<>();
+        int[] datasetCodes = encode(seg.datasetNames, codes, dict);
+        int[] cutCodes = encode(seg.cutCodes, codes, dict);
+        out.putInt(dict.size());
+        for (String value : dict) {
+            if (value == null) {
+                out.putInt(-1);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length);
+            out.putBytes(bytes);
+        }
+        out.putInts(datasetCodes, 0, seg.size);
+        out.putInts(cutCodes, 0, seg.size);
+
+        if (seg.deleted != null) {
+            long[] words = seg.deleted.toLongArray();
+            out.putInt(words.length);
+            for (long w : words) {
+                out.putLong(w);
+            }
+        }
+        if (seg.graph != null) {
+            seg.graph.writeTo(out);
+        }
+        if (seg.pq != null) {
+            seg.pq.writeTo(out);
+        }
+    }
+
+    private static int[] encode(String[] values, Map<String, Integer> codes, List<String> dict) {
+        int[] out = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String v = values[i];
+            Integer code = codes.get(v);
+            if (code == null) {
+                code = dict.size();
+                codes.put(v, code);
+                dict.add(v);
+            }
+            out[i] = code;
+        }
+        return out;
+    }
+
+    /**
+     * path を読み込む。バージョン・次元が合わない、または途中で切れているファイルは IOException
+     */
+    static Loaded read(Path path, int dim) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            Input in = new Input(ch);
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not an index snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported index snapshot version: " + version);
+            }
+            int fileDim = in.readInt();
+            if (fileDim != dim) {
+                throw new IOException("Index snapshot dim mismatch: " + fileDim + " != " + dim);
+            }
+            long highWaterId = in.readLong();
+            int rejectedRows = in.readInt();
+            int segmentCount = in.readInt();
+            IndexSegment[] segments = new IndexSegment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = readSegment(in, dim);
+            }
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Index snapshot is truncated: " + path);
+            }
+            // マップした領域はチャネルを閉じても有効
+            return new Loaded(segments, highWaterId, rejectedRows);
+        }
+    }
+
+    private static IndexSegment readSegment(Input in, int dim) throws IOException {
+        int size = in.readInt();
+        int flags = in.readInt();
+        if (size < 0 || size > IndexSegment.MAX_ROWS) {
+            throw new IOException("Index segment has " + size + " rows (max " + IndexSegment.MAX_ROWS + ")");
+        }
+        long[] ids = in.readLongs(size);
+        FloatBuffer vectors = in.mapFloats((long) size * dim);
+        FloatBuffer weights = in.mapFloats((long) size * JOINTS);
+
+        int dictSize = in.readInt();
+        String[] dict = new String[dictSize];
+        for (int i = 0; i < dictSize; i++) {
+            int len = in.readInt();
+            dict[i] = (len < 0) ? null : new String(in.readBytes(len), StandardCharsets.UTF_8);
+        }
+        int[] datasetCodes = in.readInts(size);
+        int[] cutCodes = in.readInts(size);
+        String[] datasetNames = new String[size];
+        String[] cuts = new String[size];
+        for (int row = 0; row < size; row++) {
+            datasetNames[row] = dict[datasetCodes[row]];
+            cuts[row] = dict[cutCodes[row]];
+        }
+
+        BitSet deleted = null;
+        if ((flags & FLAG_DELETED) != 0) {
+            deleted = BitSet.valueOf(in.readLongs(in.readInt()));
+        }
+        HnswGraph graph = null;
+        if ((flags & FLAG_GRAPH) != 0) {
+            graph = HnswGraph.readFrom(in, vectors, dim, size);
+        }
+        IndexSegment segment = new IndexSegment(ids, vectors, weights, datasetNames, cuts, deleted, graph);
+        if ((flags & FLAG_PQ) != 0) {
+            segment = segment.withPq(ProductQuantizer.readFrom(in, size));
+        }
+        return segment;
+    }
+
+    /**
+     * FileChannel へのバッファ付き書き込み
+     */
+    static final class Output {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buf.putLong(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            ensure(4);
+            buf.putFloat(v);
+        }
+
+        void putInts(int[] src, int offset, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                putInt(src[offset + i]);
+            }
+        }
+
+        void putBytes(byte[] src) throws IOException {
+            putBytes(src, src.length);
+        }
+
+        void putBytes(byte[] src, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(1);
+                buf.put(src[i]);
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            buf.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * FileChannel からの位置指定読み込み。大きな配列は領域ごとマップして読む
+     */
+    static final class Input {
+        private final FileChannel ch;
+        private final long fileSize;
+        private final ByteBuffer scalar = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Input(FileChannel ch) throws IOException {
+            this.ch = ch;
+            this.fileSize = ch.size();
+        }
+
+        int readInt() throws IOException {
+            return readScalar(4).getInt(0);
+        }
+
+        long readLong() throws IOException {
+            return readScalar(8).getLong(0);
+        }
+
+        int[] readInts(int count) throws IOException {
+            int[] out = new int[count];
+            map((long) count * 4).asIntBuffer().get(out);
+            return out;
+        }
+
+        long[] readLongs(int count) throws IOException {
+            long[] out = new long[count];
+            map((long) count * 8).asLongBuffer().get(out);
+            return out;
+        }
+
+        byte[] readBytes(int count) throws IOException {
+            byte[] out = new byte[count];
+            map(count).get(out);
+            return out;
+        }
+
+        /**
+         * 次の count 個の float をヒープにコピーせずマップしたまま返す
+         */
+        FloatBuffer mapFloats(long count) throws IOException {
+            if (count * 4 > Integer.MAX_VALUE) {
+                throw new IOException("Index segment too large to map: " + count + " floats");
+            }
+            return map(count * 4).asFloatBuffer();
+        }
+
+        /**
+         * 次の count バイトをヒープにコピーせずマップしたまま返す
+         */
+        ByteBuffer mapBytes(long count) throws IOException {
+            if (count > Integer.MAX_VALUE) {
+                throw new IOException("Index segment too large to map: " + count + " bytes");
+            }
+            return map(count);
+        }
+
+        private ByteBuffer readScalar(int bytes) throws IOException {
+            check(bytes);
+            scalar.clear().limit(bytes);
+            while (scalar.hasRemaining()) {
+                if (ch.read(scalar, position + scalar.position()) < 0) {
+                    throw new IOException("Unexpected end of index snapshot");
+                }
+            }
+            position += bytes;
+            return scalar;
+        }
+
+        private ByteBuffer map(long bytes) throws IOException {
+            check(bytes);
+            ByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            position += bytes;
+            return region;
+        }
+
+        private void check(long bytes) throws IOException {
+            if (bytes < 0 || position + bytes > fileSize) {
+                throw new IOException("Unexpected end of index snapshot");
+            }
+        }
+    }
+}
@@ -0,0 +1,1395 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureBackfillService;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import com.example.mvdecision.pose.PoseLegacyVectorRow;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import com.example.mvdecision.pose.PoseVectorRow;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * feature_vector を常駐させる検索用インデックス。
+ *
+ * 起動時に DB から一度だけ読み込み、
+ *  - ids:     long[]  （PoseSample の id）
+ *  - vectors: float[] （DIM 個ずつ連続して詰めたベクトル）
+ * の平行配列として保持する。検索時はこの配列を線形スキャンするだけなので、
+ * サンプルごとのオブジェクト生成や文字列パースは発生しない。
+ * 件数が多いときは行範囲を fork-join で分割し、各ワーカーが固定長ヒープで
+ * topK を持ってから最後にマージする。
+ *
+ * mode=approx 用に、読み込み後にバックグラウンドで HNSW グラフも作る。
+ * グラフができるまでの間、approx の検索は全件スキャンで代用する。
+ * mode=pq 用には、同じくバックグラウンドで直積量子化の符号（1 行 17 バイト、{@link ProductQuantizer}）を作る。
+ * pq の検索は符号だけをスキャンして候補を集め、上位の候補だけベクトル本体を読んで正確な距離で並べ直す。
+ * スナップショットファイルから読んだセグメントではベクトル本体は mmap のままなので、
+ * 常に触るのは符号の分（float32 の 1/8）だけになる。
+ *
+ * ベクトルは id と feature_vector_bin（float32 バイナリ）だけの射影をストリームで読む。
+ * まだ文字列の feature_vector しかない古い行はその場でパースし、
+ * 読み込み後にバックグラウンドで feature_vector_bin を書き戻す。
+ *
+ * 起動後の更新は全件読み直しをせず、セグメント単位で行う。
+ *  - 取り込み: 追加された行だけで新しいセグメントを作って末尾に足す（{@link #append}）
+ *  - 削除: 該当行にトゥームストーンを立てたセグメントのコピーに差し替える（{@link #delete}）
+ * どちらも既存の配列は書き換えず、新しい snapshot を作って epoch を 1 つ進める。
+ * セグメントが増えすぎたり削除済みの行が多くなったら、生きている行だけを 1 セグメントにまとめ直す。
+ *
+ * インデックスが変わるたびに、セグメントの中身（ベクトル・メタ情報・削除フラグ・HNSW グラフ）を
+ * スナップショットファイルに書き出しておく（{@link IndexSnapshotFile}）。
+ * 次回起動時はそのファイルをマップし、DB からはファイルより新しい id の行だけを読む。
+ * マップしたベクトルはヒープの外にあるので、件数が増えても GC の対象は増えない。
+ *
+ * 複数クエリをまとめて検索するとき（{@link #searchBatch}）は、行を SCAN_BLOCK_ROWS 行ずつ読み、
+ * そのブロックに対して QUERY_TILE 個ずつのクエリの距離を続けて計算する（行 × クエリのタイル）。
+ * クエリごとに全件スキャンするのと違い、ベクトルを読むのは全体で 1 回だけになる。
+ *
+ * cutCode / datasetName で絞り込むとき（{@link SearchFilter}）は、全体の結果を後から間引くのではなく
+ * （それだと topK 件に満たなくなる）、セグメント内のパーティション（{@link IndexSegment#runStarts}）のうち
+ * 条件に合うものだけをスキャンする。approx でも対象が生きている行の半分以下ならこのスキャンの方が速く正確なので
+ * そちらを使い、それより多いときだけ対象外の行を除外扱いにして HNSW を辿る。
+ *
+ * L2 以外の距離（{@link DistanceMetric}）は全件スキャンで求める（HNSW グラフは L2 で作ってあるため）。
+ * 左右反転を含む距離は、反転したクエリを先に 1 つ作っておき、1 行を読むたびにそのままのクエリと
+ * 反転したクエリの両方の距離を同じループで足していく。どちらも打ち切り値を超えた時点で次の行に進むので、
+ * スキャンの回数もメモリの読み出しも L2 と同じ 1 回で済む。
+ *
+ * 一部の関節だけで探すとき（関節マスク）も全件スキャンで、使う関節の番号を先に並べておき、
+ * 行ごとのループはその関節だけを回る。見る座標が減るだけなので、全関節のスキャンより遅くはならない。
+ */
+@Component
+public class PoseFeatureIndex {
+
+    /** 1 サンプルあたりの次元数（17点 × (x,y)） */
+    public static final int DIM = PoseFeatureUtil.FEATURE_DIM;
+
+    /** 1 サンプルあたりの関節数（重みの個数） */
+    private static final int JOINTS = PoseFeatureUtil.NUM_KEYPOINTS;
+
+    /** これ以下の件数なら並列化せずに 1 スレッドでスキャンする */
+    private static final int PARALLEL_THRESHOLD = 32_768;
+
+    /** fork-join で分割するときの 1 タスクあたりの行数 */
+    private static final int LEAF_ROWS = 8_192;
+
+    /** スキャン時に FloatBuffer からまとめてコピーする行数 */
+    private static final int SCAN_BLOCK_ROWS = 256;
+
+    /** バッチ検索で 1 ブロックに対して続けて計算するクエリ数（QUERY_TILE × DIM の float が L1 に収まる） */
+    private static final int QUERY_TILE = 32;
+
+    /** feature_vector_bin・cut_code を書き戻すときの 1 トランザクションあたりの行数 */
+    private static final int BACKFILL_CHUNK = 500;
+
+    /** セグメントがこの数を超えたらまとめ直す（{@link IndexSegment#MAX_ROWS} 行で埋まった分は数えない） */
+    private static final int MAX_SEGMENTS = 8;
+
+    /** 削除済みの行がこの割合を超えたらまとめ直す */
+    private static final double MAX_DELETED_RATIO = 0.2;
+
+    private final PoseSampleRepository poseSampleRepository;
+    private final PoseFeatureBackfillService backfillService;
+    private final TransactionTemplate readOnlyTx;
+
+    /** スナップショットファイル（app.storage.index-dir/pose-index.snap） */
+    private final boolean snapshotEnabled;
+    private final Path snapshotFile;
+    private final AtomicBoolean snapshotWritePending = new AtomicBoolean();
+
+    // HNSW のパラメータ（application.yml の app.index.hnsw.*）
+    private final boolean hnswEnabled;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int hnswEfSearch;
+
+    // 直積量子化のパラメータ（application.yml の app.index.pq.*）
+    private final boolean pqEnabled;
+    private final int pqRerankFactor;
+
+    // HNSW グラフの構築や feature_vector_bin の書き戻しは、検索スレッドを止めないよう専用スレッドで行う
+    private final ExecutorService indexWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pose-index-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 読み取りはロックなしで snapshot を参照するだけ。更新時は丸ごと差し替える
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public PoseFeatureIndex(PoseSampleRepository poseSampleRepository,
+                            PoseFeatureBackfillService backfillService,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${app.index.snapshot.enabled:true}") boolean snapshotEnabled,
+                            @Value("${app.storage.index-dir:data/index}") String indexDir,
+                            @Value("${app.index.hnsw.enabled:true}") boolean hnswEnabled,
+                            @Value("${app.index.hnsw.m:16}") int hnswM,
+                            @Value("${app.index.hnsw.ef-construction:200}") int hnswEfConstruction,
+                            @Value("${app.index.hnsw.ef-search:64}") int hnswEfSearch,
+                            @Value("${app.index.pq.enabled:true}") boolean pqEnabled,
+                            @Value("${app.index.pq.rerank-factor:4}") int pqRerankFactor) {
+        this.poseSampleRepository = poseSampleRepository;
+        this.backfillService = backfillService;
+        // Stream を返すリポジトリメソッドはトランザクション内でしか使えない
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.snapshotEnabled = snapshotEnabled;
+        this.snapshotFile = Paths.get(indexDir).resolve("pose-index.snap");
+        this.hnswEnabled = hnswEnabled;
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.hnswEfSearch = hnswEfSearch;
+        this.pqEnabled = pqEnabled;
+        this.pqRerankFactor = pqRerankFactor;
+    }
+
+    @PostConstruct
+    public void load() {
+        // cut_code が空の古い行を先に埋める。埋めた行があればスナップショットファイルの cutCode は古いので使わない
+        boolean cutCodesFilled = fillMissingCutCodes() > 0;
+        if (snapshotEnabled && !cutCodesFilled && Files.exists(snapshotFile) && loadSnapshotFile()) {
+            return;
+        }
+        reload();
+    }
+
+    /**
+     * cut_code を入れる前に取り込んだ行に、source_image_path から取り込みと同じ規則で cut_code を書き込む。
+     * 書き込んだ行数を返す（一度埋めれば次の起動からは 0）
+     */
+    private int fillMissingCutCodes() {
+        int filled = 0;
+        int n;
+        do {
+            n = backfillService.fillCutCodes(BACKFILL_CHUNK);
+            filled += n;
+        } while (n == BACKFILL_CHUNK);
+        if (filled > 0) {
+            System.out.println("PoseFeatureIndex backfilled cut_code: " + filled + " rows");
+        }
+        return filled;
+    }
+
+    /**
+     * DB から全件読み直してインデックスを作り直す。
+     * id と feature_vector_bin だけをストリームで読むので、raw_json などの LOB には触れない。
+     */
+    public synchronized void reload() {
+        VectorBlockBuilder rows = readRows(0);
+        IndexSegment[] loaded = rows.toSegments().toArray(new IndexSegment[0]);
+        this.snapshot = new Snapshot(loaded, snapshot.epoch + 1, rows.rejectedRows(), rows.rejectedMaxId());
+        System.out.println("PoseFeatureIndex loaded: " + snapshot.liveCount + " vectors (segments="
+                + loaded.length + ")");
+
+        for (IndexSegment seg : loaded) {
+            scheduleGraph(seg);
+            scheduleCodes(seg);
+        }
+        scheduleSnapshotWrite();
+    }
+
+    /**
+     * スナップショットファイルをマップし、ファイルより新しい id の行だけを DB から読んで足す。
+     * ファイルが壊れている・DB と行数が合わないときは false（呼び出し側で全件読み直す）
+     */
+    private synchronized boolean loadSnapshotFile() {
+        long start = System.nanoTime();
+        IndexSnapshotFile.Loaded file;
+        try {
+            file = IndexSnapshotFile.read(snapshotFile, DIM);
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("PoseFeatureIndex snapshot file ignored: " + ex.getMessage());
+            return false;
+        }
+
+        // ファイルを書いた後に DB 側で行が消えた・増えた（取り込み途中で落ちた等）なら使わない。
+        // ベクトルにできずに飛ばした行も DB では数えられるので、その分を足して比べる
+        int live = 0;
+        for (IndexSegment seg : file.segments()) {
+            live += seg.liveCount;
+        }
+        long expected = poseSampleRepository.countVectorsUpTo(file.highWaterId());
+        if (expected != live + file.rejectedRows()) {
+            System.err.println("PoseFeatureIndex snapshot file is stale: " + live + " vectors (+"
+                    + file.rejectedRows() + " rejected) in file, " + expected + " in DB");
+            return false;
+        }
+
+        VectorBlockBuilder replayedRows = readRows(file.highWaterId());
+        List<IndexSegment> replayed = replayedRows.toSegments();
+        IndexSegment[] segments = file.segments();
+        if (!replayed.isEmpty()) {
+            segments = Arrays.copyOf(segments, segments.length + replayed.size());
+            for (int i = 0; i < replayed.size(); i++) {
+                segments[file.segments().length + i] = replayed.get(i);
+            }
+        }
+        this.snapshot = snapshot.withRejected(file.rejectedRows(), file.highWaterId())
+                .withRejected(replayedRows.rejectedRows(), replayedRows.rejectedMaxId());
+        publish(segments);
+        System.out.println("PoseFeatureIndex loaded from " + snapshotFile + ": " + live + " vectors (+"
+                + replayedRows.size() + " from DB) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        // グラフ・符号の無いセグメントは作り直す（publish で既に積まれていれば 2 回目は飛ばされる）
+        for (IndexSegment seg : snapshot.segments) {
+            if (seg.graph == null) {
+                scheduleGraph(seg);
+            }
+            if (seg.pq == null) {
+                scheduleCodes(seg);
+            }
+        }
+
+        if (replayedRows.size() > 0 || replayedRows.rejectedRows() > 0
+                || snapshot.segments.length != file.segments().length) {
+            scheduleSnapshotWrite();
+        }
+        return true;
+    }
+
+    /**
+     * id が afterId より大きい行を DB からストリームで読む（セグメントにするのは呼び出し側で toSegments）。
+     * ベクトルが空・壊れている行は飛ばして reject で数える。
+     * 文字列の feature_vector しか無かった行は、バックグラウンドで feature_vector_bin を書き戻す
+     */
+    private VectorBlockBuilder readRows(long afterId) {
+        VectorBlockBuilder block = new VectorBlockBuilder(1024);
+
+        // feature_vector_bin が無かった行（後で書き戻す）
+        List<Long> backfillIdList = new ArrayList<>();
+        List<byte[]> backfillBinList = new ArrayList<>();
+
+        readOnlyTx.executeWithoutResult(status -> {
+            try (Stream<PoseVectorRow> rows = poseSampleRepository.streamVectorsAfter(afterId)) {
+                rows.forEach(row -> {
+                    int off = block.reserve();
+                    if (PoseFeatureUtil.decodeFeatureVector(row.getFeatureVectorBin(), block.vectors(), off)) {
+                        block.commit(row.getId(), row.getKeypointScoresBin(), row.getDatasetName(), row.getCutCode());
+                    } else {
+                        block.reject(row.getId());
+                    }
+                });
+            }
+            try (Stream<PoseLegacyVectorRow> rows = poseSampleRepository.streamLegacyVectorsAfter(afterId)) {
+                rows.forEach(row -> {
+                    String fv = row.getFeatureVector();
+                    if (fv == null || fv.isBlank()) {
+                        block.reject(row.getId());
+                        return;
+                    }
+                    int off = block.reserve();
+                    try {
+                        // 次元が合わないものはスキップ
+                        if (parseInto(fv, block.vectors(), off) != DIM) {
+                            block.reject(row.getId());
+                            return;
+                        }
+                    } catch (NumberFormatException ex) {
+                        // パースできない壊れたデータはスキップ
+                        block.reject(row.getId());
+                        return;
+                    }
+                    block.commit(row.getId(), row.getDatasetName(), row.getCutCode());
+                    backfillIdList.add(row.getId());
+                    backfillBinList.add(PoseFeatureUtil.encodeFeatureVector(block.vectors(), off));
+                });
+            }
+        });
+
+        int backfill = backfillIdList.size();
+        if (backfill > 0) {
+            long[] backfillIds = new long[backfill];
+            for (int i = 0; i < backfill; i++) {
+                backfillIds[i] = backfillIdList.get(i);
+            }
+            byte[][] backfillBins = backfillBinList.toArray(new byte[0][]);
+            indexWorker.execute(() -> writeBackfill(backfillIds, backfillBins, backfill));
+        }
+        return block;
+    }
+
+    /**
+     * 取り込みで増えた行を新しいセグメントとして追加する（{@link IndexSegment#MAX_ROWS} 行ごとに分ける）。
+     * 既存のセグメントには触れない
+     */
+    public synchronized void append(VectorBlockBuilder rows) {
+        if (rows.rejectedRows() > 0) {
+            this.snapshot = snapshot.withRejected(rows.rejectedRows(), rows.rejectedMaxId());
+        }
+        if (rows.size() == 0) {
+            if (rows.rejectedRows() > 0) {
+                scheduleSnapshotWrite();
+            }
+            return;
+        }
+        List<IndexSegment> added = rows.toSegments();
+        IndexSegment[] current = snapshot.segments;
+        IndexSegment[] next = Arrays.copyOf(current, current.length + added.size());
+        for (int i = 0; i < added.size(); i++) {
+            next[current.length + i] = added.get(i);
+        }
+        publish(next);
+        System.out.println("PoseFeatureIndex appended: " + rows.size() + " vectors (segments="
+                + snapshot.segments.length + ", epoch=" + snapshot.epoch + ")");
+        for (IndexSegment seg : added) {
+            scheduleGraph(seg);
+            scheduleCodes(seg);
+        }
+        scheduleSnapshotWrite();
+    }
+
+    /**
+     * datasetName / cutCode が一致する行を検索対象から外す（null の条件は無視。両方 null なら何もしない）。
+     * 戻り値は外した行数
+     */
+    public synchronized int delete(String datasetName, String cutCode) {
+        if (datasetName == null && cutCode == null) {
+            return 0;
+        }
+        IndexSegment[] current = snapshot.segments;
+        IndexSegment[] next = new IndexSegment[current.length];
+        int removed = 0;
+        for (int i = 0; i < current.length; i++) {
+            next[i] = current[i].withDeleted(datasetName, cutCode);
+            removed += current[i].liveCount - next[i].liveCount;
+        }
+        if (removed > 0) {
+            publish(next);
+            System.out.println("PoseFeatureIndex deleted: " + removed + " vectors (epoch=" + snapshot.epoch + ")");
+            scheduleSnapshotWrite();
+        }
+        return removed;
+    }
+
+    /**
+     * segments を新しい snapshot として公開する（呼び出し側で this をロックしていること）。
+     * 必要ならその場でセグメントをまとめ直す
+     */
+    private void publish(IndexSegment[] segments) {
+        long epoch = snapshot.epoch + 1;
+        int total = 0;
+        int live = 0;
+        for (IndexSegment seg : segments) {
+            total += seg.size;
+            live += seg.liveCount;
+        }
+        // MAX_ROWS 行のセグメントが並ぶ分はまとめても減らないので数に入れない（毎回まとめ直さないように）
+        boolean compact = segments.length > MAX_SEGMENTS + live / IndexSegment.MAX_ROWS
+                || (total > 0 && (total - live) > total * MAX_DELETED_RATIO);
+        if (!compact) {
+            this.snapshot = snapshot.next(segments, epoch);
+            return;
+        }
+        IndexSegment[] merged = compact(segments, live);
+        this.snapshot = snapshot.next(merged, epoch);
+        System.out.println("PoseFeatureIndex compacted: " + segments.length + " segments, "
+                + total + " rows -> " + live + " rows");
+        for (IndexSegment seg : merged) {
+            scheduleGraph(seg);
+            scheduleCodes(seg);
+        }
+    }
+
+    /**
+     * 削除されていない行だけを新しいセグメントにコピーする。
+     * 1 セグメントは {@link IndexSegment#MAX_ROWS} 行までで、超える分は次のセグメントに入れる
+     */
+    private static IndexSegment[] compact(IndexSegment[] segments, int live) {
+        List<IndexSegment> merged = new ArrayList<>();
+        int remaining = live;
+        VectorBlockBuilder block = new VectorBlockBuilder(Math.min(remaining, IndexSegment.MAX_ROWS));
+        for (IndexSegment seg : segments) {
+            for (int row = 0; row < seg.size; row++) {
+                if (seg.isDeleted(row)) {
+                    continue;
+                }
+                if (block.size() == IndexSegment.MAX_ROWS) {
+                    merged.addAll(block.toSegments());
+                    remaining -= block.size();
+                    block = new VectorBlockBuilder(Math.min(remaining, IndexSegment.MAX_ROWS));
+                }
+                int off = block.reserve();
+                seg.vectors.get(row * DIM, block.vectors(), off, DIM);
+                block.commit(seg.ids[row], seg.weights, row, seg.datasetNames[row], seg.cutCodes[row]);
+            }
+        }
+        merged.addAll(block.toSegments());
+        return merged.toArray(new IndexSegment[0]);
+    }
+
+    /**
+     * 今の snapshot をファイルに書き出す処理を indexWorker に積む。
+     * グラフ構築の後ろに並ぶので、構築中のグラフも含めて書ける。既に積んであれば何もしない
+     */
+    private void scheduleSnapshotWrite() {
+        if (snapshotEnabled && snapshotWritePending.compareAndSet(false, true)) {
+            indexWorker.execute(this::writeSnapshotFile);
+        }
+    }
+
+    private void writeSnapshotFile() {
+        snapshotWritePending.set(false);
+        Snapshot s = this.snapshot;
+        long start = System.nanoTime();
+        try {
+            IndexSnapshotFile.write(snapshotFile, s.segments, s.rejectedRows, s.rejectedMaxId, DIM);
+            System.out.println("PoseFeatureIndex snapshot written: " + s.liveCount + " vectors in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException | RuntimeException ex) {
+            // 書けなくても次回起動が遅くなるだけなので続行する
+            System.err.println("PoseFeatureIndex snapshot write failed: " + snapshotFile);
+            ex.printStackTrace();
+        }
+    }
+
+    private void scheduleGraph(IndexSegment segment) {
+        if (hnswEnabled && segment.size > 0) {
+            indexWorker.execute(() -> buildGraph(segment));
+        }
+    }
+
+    private void scheduleCodes(IndexSegment segment) {
+        if (pqEnabled && segment.size > 0) {
+            indexWorker.execute(() -> buildCodes(segment));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexWorker.shutdownNow();
+    }
+
+    /**
+     * 文字列しか無かった行に feature_vector_bin を書き戻す。
+     * 失敗しても次回起動時にまたパースされるだけなので、ログを出して続行する
+     */
+    private void writeBackfill(long[] ids, byte[][] bins, int count) {
+        try {
+            for (int from = 0; from < count; from += BACKFILL_CHUNK) {
+                backfillService.writeBinaryVectors(ids, bins, from, Math.min(count, from + BACKFILL_CHUNK));
+            }
+            System.out.println("PoseFeatureIndex backfilled feature_vector_bin: " + count + " rows");
+        } catch (RuntimeException ex) {
+            System.err.println("feature_vector_bin backfill failed");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * segment の HNSW グラフを作り、そのセグメントがまだ snapshot に残っていれば付け替える。
+     * 構築中に削除が入ってもベクトル配列は共有されたままなので、同じ配列を持つセグメントを探して付ける
+     */
+    private void buildGraph(IndexSegment segment) {
+        Snapshot current = this.snapshot;
+        int pos = indexOf(current, segment.vectors);
+        if (pos < 0 || current.segments[pos].graph != null) {
+            // 既にまとめ直されている（まとめ直した方のグラフは別途作られる）か、もう作ってある
+            return;
+        }
+        long start = System.nanoTime();
+        HnswGraph graph = HnswGraph.build(segment.vectors, DIM, segment.size, hnswM, hnswEfConstruction, segment.size);
+        synchronized (this) {
+            Snapshot s = this.snapshot;
+            int i = indexOf(s, segment.vectors);
+            if (i < 0) {
+                return;
+            }
+            IndexSegment[] next = s.segments.clone();
+            next[i] = next[i].withGraph(graph);
+            // 検索結果の集合は変わらないので epoch は進めない
+            this.snapshot = s.next(next, s.epoch);
+        }
+        scheduleSnapshotWrite();
+        System.out.println("PoseFeatureIndex HNSW built: " + segment.size + " nodes in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * segment の直積量子化の符号を作り、そのセグメントがまだ snapshot に残っていれば付け替える（buildGraph と同じ）
+     */
+    private void buildCodes(IndexSegment segment) {
+        Snapshot current = this.snapshot;
+        int pos = indexOf(current, segment.vectors);
+        if (pos < 0 || current.segments[pos].pq != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        ProductQuantizer pq = ProductQuantizer.build(segment.vectors, segment.size, segment.size);
+        synchronized (this) {
+            Snapshot s = this.snapshot;
+            int i = indexOf(s, segment.vectors);
+            if (i < 0) {
+                return;
+            }
+            IndexSegment[] next = s.segments.clone();
+            next[i] = next[i].withPq(pq);
+            this.snapshot = s.next(next, s.epoch);
+        }
+        scheduleSnapshotWrite();
+        System.out.println("PoseFeatureIndex PQ codes built: " + segment.size + " rows in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private static int indexOf(Snapshot s, FloatBuffer vectors) {
+        for (int i = 0; i < s.segments.length; i++) {
+            if (s.segments[i].vectors == vectors) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 検索対象になっている（削除されていない）行数 */
+    public int size() {
+        return snapshot.liveCount;
+    }
+
+    /**
+     * インデックスの世代番号。行の追加・削除・全件読み直しのたびに増える
+     */
+    public long epoch() {
+        return snapshot.epoch;
+    }
+
+    /**
+     * 今の snapshot（同じパッケージの別の検索構造が、セグメントを直接読むため）
+     */
+    Snapshot currentSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 行が残っているすべてのセグメントで HNSW グラフができているか
+     */
+    public boolean isGraphReady() {
+        Snapshot s = this.snapshot;
+        if (s.liveCount == 0) {
+            return false;
+        }
+        for (IndexSegment seg : s.segments) {
+            if (seg.liveCount > 0 && seg.graph == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 行が残っているすべてのセグメントで直積量子化の符号ができているか
+     */
+    public boolean isPqReady() {
+        Snapshot s = this.snapshot;
+        if (s.liveCount == 0) {
+            return false;
+        }
+        for (IndexSegment seg : s.segments) {
+            if (seg.liveCount > 0 && seg.pq == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * query に近い順に topK 件返す（全関節・L2・絞り込みなしの全件スキャン）
+     */
+    public List<Hit> search(double[] query, int topK) {
+        return search(query, topK, SearchOptions.EXACT, null);
+    }
+
+    /**
+     * options の条件で query に近い順に topK 件返す（距離が小さい順）。
+     * query の次元が DIM と異なる・options に関節が 1 つも無いときは空リスト。
+     * 走査した行数などは stats（null 可）へ足し込む
+     */
+    public List<Hit> search(double[] query, int topK, SearchOptions options, SearchStats stats) {
+        int jointMask = options.jointMask();
+        if ((jointMask & PoseFeatureUtil.ALL_JOINTS) == 0) {
+            return List.of();
+        }
+        if (query.length != DIM || topK <= 0) {
+            return List.of();
+        }
+        float[] q = new float[DIM];
+        for (int d = 0; d < DIM; d++) {
+            q[d] = (float) query[d];
+        }
+
+        Snapshot s = this.snapshot;
+        int k = Math.min(topK, s.liveCount);
+        if (k == 0) {
+            return List.of();
+        }
+        return searchSnapshot(s, ScanQuery.of(q, options.metric(), jointMask).withStats(stats), k, options.mode(),
+                efSearchOrDefault(options.efSearch()), rerankOrDefault(options.rerank(), k), options.filter());
+    }
+
+    /**
+     * 複数のクエリを options の条件でまとめて検索し、クエリごとの結果（距離が小さい順に topK 件）を同じ順番で返す。
+     * jointMasks[i] はクエリ i の距離に使う関節（null なら全クエリ options.jointMask()）。
+     * 次元が DIM と異なるクエリの結果は空リスト。
+     *
+     * EXACT・L2・全関節・絞り込みなしのクエリは、セグメントを 1 回だけスキャンして全クエリの topK を同時に求める。
+     * それ以外は /search と同じくクエリごとに検索する（絞り込みがあれば該当するパーティションだけを見る）
+     */
+    public List<List<Hit>> searchBatch(double[][] queries, int[] jointMasks, int topK, SearchOptions options) {
+        SearchMode mode = options.mode();
+        DistanceMetric metric = options.metric();
+        SearchFilter filter = options.filter();
+        List<List<Hit>> results = new ArrayList<>(queries.length);
+        for (int i = 0; i < queries.length; i++) {
+            results.add(List.of());
+        }
+        Snapshot s = this.snapshot;
+        int k = Math.min(topK, s.liveCount);
+        if (k <= 0) {
+            return results;
+        }
+
+        // 次元が合うクエリのうち、まとめてスキャンできる（EXACT・L2・全関節・絞り込みなし）ものを qs に DIM 個ずつ詰め
+        // （slots[j] は元の位置）、それ以外はクエリごとに検索する
+        boolean blocked = mode == SearchMode.EXACT && metric == DistanceMetric.L2 && filter.isEmpty();
+        int ef = efSearchOrDefault(options.efSearch());
+        int rr = rerankOrDefault(options.rerank(), k);
+        int[] slots = new int[queries.length];
+        float[] qs = new float[queries.length * DIM];
+        int nq = 0;
+        for (int i = 0; i < queries.length; i++) {
+            if (queries[i] == null || queries[i].length != DIM) {
+                continue;
+            }
+            int jointMask = (jointMasks != null) ? jointMasks[i] : options.jointMask();
+            if (!blocked || jointMask != PoseFeatureUtil.ALL_JOINTS) {
+                float[] q = new float[DIM];
+                for (int d = 0; d < DIM; d++) {
+                    q[d] = (float) queries[i][d];
+                }
+                results.set(i, searchSnapshot(s, ScanQuery.of(q, metric, jointMask), k, mode, ef, rr, filter));
+                continue;
+            }
+            for (int d = 0; d < DIM; d++) {
+                qs[nq * DIM + d] = (float) queries[i][d];
+            }
+            slots[nq++] = i;
+        }
+        if (nq == 0) {
+            return results;
+        }
+
+        List<List<Hit>> merged = new ArrayList<>(nq);
+        for (int j = 0; j < nq; j++) {
+            merged.add(new ArrayList<>());
+        }
+        for (IndexSegment seg : s.segments) {
+            if (seg.liveCount == 0) {
+                continue;
+            }
+            TopKHeap[] heaps = scanExactBatch(seg, qs, nq, k);
+            for (int j = 0; j < nq; j++) {
+                merged.get(j).addAll(toHits(seg, heaps[j]));
+            }
+        }
+        for (int j = 0; j < nq; j++) {
+            List<Hit> hits = merged.get(j);
+            hits.sort(Comparator.comparingDouble(Hit::distance));
+            results.set(slots[j], (hits.size() > k) ? new ArrayList<>(hits.subList(0, k)) : hits);
+        }
+        return results;
+    }
+
+    /**
+     * セグメントごとに topK を求めてから、距離順にマージして上位 k 件にする
+     */
+    private static List<Hit> searchSnapshot(Snapshot s, float[] q, int k, SearchMode mode, int efSearch, int rerank) {
+        return searchSnapshot(s, ScanQuery.of(q, DistanceMetric.L2), k, mode, efSearch, rerank, SearchFilter.NONE);
+    }
+
+    private static List<Hit> searchSnapshot(Snapshot s, ScanQuery q, int k, SearchMode mode, int efSearch,
+                                            int rerank, SearchFilter filter) {
+        if (s.segments.length == 1) {
+            IndexSegment seg = s.segments[0];
+            return toHits(seg, searchSegment(seg, q, k, mode, efSearch, rerank, filter));
+        }
+        List<Hit> merged = new ArrayList<>();
+        for (IndexSegment seg : s.segments) {
+            if (seg.liveCount > 0) {
+                merged.addAll(toHits(seg, searchSegment(seg, q, k, mode, efSearch, rerank, filter)));
+            }
+        }
+        merged.sort(Comparator.comparingDouble(Hit::distance));
+        return (merged.size() > k) ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    /**
+     * 1 セグメント分の topK。approx / pq でもグラフ・符号が未構築、または L2 以外の距離なら全件スキャンで代用する
+     */
+    private static TopKHeap searchSegment(IndexSegment seg, ScanQuery q, int k, SearchMode mode, int efSearch,
+                                          int rerank, SearchFilter filter) {
+        int[] runs = filter.isEmpty() ? null : seg.selectRuns(filter);
+        int selected = (runs == null) ? seg.liveCount : 0;
+        for (int i = 0; runs != null && i < runs.length; i += 2) {
+            selected += runs[i + 1] - runs[i];
+        }
+        if (q.stats != null) {
+            q.stats.addScanSize(selected);
+        }
+
+        if (mode == SearchMode.PQ && seg.pq != null && q.isPlain()) {
+            return searchCoded(seg, q, k, rerank, runs);
+        }
+        boolean approx = mode == SearchMode.APPROX && seg.graph != null && q.isPlain();
+        if (runs == null) {
+            if (approx) {
+                return seg.graph.search(q.q, k, efSearch, seg.deleted, q.stats);
+            }
+            return scanExact(seg, q, k);
+        }
+        if (selected == 0) {
+            return new TopKHeap(k);
+        }
+        if (approx && selected * 2L > seg.liveCount) {
+            // 対象外の行は削除済みと同じく、経路には使うが結果には入れない
+            BitSet excluded = (seg.deleted != null) ? (BitSet) seg.deleted.clone() : new BitSet(seg.size);
+            int prevTo = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                excluded.set(prevTo, runs[i]);
+                prevTo = runs[i + 1];
+            }
+            excluded.set(prevTo, seg.size);
+            return seg.graph.search(q.q, k, efSearch, excluded, q.stats);
+        }
+        return scanRuns(seg, q, runs, k);
+    }
+
+    /**
+     * 直積量子化の符号をスキャンして候補を集める（runs が null でなければ対象の区間だけ）。
+     * rerank > 0 なら max(k, rerank) 件の候補を集め、ベクトル本体との正確な距離で並べ直して k 件にする
+     */
+    private static TopKHeap searchCoded(IndexSegment seg, ScanQuery q, int k, int rerank, int[] runs) {
+        ScanQuery coded = q.withPqTable(seg.pq.distanceTable(q.q));
+        int candidates = (rerank > 0) ? Math.max(k, rerank) : k;
+        TopKHeap heap = (runs == null)
+                ? scanExact(seg, coded, candidates)
+                : scanRuns(seg, coded, runs, candidates);
+        if (rerank <= 0) {
+            return heap;
+        }
+        float[] dist = new float[heap.size()];
+        int[] rows = new int[heap.size()];
+        int n = heap.drainSorted(dist, rows);
+        if (q.stats != null) {
+            q.stats.addReranked(n);
+        }
+        TopKHeap exact = new TopKHeap(k);
+        float[] v = new float[DIM];
+        for (int i = 0; i < n; i++) {
+            seg.vectors.get(rows[i] * DIM, v, 0, DIM);
+            float limit = exact.threshold();
+            float d = squaredDistance(q.q, v, 0, limit);
+            if (d < limit) {
+                exact.offer(d, rows[i]);
+            }
+        }
+        return exact;
+    }
+
+    /**
+     * 索引内のベクトルをランダムにクエリとして使い、options.mode() の topK が全件スキャンの topK を
+     * どれだけ含むか（recall@K）を測る。approx なら HNSW（efSearch）、pq なら直積量子化（rerank 件の並べ直しつき）。
+     * options の絞り込み・距離・関節は使わない（全関節・L2・絞り込みなし）
+     */
+    public AnnRecallReport recallReport(int k, int queries, SearchOptions options) {
+        SearchMode mode = options.mode();
+        if (mode == SearchMode.PQ ? !isPqReady() : !isGraphReady()) {
+            throw new IllegalStateException((mode == SearchMode.PQ ? "PQ codes are" : "HNSW graph is")
+                    + " not built yet");
+        }
+        Snapshot s = this.snapshot;
+        int ef = efSearchOrDefault(options.efSearch());
+        int kk = Math.max(1, Math.min(k, s.liveCount));
+        int nq = Math.max(1, queries);
+        int rr = rerankOrDefault(options.rerank(), kk);
+
+        SplittableRandom random = new SplittableRandom(42);
+        float[] q = new float[DIM];
+        long exactNanos = 0;
+        long approxNanos = 0;
+        double recallSum = 0.0;
+        for (int i = 0; i < nq; i++) {
+            pickLiveVector(s, random, q);
+
+            long t0 = System.nanoTime();
+            List<Hit> exact = searchSnapshot(s, q, kk, SearchMode.EXACT, ef, 0);
+            long t1 = System.nanoTime();
+            List<Hit> approx = searchSnapshot(s, q, kk, mode, ef, rr);
+            long t2 = System.nanoTime();
+            exactNanos += t1 - t0;
+            approxNanos += t2 - t1;
+
+            int found = 0;
+            for (Hit a : approx) {
+                for (Hit e : exact) {
+                    if (a.id() == e.id()) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            recallSum += (double) found / exact.size();
+        }
+
+        AnnRecallReport report = new AnnRecallReport();
+        report.setIndexSize(s.liveCount);
+        report.setK(kk);
+        report.setQueries(nq);
+        report.setMode(mode.name().toLowerCase());
+        if (mode == SearchMode.PQ) {
+            report.setRerank(rr);
+            report.setBytesPerVector(ProductQuantizer.SUBSPACES);
+        } else {
+            report.setM(hnswM);
+            report.setEfSearch(ef);
+            report.setBytesPerVector(DIM * 4);
+        }
+        report.setRecall(recallSum / nq);
+        report.setExactAvgMillis(exactNanos / 1e6 / nq);
+        report.setApproxAvgMillis(approxNanos / 1e6 / nq);
+        return report;
+    }
+
+    /**
+     * 削除されていない行をランダムに 1 つ選んで dst にコピーする
+     */
+    private static void pickLiveVector(Snapshot s, SplittableRandom random, float[] dst) {
+        int nth = random.nextInt(s.liveCount);
+        for (IndexSegment seg : s.segments) {
+            if (nth >= seg.liveCount) {
+                nth -= seg.liveCount;
+                continue;
+            }
+            for (int row = 0; row < seg.size; row++) {
+                if (!seg.isDeleted(row) && nth-- == 0) {
+                    seg.vectors.get(row * DIM, dst, 0, DIM);
+                    return;
+                }
+            }
+        }
+    }
+
+    private int efSearchOrDefault(Integer efSearch) {
+        return (efSearch != null && efSearch > 0) ? efSearch : hnswEfSearch;
+    }
+
+    private int rerankOrDefault(Integer rerank, int k) {
+        if (rerank != null) {
+            return Math.max(0, rerank);
+        }
+        return k * Math.max(0, pqRerankFactor);
+    }
+
+    /**
+     * 行範囲をコアごとに分けてスキャンし、各ワーカーの topK ヒープをマージする
+     */
+    private static TopKHeap scanExact(IndexSegment s, ScanQuery q, int k) {
+        return (s.size <= PARALLEL_THRESHOLD)
+                ? scanRange(s, q, 0, s.size, k)
+                : new ScanTask(s, q, 0, s.size, k).invoke();
+    }
+
+    /**
+     * 絞り込み検索用。runs（[from, to) の組）の行だけをスキャンして 1 つのヒープにまとめる
+     */
+    private static TopKHeap scanRuns(IndexSegment s, ScanQuery q, int[] runs, int k) {
+        TopKHeap heap = new TopKHeap(k);
+        for (int i = 0; i < runs.length; i += 2) {
+            int from = runs[i];
+            int to = runs[i + 1];
+            if (to - from <= PARALLEL_THRESHOLD) {
+                scanRange(s, q, from, to, heap);
+            } else {
+                heap.merge(new ScanTask(s, q, from, to, k).invoke());
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * scanExact のバッチ版。件数 × クエリ数が多ければ行範囲を fork-join で分ける
+     */
+    private static TopKHeap[] scanExactBatch(IndexSegment s, float[] qs, int nq, int k) {
+        if ((long) s.size * nq <= PARALLEL_THRESHOLD) {
+            return scanRangeBatch(s, qs, nq, 0, s.size, k);
+        }
+        // クエリが多いほど 1 行あたりの計算が重いので、タスクあたりの行数を減らす
+        int leafRows = Math.max(SCAN_BLOCK_ROWS * 4, LEAF_ROWS / nq);
+        return new BatchScanTask(s, qs, nq, 0, s.size, k, leafRows).invoke();
+    }
+
+    private static List<Hit> toHits(IndexSegment s, TopKHeap heap) {
+        float[] dist = new float[heap.size()];
+        int[] rows = new int[heap.size()];
+        int n = heap.drainSorted(dist, rows);
+
+        List<Hit> hits = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            hits.add(new Hit(s.ids[rows[i]], Math.sqrt(dist[i])));
+        }
+        return hits;
+    }
+
+    /**
+     * [from, to) の行をスキャンして topK ヒープを作る（削除済みの行は飛ばす）。
+     * FloatBuffer.get(i) を 1 要素ずつ呼ぶより、SCAN_BLOCK_ROWS 行ずつ float[] に
+     * まとめてコピーしてから回した方が速い（mmap したセグメントでも同じ）
+     */
+    static TopKHeap scanRange(IndexSegment s, ScanQuery q, int from, int to, int k) {
+        TopKHeap heap = new TopKHeap(k);
+        scanRange(s, q, from, to, heap);
+        return heap;
+    }
+
+    /**
+     * [from, to) の行をスキャンして、既存の heap に入れる
+     */
+    static void scanRange(IndexSegment s, ScanQuery q, int from, int to, TopKHeap heap) {
+        if (q.pqTable != null) {
+            scanRangeCoded(s, q, from, to, heap);
+            return;
+        }
+        if (!q.isPlain()) {
+            scanRangeFused(s, q, from, to, heap);
+            return;
+        }
+        FloatBuffer v = s.vectors;
+        BitSet deleted = s.deleted;
+        int skipped = 0;
+        float[] block = new float[Math.min(SCAN_BLOCK_ROWS, to - from) * DIM];
+        for (int blockFrom = from; blockFrom < to; blockFrom += SCAN_BLOCK_ROWS) {
+            int rows = Math.min(SCAN_BLOCK_ROWS, to - blockFrom);
+            v.get(blockFrom * DIM, block, 0, rows * DIM);
+            for (int i = 0; i < rows; i++) {
+                int row = blockFrom + i;
+                if (deleted != null && deleted.get(row)) {
+                    skipped++;
+                    continue;
+                }
+                float d = squaredDistance(q.q, block, i * DIM, heap.threshold());
+                if (d < heap.threshold()) {
+                    heap.offer(d, row);
+                }
+            }
+        }
+        q.addEvaluated(to - from - skipped);
+    }
+
+    /**
+     * scanRange の直積量子化版。符号を SCAN_BLOCK_ROWS 行ずつコピーし、距離表を引いて足す
+     */
+    private static void scanRangeCoded(IndexSegment s, ScanQuery q, int from, int to, TopKHeap heap) {
+        ProductQuantizer pq = s.pq;
+        float[] table = q.pqTable;
+        BitSet deleted = s.deleted;
+        int skipped = 0;
+        int width = ProductQuantizer.SUBSPACES;
+        byte[] block = new byte[Math.min(SCAN_BLOCK_ROWS, to - from) * width];
+        for (int blockFrom = from; blockFrom < to; blockFrom += SCAN_BLOCK_ROWS) {
+            int rows = Math.min(SCAN_BLOCK_ROWS, to - blockFrom);
+            pq.copyCodes(blockFrom, rows, block);
+            for (int i = 0; i < rows; i++) {
+                int row = blockFrom + i;
+                if (deleted != null && deleted.get(row)) {
+                    skipped++;
+                    continue;
+                }
+                float limit = heap.threshold();
+                float d = ProductQuantizer.distance(table, block, i * width, limit);
+                if (d < limit) {
+                    heap.offer(d, row);
+                }
+            }
+        }
+        q.addEvaluated(to - from - skipped);
+    }
+
+    /**
+     * scanRange の L2 以外・関節マスクあり版。重み付きなら重みも同じブロック単位でコピーし、
+     * 反転ありならそのままのクエリと反転したクエリの距離を 1 回のループで求める（{@link #fusedDistance}）
+     */
+    private static void scanRangeFused(IndexSegment s, ScanQuery q, int from, int to, TopKHeap heap) {
+        FloatBuffer v = s.vectors;
+        BitSet deleted = s.deleted;
+        int blockRows = Math.min(SCAN_BLOCK_ROWS, to - from);
+        float[] block = new float[blockRows * DIM];
+        float[] weightBlock = q.weighted ? new float[blockRows * JOINTS] : null;
+        int skipped = 0;
+        for (int blockFrom = from; blockFrom < to; blockFrom += SCAN_BLOCK_ROWS) {
+            int rows = Math.min(SCAN_BLOCK_ROWS, to - blockFrom);
+            v.get(blockFrom * DIM, block, 0, rows * DIM);
+            if (weightBlock != null) {
+                s.weights.get(blockFrom * JOINTS, weightBlock, 0, rows * JOINTS);
+            }
+            for (int i = 0; i < rows; i++) {
+                int row = blockFrom + i;
+                if (deleted != null && deleted.get(row)) {
+                    skipped++;
+                    continue;
+                }
+                float limit = heap.threshold();
+                float d = fusedDistance(q, block, i * DIM, weightBlock, i * JOINTS, limit);
+                if (d < limit) {
+                    heap.offer(d, row);
+                }
+            }
+        }
+        q.addEvaluated(to - from - skipped);
+    }
+
+    /**
+     * scanRange の複数クエリ版。qs[j * DIM..] が j 番目のクエリで、クエリごとのヒープを返す。
+     * ブロック（SCAN_BLOCK_ROWS 行）を 1 回コピーしたら、QUERY_TILE 個ずつのクエリについて
+     * ブロック内の全行との距離を計算する。ブロックは L2、クエリのタイルは L1 に載ったまま回る
+     */
+    static TopKHeap[] scanRangeBatch(IndexSegment s, float[] qs, int nq, int from, int to, int k) {
+        TopKHeap[] heaps = new TopKHeap[nq];
+        for (int j = 0; j < nq; j++) {
+            heaps[j] = new TopKHeap(k);
+        }
+        FloatBuffer v = s.vectors;
+        BitSet deleted = s.deleted;
+        float[] block = new float[Math.min(SCAN_BLOCK_ROWS, to - from) * DIM];
+        for (int blockFrom = from; blockFrom < to; blockFrom += SCAN_BLOCK_ROWS) {
+            int rows = Math.min(SCAN_BLOCK_ROWS, to - blockFrom);
+            v.get(blockFrom * DIM, block, 0, rows * DIM);
+            for (int tileFrom = 0; tileFrom < nq; tileFrom += QUERY_TILE) {
+                int tileTo = Math.min(nq, tileFrom + QUERY_TILE);
+                for (int i = 0; i < rows; i++) {
+                    int row = blockFrom + i;
+                    if (deleted != null && deleted.get(row)) {
+                        continue;
+                    }
+                    for (int j = tileFrom; j < tileTo; j++) {
+                        TopKHeap heap = heaps[j];
+                        float limit = heap.threshold();
+                        float d = squaredDistance(qs, j * DIM, block, i * DIM, limit);
+                        if (d < limit) {
+                            heap.offer(d, row);
+                        }
+                    }
+                }
+            }
+        }
+        return heaps;
+    }
+
+    /**
+     * q と v[base..base+DIM) の二乗距離。
+     * 途中で limit を超えたら打ち切る（どうせ topK に入らない）
+     */
+    static float squaredDistance(float[] q, float[] v, int base, float limit) {
+        return squaredDistance(q, 0, v, base, limit);
+    }
+
+    /**
+     * q[qBase..qBase+DIM) と v[base..base+DIM) の二乗距離（打ち切りは上と同じ）
+     */
+    static float squaredDistance(float[] q, int qBase, float[] v, int base, float limit) {
+        float sum = 0f;
+        for (int d = 0; d < DIM; d += 2) {
+            float dx = q[qBase + d] - v[base + d];
+            float dy = q[qBase + d + 1] - v[base + d + 1];
+            sum += dx * dx + dy * dy;
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * q.q と v[base..base+DIM) の（重み付き）二乗距離と、反転したクエリ q.mirrored との距離の小さい方。
+     * 距離は q.joints（反転側は q.mirroredJoints）の関節だけで測る。
+     * w が null なら重みはすべて 1、q.mirrored が null なら反転なし。
+     * 関節 1 つごとに両方の和を進め、両方とも limit を超えたら打ち切る
+     */
+    static float fusedDistance(ScanQuery q, float[] v, int base, float[] w, int wBase, float limit) {
+        float[] qq = q.q;
+        float[] qm = q.mirrored;
+        int[] joints = q.joints;
+        int[] mirroredJoints = q.mirroredJoints;
+        float sum = 0f;
+        float sumMirrored = (qm != null) ? 0f : Float.POSITIVE_INFINITY;
+        for (int i = 0; i < joints.length; i++) {
+            int j = joints[i];
+            float wj = (w != null) ? w[wBase + j] : 1f;
+            float dx = qq[2 * j] - v[base + 2 * j];
+            float dy = qq[2 * j + 1] - v[base + 2 * j + 1];
+            sum += wj * (dx * dx + dy * dy);
+            if (qm != null) {
+                int m = mirroredJoints[i];
+                float wm = (w != null) ? w[wBase + m] : 1f;
+                float mx = qm[2 * m] - v[base + 2 * m];
+                float my = qm[2 * m + 1] - v[base + 2 * m + 1];
+                sumMirrored += wm * (mx * mx + my * my);
+            }
+            if (sum >= limit && sumMirrored >= limit) {
+                break;
+            }
+        }
+        return Math.min(sum, sumMirrored);
+    }
+
+    /**
+     * 行範囲を半分ずつに割って fork-join で並列スキャンするタスク
+     */
+    @SuppressWarnings("serial")
+    private static final class ScanTask extends RecursiveTask<TopKHeap> {
+        private final IndexSegment s;
+        private final ScanQuery q;
+        private final int from;
+        private final int to;
+        private final int k;
+
+        ScanTask(IndexSegment s, ScanQuery q, int from, int to, int k) {
+            this.s = s;
+            this.q = q;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+        }
+
+        @Override
+        protected TopKHeap compute() {
+            if (to - from <= LEAF_ROWS) {
+                return scanRange(s, q, from, to, k);
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(s, q, from, mid, k);
+            ScanTask right = new ScanTask(s, q, mid, to, k);
+            left.fork();
+            TopKHeap merged = right.compute();
+            merged.merge(left.join());
+            return merged;
+        }
+    }
+
+    /**
+     * ScanTask の複数クエリ版。行範囲を半分ずつに割り、クエリごとのヒープをマージする
+     */
+    @SuppressWarnings("serial")
+    private static final class BatchScanTask extends RecursiveTask<TopKHeap[]> {
+        private final IndexSegment s;
+        private final float[] qs;
+        private final int nq;
+        private final int from;
+        private final int to;
+        private final int k;
+        private final int leafRows;
+
+        BatchScanTask(IndexSegment s, float[] qs, int nq, int from, int to, int k, int leafRows) {
+            this.s = s;
+            this.qs = qs;
+            this.nq = nq;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.leafRows = leafRows;
+        }
+
+        @Override
+        protected TopKHeap[] compute() {
+            if (to - from <= leafRows) {
+                return scanRangeBatch(s, qs, nq, from, to, k);
+            }
+            int mid = (from + to) >>> 1;
+            BatchScanTask left = new BatchScanTask(s, qs, nq, from, mid, k, leafRows);
+            BatchScanTask right = new BatchScanTask(s, qs, nq, mid, to, k, leafRows);
+            left.fork();
+            TopKHeap[] merged = right.compute();
+            TopKHeap[] other = left.join();
+            for (int j = 0; j < nq; j++) {
+                merged[j].merge(other[j]);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * "x0,y0,x1,y1,..." を split せずに dst[offset..] へ直接書き込む。
+     * 戻り値は書き込んだ要素数（DIM を超える分は数えるだけで書き込まない）。
+     */
+    static int parseInto(String featureVector, float[] dst, int offset) {
+        int count = 0;
+        int len = featureVector.length();
+        int start = 0;
+        while (start <= len) {
+            int end = featureVector.indexOf(',', start);
+            if (end < 0) {
+                end = len;
+            }
+            String token = featureVector.substring(start, end).trim();
+            if (!token.isEmpty()) {
+                float value = (float) Double.parseDouble(token);
+                if (count < DIM) {
+                    dst[offset + count] = value;
+                }
+                count++;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    /**
+     * 1 クエリ分のスキャン条件。
+     *  - mirrored: 左右反転したクエリ（反転なしなら null）
+     *  - joints: 距離に使う関節の番号（昇順）
+     *  - mirroredJoints: 反転したクエリで使う関節（joints[i] を反転した先が mirroredJoints[i]）
+     *  - pqTable: mode=pq のとき、このクエリの距離表（{@link ProductQuantizer#distanceTable}。それ以外は null）
+     *  - stats: 走査した行数の足し込み先（不要なら null）
+     */
+    static final class ScanQuery {
+        final float[] q;
+        final float[] mirrored;
+        final boolean weighted;
+        final int[] joints;
+        final int[] mirroredJoints;
+        final float[] pqTable;
+        final SearchStats stats;
+
+        private ScanQuery(float[] q, float[] mirrored, boolean weighted, int[] joints, int[] mirroredJoints,
+                          float[] pqTable, SearchStats stats) {
+            this.q = q;
+            this.mirrored = mirrored;
+            this.weighted = weighted;
+            this.joints = joints;
+            this.mirroredJoints = mirroredJoints;
+            this.pqTable = pqTable;
+            this.stats = stats;
+        }
+
+        static ScanQuery of(float[] q, DistanceMetric metric) {
+            return of(q, metric, PoseFeatureUtil.ALL_JOINTS);
+        }
+
+        static ScanQuery of(float[] q, DistanceMetric metric, int jointMask) {
+            int[] joints = new int[Integer.bitCount(jointMask & PoseFeatureUtil.ALL_JOINTS)];
+            int[] mirroredJoints = new int[joints.length];
+            for (int j = 0, n = 0; j < JOINTS; j++) {
+                if ((jointMask & (1 << j)) != 0) {
+                    joints[n] = j;
+                    // 反転したクエリの関節 m には元の関節 MIRROR[m] が来る（MIRROR は自分自身が逆写像）
+                    mirroredJoints[n] = PoseFeatureUtil.MIRROR[j];
+                    n++;
+                }
+            }
+            return new ScanQuery(q, metric.isMirrored() ? mirror(q) : null, metric.isWeighted(),
+                    joints, mirroredJoints, null, null);
+        }
+
+        /**
+         * 符号のスキャンに使う距離表をつけたコピー
+         */
+        ScanQuery withPqTable(float[] table) {
+            return new ScanQuery(q, mirrored, weighted, joints, mirroredJoints, table, stats);
+        }
+
+        /**
+         * 統計の足し込み先をつけたコピー（stats が null ならそのまま）
+         */
+        ScanQuery withStats(SearchStats stats) {
+            return (stats == null) ? this : new ScanQuery(q, mirrored, weighted, joints, mirroredJoints, pqTable, stats);
+        }
+
+        void addEvaluated(int rows) {
+            if (stats != null) {
+                stats.addEvaluated(rows);
+            }
+        }
+
+        /** 重みも反転も無く、全関節を使う（ただの L2） */
+        boolean isPlain() {
+            return mirrored == null && !weighted && joints.length == JOINTS && pqTable == null;
+        }
+
+        /**
+         * x を反転し、左右の関節を入れ替える（正規化済みなので原点は骨盤中心）
+         */
+        private static float[] mirror(float[] q) {
+            float[] out = new float[DIM];
+            for (int j = 0; j < JOINTS; j++) {
+                int src = PoseFeatureUtil.MIRROR[j];
+                out[2 * j] = -q[2 * src];
+                out[2 * j + 1] = q[2 * src + 1];
+            }
+            return out;
+        }
+    }
+
+    /**
+     * 検索結果 1 件分（id と距離）
+     */
+    public record Hit(long id, double distance) {}
+
+    /**
+     * ある時点のインデックス内容（セグメントの並び + 世代番号）。生成後は変更しない。
+     * rejectedRows / rejectedMaxId は DB にはあるがベクトルにできずに入れなかった行の数と最大の id で、
+     * スナップショットファイルの行数を DB と比べるときに使う（そうした行を後で削除すると次の起動は全件読み直しになる）
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new IndexSegment[0], 0, 0, 0);
+
+        final IndexSegment[] segments;
+        final long epoch;
+        /** 全セグメントの削除されていない行数 */
+        final int liveCount;
+        final int rejectedRows;
+        final long rejectedMaxId;
+
+        Snapshot(IndexSegment[] segments, long epoch, int rejectedRows, long rejectedMaxId) {
+            this.segments = segments;
+            this.epoch = epoch;
+            int live = 0;
+            for (IndexSegment seg : segments) {
+                live += seg.liveCount;
+            }
+            this.liveCount = live;
+            this.rejectedRows = rejectedRows;
+            this.rejectedMaxId = rejectedMaxId;
+        }
+
+        /**
+         * セグメントの並びと epoch だけを差し替えたもの
+         */
+        Snapshot next(IndexSegment[] nextSegments, long nextEpoch) {
+            return new Snapshot(nextSegments, nextEpoch, rejectedRows, rejectedMaxId);
+        }
+
+        /**
+         * 入れなかった行を rows 行（最大の id が maxId）足したもの
+         */
+        Snapshot withRejected(int rows, long maxId) {
+            return new Snapshot(segments, epoch, rejectedRows + rows, Math.max(rejectedMaxId, maxId));
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseSampleRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * カット単位のフレーム列に対する時系列検索（DTW）。
+ *
+ * {@link PoseFeatureIndex} の生きている行を cutCode ごとにまとめ、
+ * フレーム順（source_image_path → image_file_name → id の順）に並べた「ライブラリ」を持つ。
+ * ライブラリは最初の検索時に作り、インデックスの epoch が変わっていたら次の検索時に作り直す。
+ * DTW の内側のループで連続したメモリを読めるよう、ベクトルはフレーム順に float[] へコピーしておく。
+ *
+ * 検索はクエリ（T フレーム）と同じ長さの区間を各カットの上でずらしながら DTW を計算し、
+ * カットごとに最も近い区間を 1 つ選んで、その距離で上位 topK カットを返す。
+ * T より短いカットはカット全体とクエリの DTW を使う。
+ * 区間ごとに LB_Kim → LB_Keogh → DTW（打ち切りあり）の順に調べ、
+ * しきい値（そのカットの暫定最良値と topK の最下位の小さい方）を超えたものはそこで捨てる（{@link SequenceDtw}）。
+ * カットが多いときはカットの範囲を fork-join で分割する。
+ */
+@Component
+public class PoseSequenceIndex {
+
+    private static final int DIM = PoseFeatureIndex.DIM;
+
+    /** fork-join で分割するときの 1 タスクあたりのフレーム数の目安 */
+    private static final int LEAF_FRAMES = 16_384;
+
+    /** cutCode が取れなかった行（取り込み時に "unknown" になる）は時系列として意味がないので除く */
+    private static final String UNKNOWN_CUT = "unknown";
+
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final PoseSampleRepository poseSampleRepository;
+    private final TransactionTemplate readOnlyTx;
+
+    private volatile Library library;
+
+    public PoseSequenceIndex(PoseFeatureIndex poseFeatureIndex,
+                             PoseSampleRepository poseSampleRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.poseSampleRepository = poseSampleRepository;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    /**
+     * クエリのフレーム列 query（frames * DIM 個の float）に近いカットを topK 件返す（距離が小さい順）。
+     *
+     * @param band Sakoe-Chiba バンドの幅（フレーム数）。0 なら時間方向の伸縮なし
+     */
+    public SequenceSearchResult search(float[] query, int frames, int topK, int band) {
+        long started = System.nanoTime();
+        Library lib = library();
+        SequenceSearchStats stats = new SequenceSearchStats();
+        stats.setCuts(lib.count());
+        stats.setLibraryFrames(lib.frameCount());
+        stats.setQueryFrames(frames);
+        stats.setBand(band);
+
+        int k = Math.min(topK, lib.count());
+        if (frames <= 0 || k <= 0) {
+            return new SequenceSearchResult(List.of(), stats);
+        }
+
+        float[] upper = new float[frames * DIM];
+        float[] lower = new float[frames * DIM];
+        SequenceDtw.envelope(query, frames, band, upper, lower);
+        Query q = new Query(query, frames, band, upper, lower);
+
+        int[] bestStart = new int[lib.count()];
+        ScanResult scanned = (lib.frameCount() <= LEAF_FRAMES)
+                ? scanCuts(lib, q, 0, lib.count(), k, bestStart)
+                : new CutScanTask(lib, q, 0, lib.count(), k, bestStart).invoke();
+
+        TopKHeap heap = scanned.heap;
+        float[] dist = new float[heap.size()];
+        int[] cuts = new int[heap.size()];
+        int n = heap.drainSorted(dist, cuts);
+        List<SequenceHit> hits = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int cut = cuts[i];
+            int from = lib.starts[cut];
+            int length = lib.starts[cut + 1] - from;
+            int start = bestStart[cut];
+            int matched = Math.min(frames, length);
+            long[] ids = Arrays.copyOfRange(lib.frameIds, from + start, from + start + matched);
+            hits.add(new SequenceHit(lib.cutCodes[cut], lib.datasetNames[cut], length, start, ids,
+                    Math.sqrt(dist[i])));
+        }
+
+        stats.setCandidates(scanned.candidates);
+        stats.setPrunedByKim(scanned.prunedByKim);
+        stats.setPrunedByKeogh(scanned.prunedByKeogh);
+        stats.setDtwAbandoned(scanned.dtwAbandoned);
+        stats.setDtwCompleted(scanned.dtwCompleted);
+        stats.setElapsedMillis((System.nanoTime() - started) / 1e6);
+        return new SequenceSearchResult(hits, stats);
+    }
+
+    /**
+     * cutCode のフレーム列（フレーム数 * DIM 個の float をフレーム順に並べたもの）のコピー。
+     * ライブラリに無いカットなら null
+     */
+    public float[] cutFrames(String cutCode) {
+        Library lib = library();
+        Integer cut = lib.cutIndex.get(cutCode);
+        if (cut == null) {
+            return null;
+        }
+        return Arrays.copyOfRange(lib.frames, lib.starts[cut] * DIM, lib.starts[cut + 1] * DIM);
+    }
+
+    /**
+     * 今のインデックスに対応するライブラリ（古ければ作り直す）
+     */
+    private Library library() {
+        long epoch = poseFeatureIndex.epoch();
+        Library lib = this.library;
+        if (lib != null && lib.epoch == epoch) {
+            return lib;
+        }
+        synchronized (this) {
+            PoseFeatureIndex.Snapshot s = poseFeatureIndex.currentSnapshot();
+            lib = this.library;
+            if (lib != null && lib.epoch == s.epoch) {
+                return lib;
+            }
+            long t0 = System.currentTimeMillis();
+            lib = buildLibrary(s);
+            this.library = lib;
+            System.out.println("Pose sequence library built: " + lib.count() + " cuts, "
+                    + lib.frameCount() + " frames in " + (System.currentTimeMillis() - t0) + " ms");
+            return lib;
+        }
+    }
+
+    /**
+     * スナップショットの生きている行を、DB のフレーム順に並べ直してカットごとに区切る
+     */
+    private Library buildLibrary(PoseFeatureIndex.Snapshot s) {
+        // id → (セグメント, 行)
+        Map<Long, int[]> rowsById = new HashMap<>(Math.max(16, s.liveCount * 4 / 3));
+        for (int segIndex = 0; segIndex < s.segments.length; segIndex++) {
+            IndexSegment seg = s.segments[segIndex];
+            for (int row = 0; row < seg.size; row++) {
+                if (!seg.isDeleted(row)) {
+                    rowsById.put(seg.ids[row], new int[] {segIndex, row});
+                }
+            }
+        }
+
+        float[] frames = new float[s.liveCount * DIM];
+        long[] frameIds = new long[s.liveCount];
+        List<Integer> starts = new ArrayList<>();
+        List<String> cutCodes = new ArrayList<>();
+        List<String> datasetNames = new ArrayList<>();
+        int[] count = {0};
+
+        readOnlyTx.executeWithoutResult(status -> {
+            try (Stream<Long> ids = poseSampleRepository.streamIdsInFrameOrder()) {
+                ids.forEach(id -> {
+                    int[] loc = rowsById.get(id);
+                    if (loc == null) {
+                        // スナップショットの後に追加された行・削除済みの行
+                        return;
+                    }
+                    IndexSegment seg = s.segments[loc[0]];
+                    String cut = seg.cutCodes[loc[1]];
+                    if (cut == null || UNKNOWN_CUT.equals(cut)) {
+                        return;
+                    }
+                    int n = count[0];
+                    if (cutCodes.isEmpty() || !cut.equals(cutCodes.get(cutCodes.size() - 1))) {
+                        starts.add(n);
+                        cutCodes.add(cut);
+                        datasetNames.add(seg.datasetNames[loc[1]]);
+                    }
+                    seg.vectors.get(loc[1] * DIM, frames, n * DIM, DIM);
+                    frameIds[n] = id;
+                    count[0] = n + 1;
+                });
+            }
+        });
+
+        int[] startArray = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            startArray[i] = starts.get(i);
+        }
+        startArray[starts.size()] = count[0];
+        return new Library(s.epoch, frames, frameIds, startArray,
+                cutCodes.toArray(new String[0]), datasetNames.toArray(new String[0]));
+    }
+
+    /**
+     * カット [from, to) を順に調べ、カットごとの最良距離を topK ヒープに入れる。
+     * 最良区間の開始フレームは bestStart[カット番号] に書く
+     */
+    static ScanResult scanCuts(Library lib, Query q, int from, int to, int k, int[] bestStart) {
+        ScanResult result = new ScanResult(k);
+        TopKHeap heap = result.heap;
+        int n = q.frames;
+        float[] c = lib.frames;
+        float[] terms = new float[n];
+        float[] tail = new float[n + 1];
+        int maxLength = 0;
+        for (int cut = from; cut < to; cut++) {
+            maxLength = Math.max(maxLength, lib.starts[cut + 1] - lib.starts[cut]);
+        }
+        float[] prev = new float[Math.max(n, maxLength)];
+        float[] cur = new float[Math.max(n, maxLength)];
+
+        for (int cut = from; cut < to; cut++) {
+            int first = lib.starts[cut];
+            int length = lib.starts[cut + 1] - first;
+            float best = SequenceDtw.ABANDONED;
+            int bestAt = -1;
+
+            if (length < n) {
+                // クエリより短いカットはカット全体と比べる（長さの差の分だけバンドを広げる）
+                result.candidates++;
+                float limit = heap.threshold();
+                float d = SequenceDtw.dtw(q.values, n, c, first * DIM, length, Math.max(q.band, n - length),
+                        null, limit, prev, cur);
+                if (d < limit) {
+                    result.dtwCompleted++;
+                    best = d;
+                    bestAt = 0;
+                } else {
+                    result.dtwAbandoned++;
+                }
+            } else {
+                for (int start = 0; start + n <= length; start++) {
+                    result.candidates++;
+                    float limit = Math.min(best, heap.threshold());
+                    int base = (first + start) * DIM;
+                    if (SequenceDtw.lbKim(q.values, n, c, base) >= limit) {
+                        result.prunedByKim++;
+                        continue;
+                    }
+                    if (SequenceDtw.lbKeogh(q.upper, q.lower, n, c, base, terms, limit) >= limit) {
+                        result.prunedByKeogh++;
+                        continue;
+                    }
+                    SequenceDtw.suffixSums(terms, n, tail);
+                    float d = SequenceDtw.dtw(q.values, n, c, base, n, q.band, tail, limit, prev, cur);
+                    if (d >= limit) {
+                        result.dtwAbandoned++;
+                        continue;
+                    }
+                    result.dtwCompleted++;
+                    best = d;
+                    bestAt = start;
+                }
+            }
+
+            if (bestAt >= 0) {
+                heap.offer(best, cut);
+                bestStart[cut] = bestAt;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 検索結果 1 件分。frameIds は一致した区間のフレーム（PoseSample の id）をフレーム順に並べたもの
+     */
+    public record SequenceHit(String cutCode, String datasetName, int cutLength, int startFrame,
+                              long[] frameIds, double distance) {}
+
+    public record SequenceSearchResult(List<SequenceHit> hits, SequenceSearchStats stats) {}
+
+    /**
+     * クエリのフレーム列と、その包絡線
+     */
+    record Query(float[] values, int frames, int band, float[] upper, float[] lower) {}
+
+    /**
+     * カットごとのフレーム列。カット c のフレームは frames[starts[c] * DIM .. starts[c + 1] * DIM)
+     */
+    static final class Library {
+        final long epoch;
+        final float[] frames;
+        final long[] frameIds;
+        final int[] starts;
+        final String[] cutCodes;
+        final String[] datasetNames;
+        final Map<String, Integer> cutIndex = new HashMap<>();
+
+        Library(long epoch, float[] frames, long[] frameIds, int[] starts, String[] cutCodes, String[] datasetNames) {
+            this.epoch = epoch;
+            this.frames = frames;
+            this.frameIds = frameIds;
+            this.starts = starts;
+            this.cutCodes = cutCodes;
+            this.datasetNames = datasetNames;
+            for (int i = 0; i < cutCodes.length; i++) {
+                cutIndex.putIfAbsent(cutCodes[i], i);
+            }
+        }
+
+        int count() {
+            return cutCodes.length;
+        }
+
+        int frameCount() {
+            return starts[starts.length - 1];
+        }
+    }
+
+    /**
+     * 1 タスク分の topK と枝刈りの件数
+     */
+    static final class ScanResult {
+        final TopKHeap heap;
+        long candidates;
+        long prunedByKim;
+        long prunedByKeogh;
+        long dtwAbandoned;
+        long dtwCompleted;
+
+        ScanResult(int k) {
+            this.heap = new TopKHeap(k);
+        }
+
+        void merge(ScanResult other) {
+            heap.merge(other.heap);
+            candidates += other.candidates;
+            prunedByKim += other.prunedByKim;
+            prunedByKeogh += other.prunedByKeogh;
+            dtwAbandoned += other.dtwAbandoned;
+            dtwCompleted += other.dtwCompleted;
+        }
+    }
+
+    /**
+     * カットの範囲を、フレーム数がおおよそ半分になるところで割って fork-join で並列に調べるタスク
+     */
+    @SuppressWarnings("serial")
+    private static final class CutScanTask extends RecursiveTask<ScanResult> {
+        private final Library lib;
+        private final Query q;
+        private final int from;
+        private final int to;
+        private final int k;
+        private final int[] bestStart;
+
+        CutScanTask(Library lib, Query q, int from, int to, int k, int[] bestStart) {
+            this.lib = lib;
+            this.q = q;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.bestStart = bestStart;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            int firstFrame = lib.starts[from];
+            int endFrame = lib.starts[to];
+            if (to - from <= 1 || endFrame - firstFrame <= LEAF_FRAMES) {
+                return scanCuts(lib, q, from, to, k, bestStart);
+            }
+            // starts は単調増加なので、フレーム数の中央を含むカットで割る
+            int midFrame = (firstFrame + endFrame) >>> 1;
+            int mid = Arrays.binarySearch(lib.starts, from, to, midFrame);
+            if (mid < 0) {
+                mid = -mid - 1;
+            }
+            mid = Math.max(from + 1, Math.min(to - 1, mid));
+            CutScanTask left = new CutScanTask(lib, q, from, mid, k, bestStart);
+            CutScanTask right = new CutScanTask(lib, q, mid, to, k, bestStart);
+            left.fork();
+            ScanResult merged = right.compute();
+            merged.merge(left.join());
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.mvdecision.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * mode=pq 用の直積量子化 (product quantization) 符号。
+ *
+ * 34 次元のベクトルを関節ごとの 2 次元 (x, y) × 17 個の部分空間に分け、
+ * 部分空間ごとに k-means で作った 256 個の代表点（コードブック）のどれに近いかを 1 バイトで持つ。
+ * 1 行あたり 17 バイトなので、float32 のベクトル（136 バイト）の 1/8 になる。
+ *
+ * 検索時はクエリごとに「部分空間 m でコード c を選んだときの二乗距離」の表（17 × 256）を作っておき、
+ * 行ごとの距離は表を 17 回引いて足すだけで求める（非対称距離）。
+ * ベクトル本体を読むのは、必要なら上位の候補を正確な距離で並べ直すときだけ。
+ *
+ * 符号はセグメントの行番号順に codes[row * SUBSPACES ..] に詰める（ヒープ or スナップショットファイルの mmap）。
+ * 生成後は変更しない。
+ */
+final class ProductQuantizer {
+
+    /** 部分空間の数（関節ごと） */
+    static final int SUBSPACES = PoseFeatureIndex.DIM / 2;
+
+    /** 部分空間ごとの代表点の数（1 バイトで表せる数） */
+    static final int CENTROIDS = 256;
+
+    /** k-means の学習に使う行数の上限（代表点 1 つあたり 64 点あれば十分） */
+    private static final int TRAIN_SAMPLE = CENTROIDS * 64;
+
+    private static final int KMEANS_ITERATIONS = 12;
+
+    /** 符号化を並列に回すときの 1 タスクあたりの行数 */
+    private static final int ENCODE_BLOCK_ROWS = 4_096;
+
+    /** 部分空間 m の代表点 c は centroids[(m * CENTROIDS + c) * 2 ..] に (x, y) */
+    private final float[] centroids;
+    private final ByteBuffer codes;
+    private final int size;
+
+    private ProductQuantizer(float[] centroids, ByteBuffer codes, int size) {
+        this.centroids = centroids;
+        this.codes = codes;
+        this.size = size;
+    }
+
+    /**
+     * セグメントの全行からコードブックを学習し、全行を符号化する
+     */
+    static ProductQuantizer build(FloatBuffer vectors, int size, long seed) {
+        int dim = PoseFeatureIndex.DIM;
+        SplittableRandom random = new SplittableRandom(seed);
+
+        // 学習用のサンプル（件数が多ければ行をランダムに間引く）
+        int samples = Math.min(size, TRAIN_SAMPLE);
+        float[] sample = new float[samples * dim];
+        for (int i = 0; i < samples; i++) {
+            int row = (samples == size) ? i : random.nextInt(size);
+            vectors.get(row * dim, sample, i * dim, dim);
+        }
+
+        // 部分空間ごとの k-means は互いに独立なので並列に回す（乱数は部分空間ごとに分けておく）
+        float[] centroids = new float[SUBSPACES * CENTROIDS * 2];
+        SplittableRandom[] randoms = new SplittableRandom[SUBSPACES];
+        for (int m = 0; m < SUBSPACES; m++) {
+            randoms[m] = random.split();
+        }
+        IntStream.range(0, SUBSPACES).parallel()
+                .forEach(m -> trainSubspace(sample, samples, m, centroids, randoms[m]));
+
+        byte[] out = new byte[size * SUBSPACES];
+        int blocks = (size + ENCODE_BLOCK_ROWS - 1) / ENCODE_BLOCK_ROWS;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int from = b * ENCODE_BLOCK_ROWS;
+            int to = Math.min(size, from + ENCODE_BLOCK_ROWS);
+            float[] v = new float[dim];
+            for (int row = from; row < to; row++) {
+                vectors.get(row * dim, v, 0, dim);
+                for (int m = 0; m < SUBSPACES; m++) {
+                    out[row * SUBSPACES + m] = (byte) nearest(centroids, m, v[2 * m], v[2 * m + 1]);
+                }
+            }
+        });
+        return new ProductQuantizer(centroids, ByteBuffer.wrap(out), size);
+    }
+
+    /**
+     * 部分空間 m（sample の 2m, 2m+1 次元）の k-means。
+     * 初期値はサンプルからランダムに選び、空になった代表点はランダムな点で置き直す
+     */
+    private static void trainSubspace(float[] sample, int samples, int m, float[] centroids, SplittableRandom random) {
+        int dim = PoseFeatureIndex.DIM;
+        int base = m * CENTROIDS * 2;
+        for (int c = 0; c < CENTROIDS; c++) {
+            int row = random.nextInt(samples);
+            centroids[base + 2 * c] = sample[row * dim + 2 * m];
+            centroids[base + 2 * c + 1] = sample[row * dim + 2 * m + 1];
+        }
+
+        int[] assign = new int[samples];
+        double[] sumX = new double[CENTROIDS];
+        double[] sumY = new double[CENTROIDS];
+        int[] counts = new int[CENTROIDS];
+        for (int iter = 0; iter < KMEANS_ITERATIONS; iter++) {
+            boolean changed = false;
+            for (int i = 0; i < samples; i++) {
+                int c = nearest(centroids, m, sample[i * dim + 2 * m], sample[i * dim + 2 * m + 1]);
+                if (iter == 0 || c != assign[i]) {
+                    assign[i] = c;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            Arrays.fill(sumX, 0.0);
+            Arrays.fill(sumY, 0.0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < samples; i++) {
+                int c = assign[i];
+                sumX[c] += sample[i * dim + 2 * m];
+                sumY[c] += sample[i * dim + 2 * m + 1];
+                counts[c]++;
+            }
+            for (int c = 0; c < CENTROIDS; c++) {
+                if (counts[c] > 0) {
+                    centroids[base + 2 * c] = (float) (sumX[c] / counts[c]);
+                    centroids[base + 2 * c + 1] = (float) (sumY[c] / counts[c]);
+                } else {
+                    int row = random.nextInt(samples);
+                    centroids[base + 2 * c] = sample[row * dim + 2 * m];
+                    centroids[base + 2 * c + 1] = sample[row * dim + 2 * m + 1];
+                }
+            }
+        }
+    }
+
+    private static int nearest(float[] centroids, int m, float x, float y) {
+        int base = m * CENTROIDS * 2;
+        int best = 0;
+        float bestDist = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < CENTROIDS; c++) {
+            float dx = x - centroids[base + 2 * c];
+            float dy = y - centroids[base + 2 * c + 1];
+            float d = dx * dx + dy * dy;
+            if (d < bestDist) {
+                bestDist = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * クエリ q の距離表。table[m * CENTROIDS + c] が部分空間 m でコード c のときの二乗距離
+     */
+    float[] distanceTable(float[] q) {
+        float[] table = new float[SUBSPACES * CENTROIDS];
+        for (int m = 0; m < SUBSPACES; m++) {
+            int base = m * CENTROIDS * 2;
+            float x = q[2 * m];
+            float y = q[2 * m + 1];
+            for (int c = 0; c < CENTROIDS; c++) {
+                float dx = x - centroids[base + 2 * c];
+                float dy = y - centroids[base + 2 * c + 1];
+                table[m * CENTROIDS + c] = dx * dx + dy * dy;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 行 [from, from + rows) の符号を dst にコピーする（スキャン時にブロック単位で読む）
+     */
+    void copyCodes(int from, int rows, byte[] dst) {
+        codes.get(from * SUBSPACES, dst, 0, rows * SUBSPACES);
+    }
+
+    /**
+     * 距離表と、codes[base..base+SUBSPACES) の符号から二乗距離を求める（途中で limit を超えたら打ち切る）
+     */
+    static float distance(float[] table, byte[] codes, int base, float limit) {
+        float sum = 0f;
+        for (int m = 0; m < SUBSPACES; m++) {
+            sum += table[m * CENTROIDS + (codes[base + m] & 0xff)];
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * スナップショットファイルにコードブックと符号を書き出す
+     */
+    void writeTo(IndexSnapshotFile.Output out) throws IOException {
+        for (float c : centroids) {
+            out.putFloat(c);
+        }
+        byte[] chunk = new byte[64 * 1024];
+        int total = size * SUBSPACES;
+        for (int pos = 0; pos < total; pos += chunk.length) {
+            int n = Math.min(chunk.length, total - pos);
+            codes.get(pos, chunk, 0, n);
+            out.putBytes(chunk, n);
+        }
+    }
+
+    /**
+     * {@link #writeTo} で書いた内容を読む（符号はマップしたまま使う）
+     */
+    static ProductQuantizer readFrom(IndexSnapshotFile.Input in, int size) throws IOException {
+        float[] centroids = new float[SUBSPACES * CENTROIDS * 2];
+        in.mapFloats(centroids.length).get(centroids);
+        ByteBuffer codes = in.mapBytes((long) size * SUBSPACES);
+        return new ProductQuantizer(centroids, codes, size);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.mvdecision.index;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 検索対象を cutCode / datasetName で絞り込む条件。
+ * include が空なら「すべて」、exclude に入っているものは include に関係なく除く。
+ * equals / hashCode は集合の中身で決まる（検索結果キャッシュのキーに使う）
+ */
+public record SearchFilter(Set<String> includeCutCodes,
+                           Set<String> excludeCutCodes,
+                           Set<String> includeDatasets,
+                           Set<String> excludeDatasets) {
+
+    /** 絞り込みなし */
+    public static final SearchFilter NONE = new SearchFilter(Set.of(), Set.of(), Set.of(), Set.of());
+
+    /**
+     * リクエストの一覧から作る（null・空文字は無視。すべて空なら NONE）
+     */
+    public static SearchFilter of(Collection<String> includeCutCodes,
+                                  Collection<String> excludeCutCodes,
+                                  Collection<String> includeDatasets,
+                                  Collection<String> excludeDatasets) {
+        SearchFilter filter = new SearchFilter(toSet(includeCutCodes), toSet(excludeCutCodes),
+                toSet(includeDatasets), toSet(excludeDatasets));
+        return filter.isEmpty() ? NONE : filter;
+    }
+
+    private static Set<String> toSet(Collection<String> values) {
+        if (values == null || values.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> out = new HashSet<>();
+        for (String v : values) {
+            if (v != null && !v.isBlank()) {
+                out.add(v.trim());
+            }
+        }
+        return Set.copyOf(out);
+    }
+
+    public boolean isEmpty() {
+        return includeCutCodes.isEmpty() && excludeCutCodes.isEmpty()
+                && includeDatasets.isEmpty() && excludeDatasets.isEmpty();
+    }
+
+    /**
+     * cutCode / datasetName の組が検索対象に入るか
+     */
+    public boolean matches(String cutCode, String datasetName) {
+        if (!includeCutCodes.isEmpty() && (cutCode == null || !includeCutCodes.contains(cutCode))) {
+            return false;
+        }
+        if (cutCode != null && excludeCutCodes.contains(cutCode)) {
+            return false;
+        }
+        if (!includeDatasets.isEmpty() && (datasetName == null || !includeDatasets.contains(datasetName))) {
+            return false;
+        }
+        return datasetName == null || !excludeDatasets.contains(datasetName);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.mvdecision.index;
+
+/**
+ * 検索エンジンの種類
+ *  - EXACT:  全件スキャン（必ず正確）
+ *  - APPROX: HNSW グラフによる近似探索（速いが取りこぼしがありうる）
+ *  - PQ:     直積量子化した符号（1 行 17 バイト）のスキャン。上位の候補だけ正確な距離で並べ直せる
+ */
+public enum SearchMode {
+    EXACT,
+    APPROX,
+    PQ;
+
+    /**
+     * リクエストの "exact" / "approx" / "pq" を変換する（null / 空なら EXACT）
+     */
+    public static SearchMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return EXACT;
+        }
+        switch (value.trim().toLowerCase()) {
+            case "exact":
+                return EXACT;
+            case "approx":
+                return APPROX;
+            case "pq":
+                return PQ;
+            default:
+                throw new IllegalArgumentException("mode must be exact, approx or pq: " + value);
+        }
+    }
+}
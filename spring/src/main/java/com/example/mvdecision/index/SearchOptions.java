@@ -0,0 +1,50 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+
+/**
+ * {@link PoseFeatureIndex#search} / {@link PoseFeatureIndex#searchBatch} の検索条件（クエリと topK 以外）。
+ * null の mode / filter / metric は既定値（EXACT・絞り込みなし・L2）にする
+ *
+ * @param mode      検索方式
+ * @param efSearch  APPROX のときの探索幅（null なら設定値）
+ * @param rerank    PQ のとき、正確な距離で並べ直す候補数（null なら topK × app.index.pq.rerank-factor、0 なら並べ直さない）
+ * @param filter    cutCode / datasetName の絞り込み（該当するパーティションだけを検索する）
+ * @param metric    距離。L2 以外は mode に関係なく全件スキャン
+ * @param jointMask 距離に使う関節（ビット j が関節 j）。全関節でないときは mode に関係なく全件スキャン
+ */
+public record SearchOptions(SearchMode mode,
+                            Integer efSearch,
+                            Integer rerank,
+                            SearchFilter filter,
+                            DistanceMetric metric,
+                            int jointMask) {
+
+    /** 全関節・L2・絞り込みなしの全件スキャン */
+    public static final SearchOptions EXACT = of(SearchMode.EXACT);
+
+    public SearchOptions {
+        mode = (mode != null) ? mode : SearchMode.EXACT;
+        filter = (filter != null) ? filter : SearchFilter.NONE;
+        metric = (metric != null) ? metric : DistanceMetric.L2;
+    }
+
+    /**
+     * mode 以外は既定値（設定値の探索幅・並べ直し、絞り込みなし、L2、全関節）
+     */
+    public static SearchOptions of(SearchMode mode) {
+        return new SearchOptions(mode, null, null, SearchFilter.NONE, DistanceMetric.L2, PoseFeatureUtil.ALL_JOINTS);
+    }
+
+    public SearchOptions withFilter(SearchFilter nextFilter) {
+        return new SearchOptions(mode, efSearch, rerank, nextFilter, metric, jointMask);
+    }
+
+    public SearchOptions withRerank(Integer nextRerank) {
+        return new SearchOptions(mode, efSearch, nextRerank, filter, metric, jointMask);
+    }
+
+    public SearchOptions withJointMask(int nextJointMask) {
+        return new SearchOptions(mode, efSearch, rerank, filter, metric, nextJointMask);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.mvdecision.index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 1 回の検索で何行を対象にし、何行の距離を計算したか（メトリクス用）。
+ * スキャンは fork-join の複数スレッドから足し込まれるので LongAdder で持つ
+ *
+ *  - scanSize:  検索対象の行数（削除済みを除き、絞り込みがあればその区間の行数）
+ *  - evaluated: 距離を計算した行数（全件スキャンの行・HNSW で辿ったノード・pq の符号の行）
+ *  - reranked:  pq の候補のうち、ベクトル本体で正確な距離を計算し直した行数
+ */
+public class SearchStats {
+
+    private final LongAdder scanSize = new LongAdder();
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder reranked = new LongAdder();
+
+    void addScanSize(long rows) {
+        scanSize.add(rows);
+    }
+
+    void addEvaluated(long rows) {
+        evaluated.add(rows);
+    }
+
+    void addReranked(long rows) {
+        reranked.add(rows);
+    }
+
+    public long getScanSize() {
+        return scanSize.sum();
+    }
+
+    public long getEvaluated() {
+        return evaluated.sum();
+    }
+
+    public long getReranked() {
+        return reranked.sum();
+    }
+}
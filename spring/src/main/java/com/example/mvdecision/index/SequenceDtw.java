@@ -0,0 +1,167 @@
+package com.example.mvdecision.index;
+
+/**
+ * フレーム列どうしの DTW（動的時間伸縮）距離と、その下界（枝刈り用）。
+ *
+ * フレーム間のコストは DIM 次元ベクトルの二乗距離で、DTW の値は経路上のコストの合計。
+ * 経路は Sakoe-Chiba バンド（|i - j| <= r）の中に制限する。
+ *
+ * 下界はどちらも「DTW の値以下」であることが保証されているので、
+ * 下界がしきい値（今の topK の最下位）以上なら DTW を計算せずに捨ててよい。
+ *  - LB_Kim:   先頭どうし・末尾どうしのコストの和（経路は必ず両端を通る）
+ *  - LB_Keogh: クエリの上下包絡線（前後 r フレームの最大・最小）から候補フレームがはみ出した分の和
+ *
+ * DTW 本体も、行ごとの最小値 + まだ通っていない候補フレームの LB_Keogh の合計が
+ * しきい値を超えた時点で打ち切る（early abandoning）。
+ */
+final class SequenceDtw {
+
+    private static final int DIM = PoseFeatureIndex.DIM;
+
+    /** 打ち切った・枝刈りしたことを表す値 */
+    static final float ABANDONED = Float.POSITIVE_INFINITY;
+
+    private SequenceDtw() {
+    }
+
+    /**
+     * クエリ q（n フレーム）の上下包絡線を upper / lower に書き込む
+     */
+    static void envelope(float[] q, int n, int r, float[] upper, float[] lower) {
+        for (int t = 0; t < n; t++) {
+            int from = Math.max(0, t - r);
+            int to = Math.min(n - 1, t + r);
+            for (int d = 0; d < DIM; d++) {
+                float max = Float.NEGATIVE_INFINITY;
+                float min = Float.POSITIVE_INFINITY;
+                for (int k = from; k <= to; k++) {
+                    float v = q[k * DIM + d];
+                    max = Math.max(max, v);
+                    min = Math.min(min, v);
+                }
+                upper[t * DIM + d] = max;
+                lower[t * DIM + d] = min;
+            }
+        }
+    }
+
+    /**
+     * a[aBase..) と b[bBase..) の 1 フレーム分の二乗距離
+     */
+    static float frameDistance(float[] a, int aBase, float[] b, int bBase) {
+        float sum = 0f;
+        for (int d = 0; d < DIM; d++) {
+            float diff = a[aBase + d] - b[bBase + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * クエリ q（n フレーム）と候補 c[cBase..)（同じく n フレーム）の LB_Kim
+     */
+    static float lbKim(float[] q, int n, float[] c, int cBase) {
+        float lb = frameDistance(q, 0, c, cBase);
+        if (n > 1) {
+            lb += frameDistance(q, (n - 1) * DIM, c, cBase + (n - 1) * DIM);
+        }
+        return lb;
+    }
+
+    /**
+     * 候補 c[cBase..)（n フレーム）の LB_Keogh。フレームごとの寄与を terms に残す（DTW の打ち切りに使う）。
+     * 途中で limit を超えたら ABANDONED
+     */
+    static float lbKeogh(float[] upper, float[] lower, int n, float[] c, int cBase, float[] terms, float limit) {
+        float sum = 0f;
+        for (int t = 0; t < n; t++) {
+            int e = t * DIM;
+            int b = cBase + t * DIM;
+            float term = 0f;
+            for (int d = 0; d < DIM; d++) {
+                float v = c[b + d];
+                if (v > upper[e + d]) {
+                    float diff = v - upper[e + d];
+                    term += diff * diff;
+                } else if (v < lower[e + d]) {
+                    float diff = lower[e + d] - v;
+                    term += diff * diff;
+                }
+            }
+            terms[t] = term;
+            sum += term;
+            if (sum >= limit) {
+                return ABANDONED;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * terms の後ろからの累積和を tail に書く（tail[t] = terms[t] + ... + terms[n-1]、tail[n] = 0）
+     */
+    static void suffixSums(float[] terms, int n, float[] tail) {
+        tail[n] = 0f;
+        for (int t = n - 1; t >= 0; t--) {
+            tail[t] = tail[t + 1] + terms[t];
+        }
+    }
+
+    /**
+     * クエリ q（n フレーム）と候補 c[cBase..)（m フレーム）の DTW。
+     * 経路は |i - j| <= r に制限する（m != n のときは r >= |n - m| にしておくこと）。
+     *
+     * @param tail 候補フレーム j 以降の下界の合計（{@link #suffixSums}）。m == n のときだけ使う。null 可
+     * @param prev, cur 長さ m 以上の作業領域
+     * @return DTW の値。limit 以上になることが確定したら ABANDONED
+     */
+    static float dtw(float[] q, int n, float[] c, int cBase, int m, int r, float[] tail, float limit,
+                     float[] prev, float[] cur) {
+        for (int j = 0; j < m; j++) {
+            prev[j] = Float.POSITIVE_INFINITY;
+            cur[j] = Float.POSITIVE_INFINITY;
+        }
+        for (int i = 0; i < n; i++) {
+            int jFrom = Math.max(0, i - r);
+            int jTo = Math.min(m - 1, i + r);
+            float rowMin = Float.POSITIVE_INFINITY;
+            for (int j = jFrom; j <= jTo; j++) {
+                float best;
+                if (i == 0 && j == 0) {
+                    best = 0f;
+                } else {
+                    best = prev[j];                                // (i-1, j)
+                    if (j > jFrom && cur[j - 1] < best) {         // (i, j-1)
+                        best = cur[j - 1];
+                    }
+                    if (j > 0 && prev[j - 1] < best) {             // (i-1, j-1)
+                        best = prev[j - 1];
+                    }
+                }
+                float v = best + frameDistance(q, i * DIM, c, cBase + j * DIM);
+                cur[j] = v;
+                if (v < rowMin) {
+                    rowMin = v;
+                }
+            }
+            // バンドの外は次の行から見て到達不能
+            if (jTo + 1 < m) {
+                cur[jTo + 1] = Float.POSITIVE_INFINITY;
+            }
+
+            // 候補の j > i + r のフレームはまだどのクエリフレームとも対応していないので、その下界を足せる
+            float rest = 0f;
+            if (tail != null && m == n && i + r + 1 < n) {
+                rest = tail[i + r + 1];
+            }
+            if (rowMin + rest >= limit) {
+                return ABANDONED;
+            }
+
+            float[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m - 1];
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.mvdecision.index;
+
+/**
+ * 時系列検索 1 回分の統計。
+ * candidates = prunedByKim + prunedByKeogh + dtwAbandoned + dtwCompleted
+ */
+public class SequenceSearchStats {
+
+    /** ライブラリのカット数 */
+    private int cuts;
+    /** ライブラリのフレーム数 */
+    private int libraryFrames;
+    /** クエリのフレーム数 */
+    private int queryFrames;
+    /** Sakoe-Chiba バンドの幅（フレーム） */
+    private int band;
+    /** 調べた区間の数 */
+    private long candidates;
+    /** LB_Kim で捨てた区間 */
+    private long prunedByKim;
+    /** LB_Keogh で捨てた区間 */
+    private long prunedByKeogh;
+    /** DTW を途中で打ち切った区間 */
+    private long dtwAbandoned;
+    /** DTW を最後まで計算した区間 */
+    private long dtwCompleted;
+    /** 検索にかかった時間（ライブラリの作り直しを含む） */
+    private double elapsedMillis;
+
+    public int getCuts() {
+        return cuts;
+    }
+
+    public void setCuts(int cuts) {
+        this.cuts = cuts;
+    }
+
+    public int getLibraryFrames() {
+        return libraryFrames;
+    }
+
+    public void setLibraryFrames(int libraryFrames) {
+        this.libraryFrames = libraryFrames;
+    }
+
+    public int getQueryFrames() {
+        return queryFrames;
+    }
+
+    public void setQueryFrames(int queryFrames) {
+        this.queryFrames = queryFrames;
+    }
+
+    public int getBand() {
+        return band;
+    }
+
+    public void setBand(int band) {
+        this.band = band;
+    }
+
+    public long getCandidates() {
+        return candidates;
+    }
+
+    public void setCandidates(long candidates) {
+        this.candidates = candidates;
+    }
+
+    public long getPrunedByKim() {
+        return prunedByKim;
+    }
+
+    public void setPrunedByKim(long prunedByKim) {
+        this.prunedByKim = prunedByKim;
+    }
+
+    public long getPrunedByKeogh() {
+        return prunedByKeogh;
+    }
+
+    public void setPrunedByKeogh(long prunedByKeogh) {
+        this.prunedByKeogh = prunedByKeogh;
+    }
+
+    public long getDtwAbandoned() {
+        return dtwAbandoned;
+    }
+
+    public void setDtwAbandoned(long dtwAbandoned) {
+        this.dtwAbandoned = dtwAbandoned;
+    }
+
+    public long getDtwCompleted() {
+        return dtwCompleted;
+    }
+
+    public void setDtwCompleted(long dtwCompleted) {
+        this.dtwCompleted = dtwCompleted;
+    }
+
+    public double getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(double elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+}
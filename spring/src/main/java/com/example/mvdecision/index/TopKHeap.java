@@ -0,0 +1,105 @@
+package com.example.mvdecision.index;
+
+/**
+ * (距離, 行番号) を最大 capacity 件だけ保持する固定長の最大ヒープ。
+ *
+ * 先頭には「今持っている中で最も遠いもの」が来るので、
+ * 新しい候補がそれより遠ければ 1 回の比較で捨てられる。
+ * 配列は最初に確保するだけで、offer ではオブジェクトを作らない。
+ */
+final class TopKHeap {
+
+    private final float[] dist;
+    private final int[] rows;
+    private int size;
+
+    TopKHeap(int capacity) {
+        this.dist = new float[capacity];
+        this.rows = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return dist.length;
+    }
+
+    boolean isFull() {
+        return size == dist.length;
+    }
+
+    /**
+     * これ以上遠い候補は入らない、という境界値（満杯になるまでは +∞）
+     */
+    float threshold() {
+        return isFull() ? dist[0] : Float.POSITIVE_INFINITY;
+    }
+
+    void offer(float d, int row) {
+        if (size < dist.length) {
+            // 末尾に追加して上へ
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (dist[parent] >= d) {
+                    break;
+                }
+                dist[i] = dist[parent];
+                rows[i] = rows[parent];
+                i = parent;
+            }
+            dist[i] = d;
+            rows[i] = row;
+        } else if (d < dist[0]) {
+            // 先頭（最も遠いもの）を置き換えて下へ
+            siftDown(d, row);
+        }
+    }
+
+    /**
+     * 別ワーカーのヒープを取り込む
+     */
+    void merge(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.dist[i], other.rows[i]);
+        }
+    }
+
+    /**
+     * 中身を距離の昇順に並べて outDist / outRows に書き出す。ヒープは空になる。
+     */
+    int drainSorted(float[] outDist, int[] outRows) {
+        int n = size;
+        for (int i = n - 1; i >= 0; i--) {
+            outDist[i] = dist[0];
+            outRows[i] = rows[0];
+            size--;
+            if (size > 0) {
+                siftDown(dist[size], rows[size]);
+            }
+        }
+        return n;
+    }
+
+    private void siftDown(float d, int row) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && dist[right] > dist[child]) {
+                child = right;
+            }
+            if (dist[child] <= d) {
+                break;
+            }
+            dist[i] = dist[child];
+            rows[i] = rows[child];
+            i = child;
+        }
+        dist[i] = d;
+        rows[i] = row;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 件数が事前に分からないまま (id, ベクトル, 関節の重み, datasetName, cutCode) を詰めていくための可変長バッファ。
+ * インデックスの全件読み込みと、取り込み時の追記（{@link PoseFeatureIndex#append}）の両方で使う。
+ *
+ * 使い方:
+ * <pre>
+ *   int off = builder.reserve();
+ *   if (decode(..., builder.vectors(), off)) builder.commit(id, keypointScoresBin, datasetName, cutCode);
+ * </pre>
+ * 関節の重みは keypoint_scores を合計が NUM_KEYPOINTS になるようにならしたもの（重み付き距離が
+ * 重みなしの L2 と同じ尺度になる）。スコアの無い行はすべて 1。
+ * reserve で配列が伸びることがあるので、vectors() は reserve の後に取り直すこと。
+ * スレッドセーフではない。
+ */
+public final class VectorBlockBuilder {
+
+    private static final int DIM = PoseFeatureIndex.DIM;
+
+    private static final int JOINTS = PoseFeatureUtil.NUM_KEYPOINTS;
+
+    private static final Comparator<String> PARTITION_KEY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private long[] ids;
+    private float[] vectors;
+    private float[] weights;
+    private String[] datasetNames;
+    private String[] cutCodes;
+    private int size;
+
+    /** DB にはあるがベクトルにできずに飛ばした行の数と、その最大の id（{@link #reject}） */
+    private int rejectedRows;
+    private long rejectedMaxId;
+
+    public VectorBlockBuilder(int initialCapacity) {
+        int cap = Math.max(initialCapacity, 16);
+        this.ids = new long[cap];
+        this.vectors = new float[cap * DIM];
+        this.weights = new float[cap * JOINTS];
+        this.datasetNames = new String[cap];
+        this.cutCodes = new String[cap];
+    }
+
+    /**
+     * feature_vector_bin 形式のベクトルを 1 行追加する。長さが合わなければ追加せず false。
+     * keypointScoresBin が無い・壊れているときは全関節の重みを 1 にする
+     */
+    public boolean addBinary(long id, byte[] featureVectorBin, byte[] keypointScoresBin,
+                             String datasetName, String cutCode) {
+        int off = reserve();
+        if (!PoseFeatureUtil.decodeFeatureVector(featureVectorBin, vectors, off)) {
+            reject(id);
+            return false;
+        }
+        commit(id, keypointScoresBin, datasetName, cutCode);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * ベクトルが空・壊れていて追加しなかった行として数える（スナップショットファイルの行数を DB と比べるときに足す）
+     */
+    void reject(long id) {
+        rejectedRows++;
+        rejectedMaxId = Math.max(rejectedMaxId, id);
+    }
+
+    int rejectedRows() {
+        return rejectedRows;
+    }
+
+    long rejectedMaxId() {
+        return rejectedMaxId;
+    }
+
+    /**
+     * datasetName / cutCode が一致する行を取り除く（null の条件は無視。両方 null なら何もしない）。
+     * 残った行の順番は変わらない。戻り値は取り除いた行数
+     */
+    public int removeMatching(String datasetName, String cutCode) {
+        if (datasetName == null && cutCode == null) {
+            return 0;
+        }
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if ((datasetName == null || datasetName.equals(datasetNames[row]))
+                    && (cutCode == null || cutCode.equals(cutCodes[row]))) {
+                continue;
+            }
+            if (kept != row) {
+                ids[kept] = ids[row];
+                System.arraycopy(vectors, row * DIM, vectors, kept * DIM, DIM);
+                System.arraycopy(weights, row * JOINTS, weights, kept * JOINTS, JOINTS);
+                datasetNames[kept] = datasetNames[row];
+                cutCodes[kept] = cutCodes[row];
+            }
+            kept++;
+        }
+        int removed = size - kept;
+        Arrays.fill(datasetNames, kept, size, null);
+        Arrays.fill(cutCodes, kept, size, null);
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * 次の 1 行分の領域を確保し、書き込み先のオフセットを返す（commit するまで件数は増えない）
+     */
+    int reserve() {
+        if (size == ids.length) {
+            int cap = ids.length * 2;
+            ids = Arrays.copyOf(ids, cap);
+            vectors = Arrays.copyOf(vectors, cap * DIM);
+            weights = Arrays.copyOf(weights, cap * JOINTS);
+            datasetNames = Arrays.copyOf(datasetNames, cap);
+            cutCodes = Arrays.copyOf(cutCodes, cap);
+        }
+        return size * DIM;
+    }
+
+    /**
+     * 信頼度の無い行（文字列の feature_vector しか無い古い行など）として確定する
+     */
+    void commit(long id, String datasetName, String cutCode) {
+        Arrays.fill(weights, size * JOINTS, (size + 1) * JOINTS, 1f);
+        commitRow(id, datasetName, cutCode);
+    }
+
+    /**
+     * keypoint_scores_bin から重みを作って確定する
+     */
+    void commit(long id, byte[] keypointScoresBin, String datasetName, String cutCode) {
+        int off = size * JOINTS;
+        if (!PoseFeatureUtil.decodeKeypointScores(keypointScoresBin, weights, off)) {
+            commit(id, datasetName, cutCode);
+            return;
+        }
+        float sum = 0f;
+        for (int j = 0; j < JOINTS; j++) {
+            float w = weights[off + j];
+            // 負・NaN のスコアは 0 扱い
+            weights[off + j] = (w > 0f) ? w : 0f;
+            sum += weights[off + j];
+        }
+        if (sum <= 0f) {
+            Arrays.fill(weights, off, off + JOINTS, 1f);
+        } else {
+            float scale = JOINTS / sum;
+            for (int j = 0; j < JOINTS; j++) {
+                weights[off + j] *= scale;
+            }
+        }
+        commitRow(id, datasetName, cutCode);
+    }
+
+    /**
+     * 既にならしてある重み（別のセグメントの行）をそのまま使って確定する
+     */
+    void commit(long id, FloatBuffer srcWeights, int srcRow, String datasetName, String cutCode) {
+        srcWeights.get(srcRow * JOINTS, weights, size * JOINTS, JOINTS);
+        commitRow(id, datasetName, cutCode);
+    }
+
+    private void commitRow(long id, String datasetName, String cutCode) {
+        ids[size] = id;
+        datasetNames[size] = datasetName;
+        cutCodes[size] = cutCode;
+        size++;
+    }
+
+    float[] vectors() {
+        return vectors;
+    }
+
+    /**
+     * ここまでに追加した行からセグメントを作る。
+     * 絞り込み検索でパーティション単位に読めるよう、行は (cutCode, datasetName) 順に並べ替える
+     * （同じパーティションの中は追加した順のまま）。
+     * {@link IndexSegment#MAX_ROWS} 行を超える分は次のセグメントに分ける。行が無ければ空のリスト
+     */
+    List<IndexSegment> toSegments() {
+        int[] order = isPartitionOrdered() ? null : partitionOrder();
+        List<IndexSegment> segments = new ArrayList<>((size + IndexSegment.MAX_ROWS - 1) / IndexSegment.MAX_ROWS);
+        for (int from = 0; from < size; from += IndexSegment.MAX_ROWS) {
+            segments.add(toSegment(order, from, Math.min(size, from + IndexSegment.MAX_ROWS)));
+        }
+        return segments;
+    }
+
+    /**
+     * 並べ替えた後の [from, to) 行を 1 つのセグメントにする（order が null なら追加した順のまま）
+     */
+    private IndexSegment toSegment(int[] order, int from, int to) {
+        if (order == null) {
+            return new IndexSegment(
+                    Arrays.copyOfRange(ids, from, to),
+                    FloatBuffer.wrap(Arrays.copyOfRange(vectors, from * DIM, to * DIM)),
+                    FloatBuffer.wrap(Arrays.copyOfRange(weights, from * JOINTS, to * JOINTS)),
+                    Arrays.copyOfRange(datasetNames, from, to),
+                    Arrays.copyOfRange(cutCodes, from, to),
+                    null,
+                    null);
+        }
+        int n = to - from;
+        long[] sortedIds = new long[n];
+        float[] sortedVectors = new float[n * DIM];
+        float[] sortedWeights = new float[n * JOINTS];
+        String[] sortedDatasets = new String[n];
+        String[] sortedCuts = new String[n];
+        for (int i = 0; i < n; i++) {
+            int src = order[from + i];
+            sortedIds[i] = ids[src];
+            System.arraycopy(vectors, src * DIM, sortedVectors, i * DIM, DIM);
+            System.arraycopy(weights, src * JOINTS, sortedWeights, i * JOINTS, JOINTS);
+            sortedDatasets[i] = datasetNames[src];
+            sortedCuts[i] = cutCodes[src];
+        }
+        return new IndexSegment(sortedIds, FloatBuffer.wrap(sortedVectors), FloatBuffer.wrap(sortedWeights),
+                sortedDatasets, sortedCuts, null, null);
+    }
+
+    private int[] partitionOrder() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Arrays.sort(Object[]) は安定ソートなので、パーティション内の順番は変わらない
+        Arrays.sort(order, (a, b) -> comparePartition(a, b));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private boolean isPartitionOrdered() {
+        for (int i = 1; i < size; i++) {
+            if (comparePartition(i - 1, i) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int comparePartition(int a, int b) {
+        int c = PARTITION_KEY_ORDER.compare(cutCodes[a], cutCodes[b]);
+        return (c != 0) ? c : PARTITION_KEY_ORDER.compare(datasetNames[a], datasetNames[b]);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.mvdecision.pose;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 元データのパス（source_image_path）から cutCode（C392 など）を決める規則。
+ * 取り込み時と、cut_code が空の古い行の書き戻しで同じ規則を使う
+ */
+public final class CutCodes {
+
+    /** パスに C*** が無い行の cutCode（画像の保存先ディレクトリ名にもなる） */
+    public static final String UNKNOWN = "unknown";
+
+    private static final Pattern CUT_CODE_PATTERN = Pattern.compile("C\\d{3,4}");
+
+    private CutCodes() {
+    }
+
+    /**
+     * 例: ".../C392/B/B001.png" -> "C392"。見つからなければ（パスが null でも）UNKNOWN
+     */
+    public static String fromSourceImagePath(String sourceImagePath) {
+        if (sourceImagePath == null) {
+            return UNKNOWN;
+        }
+        Matcher m = CUT_CODE_PATTERN.matcher(sourceImagePath);
+        return m.find() ? m.group() : UNKNOWN;
+    }
+}
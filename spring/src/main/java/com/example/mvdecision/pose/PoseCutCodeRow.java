@@ -0,0 +1,11 @@
+package com.example.mvdecision.pose;
+
+/**
+ * cut_code がまだ無い古い行用の射影。cutCode を決めるのに使う source_image_path だけを読む
+ */
+public interface PoseCutCodeRow {
+
+    Long getId();
+
+    String getSourceImagePath();
+}
@@ -0,0 +1,54 @@
+package com.example.mvdecision.pose;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 古い行に後から値を書き込むためのサービス
+ *
+ *  - feature_vector（文字列）しか持っていない行の feature_vector_bin
+ *  - cut_code を入れる前に取り込んだ行の cut_code（source_image_path から取り込みと同じ規則で決める）
+ */
+@Service
+public class PoseFeatureBackfillService {
+
+    private final PoseSampleRepository poseSampleRepository;
+
+    public PoseFeatureBackfillService(PoseSampleRepository poseSampleRepository) {
+        this.poseSampleRepository = poseSampleRepository;
+    }
+
+    /**
+     * ids[from..to) の行に bins[from..to) を書き込む。1 回の呼び出しを 1 トランザクションにまとめる
+     */
+    @Transactional
+    public void writeBinaryVectors(long[] ids, byte[][] bins, int from, int to) {
+        for (int i = from; i < to; i++) {
+            poseSampleRepository.updateFeatureVectorBin(ids[i], bins[i]);
+        }
+    }
+
+    /**
+     * cut_code が無い行を最大 limit 行読み、cutCode を決めて書き込む。1 回の呼び出しを 1 トランザクションにまとめる。
+     * 書き込んだ行数を返す（limit 未満なら残りは無い）
+     */
+    @Transactional
+    public int fillCutCodes(int limit) {
+        List<PoseCutCodeRow> rows = poseSampleRepository.findMissingCutCodes(PageRequest.of(0, limit));
+        Map<String, List<Long>> idsByCut = new HashMap<>();
+        for (PoseCutCodeRow row : rows) {
+            idsByCut.computeIfAbsent(CutCodes.fromSourceImagePath(row.getSourceImagePath()), c -> new ArrayList<>())
+                    .add(row.getId());
+        }
+        for (Map.Entry<String, List<Long>> entry : idsByCut.entrySet()) {
+            poseSampleRepository.updateCutCode(entry.getValue(), entry.getKey());
+        }
+        return rows.size();
+    }
+}
@@ -14,6 +14,35 @@ public final class PoseFeatureUtil {
     private static final int KP_LEFT_HIP = 11;
     private static final int KP_RIGHT_HIP = 12;
 
+    /** キーポイントの数（COCO 17点） */
+    public static final int NUM_KEYPOINTS = 17;
+
+    /** 特徴量ベクトルの次元数（17点 × (x,y)） */
+    public static final int FEATURE_DIM = 17 * 2;
+
+    /** バイナリ表現のバイト数（float32 リトルエンディアン × FEATURE_DIM） */
+    public static final int FEATURE_BYTES = FEATURE_DIM * 4;
+
+    /** 関節ごとの信頼度のバイト数（float32 リトルエンディアン × NUM_KEYPOINTS） */
+    public static final int KEYPOINT_SCORES_BYTES = NUM_KEYPOINTS * 4;
+
+    /**
+     * 左右反転したときの関節の対応（COCO: 目・耳・肩・肘・手首・腰・膝・足首の左右を入れ替える）。
+     * MIRROR[j] は、反転後の関節 j に来る元の関節
+     */
+    public static final int[] MIRROR = {0, 2, 1, 4, 3, 6, 5, 8, 7, 10, 9, 12, 11, 14, 13, 16, 15};
+
+    /** 関節マスク（ビット j が関節 j）で全関節を表す値 */
+    public static final int ALL_JOINTS = (1 << NUM_KEYPOINTS) - 1;
+
+    /** 正規化の原点とスケールに使う肩と腰の関節マスク（部分ポーズでも外せない） */
+    public static final int TORSO_JOINTS =
+            (1 << KP_LEFT_SHOULDER) | (1 << KP_RIGHT_SHOULDER) | (1 << KP_LEFT_HIP) | (1 << KP_RIGHT_HIP);
+
+    /** {@link #featureScratch} の中身（スレッドごとに 1 つ） */
+    private static final ThreadLocal<float[]> FEATURE_SCRATCH =
+            ThreadLocal.withInitial(() -> new float[FEATURE_DIM]);
+
     private PoseFeatureUtil() {}
 
     /**
@@ -66,26 +95,335 @@ public final class PoseFeatureUtil {
         return out;
     }
 
+    /**
+     * keypoints を途中の配列を作らずに {@link #normalizeKeypoints(double[][])} と同じ規則で正規化し、
+     * dst[0..FEATURE_DIM) に x0,y0,x1,y1,... の順で書く
+     * （mask に入っていない関節は (0,0)、null の座標は toArray と同じく 0 とみなす）。
+     * 部分ポーズ（mask が ALL_JOINTS でない）では肩と腰（{@link #TORSO_JOINTS}）が mask に入っている必要がある。
+     * エディタがドラッグのたびに呼ぶ /pose/feature と、keypoints での検索に使う
+     */
+    public static void normalizeInto(List<List<Double>> keypoints, int mask, float[] dst) {
+        if (keypoints == null) {
+            throw new IllegalArgumentException("keypoints list is null");
+        }
+        if (mask == ALL_JOINTS) {
+            if (keypoints.size() < NUM_KEYPOINTS) {
+                throw new IllegalArgumentException("Need 17 keypoints");
+            }
+        } else {
+            if ((mask & TORSO_JOINTS) != TORSO_JOINTS) {
+                throw new IllegalArgumentException("Shoulders and hips are required to normalize a partial pose");
+            }
+            for (int i = 0; i < NUM_KEYPOINTS; i++) {
+                if ((mask & (1 << i)) != 0 && i >= keypoints.size()) {
+                    throw new IllegalArgumentException("Keypoint " + i + " is visible but missing");
+                }
+            }
+        }
+
+        // 骨盤中心・肩の中心・胴体長（normalizeKeypoints と同じ）
+        double cx = (valueOrZero(keypoints, KP_LEFT_HIP, 0) + valueOrZero(keypoints, KP_RIGHT_HIP, 0)) / 2.0;
+        double cy = (valueOrZero(keypoints, KP_LEFT_HIP, 1) + valueOrZero(keypoints, KP_RIGHT_HIP, 1)) / 2.0;
+        double sx = (valueOrZero(keypoints, KP_LEFT_SHOULDER, 0) + valueOrZero(keypoints, KP_RIGHT_SHOULDER, 0)) / 2.0;
+        double sy = (valueOrZero(keypoints, KP_LEFT_SHOULDER, 1) + valueOrZero(keypoints, KP_RIGHT_SHOULDER, 1)) / 2.0;
+        double torso = Math.hypot(sx - cx, sy - cy);
+        if (torso < 1e-6) {
+            torso = 1.0;   // ゼロ割り防止
+        }
+
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            if ((mask & (1 << i)) == 0) {
+                dst[2 * i] = 0f;
+                dst[2 * i + 1] = 0f;
+            } else {
+                dst[2 * i] = (float) ((valueOrZero(keypoints, i, 0) - cx) / torso);
+                dst[2 * i + 1] = (float) ((valueOrZero(keypoints, i, 1) - cy) / torso);
+            }
+        }
+    }
+
+    private static double valueOrZero(List<List<Double>> keypoints, int joint, int axis) {
+        List<Double> p = keypoints.get(joint);
+        if (p == null || axis >= p.size()) {
+            return 0.0;
+        }
+        Double v = p.get(axis);
+        return (v != null) ? v : 0.0;
+    }
+
+    /**
+     * 呼び出したスレッド専用の float[FEATURE_DIM]（{@link #normalizeInto} の書き込み先）。
+     * 次に同じスレッドで呼ぶと同じ配列が返るので、リクエストの処理の外には持ち出さない
+     */
+    static float[] featureScratch() {
+        return FEATURE_SCRATCH.get();
+    }
+
+    /**
+     * visibility（関節ごとの true/false を 17 個）を関節マスクにする。
+     * null・空なら全関節、要素が null の関節は見えているものとして扱う
+     */
+    public static int jointMask(List<Boolean> visibility) {
+        if (visibility == null || visibility.isEmpty()) {
+            return ALL_JOINTS;
+        }
+        if (visibility.size() != NUM_KEYPOINTS) {
+            throw new IllegalArgumentException("visibility must have " + NUM_KEYPOINTS + " entries");
+        }
+        int mask = 0;
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            if (!Boolean.FALSE.equals(visibility.get(i))) {
+                mask |= 1 << i;
+            }
+        }
+        if (mask == 0) {
+            throw new IllegalArgumentException("At least one joint must be visible");
+        }
+        return mask;
+    }
+
+    /**
+     * mask から、keypoints で欠けている関節（点が無い・x か y が null / NaN）を外す。
+     * 肩と腰（{@link #TORSO_JOINTS}）が欠けていると正規化できないので、外さずに例外にする
+     */
+    public static int visibleJoints(List<List<Double>> keypoints, int mask) {
+        if (keypoints == null) {
+            throw new IllegalArgumentException("keypoints list is null");
+        }
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            if (coordinate(keypoints, i, 0) == null || coordinate(keypoints, i, 1) == null) {
+                if ((TORSO_JOINTS & mask & (1 << i)) != 0) {
+                    throw new IllegalArgumentException("Keypoint " + i + " (shoulder or hip) is missing");
+                }
+                mask &= ~(1 << i);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 関節マスクを visibility（17 個の true/false）に戻す
+     */
+    public static List<Boolean> toVisibility(int mask) {
+        List<Boolean> out = new ArrayList<>(NUM_KEYPOINTS);
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            out.add((mask & (1 << i)) != 0);
+        }
+        return out;
+    }
+
     /**
      * 正規化済み座標を 1 次元ベクトルにし、DB に保存しやすい文字列にする
      * 形式: "x0,y0,x1,y1,..."
      */
     public static String buildFeatureVector(double[][] normalized) {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(normalized.length * 2 * 10);
         boolean first = true;
         for (double[] p : normalized) {
             if (!first) {
                 sb.append(',');
             }
             // x, y を続けて出力
-            sb.append(String.format(Locale.US, "%.6f", p[0]));
+            appendFixed6(sb, p[0]);
             sb.append(',');
-            sb.append(String.format(Locale.US, "%.6f", p[1]));
+            appendFixed6(sb, p[1]);
             first = false;
         }
         return sb.toString();
     }
 
+    /**
+     * buildFeatureVector の x0,y0,x1,y1,... と並んだ版（{@link #normalizeInto} の結果用）
+     */
+    public static String buildFeatureVector(float[] normalized) {
+        StringBuilder sb = new StringBuilder(FEATURE_DIM * 10);
+        for (int i = 0; i < FEATURE_DIM; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendFixed6(sb, normalized[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * String.format(Locale.US, "%.6f", v) を Formatter を使わずに sb に足す。
+     * 100 万倍して整数に丸めてから書くので、ちょうど中間の値だけは最後の桁の丸めが Formatter と違うことがある
+     * （パースし直せば誤差 1e-6 以内で同じ値）。NaN・無限大・大きすぎる値は Formatter に任せる
+     */
+    static void appendFixed6(StringBuilder sb, double v) {
+        double abs = Math.abs(v);
+        if (!(abs < 9.0e12)) {
+            sb.append(String.format(Locale.US, "%.6f", v));
+            return;
+        }
+        long scaled = Math.round(abs * 1_000_000.0);
+        if (Double.doubleToRawLongBits(v) < 0) {
+            sb.append('-');   // Formatter と同じく -0.0 や -1e-9 も "-0.000000"
+        }
+        sb.append(scaled / 1_000_000).append('.');
+        long frac = scaled % 1_000_000;
+        for (long d = 100_000; d > frac && d > 1; d /= 10) {
+            sb.append('0');
+        }
+        sb.append(frac);
+    }
+
+    /**
+     * 正規化済み座標を float32 リトルエンディアンのバイト列にする（feature_vector_bin 用）
+     * 並びは文字列版と同じく x0,y0,x1,y1,...
+     */
+    public static byte[] encodeFeatureVector(double[][] normalized) {
+        byte[] out = new byte[normalized.length * 2 * 4];
+        int pos = 0;
+        for (double[] p : normalized) {
+            pos = putFloatLE(out, pos, (float) p[0]);
+            pos = putFloatLE(out, pos, (float) p[1]);
+        }
+        return out;
+    }
+
+    /**
+     * src[offset..offset+FEATURE_DIM) を feature_vector_bin 形式にする
+     */
+    public static byte[] encodeFeatureVector(float[] src, int offset) {
+        byte[] out = new byte[FEATURE_BYTES];
+        int pos = 0;
+        for (int i = 0; i < FEATURE_DIM; i++) {
+            pos = putFloatLE(out, pos, src[offset + i]);
+        }
+        return out;
+    }
+
+    /**
+     * feature_vector_bin を dst[offset..offset+FEATURE_DIM) に展開する。
+     * 長さが合わなければ false（dst は書き換えない）
+     */
+    public static boolean decodeFeatureVector(byte[] bin, float[] dst, int offset) {
+        if (bin == null || bin.length != FEATURE_BYTES) {
+            return false;
+        }
+        for (int i = 0, pos = 0; i < FEATURE_DIM; i++, pos += 4) {
+            int bits = (bin[pos] & 0xff)
+                    | (bin[pos + 1] & 0xff) << 8
+                    | (bin[pos + 2] & 0xff) << 16
+                    | (bin[pos + 3] & 0xff) << 24;
+            dst[offset + i] = Float.intBitsToFloat(bits);
+        }
+        return true;
+    }
+
+    /**
+     * 関節ごとの信頼度（keypoint_scores）を keypoint_scores_bin 形式（float32 リトルエンディアン × 17）にする
+     */
+    public static byte[] encodeKeypointScores(double[] scores) {
+        byte[] out = new byte[KEYPOINT_SCORES_BYTES];
+        int pos = 0;
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            pos = putFloatLE(out, pos, (float) scores[i]);
+        }
+        return out;
+    }
+
+    /**
+     * keypoint_scores_bin を dst[offset..offset+NUM_KEYPOINTS) に展開する。
+     * 長さが合わなければ false（dst は書き換えない）
+     */
+    public static boolean decodeKeypointScores(byte[] bin, float[] dst, int offset) {
+        if (bin == null || bin.length != KEYPOINT_SCORES_BYTES) {
+            return false;
+        }
+        for (int i = 0, pos = 0; i < NUM_KEYPOINTS; i++, pos += 4) {
+            int bits = (bin[pos] & 0xff)
+                    | (bin[pos + 1] & 0xff) << 8
+                    | (bin[pos + 2] & 0xff) << 16
+                    | (bin[pos + 3] & 0xff) << 24;
+            dst[offset + i] = Float.intBitsToFloat(bits);
+        }
+        return true;
+    }
+
+    private static int putFloatLE(byte[] out, int pos, float value) {
+        int bits = Float.floatToIntBits(value);
+        out[pos] = (byte) bits;
+        out[pos + 1] = (byte) (bits >>> 8);
+        out[pos + 2] = (byte) (bits >>> 16);
+        out[pos + 3] = (byte) (bits >>> 24);
+        return pos + 4;
+    }
+
+    /**
+     * 骨格時系列 (T, 17, 2) を、フレームごとに normalizeKeypoints と同じ正規化をかけて
+     * T * FEATURE_DIM 個の float に並べる（x0,y0,x1,y1,... をフレーム順に）。
+     * null の座標は前のフレームの値で埋める（{@link #fillMissing}）
+     */
+    public static float[] normalizeSequence(List<List<List<Double>>> sequence) {
+        double[][][] filled = fillMissing(sequence);
+        float[] out = new float[filled.length * FEATURE_DIM];
+        for (int t = 0; t < filled.length; t++) {
+            double[][] normalized = normalizeKeypoints(filled[t]);
+            for (int i = 0; i < NUM_KEYPOINTS; i++) {
+                out[t * FEATURE_DIM + 2 * i] = (float) normalized[i][0];
+                out[t * FEATURE_DIM + 2 * i + 1] = (float) normalized[i][1];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * (T, 17, 2) を配列にし、null の座標を埋める。
+     * 前のフレームの値で埋め、先頭から欠けている分は最初に見つかった値、一度も無ければ 0
+     * （proto_action_recognizer.py の _nan_to_num と同じ）
+     */
+    private static double[][][] fillMissing(List<List<List<Double>>> sequence) {
+        int frames = sequence.size();
+        double[][][] out = new double[frames][NUM_KEYPOINTS][2];
+        for (int j = 0; j < NUM_KEYPOINTS; j++) {
+            for (int c = 0; c < 2; c++) {
+                int firstValid = -1;
+                for (int t = 0; t < frames; t++) {
+                    Double v = coordinate(sequence.get(t), j, c);
+                    if (v != null) {
+                        out[t][j][c] = v;
+                        if (firstValid < 0) {
+                            firstValid = t;
+                        }
+                    } else {
+                        out[t][j][c] = (t > 0) ? out[t - 1][j][c] : Double.NaN;
+                    }
+                }
+                double head = (firstValid < 0) ? 0.0 : out[firstValid][j][c];
+                for (int t = 0; t < frames && (firstValid < 0 || t < firstValid); t++) {
+                    out[t][j][c] = head;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static Double coordinate(List<List<Double>> frame, int joint, int axis) {
+        if (frame == null || joint >= frame.size()) {
+            return null;
+        }
+        List<Double> p = frame.get(joint);
+        if (p == null || axis >= p.size()) {
+            return null;
+        }
+        Double v = p.get(axis);
+        return (v != null && !v.isNaN()) ? v : null;
+    }
+
+    /**
+     * normalizeInto の結果（x0,y0,x1,y1,...）を JSON 返却用に [[x0,y0], ...] の形にする（箱詰めなし）
+     */
+    public static float[][] toPoints(float[] normalized) {
+        float[][] out = new float[NUM_KEYPOINTS][];
+        for (int i = 0; i < NUM_KEYPOINTS; i++) {
+            out[i] = new float[] {normalized[2 * i], normalized[2 * i + 1]};
+        }
+        return out;
+    }
+
     /**
      * 正規化済み 2次元配列を JSON 返却用に List<List<Double>> に変換
      */
@@ -0,0 +1,32 @@
+package com.example.mvdecision.pose;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * 画像ファイルの SHA-256（画像配信の ETag）を image_etag に書き込むサービス
+ */
+@Service
+public class PoseImageEtagService {
+
+    private final PoseSampleRepository poseSampleRepository;
+
+    public PoseImageEtagService(PoseSampleRepository poseSampleRepository) {
+        this.poseSampleRepository = poseSampleRepository;
+    }
+
+    /**
+     * ids[from..to) の行に etags[from..to) を書き込む。1 回の呼び出しを 1 トランザクションにまとめる
+     */
+    @Transactional
+    public void writeImageEtags(long[] ids, String[] etags, int from, int to) {
+        for (int i = from; i < to; i++) {
+            poseSampleRepository.updateImageEtag(ids[i], etags[i]);
+        }
+    }
+
+    @Transactional
+    public void writeImageEtag(long id, String etag) {
+        poseSampleRepository.updateImageEtag(id, etag);
+    }
+}
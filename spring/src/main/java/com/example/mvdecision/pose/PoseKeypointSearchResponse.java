@@ -0,0 +1,54 @@
+package com.example.mvdecision.pose;
+
+import java.util.List;
+
+public class PoseKeypointSearchResponse {
+
+    /** 正規化済み 17点 [[nx,ny], ...]（/pose/feature と同じ） */
+    private float[][] normalizedKeypoints;
+
+    /** クエリのフィーチャベクトル（DBと同じ文字列表現） */
+    private String featureVector;
+
+    /**
+     * 距離の計算に使った関節（17 個の true/false。visibility で外した関節と欠けている関節が false）
+     */
+    private List<Boolean> visibility;
+
+    /**
+     * 類似サンプルの一覧（距離が小さい順）
+     */
+    private List<PoseSearchResultDto> results;
+
+    public float[][] getNormalizedKeypoints() {
+        return normalizedKeypoints;
+    }
+
+    public void setNormalizedKeypoints(float[][] normalizedKeypoints) {
+        this.normalizedKeypoints = normalizedKeypoints;
+    }
+
+    public String getFeatureVector() {
+        return featureVector;
+    }
+
+    public void setFeatureVector(String featureVector) {
+        this.featureVector = featureVector;
+    }
+
+    public List<Boolean> getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(List<Boolean> visibility) {
+        this.visibility = visibility;
+    }
+
+    public List<PoseSearchResultDto> getResults() {
+        return results;
+    }
+
+    public void setResults(List<PoseSearchResultDto> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.mvdecision.pose;
+
+/**
+ * feature_vector_bin がまだ無い古い行用の射影。文字列版 feature_vector だけを読む
+ */
+public interface PoseLegacyVectorRow {
+
+    Long getId();
+
+    String getFeatureVector();
+
+    String getDatasetName();
+
+    String getCutCode();
+}
@@ -1,29 +1,43 @@
 // src/main/java/com/example/mvdecision/pose/PoseQueryController.java
 package com.example.mvdecision.pose;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/query")
 @CrossOrigin(origins = "http://localhost:8080")
 public class PoseQueryController {
 
+    /**
+     * エディタのスケルトン（17 点）を正規化し、/search に渡す featureVector を返す。
+     * ドラッグのたびに呼ばれるので、スレッドごとの float[34] に直接正規化し、箱詰めや Formatter を通さない
+     */
     @PostMapping("/pose/feature")
     public PoseQueryResponse computeFeature(@RequestBody PoseQueryRequest request) {
 
-        // 1) List<List<Double>> → double[][] に変換
-        double[][] pts = PoseFeatureUtil.toArray(request.getKeypoints());
-
-        // 2) 正規化
-        double[][] normalized = PoseFeatureUtil.normalizeKeypoints(pts);
+        // 1) 使う関節（visibility で外した関節と、欠けている関節を除く）
+        // 2) List<List<Double>> から直接正規化（使わない関節は (0,0)）
+        //    17 点がそろっていない・肩と腰が無いなどの入力の誤りは 400 にする
+        int mask;
+        float[] normalized = PoseFeatureUtil.featureScratch();
+        try {
+            mask = PoseFeatureUtil.visibleJoints(request.getKeypoints(),
+                    PoseFeatureUtil.jointMask(request.getVisibility()));
+            PoseFeatureUtil.normalizeInto(request.getKeypoints(), mask, normalized);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
 
         // 3) 特徴量ベクトル生成（DB と同じ形式）
         String feature = PoseFeatureUtil.buildFeatureVector(normalized);
 
         // 4) クライアントに返却
         return new PoseQueryResponse(
-                PoseFeatureUtil.toList(normalized),
-                feature
+                PoseFeatureUtil.toPoints(normalized),
+                feature,
+                PoseFeatureUtil.toVisibility(mask)
         );
     }
 }
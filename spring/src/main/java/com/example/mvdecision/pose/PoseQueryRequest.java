@@ -11,6 +11,13 @@ public class PoseQueryRequest {
      */
     private List<List<Double>> keypoints;
 
+    /**
+     * 関節ごとに使うかどうか（17 個の true/false。省略時はすべて true）。
+     * false の関節と、keypoints で欠けている（null の）関節は距離の計算から外す。
+     * 例: 腕だけで探すなら肩・肘・手首と腰（正規化に使う）以外を false
+     */
+    private List<Boolean> visibility;
+
     public List<List<Double>> getKeypoints() {
         return keypoints;
     }
@@ -18,4 +25,12 @@ public class PoseQueryRequest {
     public void setKeypoints(List<List<Double>> keypoints) {
         this.keypoints = keypoints;
     }
+
+    public List<Boolean> getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(List<Boolean> visibility) {
+        this.visibility = visibility;
+    }
 }
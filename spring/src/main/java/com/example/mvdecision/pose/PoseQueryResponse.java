@@ -5,24 +5,35 @@ import java.util.List;
 
 public class PoseQueryResponse {
 
-    /** 正規化済み 17点 [[nx,ny], ...] */
-    private List<List<Double>> normalizedKeypoints;
+    /** 正規化済み 17点 [[nx,ny], ...]（float のまま返す） */
+    private float[][] normalizedKeypoints;
 
     /** フィーチャベクトル（DBと同じ文字列表現） */
     private String featureVector;
 
+    /**
+     * 距離の計算に使う関節（17 個の true/false）。/search の visibility にそのまま渡す。
+     * false の関節は featureVector では (0,0) になっている
+     */
+    private List<Boolean> visibility;
+
     public PoseQueryResponse() {}
 
-    public PoseQueryResponse(List<List<Double>> normalizedKeypoints, String featureVector) {
+    public PoseQueryResponse(float[][] normalizedKeypoints, String featureVector) {
         this.normalizedKeypoints = normalizedKeypoints;
         this.featureVector = featureVector;
     }
 
-    public List<List<Double>> getNormalizedKeypoints() {
+    public PoseQueryResponse(float[][] normalizedKeypoints, String featureVector, List<Boolean> visibility) {
+        this(normalizedKeypoints, featureVector);
+        this.visibility = visibility;
+    }
+
+    public float[][] getNormalizedKeypoints() {
         return normalizedKeypoints;
     }
 
-    public void setNormalizedKeypoints(List<List<Double>> normalizedKeypoints) {
+    public void setNormalizedKeypoints(float[][] normalizedKeypoints) {
         this.normalizedKeypoints = normalizedKeypoints;
     }
 
@@ -33,4 +44,12 @@ public class PoseQueryResponse {
     public void setFeatureVector(String featureVector) {
         this.featureVector = featureVector;
     }
+
+    public List<Boolean> getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(List<Boolean> visibility) {
+        this.visibility = visibility;
+    }
 }
@@ -39,6 +39,20 @@ public class PoseSample {
     @Column(name = "feature_vector", columnDefinition = "TEXT")
     private String featureVector;
 
+    // feature_vector のバイナリ版（float32 リトルエンディアン × 34 = 136 バイト）
+    // 検索インデックスはこちらを優先して読む。古い行は起動時に遅延で埋める
+    @Column(name = "feature_vector_bin", columnDefinition = "VARBINARY(136)")
+    private byte[] featureVectorBin;
+
+    // 選んだ person の keypoint_scores（float32 リトルエンディアン × 17 = 68 バイト）
+    // 信頼度で重み付けした距離に使う。これより前に取り込んだ行は null（全関節の重み 1 として扱う）
+    @Column(name = "keypoint_scores_bin", columnDefinition = "VARBINARY(68)")
+    private byte[] keypointScoresBin;
+
+    // 画像ファイルの SHA-256（16 進）。画像配信の ETag に使う。取り込み時に計算し、古い行は初回配信時に埋める
+    @Column(name = "image_etag", length = 64)
+    private String imageEtag;
+
     // 元の JSON 丸ごと
     @Lob
     @Column(name = "raw_json", columnDefinition = "LONGTEXT")
@@ -50,6 +64,11 @@ public class PoseSample {
         return id;
     }
 
+    /** {@link PoseSampleBatchInserter} が採番された id を書き戻す */
+    void setId(Long id) {
+        this.id = id;
+    }
+
     public String getDatasetName() {
         return datasetName;
     }
@@ -90,6 +109,22 @@ public class PoseSample {
         this.featureVector = featureVector;
     }
 
+    public byte[] getFeatureVectorBin() {
+        return featureVectorBin;
+    }
+
+    public void setFeatureVectorBin(byte[] featureVectorBin) {
+        this.featureVectorBin = featureVectorBin;
+    }
+
+    public byte[] getKeypointScoresBin() {
+        return keypointScoresBin;
+    }
+
+    public void setKeypointScoresBin(byte[] keypointScoresBin) {
+        this.keypointScoresBin = keypointScoresBin;
+    }
+
     public String getRawJson() {
         return rawJson;
     }
@@ -110,4 +145,12 @@ public class PoseSample {
     public String getCutCode() { return cutCode; }
     public void setCutCode(String cutCode) { this.cutCode = cutCode; }
 
+    public String getImageEtag() {
+        return imageEtag;
+    }
+
+    public void setImageEtag(String imageEtag) {
+        this.imageEtag = imageEtag;
+    }
+
 }
@@ -0,0 +1,73 @@
+package com.example.mvdecision.pose;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 取り込み時に pose_sample をまとめて INSERT するサービス。
+ *
+ * PoseSample の id は IDENTITY（AUTO_INCREMENT）なので、saveAll だと Hibernate は JDBC バッチを使わず
+ * 1 行ずつ INSERT する。ここでは JDBC の addBatch / executeBatch で送り
+ * （接続 URL の rewriteBatchedStatements=true で複数行の INSERT 1 文になる）、
+ * 採番された id を getGeneratedKeys から各 PoseSample に書き戻す
+ */
+@Service
+public class PoseSampleBatchInserter {
+
+    private static final String INSERT_SQL = "INSERT INTO pose_sample"
+            + " (dataset_name, image_file_name, image_path, source_image_path, cut_code,"
+            + " normalized_keypoints_json, feature_vector, feature_vector_bin, keypoint_scores_bin,"
+            + " image_etag, raw_json)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PoseSampleBatchInserter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * samples を 1 トランザクションで INSERT し、それぞれに採番された id を設定する
+     */
+    @Transactional
+    public void insertAll(List<PoseSample> samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (PoseSample sample : samples) {
+                    ps.setString(1, sample.getDatasetName());
+                    ps.setString(2, sample.getImageFileName());
+                    ps.setString(3, sample.getImagePath());
+                    ps.setString(4, sample.getSourceImagePath());
+                    ps.setString(5, sample.getCutCode());
+                    ps.setString(6, sample.getNormalizedKeypointsJson());
+                    ps.setString(7, sample.getFeatureVector());
+                    ps.setBytes(8, sample.getFeatureVectorBin());
+                    ps.setBytes(9, sample.getKeypointScoresBin());
+                    ps.setString(10, sample.getImageEtag());
+                    ps.setString(11, sample.getRawJson());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (PoseSample sample : samples) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Generated keys missing for pose_sample batch");
+                        }
+                        sample.setId(keys.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -1,7 +1,111 @@
 package com.example.mvdecision.pose;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface PoseSampleRepository extends JpaRepository<PoseSample, Long> {
     // 検索API実装時に、ここにメソッドを足してもOK
+
+    /**
+     * feature_vector_bin だけを書き換える（LOB カラムは読み書きしない）
+     */
+    @Modifying
+    @Query("update PoseSample p set p.featureVectorBin = :bin where p.id = :id")
+    int updateFeatureVectorBin(@Param("id") Long id, @Param("bin") byte[] bin);
+
+    /**
+     * cut_code が無い行（cut_code を入れる前に取り込んだ行）を id 順に page の件数だけ読む
+     */
+    @Query("select p.id as id, p.sourceImagePath as sourceImagePath from PoseSample p"
+            + " where p.cutCode is null order by p.id")
+    List<PoseCutCodeRow> findMissingCutCodes(Pageable page);
+
+    /**
+     * ids の行の cut_code をまとめて書き換える
+     */
+    @Modifying
+    @Query("update PoseSample p set p.cutCode = :cutCode where p.id in :ids")
+    int updateCutCode(@Param("ids") Collection<Long> ids, @Param("cutCode") String cutCode);
+
+    /**
+     * 画像の ETag（SHA-256）だけを書き換える
+     */
+    @Modifying
+    @Query("update PoseSample p set p.imageEtag = :etag where p.id = :id")
+    int updateImageEtag(@Param("id") Long id, @Param("etag") String etag);
+
+    /**
+     * インデックス構築用に id + feature_vector_bin（+ 削除条件に使う datasetName / cutCode）を
+     * id 順にストリームで読む（afterId より大きい id だけ。全件なら 0）。
+     * トランザクション内で呼び、使い終わったら close すること
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select p.id as id, p.featureVectorBin as featureVectorBin, p.keypointScoresBin as keypointScoresBin,"
+            + " p.datasetName as datasetName, p.cutCode as cutCode from PoseSample p"
+            + " where p.id > :afterId and p.featureVectorBin is not null order by p.id")
+    Stream<PoseVectorRow> streamVectorsAfter(@Param("afterId") long afterId);
+
+    /**
+     * feature_vector_bin がまだ無い行の文字列版 feature_vector をストリームで読む
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select p.id as id, p.featureVector as featureVector,"
+            + " p.datasetName as datasetName, p.cutCode as cutCode from PoseSample p"
+            + " where p.id > :afterId and p.featureVectorBin is null and p.featureVector is not null"
+            + " order by p.id")
+    Stream<PoseLegacyVectorRow> streamLegacyVectorsAfter(@Param("afterId") long afterId);
+
+    /**
+     * id が upToId 以下で、ベクトル（バイナリ or 文字列）を持つ行数。
+     * インデックスのスナップショットファイルが DB と食い違っていないかの確認に使う
+     */
+    @Query("select count(p) from PoseSample p where p.id <= :upToId"
+            + " and (p.featureVectorBin is not null or p.featureVector is not null)")
+    long countVectorsUpTo(@Param("upToId") long upToId);
+
+    /**
+     * 時系列検索用に、cutCode ごとにフレーム順（source_image_path → image_file_name → id）で並べた id を読む。
+     * トランザクション内で呼び、使い終わったら close すること
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select p.id from PoseSample p where p.cutCode is not null"
+            + " order by p.cutCode, p.sourceImagePath, p.imageFileName, p.id")
+    Stream<Long> streamIdsInFrameOrder();
+
+    /**
+     * 検索結果の DTO 用に、指定 id のメタ情報だけを読む
+     */
+    @Query("select p.id as id, p.datasetName as datasetName, p.imageFileName as imageFileName,"
+            + " p.imagePath as imagePath, p.sourceImagePath as sourceImagePath, p.cutCode as cutCode,"
+            + " p.imageEtag as imageEtag"
+            + " from PoseSample p where p.id in :ids")
+    List<PoseSampleSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select p.id as id, p.datasetName as datasetName, p.imageFileName as imageFileName,"
+            + " p.imagePath as imagePath, p.sourceImagePath as sourceImagePath, p.cutCode as cutCode,"
+            + " p.imageEtag as imageEtag"
+            + " from PoseSample p where p.id = :id")
+    Optional<PoseSampleSummary> findSummaryById(@Param("id") Long id);
+
+    /**
+     * datasetName / cutCode で行を削除する（null の条件は無視。両方 null なら何もしない）
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from PoseSample p where (:datasetName is null or p.datasetName = :datasetName)"
+            + " and (:cutCode is null or p.cutCode = :cutCode)"
+            + " and (:datasetName is not null or :cutCode is not null)")
+    int deleteByDatasetAndCut(@Param("datasetName") String datasetName, @Param("cutCode") String cutCode);
 }
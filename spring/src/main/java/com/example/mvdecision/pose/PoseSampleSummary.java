@@ -0,0 +1,21 @@
+package com.example.mvdecision.pose;
+
+/**
+ * 検索結果や画像配信で使うメタ情報だけの射影（LOB カラムは含まない）
+ */
+public interface PoseSampleSummary {
+
+    Long getId();
+
+    String getDatasetName();
+
+    String getImageFileName();
+
+    String getImagePath();
+
+    String getSourceImagePath();
+
+    String getCutCode();
+
+    String getImageEtag();
+}
@@ -0,0 +1,165 @@
+package com.example.mvdecision.pose;
+
+import java.util.List;
+
+public class PoseSearchBatchRequest {
+
+    /**
+     * クエリの特徴ベクトルの一覧（/search の featureVector と同じ形式）
+     * 例: ["-1.916667,0.000000,...", "-1.833333,0.000000,..."]
+     */
+    private List<String> featureVectors;
+
+    /**
+     * クエリのスケルトンの一覧（featureVectors の代わりに使う。/pose/feature と同じ形式で正規化する）
+     * 例: [ [[x0,y0], ..., [x16,y16]], [[x0,y0], ..., [x16,y16]] ]
+     */
+    private List<List<List<Double>>> keypointSets;
+
+    /**
+     * クエリごとに何件返すか（省略時は 10）
+     */
+    private Integer topK;
+
+    /**
+     * 検索方式: "exact"（省略時）/ "approx" / "pq"
+     */
+    private String mode;
+
+    /**
+     * approx のときの探索幅（省略時は app.index.hnsw.ef-search）
+     */
+    private Integer efSearch;
+
+    /**
+     * pq のとき、正確な距離で並べ直す候補数（/search と同じ）
+     */
+    private Integer rerank;
+
+    /**
+     * 距離: "l2"（省略時）/ "weighted" / "mirror" / "weighted_mirror"（/search と同じ）
+     */
+    private String metric;
+
+    /**
+     * 距離の計算に使う関節（17 個の true/false。省略時はすべて。全クエリに同じものを使う）。
+     * keypointSets のときは、クエリごとに欠けている（null の）関節もそのクエリだけ外す（/search と同じ）
+     */
+    private List<Boolean> visibility;
+
+    /**
+     * このカットだけを対象にする（省略・空ならすべて。全クエリに同じ絞り込みをかける。/search と同じ）
+     */
+    private List<String> includeCutCodes;
+
+    /**
+     * このカットは対象から外す
+     */
+    private List<String> excludeCutCodes;
+
+    /**
+     * このデータセットだけを対象にする（省略・空ならすべて）
+     */
+    private List<String> includeDatasets;
+
+    /**
+     * このデータセットは対象から外す
+     */
+    private List<String> excludeDatasets;
+
+    public List<String> getFeatureVectors() {
+        return featureVectors;
+    }
+
+    public void setFeatureVectors(List<String> featureVectors) {
+        this.featureVectors = featureVectors;
+    }
+
+    public List<List<List<Double>>> getKeypointSets() {
+        return keypointSets;
+    }
+
+    public void setKeypointSets(List<List<List<Double>>> keypointSets) {
+        this.keypointSets = keypointSets;
+    }
+
+    public Integer getTopK() {
+        return topK;
+    }
+
+    public void setTopK(Integer topK) {
+        this.topK = topK;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public Integer getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(Integer efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public Integer getRerank() {
+        return rerank;
+    }
+
+    public void setRerank(Integer rerank) {
+        this.rerank = rerank;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public List<Boolean> getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(List<Boolean> visibility) {
+        this.visibility = visibility;
+    }
+
+    public List<String> getIncludeCutCodes() {
+        return includeCutCodes;
+    }
+
+    public void setIncludeCutCodes(List<String> includeCutCodes) {
+        this.includeCutCodes = includeCutCodes;
+    }
+
+    public List<String> getExcludeCutCodes() {
+        return excludeCutCodes;
+    }
+
+    public void setExcludeCutCodes(List<String> excludeCutCodes) {
+        this.excludeCutCodes = excludeCutCodes;
+    }
+
+    public List<String> getIncludeDatasets() {
+        return includeDatasets;
+    }
+
+    public void setIncludeDatasets(List<String> includeDatasets) {
+        this.includeDatasets = includeDatasets;
+    }
+
+    public List<String> getExcludeDatasets() {
+        return excludeDatasets;
+    }
+
+    public void setExcludeDatasets(List<String> excludeDatasets) {
+        this.excludeDatasets = excludeDatasets;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.mvdecision.pose;
+
+import java.util.List;
+
+public class PoseSearchBatchResponse {
+
+    /**
+     * クエリごとの検索結果（リクエストと同じ順番）
+     */
+    private List<PoseSearchByFeatureResponse> results;
+
+    public List<PoseSearchByFeatureResponse> getResults() {
+        return results;
+    }
+
+    public void setResults(List<PoseSearchByFeatureResponse> results) {
+        this.results = results;
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.mvdecision.pose;
 
+import java.util.List;
+
 public class PoseSearchByFeatureRequest {
 
     /**
@@ -8,11 +10,65 @@ public class PoseSearchByFeatureRequest {
      */
     private String featureVector;
 
+    /**
+     * featureVector の代わりに渡せる、正規化前の 17 点 [[x0,y0], ..., [x16,y16]]。
+     * サーバ側で /pose/feature と同じ正規化をかけて検索する（/pose/feature を呼ばずに 1 回で済む）。
+     * null の点は visibility で外したのと同じ扱い
+     */
+    private List<List<Double>> keypoints;
+
     /**
      * 何件返すか（省略時は 10）
      */
     private Integer topK;
 
+    /**
+     * 検索方式: "exact"（全件スキャン, 省略時）/ "approx"（HNSW による近似探索）/ "pq"（直積量子化した符号のスキャン）
+     */
+    private String mode;
+
+    /**
+     * approx のときの探索幅。大きいほど正確で遅い（省略時は app.index.hnsw.ef-search）
+     */
+    private Integer efSearch;
+
+    /**
+     * pq のとき、正確な距離で並べ直す候補数（省略時は topK × app.index.pq.rerank-factor、0 なら並べ直さない）
+     */
+    private Integer rerank;
+
+    /**
+     * 距離: "l2"（省略時）/ "weighted"（関節の信頼度で重み付け）/ "mirror"（左右反転も試して近い方）/ "weighted_mirror"
+     * l2 以外は mode に関係なく全件スキャンになる
+     */
+    private String metric;
+
+    /**
+     * 距離の計算に使う関節（17 個の true/false。省略時はすべて）。/pose/feature が返す visibility を渡す。
+     * 一部の関節だけのときは mode に関係なく全件スキャンになる
+     */
+    private List<Boolean> visibility;
+
+    /**
+     * このカットだけを対象にする（省略・空ならすべて）
+     */
+    private List<String> includeCutCodes;
+
+    /**
+     * このカットは対象から外す
+     */
+    private List<String> excludeCutCodes;
+
+    /**
+     * このデータセットだけを対象にする（省略・空ならすべて）
+     */
+    private List<String> includeDatasets;
+
+    /**
+     * このデータセットは対象から外す
+     */
+    private List<String> excludeDatasets;
+
     public String getFeatureVector() {
         return featureVector;
     }
@@ -21,6 +77,14 @@ public class PoseSearchByFeatureRequest {
         this.featureVector = featureVector;
     }
 
+    public List<List<Double>> getKeypoints() {
+        return keypoints;
+    }
+
+    public void setKeypoints(List<List<Double>> keypoints) {
+        this.keypoints = keypoints;
+    }
+
     public Integer getTopK() {
         return topK;
     }
@@ -28,4 +92,76 @@ public class PoseSearchByFeatureRequest {
     public void setTopK(Integer topK) {
         this.topK = topK;
     }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public Integer getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(Integer efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public Integer getRerank() {
+        return rerank;
+    }
+
+    public void setRerank(Integer rerank) {
+        this.rerank = rerank;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public List<Boolean> getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(List<Boolean> visibility) {
+        this.visibility = visibility;
+    }
+
+    public List<String> getIncludeCutCodes() {
+        return includeCutCodes;
+    }
+
+    public void setIncludeCutCodes(List<String> includeCutCodes) {
+        this.includeCutCodes = includeCutCodes;
+    }
+
+    public List<String> getExcludeCutCodes() {
+        return excludeCutCodes;
+    }
+
+    public void setExcludeCutCodes(List<String> excludeCutCodes) {
+        this.excludeCutCodes = excludeCutCodes;
+    }
+
+    public List<String> getIncludeDatasets() {
+        return includeDatasets;
+    }
+
+    public void setIncludeDatasets(List<String> includeDatasets) {
+        this.includeDatasets = includeDatasets;
+    }
+
+    public List<String> getExcludeDatasets() {
+        return excludeDatasets;
+    }
+
+    public void setExcludeDatasets(List<String> excludeDatasets) {
+        this.excludeDatasets = excludeDatasets;
+    }
 }
@@ -0,0 +1,191 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.DistanceMetric;
+import com.example.mvdecision.index.SearchFilter;
+import com.example.mvdecision.index.SearchMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * /api/query/pose/search の結果キャッシュ。
+ *
+ * エディタで関節を 1px 動かしては検索し直す、といった「ほぼ同じクエリ」が多いので、
+ * クエリベクトルを app.search.cache.precision 刻みに丸めたもの + topK / mode / efSearch / rerank / 絞り込み / 距離 / 関節マスクをキーにして、
+ * 同じキーなら索引も DB も見ずに前回のレスポンスを返す。
+ * 丸めの幅より小さい違いは同じクエリとみなす（距離も前回の値のまま返る）。
+ *
+ * 件数は app.search.cache.max-entries まで（超えたら最近使っていないものから捨てる）。
+ * 取り込み・削除でインデックスの epoch が変わったら、次のアクセス時に丸ごと捨てる。
+ */
+@Component
+public class PoseSearchCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final double precision;
+    private final Map<Key, PoseSearchByFeatureResponse> entries;
+
+    /** entries を作ったときのインデックスの epoch */
+    private long epoch = -1;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PoseSearchCache(@Value("${app.search.cache.enabled:true}") boolean enabled,
+                           @Value("${app.search.cache.max-entries:10000}") int maxEntries,
+                           @Value("${app.search.cache.precision:0.001}") double precision) {
+        if (precision <= 0) {
+            throw new IllegalArgumentException("app.search.cache.precision must be positive: " + precision);
+        }
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.precision = precision;
+        this.entries = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PoseSearchByFeatureResponse> eldest) {
+                if (size() > PoseSearchCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * クエリと絞り込み条件をキーにする（ベクトルは precision 刻みに丸める）
+     */
+    public Key key(double[] query, int topK, SearchMode mode, Integer efSearch, Integer rerank, SearchFilter filter,
+                   DistanceMetric metric, int jointMask) {
+        long[] quantized = new long[query.length];
+        for (int i = 0; i < query.length; i++) {
+            quantized[i] = Math.round(query[i] / precision);
+        }
+        // efSearch は approx のときしか結果に影響しない
+        // L2 以外・一部の関節だけのときは全件スキャンなので mode / efSearch も効かない
+        if (metric != DistanceMetric.L2 || jointMask != PoseFeatureUtil.ALL_JOINTS) {
+            mode = SearchMode.EXACT;
+        }
+        int ef = (mode == SearchMode.APPROX && efSearch != null) ? efSearch : 0;
+        // rerank は pq のときしか効かない（省略時は -1 として区別する）
+        int rr = (mode == SearchMode.PQ) ? ((rerank != null) ? Math.max(0, rerank) : -1) : 0;
+        return new Key(quantized, topK, mode, ef, rr, filter, metric, jointMask);
+    }
+
+    /**
+     * epoch（今のインデックスの世代）で有効なキャッシュを引く。無ければ null
+     */
+    public synchronized PoseSearchByFeatureResponse get(Key key, long epoch) {
+        if (epoch != this.epoch) {
+            if (!entries.isEmpty()) {
+                invalidations.increment();
+            }
+            entries.clear();
+            this.epoch = epoch;
+        }
+        PoseSearchByFeatureResponse cached = entries.get(key);
+        if (cached != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * 検索結果を入れる。検索している間にインデックスが変わっていたら（epoch が古ければ）入れない
+     */
+    public synchronized void put(Key key, long epoch, PoseSearchByFeatureResponse response) {
+        if (epoch == this.epoch) {
+            entries.put(key, response);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        invalidations.increment();
+    }
+
+    public synchronized PoseSearchCacheStats stats() {
+        PoseSearchCacheStats stats = new PoseSearchCacheStats();
+        stats.setEnabled(enabled);
+        stats.setSize(entries.size());
+        stats.setMaxEntries(maxEntries);
+        stats.setPrecision(precision);
+        stats.setEpoch(epoch);
+        long h = hits.sum();
+        long m = misses.sum();
+        stats.setHits(h);
+        stats.setMisses(m);
+        stats.setHitRate((h + m) > 0 ? (double) h / (h + m) : 0.0);
+        stats.setEvictions(evictions.sum());
+        stats.setInvalidations(invalidations.sum());
+        return stats;
+    }
+
+    /**
+     * キャッシュのキー。丸めたベクトルは配列なので equals / hashCode を自前で持つ
+     */
+    public static final class Key {
+        private final long[] quantized;
+        private final int topK;
+        private final SearchMode mode;
+        private final int efSearch;
+        private final int rerank;
+        private final SearchFilter filter;
+        private final DistanceMetric metric;
+        private final int jointMask;
+        private final int hash;
+
+        Key(long[] quantized, int topK, SearchMode mode, int efSearch, int rerank, SearchFilter filter,
+            DistanceMetric metric, int jointMask) {
+            this.quantized = quantized;
+            this.topK = topK;
+            this.mode = mode;
+            this.efSearch = efSearch;
+            this.rerank = rerank;
+            this.filter = filter;
+            this.metric = metric;
+            this.jointMask = jointMask;
+            int h = Arrays.hashCode(quantized);
+            h = 31 * h + topK;
+            h = 31 * h + mode.hashCode();
+            h = 31 * h + efSearch;
+            h = 31 * h + rerank;
+            h = 31 * h + filter.hashCode();
+            h = 31 * h + metric.hashCode();
+            h = 31 * h + jointMask;
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return hash == other.hash && topK == other.topK && mode == other.mode
+                    && efSearch == other.efSearch && rerank == other.rerank && metric == other.metric
+                    && jointMask == other.jointMask && filter.equals(other.filter)
+                    && Arrays.equals(quantized, other.quantized);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
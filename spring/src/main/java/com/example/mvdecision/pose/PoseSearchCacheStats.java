@@ -0,0 +1,103 @@
+package com.example.mvdecision.pose;
+
+/**
+ * 検索結果キャッシュの件数・ヒット率（GET /api/query/pose/search/cache）
+ */
+public class PoseSearchCacheStats {
+
+    private boolean enabled;
+    /** 今の件数 */
+    private int size;
+    private int maxEntries;
+    /** クエリベクトルを丸める幅 */
+    private double precision;
+    /** キャッシュの中身に対応するインデックスの epoch */
+    private long epoch;
+    private long hits;
+    private long misses;
+    private double hitRate;
+    /** 件数の上限で捨てた数 */
+    private long evictions;
+    /** インデックスの更新で丸ごと捨てた回数 */
+    private long invalidations;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public double getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(double precision) {
+        this.precision = precision;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public void setHitRate(double hitRate) {
+        this.hitRate = hitRate;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public void setInvalidations(long invalidations) {
+        this.invalidations = invalidations;
+    }
+}
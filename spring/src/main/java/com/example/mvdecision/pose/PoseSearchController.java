@@ -1,30 +1,236 @@
 package com.example.mvdecision.pose;
 
+import com.example.mvdecision.index.AnnRecallReport;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.SearchMode;
+import com.example.mvdecision.index.SearchOptions;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/query/pose")
 public class PoseSearchController {
 
     private final PoseSearchService poseSearchService;
+    private final PoseSequenceSearchService poseSequenceSearchService;
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final PoseSearchCache poseSearchCache;
 
-    public PoseSearchController(PoseSearchService poseSearchService) {
+    public PoseSearchController(PoseSearchService poseSearchService,
+                                PoseSequenceSearchService poseSequenceSearchService,
+                                PoseFeatureIndex poseFeatureIndex,
+                                PoseSearchCache poseSearchCache) {
         this.poseSearchService = poseSearchService;
+        this.poseSequenceSearchService = poseSequenceSearchService;
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.poseSearchCache = poseSearchCache;
     }
 
     /**
-     * feature_vector ベースの類似検索
+     * feature_vector ベースの類似検索。featureVector の代わりに正規化前の keypoints（17 点）を渡してもよい
+     * （サーバ側で /pose/feature と同じ正規化をかけるので、エディタからは 1 回の呼び出しで済む）
      *
      * 例:
      * curl -X POST http://localhost:8081/api/query/pose/search \
      *   -H "Content-Type: application/json" \
      *   -d '{
      *         "featureVector": "-1.916667,0.000000,-1.750000,0.000000,...",
-     *         "topK": 10
+     *         "topK": 10,
+     *         "mode": "approx"
      *       }'
+     * curl -X POST http://localhost:8081/api/query/pose/search \
+     *   -H "Content-Type: application/json" \
+     *   -d '{ "keypoints": [[x0,y0], ..., [x16,y16]], "topK": 10 }'
      */
     @PostMapping("/search")
     public PoseSearchByFeatureResponse searchByFeature(@RequestBody PoseSearchByFeatureRequest request) {
-        return poseSearchService.searchByFeature(request);
+        try {
+            return poseSearchService.searchByFeature(request);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * /search の結果を 1 件ずつ流して返す（Accept で形式を選ぶ。topK が数千件の解析ジョブ向け）。
+     * application/x-ndjson なら 1 行 1 件の JSON、application/x-pose-hits なら id と距離だけのバイナリ
+     * （形式は {@link PoseSearchResultWriter}）。全件そろうのを待たずに読み始められる
+     *
+     * 例:
+     * curl -N -X POST http://localhost:8081/api/query/pose/search \
+     *   -H "Content-Type: application/json" -H "Accept: application/x-ndjson" \
+     *   -d '{ "featureVector": "-1.916667,0.000000,...", "topK": 5000 }'
+     */
+    @PostMapping(value = "/search",
+            produces = {PoseSearchResultWriter.NDJSON_VALUE, PoseSearchResultWriter.BINARY_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamByFeature(
+            @RequestBody PoseSearchByFeatureRequest request,
+            @RequestHeader(HttpHeaders.ACCEPT) String accept) {
+        PoseSearchResultWriter.Format format = streamFormat(accept);
+        try {
+            return streamResponse(format, poseSearchService.streamByFeature(request, format));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * エディタの 17 点（/pose/feature と同じ keypoints・visibility）で検索し、
+     * 正規化済みの 17 点・featureVector・使った関節と検索結果をまとめて返す。
+     * /pose/feature → /search の 2 往復と、featureVector の文字列のパースがなくなる。
+     * topK・mode・metric・絞り込みは /search と同じ
+     *
+     * 例:
+     * curl -X POST http://localhost:8081/api/query/pose/search/keypoints \
+     *   -H "Content-Type: application/json" \
+     *   -d '{
+     *         "keypoints": [[x0,y0], ..., [x16,y16]],
+     *         "topK": 15,
+     *         "includeDatasets": ["dataset1"]
+     *       }'
+     */
+    @PostMapping("/search/keypoints")
+    public PoseKeypointSearchResponse searchByKeypoints(@RequestBody PoseSearchByFeatureRequest request) {
+        try {
+            return poseSearchService.searchByKeypoints(request);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 複数のクエリ（featureVector または 17 点のスケルトン）をまとめて検索する。
+     * インデックスは 1 回のスキャンで全クエリを評価するので、クエリごとに /search を呼ぶより速い
+     *
+     * 例:
+     * curl -X POST http://localhost:8081/api/query/pose/search/batch \
+     *   -H "Content-Type: application/json" \
+     *   -d '{
+     *         "featureVectors": ["-1.916667,0.000000,...", "-1.833333,0.000000,..."],
+     *         "topK": 5
+     *       }'
+     */
+    @PostMapping("/search/batch")
+    public PoseSearchBatchResponse searchBatch(@RequestBody PoseSearchBatchRequest request) {
+        try {
+            return poseSearchService.searchBatch(request);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * /search/batch の結果を 1 件ずつ流して返す（形式は /search のストリームと同じ。各件の query がクエリの位置）。
+     * クエリを少しずつインデックスに渡して確定した分から書くので、全クエリ分の結果をサーバに溜めない
+     *
+     * 例:
+     * curl -N -X POST http://localhost:8081/api/query/pose/search/batch \
+     *   -H "Content-Type: application/json" -H "Accept: application/x-pose-hits" \
+     *   -d '{ "featureVectors": ["...", "..."], "topK": 1000 }' -o hits.bin
+     */
+    @PostMapping(value = "/search/batch",
+            produces = {PoseSearchResultWriter.NDJSON_VALUE, PoseSearchResultWriter.BINARY_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamBatch(
+            @RequestBody PoseSearchBatchRequest request,
+            @RequestHeader(HttpHeaders.ACCEPT) String accept) {
+        PoseSearchResultWriter.Format format = streamFormat(accept);
+        try {
+            return streamResponse(format, poseSearchService.streamBatch(request, format));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 骨格時系列 (T, 17, 2) に動きが近いカットを探す（cutCode ごとのフレーム列との DTW 距離）
+     *
+     * 例:
+     * curl -X POST http://localhost:8081/api/query/pose/search/sequence \
+     *   -H "Content-Type: application/json" \
+     *   -d '{
+     *         "keypointSequence": [ [[x0,y0], ..., [x16,y16]], [[x0,y0], ..., [x16,y16]], ... ],
+     *         "topK": 10,
+     *         "window": 0.1
+     *       }'
+     */
+    @PostMapping("/search/sequence")
+    public PoseSequenceSearchResponse searchSequence(@RequestBody PoseSequenceSearchRequest request) {
+        try {
+            return poseSequenceSearchService.search(request);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * approx (HNSW) または pq（直積量子化）と exact の recall@K 比較レポート
+     *
+     * 例:
+     * curl "http://localhost:8081/api/query/pose/search/recall?k=10&queries=200&efSearch=64"
+     * curl "http://localhost:8081/api/query/pose/search/recall?mode=pq&k=10&queries=200&rerank=40"
+     */
+    @GetMapping("/search/recall")
+    public AnnRecallReport recall(@RequestParam(defaultValue = "10") int k,
+                                  @RequestParam(defaultValue = "100") int queries,
+                                  @RequestParam(required = false) Integer efSearch,
+                                  @RequestParam(defaultValue = "approx") String mode,
+                                  @RequestParam(required = false) Integer rerank) {
+        SearchMode searchMode;
+        try {
+            searchMode = SearchMode.parse(mode);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        if (searchMode == SearchMode.EXACT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "mode must be approx or pq");
+        }
+        if (searchMode == SearchMode.PQ ? !poseFeatureIndex.isPqReady() : !poseFeatureIndex.isGraphReady()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    (searchMode == SearchMode.PQ ? "PQ codes are" : "HNSW graph is") + " not built yet");
+        }
+        return poseFeatureIndex.recallReport(k, queries,
+                new SearchOptions(searchMode, efSearch, rerank, null, null, PoseFeatureUtil.ALL_JOINTS));
+    }
+
+    /**
+     * Accept に binary の型が入っていれば binary、それ以外（ndjson）は ndjson
+     */
+    private static PoseSearchResultWriter.Format streamFormat(String accept) {
+        return accept.contains(PoseSearchResultWriter.BINARY_VALUE)
+                ? PoseSearchResultWriter.Format.BINARY
+                : PoseSearchResultWriter.Format.NDJSON;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> streamResponse(PoseSearchResultWriter.Format format,
+                                                                        PoseSearchService.ResultStream stream) {
+        String contentType = (format == PoseSearchResultWriter.Format.BINARY)
+                ? PoseSearchResultWriter.BINARY_VALUE
+                : PoseSearchResultWriter.NDJSON_VALUE;
+        StreamingResponseBody body = stream::writeTo;
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType))
+                .body(body);
+    }
+
+    /**
+     * /search の結果キャッシュの件数・ヒット率
+     */
+    @GetMapping("/search/cache")
+    public PoseSearchCacheStats cacheStats() {
+        return poseSearchCache.stats();
+    }
+
+    /**
+     * /search の結果キャッシュを空にする
+     */
+    @DeleteMapping("/search/cache")
+    public PoseSearchCacheStats clearCache() {
+        poseSearchCache.invalidateAll();
+        return poseSearchCache.stats();
     }
 }
@@ -0,0 +1,112 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.DistanceMetric;
+import com.example.mvdecision.index.SearchMode;
+import com.example.mvdecision.index.SearchStats;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * /search・/search/batch のメトリクス（GET /actuator/prometheus）。
+ *
+ * 1 リクエストを「パース（parse）→ インデックスの検索（index）→ DB からメタ情報（fetch）」の段階に分けて
+ * 観測（Observation）で囲む。観測は段階ごとのタイマー（pose.search.parse / index / fetch）になり、
+ * トレーサーを入れればそのまま http.server.requests の子スパンになる。
+ * 加えて検索 1 回ごとの対象行数・距離を計算した行数・topK を分布として記録する。
+ * 結果キャッシュのヒット数は {@link PoseSearchCache} の統計をそのまま読む
+ */
+@Component
+public class PoseSearchMetrics {
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observations;
+
+    public PoseSearchMetrics(MeterRegistry registry, ObservationRegistry observations, PoseSearchCache cache) {
+        this.registry = registry;
+        this.observations = observations;
+
+        FunctionCounter.builder("pose.search.cache.requests", cache, c -> c.stats().getHits())
+                .tag("result", "hit")
+                .description("/search の結果キャッシュを引いた回数")
+                .register(registry);
+        FunctionCounter.builder("pose.search.cache.requests", cache, c -> c.stats().getMisses())
+                .tag("result", "miss")
+                .description("/search の結果キャッシュを引いた回数")
+                .register(registry);
+        Gauge.builder("pose.search.cache.hit.ratio", cache, c -> c.stats().getHitRate())
+                .description("/search の結果キャッシュの起動からのヒット率")
+                .register(registry);
+        Gauge.builder("pose.search.cache.size", cache, c -> c.stats().getSize())
+                .baseUnit("entries")
+                .register(registry);
+    }
+
+    /**
+     * 検索の 1 段階（parse / index / fetch）を観測で囲んで実行する。例外は観測にエラーとして残してから投げ直す
+     */
+    <T> T observe(String phase, boolean batch, Supplier<T> body) {
+        return Observation.createNotStarted("pose.search." + phase, observations)
+                .lowCardinalityKeyValue("batch", String.valueOf(batch))
+                .observe(body);
+    }
+
+    void observe(String phase, boolean batch, Runnable body) {
+        Observation.createNotStarted("pose.search." + phase, observations)
+                .lowCardinalityKeyValue("batch", String.valueOf(batch))
+                .observe(body);
+    }
+
+    /**
+     * インデックスの検索 1 回分の走査件数
+     */
+    void recordScan(SearchMode mode, DistanceMetric metric, boolean filtered, int topK, SearchStats stats) {
+        String modeTag = mode.name().toLowerCase();
+        String metricTag = metric.name().toLowerCase();
+        String filteredTag = String.valueOf(filtered);
+        DistributionSummary.builder("pose.search.scan.size")
+                .description("検索対象の行数（絞り込み後）")
+                .baseUnit("rows")
+                .tags("mode", modeTag, "metric", metricTag, "filtered", filteredTag)
+                .register(registry)
+                .record(stats.getScanSize());
+        DistributionSummary.builder("pose.search.evaluated")
+                .description("距離を計算した行数（HNSW で辿ったノード・pq の符号を含む）")
+                .baseUnit("rows")
+                .tags("mode", modeTag, "metric", metricTag, "filtered", filteredTag)
+                .register(registry)
+                .record(stats.getEvaluated());
+        if (mode == SearchMode.PQ) {
+            DistributionSummary.builder("pose.search.reranked")
+                    .description("pq の候補のうち正確な距離で並べ直した行数")
+                    .baseUnit("rows")
+                    .register(registry)
+                    .record(stats.getReranked());
+        }
+        recordTopK(topK, false);
+    }
+
+    private void recordTopK(int topK, boolean batch) {
+        DistributionSummary.builder("pose.search.topk")
+                .tag("batch", String.valueOf(batch))
+                .register(registry)
+                .record(topK);
+    }
+
+    /**
+     * /search/batch 1 回あたりのクエリ数
+     */
+    void recordBatch(int queries, int topK) {
+        DistributionSummary.builder("pose.search.batch.queries")
+                .baseUnit("queries")
+                .register(registry)
+                .record(queries);
+        recordTopK(topK, true);
+    }
+}
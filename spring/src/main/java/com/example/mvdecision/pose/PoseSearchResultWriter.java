@@ -0,0 +1,130 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * /search・/search/batch の結果を、確定したところから 1 件ずつレスポンスに書き出す
+ * （JSON 1 つにまとめず、サーバ側で全件を持たない）。
+ *
+ *  - ndjson（application/x-ndjson）: 1 行に 1 件。
+ *    {"query":0,"rank":1,"id":123,"datasetName":...,"distance":0.42,...}
+ *    query はバッチでのクエリの位置（/search は常に 0）、rank は 1 始まり。
+ *    インデックス作成後に消されたサンプルは出さない（rank は飛ぶ）
+ *  - binary（application/x-pose-hits）: id と距離だけ（DB は引かない）。ビッグエンディアンで
+ *    クエリごとに int query, int count のあと count 件の (long id, float distance) が距離の小さい順に並ぶ。
+ *    1 件 12 バイト。消されたサンプルもそのまま出る
+ */
+public abstract class PoseSearchResultWriter {
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String BINARY_VALUE = "application/x-pose-hits";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    public enum Format {
+        NDJSON, BINARY
+    }
+
+    public static PoseSearchResultWriter open(Format format, OutputStream out) throws IOException {
+        return (format == Format.BINARY) ? new Binary(out) : new Ndjson(out);
+    }
+
+    /**
+     * DB からメタ情報を引く必要があるか（binary は id と距離だけなので引かない）
+     */
+    abstract boolean needsSummaries();
+
+    /**
+     * 1 クエリ分の結果の書き出しを始める（hits はそのクエリで書く件数）
+     */
+    abstract void beginQuery(int query, int hits) throws IOException;
+
+    /**
+     * 1 件書く。needsSummaries() が false のときは result が null
+     */
+    abstract void write(int query, int rank, PoseFeatureIndex.Hit hit, PoseSearchResultDto result) throws IOException;
+
+    /**
+     * ここまでに書いた分をクライアントへ送る
+     */
+    abstract void flush() throws IOException;
+
+    private static final class Ndjson extends PoseSearchResultWriter {
+
+        private final JsonGenerator json;
+
+        Ndjson(OutputStream out) throws IOException {
+            this.json = MAPPER.getFactory().createGenerator(out);
+            // 行の区切りは自分で書く
+            this.json.setRootValueSeparator(null);
+        }
+
+        @Override
+        boolean needsSummaries() {
+            return true;
+        }
+
+        @Override
+        void beginQuery(int query, int hits) {
+        }
+
+        @Override
+        void write(int query, int rank, PoseFeatureIndex.Hit hit, PoseSearchResultDto result) throws IOException {
+            if (result == null) {
+                return;
+            }
+            json.writeObject(new Line(query, rank, result));
+            json.writeRaw('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            json.flush();
+        }
+    }
+
+    private static final class Binary extends PoseSearchResultWriter {
+
+        private final DataOutputStream out;
+
+        Binary(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        }
+
+        @Override
+        boolean needsSummaries() {
+            return false;
+        }
+
+        @Override
+        void beginQuery(int query, int hits) throws IOException {
+            out.writeInt(query);
+            out.writeInt(hits);
+        }
+
+        @Override
+        void write(int query, int rank, PoseFeatureIndex.Hit hit, PoseSearchResultDto result) throws IOException {
+            out.writeLong(hit.id());
+            out.writeFloat((float) hit.distance());
+        }
+
+        @Override
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * ndjson の 1 行（結果の DTO の前にクエリの位置と順位をつける）
+     */
+    private record Line(int query, int rank, @JsonUnwrapped PoseSearchResultDto result) {}
+}
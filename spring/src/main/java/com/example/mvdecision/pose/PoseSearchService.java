@@ -1,86 +1,443 @@
 package com.example.mvdecision.pose;
 
+import com.example.mvdecision.index.DistanceMetric;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.index.SearchFilter;
+import com.example.mvdecision.index.SearchMode;
+import com.example.mvdecision.index.SearchOptions;
+import com.example.mvdecision.index.SearchStats;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class PoseSearchService {
 
+    /** バッチ検索 1 回あたりのクエリ数の上限 */
+    private static final int MAX_BATCH_QUERIES = 1000;
+
+    /** ストリームで返すとき、インデックスに一度に渡すバッチのクエリ数 */
+    private static final int STREAM_BATCH_QUERIES = 32;
+
+    /** ストリームで返すとき、DB からメタ情報を一度に引く件数 */
+    private static final int STREAM_FETCH_IDS = 500;
+
     private final PoseSampleRepository poseSampleRepository;
+    private final PoseFeatureIndex poseFeatureIndex;
+    private final PoseSearchCache poseSearchCache;
+    private final PoseSearchMetrics poseSearchMetrics;
 
-    public PoseSearchService(PoseSampleRepository poseSampleRepository) {
+    public PoseSearchService(PoseSampleRepository poseSampleRepository,
+                             PoseFeatureIndex poseFeatureIndex,
+                             PoseSearchCache poseSearchCache,
+                             PoseSearchMetrics poseSearchMetrics) {
         this.poseSampleRepository = poseSampleRepository;
+        this.poseFeatureIndex = poseFeatureIndex;
+        this.poseSearchCache = poseSearchCache;
+        this.poseSearchMetrics = poseSearchMetrics;
     }
 
     public PoseSearchByFeatureResponse searchByFeature(PoseSearchByFeatureRequest request) {
-        String queryFeatureVector = request.getFeatureVector();
-        if (queryFeatureVector == null || queryFeatureVector.isBlank()) {
-            throw new IllegalArgumentException("featureVector is required");
+        SearchParams params = SearchParams.of(request);
+        ParsedQuery parsed = parseQuery(request);
+
+        PoseSearchByFeatureResponse response = new PoseSearchByFeatureResponse();
+        response.setFeatureVector(parsed.featureVector());
+        response.setResults(search(parsed, params));
+        return response;
+    }
+
+    /**
+     * /search と同じクエリを検索し、結果を format でストリームとして書き出す（topK が数千件のとき用）。
+     * 入力の誤りはここで IllegalArgumentException にし、検索と書き出しは返した ResultStream の中で行う。
+     * 結果キャッシュは使わない。DB のメタ情報は STREAM_FETCH_IDS 件ずつ引いて、引いた分から書く
+     */
+    public ResultStream streamByFeature(PoseSearchByFeatureRequest request, PoseSearchResultWriter.Format format) {
+        SearchParams params = SearchParams.of(request);
+        ParsedQuery parsed = parseQuery(request);
+        return stream(format, writer -> writeHits(writer, 0, searchIndex(parsed, params), false));
+    }
+
+    /**
+     * featureVector か keypoints のどちらか一方をクエリにする
+     */
+    private ParsedQuery parseQuery(PoseSearchByFeatureRequest request) {
+        String featureVector = request.getFeatureVector();
+        List<List<Double>> keypoints = request.getKeypoints();
+        boolean hasVector = featureVector != null && !featureVector.isBlank();
+        boolean hasKeypoints = keypoints != null && !keypoints.isEmpty();
+        if (!hasVector && !hasKeypoints) {
+            throw new IllegalArgumentException("featureVector or keypoints is required");
+        }
+        if (hasVector && hasKeypoints) {
+            throw new IllegalArgumentException("Specify either featureVector or keypoints");
+        }
+
+        return poseSearchMetrics.observe("parse", false, () -> hasKeypoints
+                ? parseOne(null, keypoints, request.getVisibility())
+                : parseOne(featureVector, null, request.getVisibility()));
+    }
+
+    /**
+     * クエリ 1 件を double[] にする（featureVector ならパース、keypoints ならここで正規化）。
+     * /search とバッチの各クエリで同じ規則を使う
+     */
+    private static ParsedQuery parseOne(String featureVector, List<List<Double>> keypoints,
+                                       List<Boolean> visibility) {
+        if (keypoints != null) {
+            return normalizeQuery(keypoints, visibility);
+        }
+        return new ParsedQuery(parseFeatureVector(featureVector), featureVector,
+                PoseFeatureUtil.jointMask(visibility), null);
+    }
+
+    /**
+     * 正規化前の 17 点で検索し、正規化済みの 17 点・使った関節と検索結果をまとめて返す。
+     * /pose/feature と /search を 1 回で済ませる（エディタのドラッグ検索用）
+     */
+    public PoseKeypointSearchResponse searchByKeypoints(PoseSearchByFeatureRequest request) {
+        // クエリのパース・正規化は /search と同じ parseQuery。ここでは keypoints で来たことだけを確かめる
+        if (request.getKeypoints() == null || request.getKeypoints().isEmpty()) {
+            throw new IllegalArgumentException("keypoints is required");
+        }
+        SearchParams params = SearchParams.of(request);
+        ParsedQuery parsed = parseQuery(request);
+
+        PoseKeypointSearchResponse response = new PoseKeypointSearchResponse();
+        response.setNormalizedKeypoints(parsed.normalizedKeypoints());
+        response.setFeatureVector(parsed.featureVector());
+        response.setVisibility(PoseFeatureUtil.toVisibility(parsed.jointMask()));
+        response.setResults(search(parsed, params));
+        return response;
+    }
+
+    /**
+     * パース済みのクエリ 1 件を検索する（結果キャッシュ → 常駐インデックス → DB のメタ情報）
+     */
+    private List<PoseSearchResultDto> search(ParsedQuery parsed, SearchParams params) {
+        // ほぼ同じクエリ（丸めると同じベクトル）を直前に検索していれば、その結果を返す
+        PoseSearchCache.Key cacheKey = null;
+        long epoch = poseFeatureIndex.epoch();
+        if (poseSearchCache.isEnabled()) {
+            SearchOptions o = params.options();
+            cacheKey = poseSearchCache.key(parsed.vector(), params.topK(), o.mode(), o.efSearch(), o.rerank(),
+                    o.filter(), o.metric(), parsed.jointMask());
+            PoseSearchByFeatureResponse cached = poseSearchCache.get(cacheKey, epoch);
+            if (cached != null) {
+                return cached.getResults();
+            }
+        }
+
+        List<PoseFeatureIndex.Hit> hits = searchIndex(parsed, params);
+
+        // topK 件分だけ DB からメタ情報（LOB を除く射影）を引いて DTO にする
+        Map<Long, PoseSampleSummary> samplesById = poseSearchMetrics.observe("fetch", false,
+                () -> findSummaries(List.of(hits)));
+
+        List<PoseSearchResultDto> results = Collections.unmodifiableList(toResultDtos(hits, samplesById));
+        if (cacheKey != null) {
+            PoseSearchByFeatureResponse entry = new PoseSearchByFeatureResponse();
+            entry.setFeatureVector(parsed.featureVector());
+            entry.setResults(results);
+            poseSearchCache.put(cacheKey, epoch, entry);
+        }
+        return results;
+    }
+
+    /**
+     * 常駐インデックスから topK を求める（exact: 全件スキャン / approx: HNSW / pq: 直積量子化の符号のスキャン。
+     * l2 以外の距離や一部の関節だけの検索は常に全件スキャン）
+     */
+    private List<PoseFeatureIndex.Hit> searchIndex(ParsedQuery parsed, SearchParams params) {
+        SearchStats stats = new SearchStats();
+        SearchOptions options = params.options().withJointMask(parsed.jointMask());
+        List<PoseFeatureIndex.Hit> hits = poseSearchMetrics.observe("index", false, () ->
+                poseFeatureIndex.search(parsed.vector(), params.topK(), options, stats));
+        poseSearchMetrics.recordScan(options.mode(), options.metric(), !options.filter().isEmpty(),
+                params.topK(), stats);
+        return hits;
+    }
+
+    /**
+     * 複数クエリをまとめて検索する。クエリは featureVectors か keypointSets のどちらか一方で渡す。
+     * インデックスは 1 回のスキャンで全クエリを評価し、DB のメタ情報も全クエリ分を 1 回で引く
+     */
+    public PoseSearchBatchResponse searchBatch(PoseSearchBatchRequest request) {
+        BatchQueries queries = parseBatch(request);
+        int count = queries.vectors().length;
+        int topK = queries.topK();
+
+        List<List<PoseFeatureIndex.Hit>> hitsPerQuery = poseSearchMetrics.observe("index", true, () ->
+                poseFeatureIndex.searchBatch(queries.vectors(), queries.jointMasks(), topK, queries.options()));
+        poseSearchMetrics.recordBatch(count, topK);
+        Map<Long, PoseSampleSummary> samplesById = poseSearchMetrics.observe("fetch", true,
+                () -> findSummaries(hitsPerQuery));
+
+        List<PoseSearchByFeatureResponse> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PoseSearchByFeatureResponse r = new PoseSearchByFeatureResponse();
+            r.setFeatureVector(queries.featureVectors()[i]);
+            r.setResults(toResultDtos(hitsPerQuery.get(i), samplesById));
+            results.add(r);
+        }
+        PoseSearchBatchResponse response = new PoseSearchBatchResponse();
+        response.setResults(results);
+        return response;
+    }
+
+    /**
+     * /search/batch と同じクエリを検索し、結果を format でストリームとして書き出す。
+     * クエリを STREAM_BATCH_QUERIES 件ずつインデックスに渡し、確定した分から書くので、
+     * サーバが一度に持つ結果はその件数 × topK まで
+     */
+    public ResultStream streamBatch(PoseSearchBatchRequest request, PoseSearchResultWriter.Format format) {
+        BatchQueries queries = parseBatch(request);
+        int count = queries.vectors().length;
+        poseSearchMetrics.recordBatch(count, queries.topK());
+        return stream(format, writer -> {
+            for (int from = 0; from < count; from += STREAM_BATCH_QUERIES) {
+                int to = Math.min(count, from + STREAM_BATCH_QUERIES);
+                double[][] chunk = Arrays.copyOfRange(queries.vectors(), from, to);
+                int[] chunkMasks = Arrays.copyOfRange(queries.jointMasks(), from, to);
+                List<List<PoseFeatureIndex.Hit>> hitsPerQuery = poseSearchMetrics.observe("index", true, () ->
+                        poseFeatureIndex.searchBatch(chunk, chunkMasks, queries.topK(), queries.options()));
+                for (int i = 0; i < hitsPerQuery.size(); i++) {
+                    writeHits(writer, from + i, hitsPerQuery.get(i), true);
+                }
+            }
+        });
+    }
+
+    /**
+     * format の writer を開いて body に書かせ、最後に必ず flush する ResultStream を作る
+     * （writeHits は結果を書いたときしか flush しないので、0 件のクエリのヘッダや
+     * ndjson のジェネレータに残った分はここで送る。writer 自身のバッファは Spring からは flush されない）
+     */
+    private static ResultStream stream(PoseSearchResultWriter.Format format, ResultBody body) {
+        return out -> {
+            PoseSearchResultWriter writer = PoseSearchResultWriter.open(format, out);
+            body.writeTo(writer);
+            writer.flush();
+        };
+    }
+
+    /**
+     * バッチのクエリを検証してパースする（クエリは featureVectors か keypointSets のどちらか一方）
+     */
+    private BatchQueries parseBatch(PoseSearchBatchRequest request) {
+        List<String> featureVectors = request.getFeatureVectors();
+        List<List<List<Double>>> keypointSets = request.getKeypointSets();
+        boolean hasVectors = featureVectors != null && !featureVectors.isEmpty();
+        boolean hasKeypoints = keypointSets != null && !keypointSets.isEmpty();
+        if (hasVectors == hasKeypoints) {
+            throw new IllegalArgumentException("Specify either featureVectors or keypointSets");
+        }
+        int count = hasVectors ? featureVectors.size() : keypointSets.size();
+        if (count > MAX_BATCH_QUERIES) {
+            throw new IllegalArgumentException("Too many queries: " + count + " (max " + MAX_BATCH_QUERIES + ")");
         }
 
         int topK = (request.getTopK() != null && request.getTopK() > 0)
                 ? request.getTopK()
                 : 10;
+        SearchFilter filter = SearchFilter.of(request.getIncludeCutCodes(), request.getExcludeCutCodes(),
+                request.getIncludeDatasets(), request.getExcludeDatasets());
+        // 関節はクエリごとに jointMasks で渡す
+        SearchOptions options = new SearchOptions(SearchMode.parse(request.getMode()), request.getEfSearch(),
+                request.getRerank(), filter, DistanceMetric.parse(request.getMetric()), PoseFeatureUtil.ALL_JOINTS);
+
+        // クエリを double[] にそろえる（/search と同じ parseOne。keypoints は欠けている関節を距離から外す）
+        String[] queryFeatureVectors = new String[count];
+        double[][] queryVecs = new double[count][];
+        int[] jointMasks = new int[count];
+        poseSearchMetrics.observe("parse", true, () -> parseQueries(featureVectors, keypointSets,
+                request.getVisibility(), queryFeatureVectors, queryVecs, jointMasks));
+        return new BatchQueries(queryFeatureVectors, queryVecs, jointMasks, topK, options);
+    }
 
-        // クエリの featureVector を double[] にパース
-        double[] queryVec = parseFeatureVector(queryFeatureVector);
+    /**
+     * 1 クエリ分の結果を書き出す。DB のメタ情報は STREAM_FETCH_IDS 件ずつ引き、引いた分を書いたら送る
+     */
+    private void writeHits(PoseSearchResultWriter writer, int query, List<PoseFeatureIndex.Hit> hits,
+                           boolean batch) throws IOException {
+        writer.beginQuery(query, hits.size());
+        for (int from = 0; from < hits.size(); from += STREAM_FETCH_IDS) {
+            List<PoseFeatureIndex.Hit> chunk = hits.subList(from, Math.min(hits.size(), from + STREAM_FETCH_IDS));
+            Map<Long, PoseSampleSummary> samplesById = writer.needsSummaries()
+                    ? poseSearchMetrics.observe("fetch", batch, () -> findSummaries(List.of(chunk)))
+                    : Map.of();
+            for (int i = 0; i < chunk.size(); i++) {
+                PoseFeatureIndex.Hit hit = chunk.get(i);
+                PoseSampleSummary sample = samplesById.get(hit.id());
+                writer.write(query, from + i + 1, hit, (sample != null) ? toResultDto(hit, sample) : null);
+            }
+            writer.flush();
+        }
+    }
 
-        // 全サンプルを取得して、距離を計算
-        List<PoseSample> allSamples = poseSampleRepository.findAll();
-        List<PoseSearchResultDto> scored = new ArrayList<>();
+    /**
+     * 正規化前の 17 点を /pose/feature と同じ規則で正規化する。
+     * スレッドごとの float[34] に直接正規化し、文字列は Formatter を使わずに作る
+     * （欠けている関節は visibility で外したのと同じく距離から外す）
+     */
+    private static ParsedQuery normalizeQuery(List<List<Double>> keypoints, List<Boolean> visibility) {
+        int mask = PoseFeatureUtil.visibleJoints(keypoints, PoseFeatureUtil.jointMask(visibility));
+        float[] normalized = PoseFeatureUtil.featureScratch();
+        PoseFeatureUtil.normalizeInto(keypoints, mask, normalized);
+        return new ParsedQuery(toDoubles(normalized), PoseFeatureUtil.buildFeatureVector(normalized), mask,
+                PoseFeatureUtil.toPoints(normalized));
+    }
 
-        for (PoseSample sample : allSamples) {
-            String fv = sample.getFeatureVector();
-            if (fv == null || fv.isBlank()) {
-                continue;
+    /**
+     * 検索に使うクエリ（ベクトル・レスポンスに返す文字列版・距離に使う関節・正規化済みの 17 点）。
+     * normalizedKeypoints は keypoints から作ったときだけ（featureVector のときは null）
+     */
+    private record ParsedQuery(double[] vector, String featureVector, int jointMask,
+                               float[][] normalizedKeypoints) {}
+
+    /**
+     * /search の topK と検索条件（topK の省略時は 10。関節はパースしたクエリの jointMask を使う）
+     */
+    private record SearchParams(int topK, SearchOptions options) {
+
+        static SearchParams of(PoseSearchByFeatureRequest request) {
+            int topK = (request.getTopK() != null && request.getTopK() > 0)
+                    ? request.getTopK()
+                    : 10;
+            // cutCode / datasetName の絞り込み（該当するパーティションだけをスキャンする）
+            SearchFilter filter = SearchFilter.of(request.getIncludeCutCodes(), request.getExcludeCutCodes(),
+                    request.getIncludeDatasets(), request.getExcludeDatasets());
+            return new SearchParams(topK, new SearchOptions(SearchMode.parse(request.getMode()),
+                    request.getEfSearch(), request.getRerank(), filter, DistanceMetric.parse(request.getMetric()),
+                    PoseFeatureUtil.ALL_JOINTS));
+        }
+    }
+
+    /**
+     * パース済みのバッチのクエリ（featureVectors[i]・vectors[i]・jointMasks[i] が i 番目のクエリ）
+     */
+    private record BatchQueries(String[] featureVectors, double[][] vectors, int[] jointMasks, int topK,
+                                SearchOptions options) {}
+
+    /**
+     * 検索結果の書き出し（コントローラが StreamingResponseBody として返す）
+     */
+    @FunctionalInterface
+    public interface ResultStream {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 開いた writer への結果の書き出し（{@link #stream}）
+     */
+    @FunctionalInterface
+    private interface ResultBody {
+        void writeTo(PoseSearchResultWriter writer) throws IOException;
+    }
+
+    /**
+     * バッチのクエリ（featureVectors か keypointSets のどちらか一方）を 1 件ずつ parseOne にかけ、
+     * queryVecs・文字列版 queryFeatureVectors・距離に使う関節 jointMasks に入れる
+     */
+    private static void parseQueries(List<String> featureVectors, List<List<List<Double>>> keypointSets,
+                                     List<Boolean> visibility, String[] queryFeatureVectors,
+                                     double[][] queryVecs, int[] jointMasks) {
+        boolean hasVectors = featureVectors != null && !featureVectors.isEmpty();
+        for (int i = 0; i < queryVecs.length; i++) {
+            ParsedQuery parsed;
+            if (hasVectors) {
+                String fv = featureVectors.get(i);
+                if (fv == null || fv.isBlank()) {
+                    throw new IllegalArgumentException("featureVectors[" + i + "] is empty");
+                }
+                parsed = parseOne(fv, null, visibility);
+            } else {
+                List<List<Double>> keypoints = keypointSets.get(i);
+                if (keypoints == null || keypoints.isEmpty()) {
+                    throw new IllegalArgumentException("keypointSets[" + i + "] is empty");
+                }
+                try {
+                    parsed = parseOne(null, keypoints, visibility);
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("keypointSets[" + i + "]: " + ex.getMessage(), ex);
+                }
             }
+            queryFeatureVectors[i] = parsed.featureVector();
+            queryVecs[i] = parsed.vector();
+            jointMasks[i] = parsed.jointMask();
+        }
+    }
 
-            double[] sampleVec;
-            try {
-                sampleVec = parseFeatureVector(fv);
-            } catch (NumberFormatException ex) {
-                // パースできない壊れたデータはスキップ
-                continue;
+    /**
+     * 検索結果に出てくる id のメタ情報を 1 回のクエリでまとめて引く
+     */
+    private Map<Long, PoseSampleSummary> findSummaries(List<List<PoseFeatureIndex.Hit>> hitLists) {
+        Set<Long> ids = new HashSet<>();
+        for (List<PoseFeatureIndex.Hit> hits : hitLists) {
+            for (PoseFeatureIndex.Hit hit : hits) {
+                ids.add(hit.id());
             }
+        }
+        Map<Long, PoseSampleSummary> samplesById = new HashMap<>();
+        if (ids.isEmpty()) {
+            return samplesById;
+        }
+        for (PoseSampleSummary sample : poseSampleRepository.findSummariesByIdIn(ids)) {
+            samplesById.put(sample.getId(), sample);
+        }
+        return samplesById;
+    }
 
-            if (sampleVec.length != queryVec.length) {
-                // 次元が合わないものもスキップ
+    private List<PoseSearchResultDto> toResultDtos(List<PoseFeatureIndex.Hit> hits,
+                                                   Map<Long, PoseSampleSummary> samplesById) {
+        List<PoseSearchResultDto> topList = new ArrayList<>(hits.size());
+        for (PoseFeatureIndex.Hit hit : hits) {
+            PoseSampleSummary sample = samplesById.get(hit.id());
+            if (sample == null) {
+                // インデックス作成後に消されたサンプルはスキップ
                 continue;
             }
-
-            double dist = euclideanDistance(queryVec, sampleVec);
-
-            PoseSearchResultDto dto = new PoseSearchResultDto();
-            dto.setId(sample.getId());
-            dto.setDatasetName(sample.getDatasetName());
-            dto.setImageFileName(sample.getImageFileName());
-            dto.setImagePath(sample.getImagePath());
-            dto.setDistance(dist);
-            dto.setSourceImagePath(sample.getSourceImagePath());
-            dto.setDisplayPath(buildDisplayPath(sample));
-            scored.add(dto);
+            topList.add(toResultDto(hit, sample));
         }
+        return topList;
+    }
 
-        // 距離が小さい順にソートして、topK 件に絞る
-        List<PoseSearchResultDto> topList = scored.stream()
-                .sorted(Comparator.comparingDouble(PoseSearchResultDto::getDistance))
-                .limit(topK)
-                .collect(Collectors.toList());
+    private PoseSearchResultDto toResultDto(PoseFeatureIndex.Hit hit, PoseSampleSummary sample) {
+        PoseSearchResultDto dto = new PoseSearchResultDto();
+        dto.setId(sample.getId());
+        dto.setDatasetName(sample.getDatasetName());
+        dto.setImageFileName(sample.getImageFileName());
+        dto.setImagePath(sample.getImagePath());
+        dto.setDistance(hit.distance());
+        dto.setSourceImagePath(sample.getSourceImagePath());
+        dto.setDisplayPath(buildDisplayPath(sample));
+        return dto;
+    }
 
-        PoseSearchByFeatureResponse response = new PoseSearchByFeatureResponse();
-        response.setFeatureVector(queryFeatureVector);
-        response.setResults(topList);
-        return response;
+    /**
+     * 正規化済みの x0,y0,x1,y1,...（float）をインデックスの検索に渡す double[] にする
+     */
+    private static double[] toDoubles(float[] normalized) {
+        double[] arr = new double[normalized.length];
+        for (int i = 0; i < normalized.length; i++) {
+            arr[i] = normalized[i];
+        }
+        return arr;
     }
 
     /**
      * "x0,y0,x1,y1,..." を double[] に変換
      */
-    private double[] parseFeatureVector(String featureVector) {
+    static double[] parseFeatureVector(String featureVector) {
         String[] tokens = featureVector.split(",");
         List<Double> values = new ArrayList<>();
         for (String t : tokens) {
@@ -95,23 +452,7 @@ public class PoseSearchService {
         return arr;
     }
 
-    /**
-     * ユークリッド距離
-     */
-    private double euclideanDistance(double[] a, double[] b) {
-        if (a.length != b.length) {
-            return Double.POSITIVE_INFINITY;
-        }
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double d = a[i] - b[i];
-            sum += d * d;
-        }
-        return Math.sqrt(sum);
-    }
-
-
-    private String buildDisplayPath(PoseSample sample) {
+    static String buildDisplayPath(PoseSampleSummary sample) {
         String src = sample.getSourceImagePath();
         if (src == null || src.isBlank()) {
             // 何もなければ従来の表示にフォールバック
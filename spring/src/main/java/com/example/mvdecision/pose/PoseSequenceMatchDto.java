@@ -0,0 +1,79 @@
+package com.example.mvdecision.pose;
+
+import java.util.List;
+
+public class PoseSequenceMatchDto {
+
+    private String cutCode;
+    private String datasetName;
+    private double distance;       // DTW 距離。小さいほど似ている
+    private int startFrame;        // 一致した区間の最初のフレーム（カット内で 0 始まり）
+    private int endFrame;          // 一致した区間の最後のフレーム（含む）
+    private int cutFrameCount;     // カット全体のフレーム数
+    private List<Long> sampleIds;  // 一致した区間の PoseSample id（フレーム順）
+    private String displayPath;    // 区間の最初のフレームの表示用パス
+
+    public String getCutCode() {
+        return cutCode;
+    }
+
+    public void setCutCode(String cutCode) {
+        this.cutCode = cutCode;
+    }
+
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    public void setDatasetName(String datasetName) {
+        this.datasetName = datasetName;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+
+    public int getStartFrame() {
+        return startFrame;
+    }
+
+    public void setStartFrame(int startFrame) {
+        this.startFrame = startFrame;
+    }
+
+    public int getEndFrame() {
+        return endFrame;
+    }
+
+    public void setEndFrame(int endFrame) {
+        this.endFrame = endFrame;
+    }
+
+    public int getCutFrameCount() {
+        return cutFrameCount;
+    }
+
+    public void setCutFrameCount(int cutFrameCount) {
+        this.cutFrameCount = cutFrameCount;
+    }
+
+    public List<Long> getSampleIds() {
+        return sampleIds;
+    }
+
+    public void setSampleIds(List<Long> sampleIds) {
+        this.sampleIds = sampleIds;
+    }
+
+    public String getDisplayPath() {
+        return displayPath;
+    }
+
+    public void setDisplayPath(String displayPath) {
+        this.displayPath = displayPath;
+    }
+}
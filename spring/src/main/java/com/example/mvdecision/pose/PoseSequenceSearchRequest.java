@@ -0,0 +1,46 @@
+package com.example.mvdecision.pose;
+
+import java.util.List;
+
+public class PoseSequenceSearchRequest {
+
+    /**
+     * クエリの骨格時系列 (T, 17, 2)。フレームごとに [[x0,y0], ..., [x16,y16]]。
+     * 検出できなかった点は null でよい（前のフレームの値で埋める）
+     */
+    private List<List<List<Double>>> keypointSequence;
+
+    /**
+     * 何カット返すか（省略時は 10）
+     */
+    private Integer topK;
+
+    /**
+     * 時間方向の伸縮を許す幅（クエリのフレーム数に対する割合, 0〜1。省略時は 0.1）
+     */
+    private Double window;
+
+    public List<List<List<Double>>> getKeypointSequence() {
+        return keypointSequence;
+    }
+
+    public void setKeypointSequence(List<List<List<Double>>> keypointSequence) {
+        this.keypointSequence = keypointSequence;
+    }
+
+    public Integer getTopK() {
+        return topK;
+    }
+
+    public void setTopK(Integer topK) {
+        this.topK = topK;
+    }
+
+    public Double getWindow() {
+        return window;
+    }
+
+    public void setWindow(Double window) {
+        this.window = window;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.SequenceSearchStats;
+
+import java.util.List;
+
+public class PoseSequenceSearchResponse {
+
+    /**
+     * 似ているカットの一覧（DTW 距離が小さい順）
+     */
+    private List<PoseSequenceMatchDto> results;
+
+    /**
+     * 枝刈りの件数など
+     */
+    private SequenceSearchStats stats;
+
+    public List<PoseSequenceMatchDto> getResults() {
+        return results;
+    }
+
+    public void setResults(List<PoseSequenceMatchDto> results) {
+        this.results = results;
+    }
+
+    public SequenceSearchStats getStats() {
+        return stats;
+    }
+
+    public void setStats(SequenceSearchStats stats) {
+        this.stats = stats;
+    }
+}
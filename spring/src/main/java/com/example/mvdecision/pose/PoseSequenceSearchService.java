@@ -0,0 +1,91 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.PoseSequenceIndex;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class PoseSequenceSearchService {
+
+    /** クエリのフレーム数の上限 */
+    private static final int MAX_QUERY_FRAMES = 1000;
+
+    private final PoseSampleRepository poseSampleRepository;
+    private final PoseSequenceIndex poseSequenceIndex;
+
+    public PoseSequenceSearchService(PoseSampleRepository poseSampleRepository,
+                                     PoseSequenceIndex poseSequenceIndex) {
+        this.poseSampleRepository = poseSampleRepository;
+        this.poseSequenceIndex = poseSequenceIndex;
+    }
+
+    /**
+     * 骨格時系列 (T, 17, 2) に動きが近いカットを DTW 距離の小さい順に返す。
+     * 各フレームは DB の feature_vector と同じ正規化（腰中心・胴体長）をかけてから比べる
+     */
+    public PoseSequenceSearchResponse search(PoseSequenceSearchRequest request) {
+        List<List<List<Double>>> sequence = request.getKeypointSequence();
+        if (sequence == null || sequence.isEmpty()) {
+            throw new IllegalArgumentException("keypointSequence is required");
+        }
+        if (sequence.size() > MAX_QUERY_FRAMES) {
+            throw new IllegalArgumentException(
+                    "Too many frames: " + sequence.size() + " (max " + MAX_QUERY_FRAMES + ")");
+        }
+        int topK = (request.getTopK() != null && request.getTopK() > 0)
+                ? request.getTopK()
+                : 10;
+        double window = (request.getWindow() != null) ? request.getWindow() : 0.1;
+        if (window < 0 || window > 1) {
+            throw new IllegalArgumentException("window must be between 0 and 1: " + window);
+        }
+
+        int frames = sequence.size();
+        float[] query = PoseFeatureUtil.normalizeSequence(sequence);
+        int band = (int) Math.ceil(window * frames);
+
+        PoseSequenceIndex.SequenceSearchResult result = poseSequenceIndex.search(query, frames, topK, band);
+
+        // 区間の先頭フレームのメタ情報（表示用パス）だけ DB から引く
+        List<Long> firstIds = new ArrayList<>();
+        for (PoseSequenceIndex.SequenceHit hit : result.hits()) {
+            firstIds.add(hit.frameIds()[0]);
+        }
+        Map<Long, PoseSampleSummary> samplesById = new HashMap<>();
+        if (!firstIds.isEmpty()) {
+            for (PoseSampleSummary sample : poseSampleRepository.findSummariesByIdIn(firstIds)) {
+                samplesById.put(sample.getId(), sample);
+            }
+        }
+
+        List<PoseSequenceMatchDto> matches = new ArrayList<>(result.hits().size());
+        for (PoseSequenceIndex.SequenceHit hit : result.hits()) {
+            PoseSequenceMatchDto dto = new PoseSequenceMatchDto();
+            dto.setCutCode(hit.cutCode());
+            dto.setDatasetName(hit.datasetName());
+            dto.setDistance(hit.distance());
+            dto.setStartFrame(hit.startFrame());
+            dto.setEndFrame(hit.startFrame() + hit.frameIds().length - 1);
+            dto.setCutFrameCount(hit.cutLength());
+            List<Long> ids = new ArrayList<>(hit.frameIds().length);
+            for (long id : hit.frameIds()) {
+                ids.add(id);
+            }
+            dto.setSampleIds(ids);
+            PoseSampleSummary first = samplesById.get(hit.frameIds()[0]);
+            if (first != null) {
+                dto.setDisplayPath(PoseSearchService.buildDisplayPath(first));
+            }
+            matches.add(dto);
+        }
+
+        PoseSequenceSearchResponse response = new PoseSequenceSearchResponse();
+        response.setResults(matches);
+        response.setStats(result.stats());
+        return response;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.mvdecision.pose;
+
+/**
+ * インデックス構築用の射影。id とバイナリ特徴量だけを読む（raw_json などの LOB は読まない）
+ */
+public interface PoseVectorRow {
+
+    Long getId();
+
+    byte[] getFeatureVectorBin();
+
+    /** 関節ごとの信頼度。古い行は null */
+    byte[] getKeypointScoresBin();
+
+    String getDatasetName();
+
+    String getCutCode();
+}
@@ -0,0 +1,305 @@
+package com.example.mvdecision.dataset;
+
+import com.example.mvdecision.image.ImageMetadataCache;
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.example.mvdecision.pose.PoseFeatureBackfillService;
+import com.example.mvdecision.pose.PoseImageEtagService;
+import com.example.mvdecision.pose.PoseSample;
+import com.example.mvdecision.pose.PoseSampleBatchInserter;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * zip の取り込み（DB へのバッチ INSERT と、終了時のインデックスへの追記）
+ */
+class DatasetImportServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final SplittableRandom random = new SplittableRandom(1);
+
+    /** INSERT した行の id → cutCode（id は INSERT した順に 1 から振る） */
+    private final Map<Long, String> inserted = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    /** insertAll に渡されたバッチの件数（呼ばれた順） */
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    private final PoseSampleBatchInserter inserter = mock(PoseSampleBatchInserter.class);
+    private PoseFeatureIndex index;
+    private DatasetImportService importService;
+    private DatasetDeletionService deletionService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        doAnswer(inv -> {
+            insert(inv.getArgument(0));
+            return null;
+        }).when(inserter).insertAll(any());
+
+        PoseSampleRepository repository = mock(PoseSampleRepository.class);
+        index = new PoseFeatureIndex(repository, new PoseFeatureBackfillService(repository),
+                mock(PlatformTransactionManager.class), false, dir.toString(), false, 16, 200, 64, false, 4);
+        ImageMetadataCache imageMetadataCache = mock(ImageMetadataCache.class);
+        importService = new DatasetImportService(inserter, index, mock(PoseImageEtagService.class),
+                imageMetadataCache, new DatasetImportMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP));
+        deletionService = new DatasetDeletionService(repository, index, imageMetadataCache, importService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        importService.shutdown();
+        index.shutdown();
+    }
+
+    @Test
+    void rowsDeletedDuringAnImportAreNotAppendedToTheIndex() throws Exception {
+        PipedInputStream in = new PipedInputStream(1 << 20);
+        ZipOutputStream zip = new ZipOutputStream(new PipedOutputStream(in));
+        ImportProgress progress = new ImportProgress();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> task = pool.submit(() -> {
+                importService.importZip("B.zip", in, progress);
+                return null;
+            });
+
+            // C001 / C002 の 20 行がコミットされ、まだインデックスには入っていないところで C001 を消す
+            writeSamples(zip, "C001", 0, 10);
+            writeSamples(zip, "C002", 0, 10);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (progress.getSamplesInserted() < 20) {
+                assertThat(System.nanoTime()).as("first rows inserted").isLessThan(deadline);
+                Thread.sleep(20);
+            }
+            Set<Long> deletedIds = idsOfCut("C001");
+            assertThat(deletedIds).hasSize(10);
+            deletionService.delete(null, "C001");
+
+            // 削除の後に来た C001 の行は残る
+            writeSamples(zip, "C001", 10, 10);
+            zip.close();
+            task.get(30, TimeUnit.SECONDS);
+
+            assertThat(inserted).hasSize(30);
+            Set<Long> expected = new HashSet<>(inserted.keySet());
+            expected.removeAll(deletedIds);
+            assertThat(indexedIds()).isEqualTo(expected);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void samplesAreInsertedInBatchesOf500AndAllAppendedToTheIndex() throws Exception {
+        // 最初のバッチを INSERT している間に残りの 1199 件をキューに溜め、そこから 500 件ずつ切り出されるのを見る
+        AtomicLong calls = new AtomicLong();
+        doAnswer(inv -> {
+            List<PoseSample> batch = inv.getArgument(0);
+            if (calls.getAndIncrement() == 0) {
+                waitForQueued(1200 - batch.size());
+            }
+            insert(batch);
+            return null;
+        }).when(inserter).insertAll(any());
+
+        ImportProgress progress = new ImportProgress();
+        importService.importZip("B.zip", new ByteArrayInputStream(zipOf(1200, true)), progress);
+
+        assertThat(batchSizes).allMatch(n -> n <= 500);
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(1200);
+        // 最初のバッチの件数はパースの速さ次第だが、溜まっていた分は上限の 500 件で切られる
+        assertThat(batchSizes.get(1)).isEqualTo(500);
+        assertThat(progress.getSamplesInserted()).isEqualTo(1200);
+        // 終了時にはちょうど INSERT できた行だけがインデックスに入る
+        assertThat(indexedIds()).isEqualTo(inserted.keySet());
+        assertThat(index.size()).isEqualTo(1200);
+    }
+
+    @Test
+    void writerFailureIsSuppressedUnderTheReadFailure() throws Exception {
+        RuntimeException dbDown = new IllegalStateException("db down");
+        CountDownLatch insertAttempted = new CountDownLatch(1);
+        doAnswer(inv -> {
+            insertAttempted.countDown();
+            throw dbDown;
+        }).when(inserter).insertAll(any());
+
+        // zip の途中で接続が切れる（書き込みスレッドが失敗してから切れるようにする）
+        IOException reset = new IOException("connection reset");
+        InputStream broken = new FilterInputStream(new ByteArrayInputStream(zipOf(20, false))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                try {
+                    insertAttempted.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw reset;
+            }
+        };
+
+        assertThatThrownBy(() -> importService.importZip("B.zip", broken, new ImportProgress()))
+                .isSameAs(reset)
+                .satisfies(ex -> {
+                    assertThat(ex.getSuppressed()).hasSize(1);
+                    assertThat(ex.getSuppressed()[0])
+                            .isInstanceOf(IOException.class)
+                            .hasMessageStartingWith("Failed to save pose samples")
+                            .hasCause(dbDown);
+                });
+        assertThat(inserted).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void writerFailureAloneFailsTheImport() throws Exception {
+        // 2 回目以降のバッチは保存できない
+        AtomicLong calls = new AtomicLong();
+        doAnswer(inv -> {
+            List<PoseSample> batch = inv.getArgument(0);
+            if (calls.getAndIncrement() == 0) {
+                waitForQueued(600 - batch.size());
+                insert(batch);
+                return null;
+            }
+            throw new IllegalStateException("db down");
+        }).when(inserter).insertAll(any());
+
+        assertThatThrownBy(() -> importService.importZip("B.zip",
+                new ByteArrayInputStream(zipOf(600, true)), new ImportProgress()))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Failed to save pose samples: db down");
+        // 失敗する前に保存できた行はインデックスに入る
+        assertThat(inserted).isNotEmpty().hasSizeLessThan(600);
+        assertThat(indexedIds()).isEqualTo(inserted.keySet());
+    }
+
+    /**
+     * INSERT の代わりに、id を振って inserted に記録する
+     */
+    private void insert(List<PoseSample> batch) {
+        batchSizes.add(batch.size());
+        for (PoseSample sample : batch) {
+            long id = lastId.incrementAndGet();
+            ReflectionTestUtils.setField(sample, "id", id);
+            inserted.put(id, sample.getCutCode());
+        }
+    }
+
+    /**
+     * 取り込み中の書き込みスレッドのキューに count 件溜まるまで待つ
+     */
+    private void waitForQueued(int count) throws InterruptedException {
+        Set<?> writers = (Set<?>) ReflectionTestUtils.getField(importService, "activeWriters");
+        BlockingQueue<?> queue = (BlockingQueue<?>) ReflectionTestUtils.getField(writers.iterator().next(), "queue");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (queue.size() < count) {
+            assertThat(System.nanoTime()).as(count + " samples queued").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * C001 の JSON を count 件入れた zip（complete = false なら途中で終わる）
+     */
+    private byte[] zipOf(int count, boolean complete) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        writeSamples(zip, "C001", 0, count);
+        if (complete) {
+            zip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * cutCode のカットの JSON を count 件（B{from}.png から）zip に書き出す
+     */
+    private void writeSamples(ZipOutputStream zip, String cutCode, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            zip.putNextEntry(new ZipEntry(cutCode + "/B" + i + "_keypoints.json"));
+            zip.write(sampleJson(cutCode, i).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        zip.flush();
+    }
+
+    private String sampleJson(String cutCode, int frame) {
+        StringBuilder keypoints = new StringBuilder();
+        StringBuilder scores = new StringBuilder();
+        for (int k = 0; k < 17; k++) {
+            if (k > 0) {
+                keypoints.append(',');
+                scores.append(',');
+            }
+            keypoints.append('[').append(random.nextDouble(0, 500)).append(',')
+                    .append(random.nextDouble(0, 500)).append(']');
+            scores.append(random.nextDouble(0.5, 1));
+        }
+        return "{\"image_path\":\"/src/" + cutCode + "/B/B" + frame + ".png\","
+                + "\"persons\":[{\"keypoints\":[" + keypoints + "],\"keypoint_scores\":[" + scores + "]}]}";
+    }
+
+    private Set<Long> idsOfCut(String cutCode) {
+        return inserted.entrySet().stream()
+                .filter(e -> e.getValue().equals(cutCode))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * インデックスに入っている全行の id
+     */
+    private Set<Long> indexedIds() {
+        double[] query = new double[PoseFeatureIndex.DIM];
+        return index.search(query, 10_000).stream()
+                .map(PoseFeatureIndex.Hit::id)
+                .collect(Collectors.toSet());
+    }
+}
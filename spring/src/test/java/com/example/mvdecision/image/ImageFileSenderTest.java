@@ -0,0 +1,144 @@
+package com.example.mvdecision.image;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Range ヘッダの解釈（parseRange）と、206 / 416 / 200 のレスポンス
+ */
+class ImageFileSenderTest {
+
+    private static final long LENGTH = 1000;
+    private static final String ETAG = "\"abc\"";
+
+    private final ImageServingStats stats = new ImageServingStats();
+    private final ImageFileSender sender = new ImageFileSender(stats);
+
+    @Test
+    void closedRangeIsInclusiveOfTheLastByte() {
+        assertThat(parse("bytes=0-99")).containsExactly(0, 100);
+        assertThat(parse("bytes=900-999")).containsExactly(900, 1000);
+        // 末尾を越える lastByte は長さで切る
+        assertThat(parse("bytes=500-5000")).containsExactly(500, 1000);
+    }
+
+    @Test
+    void suffixRangeIsTheLastNBytes() {
+        assertThat(parse("bytes=-100")).containsExactly(900, 1000);
+        // 長さより長い suffix はファイル全体
+        assertThat(parse("bytes=-5000")).containsExactly(0, 1000);
+        // 0 バイトの suffix は満たせない
+        assertThat(parse("bytes=-0")).isEmpty();
+    }
+
+    @Test
+    void openRangeRunsToTheEnd() {
+        assertThat(parse("bytes=0-")).containsExactly(0, 1000);
+        assertThat(parse("bytes=999-")).containsExactly(999, 1000);
+    }
+
+    @Test
+    void startAtOrPastTheEndIsUnsatisfiable() {
+        assertThat(parse("bytes=1000-")).isEmpty();
+        assertThat(parse("bytes=1000-1100")).isEmpty();
+        assertThat(parse("bytes=5000-")).isEmpty();
+    }
+
+    @Test
+    void multipleRangesFallBackToTheWholeFile() {
+        assertThat(parse("bytes=0-99,200-299")).isNull();
+        assertThat(parse("bytes=-100, 0-1")).isNull();
+    }
+
+    @Test
+    void malformedHeadersAreIgnored() {
+        assertThat(parse(null)).isNull();
+        assertThat(parse("items=0-99")).isNull();
+        assertThat(parse("bytes=")).isNull();
+        assertThat(parse("bytes=100")).isNull();
+        assertThat(parse("bytes=abc-def")).isNull();
+        assertThat(parse("bytes=10-x")).isNull();
+        // 符号つきの数は不正（416 にしない）
+        assertThat(parse("bytes=--5")).isNull();
+        assertThat(parse("bytes=+5-10")).isNull();
+        // lastByte < start は構文として不正
+        assertThat(parse("bytes=500-100")).isNull();
+    }
+
+    @Test
+    void ifRangeMustMatchTheCurrentEtag() {
+        MockHttpServletRequest request = request("bytes=0-99");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+        assertThat(ImageFileSender.parseRange(request, LENGTH, ETAG)).containsExactly(0, 100);
+
+        request = request("bytes=0-99");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"old\"");
+        assertThat(ImageFileSender.parseRange(request, LENGTH, ETAG)).isNull();
+    }
+
+    @Test
+    void partialContentSendsTheRequestedBytes() throws Exception {
+        byte[] body = body();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sender.sendBytes(request("bytes=-10"), response, body, ETAG);
+
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 990-999/1000");
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentLengthLong()).isEqualTo(10);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(body, 990, 1000));
+        assertThat(stats.getPartialContent()).isEqualTo(1);
+    }
+
+    @Test
+    void unsatisfiableRangeAnswers416WithTheLength() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sender.sendBytes(request("bytes=1000-"), response, body(), ETAG);
+
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+        assertThat(response.getContentLengthLong()).isZero();
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(stats.getResponses()).isZero();
+    }
+
+    @Test
+    void ignoredRangeSendsTheWholeBody() throws Exception {
+        byte[] body = body();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sender.sendBytes(request("bytes=0-1,5-6"), response, body, ETAG);
+
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentLengthLong()).isEqualTo(LENGTH);
+        assertThat(response.getContentAsByteArray()).isEqualTo(body);
+        assertThat(stats.getPartialContent()).isZero();
+    }
+
+    private static long[] parse(String range) {
+        return ImageFileSender.parseRange(request(range), LENGTH, ETAG);
+    }
+
+    private static MockHttpServletRequest request(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1");
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        return request;
+    }
+
+    private static byte[] body() {
+        byte[] body = new byte[(int) LENGTH];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        return body;
+    }
+}
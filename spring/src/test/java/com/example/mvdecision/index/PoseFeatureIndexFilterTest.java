@@ -0,0 +1,154 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 絞り込み検索: セグメント内のパーティション（cutCode × datasetName の区間）の選び方と、
+ * exact / approx / pq のどれでも選んだ区間の行だけが返ること
+ */
+class PoseFeatureIndexFilterTest {
+
+    private static final String[] DATASETS = {"A.zip", "B.zip"};
+    private static final int CUTS = 4;
+    private static final int ROWS_PER_PARTITION = 300;
+    private static final int ROWS = DATASETS.length * CUTS * ROWS_PER_PARTITION;
+
+    @TempDir
+    Path dir;
+
+    /** id → その行の (cutCode, datasetName) */
+    private final Map<Long, Partition> partitions = new HashMap<>();
+    private PoseFeatureIndex index;
+
+    @AfterEach
+    void tearDown() {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    void runsAreSplitByCutCodeAndDatasetName() {
+        IndexSegment seg = rows(new SplittableRandom(1)).toSegments().get(0);
+
+        // 同じ cutCode でも datasetName が違えば別の区間
+        assertThat(seg.runStarts).hasSize(DATASETS.length * CUTS + 1);
+        for (int r = 0; r + 1 < seg.runStarts.length; r++) {
+            assertThat(seg.runStarts[r + 1] - seg.runStarts[r]).isEqualTo(ROWS_PER_PARTITION);
+        }
+
+        int[] one = seg.selectRuns(SearchFilter.of(List.of("C001"), null, List.of("B.zip"), null));
+        assertThat(one).hasSize(2);
+        assertRowsIn(seg, one, new Partition("C001", "B.zip"));
+
+        int[] cut = seg.selectRuns(SearchFilter.of(List.of("C002"), null, null, null));
+        assertThat(cut).hasSize(2 * DATASETS.length);
+        for (int i = 0; i < cut.length; i += 2) {
+            for (int row = cut[i]; row < cut[i + 1]; row++) {
+                assertThat(seg.cutCodes[row]).isEqualTo("C002");
+            }
+        }
+
+        int[] dataset = seg.selectRuns(SearchFilter.of(null, List.of("C000"), null, List.of("A.zip")));
+        assertThat(dataset).hasSize(2 * (CUTS - 1));
+        for (int i = 0; i < dataset.length; i += 2) {
+            for (int row = dataset[i]; row < dataset[i + 1]; row++) {
+                assertThat(seg.datasetNames[row]).isEqualTo("B.zip");
+                assertThat(seg.cutCodes[row]).isNotEqualTo("C000");
+            }
+        }
+
+        assertThat(seg.selectRuns(SearchFilter.of(List.of("C999"), null, null, null))).isEmpty();
+    }
+
+    @Test
+    void filteredSearchReturnsOnlySelectedRowsInEveryMode() throws InterruptedException {
+        AtomicLong maxId = new AtomicLong(ROWS);
+        index = TestIndexes.newIndex(dir, true, true, maxId);
+        index.append(rows(new SplittableRandom(2)));
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (!index.isGraphReady() || !index.isPqReady()) {
+            assertThat(System.nanoTime()).as("HNSW graph and PQ codes built").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+
+        // 1 区間だけ（区間のスキャン）と、全体の 3/4（approx は対象外の行を除外してグラフを辿る）
+        SearchFilter narrow = SearchFilter.of(List.of("C001"), null, List.of("B.zip"), null);
+        SearchFilter wide = SearchFilter.of(null, List.of("C000"), null, null);
+
+        SplittableRandom random = new SplittableRandom(3);
+        for (int trial = 0; trial < 10; trial++) {
+            double[] query = TestIndexes.toDoubles(TestIndexes.randomVector(random), 0);
+            for (SearchFilter filter : List.of(narrow, wide)) {
+                List<PoseFeatureIndex.Hit> exactAll = index.search(query, ROWS);
+                List<PoseFeatureIndex.Hit> expected = exactAll.stream()
+                        .filter(h -> partitions.get(h.id()).matches(filter))
+                        .limit(20)
+                        .toList();
+
+                for (SearchMode mode : SearchMode.values()) {
+                    List<PoseFeatureIndex.Hit> hits =
+                            index.search(query, 20, SearchOptions.of(mode).withFilter(filter), null);
+                    assertThat(hits).as(mode + " " + filter).hasSize(20)
+                            .allMatch(h -> partitions.get(h.id()).matches(filter));
+                    if (mode == SearchMode.EXACT) {
+                        assertThat(hits).isEqualTo(expected);
+                    }
+
+                    List<List<PoseFeatureIndex.Hit>> batch = index.searchBatch(new double[][] {query}, null, 20,
+                            SearchOptions.of(mode).withFilter(filter));
+                    assertThat(batch.get(0)).as("batch " + mode + " " + filter).isEqualTo(hits);
+                }
+            }
+        }
+    }
+
+    /**
+     * 区間 [runs[0], runs[1]) の行がすべて partition のもの
+     */
+    private static void assertRowsIn(IndexSegment seg, int[] runs, Partition partition) {
+        assertThat(runs[1] - runs[0]).isEqualTo(ROWS_PER_PARTITION);
+        for (int row = runs[0]; row < runs[1]; row++) {
+            assertThat(new Partition(seg.cutCodes[row], seg.datasetNames[row])).isEqualTo(partition);
+        }
+    }
+
+    /**
+     * 全パーティションの行を、並べ替えが要るように datasetName → cutCode → 行 の順で詰める
+     */
+    private VectorBlockBuilder rows(SplittableRandom random) {
+        VectorBlockBuilder rows = new VectorBlockBuilder(ROWS);
+        long id = 1;
+        for (String dataset : DATASETS) {
+            for (int c = 0; c < CUTS; c++) {
+                String cutCode = String.format("C%03d", c);
+                float[] frames = TestIndexes.randomWalk(ROWS_PER_PARTITION, random);
+                for (int i = 0; i < ROWS_PER_PARTITION; i++) {
+                    rows.addBinary(id, PoseFeatureUtil.encodeFeatureVector(frames, i * PoseFeatureIndex.DIM), null,
+                            dataset, cutCode);
+                    partitions.put(id, new Partition(cutCode, dataset));
+                    id++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private record Partition(String cutCode, String datasetName) {
+        boolean matches(SearchFilter filter) {
+            return filter.matches(cutCode, datasetName);
+        }
+    }
+}
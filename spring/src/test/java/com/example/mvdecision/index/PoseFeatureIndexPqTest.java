@@ -0,0 +1,149 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * mode=pq（直積量子化の符号で候補を絞り、正確な距離で並べ直す）と、符号を含むスナップショットファイル
+ */
+class PoseFeatureIndexPqTest {
+
+    private static final int CUTS = 50;
+    private static final int ROWS_PER_CUT = 100;
+    private static final int ROWS = CUTS * ROWS_PER_CUT;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong maxId = new AtomicLong();
+    private PoseFeatureIndex index;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        index = TestIndexes.newIndex(dir, true, maxId);
+        SplittableRandom random = new SplittableRandom(1);
+        VectorBlockBuilder rows = new VectorBlockBuilder(ROWS);
+        for (int c = 0; c < CUTS; c++) {
+            float[] frames = TestIndexes.randomWalk(ROWS_PER_CUT, random);
+            for (int i = 0; i < ROWS_PER_CUT; i++) {
+                rows.addBinary((long) c * ROWS_PER_CUT + i + 1,
+                        PoseFeatureUtil.encodeFeatureVector(frames, i * PoseFeatureIndex.DIM), null,
+                        "dataset", String.format("C%03d", c));
+            }
+        }
+        maxId.set(ROWS);
+        index.append(rows);
+
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (!index.isPqReady()) {
+            assertThat(System.nanoTime()).as("PQ codes built").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.shutdown();
+    }
+
+    @Test
+    void rerankingEveryRowMatchesExactSearch() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int trial = 0; trial < 20; trial++) {
+            double[] query = TestIndexes.toDoubles(TestIndexes.randomVector(random), 0);
+            List<PoseFeatureIndex.Hit> exact = index.search(query, 10);
+            List<PoseFeatureIndex.Hit> pq = search(query, ROWS);
+            assertThat(pq).isEqualTo(exact);
+        }
+    }
+
+    @Test
+    void defaultRerankKeepsMostExactNeighbours() {
+        SplittableRandom random = new SplittableRandom(3);
+        int found = 0;
+        int total = 0;
+        for (int trial = 0; trial < 50; trial++) {
+            double[] query = nearRow(random);
+            List<Long> exact = ids(index.search(query, 10));
+            List<PoseFeatureIndex.Hit> pq = search(query, null);
+            assertThat(pq).hasSize(10);
+            for (PoseFeatureIndex.Hit hit : pq) {
+                if (exact.contains(hit.id())) {
+                    found++;
+                }
+            }
+            total += exact.size();
+        }
+        assertThat((double) found / total).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void withoutRerankDistancesAreApproximateButOrdered() {
+        SplittableRandom random = new SplittableRandom(4);
+        double[] query = nearRow(random);
+        List<PoseFeatureIndex.Hit> hits = search(query, 0);
+        assertThat(hits).hasSize(10);
+        for (int i = 1; i < hits.size(); i++) {
+            assertThat(hits.get(i).distance()).isGreaterThanOrEqualTo(hits.get(i - 1).distance());
+        }
+    }
+
+    @Test
+    void snapshotFileKeepsVectorsAndCodes() throws Exception {
+        PoseFeatureIndex.Snapshot s = index.currentSnapshot();
+        Path file = dir.resolve("pose-index.snap");
+        IndexSnapshotFile.write(file, s.segments, 0, 0, PoseFeatureIndex.DIM);
+        IndexSnapshotFile.Loaded loaded = IndexSnapshotFile.read(file, PoseFeatureIndex.DIM);
+
+        assertThat(loaded.highWaterId()).isEqualTo(ROWS);
+        assertThat(loaded.segments()).hasSameSizeAs(s.segments);
+        for (int i = 0; i < s.segments.length; i++) {
+            IndexSegment before = s.segments[i];
+            IndexSegment after = loaded.segments()[i];
+            assertThat(after.ids).isEqualTo(before.ids);
+            assertThat(after.cutCodes).isEqualTo(before.cutCodes);
+            assertThat(after.vectors).isEqualTo(before.vectors.duplicate().rewind());
+            assertThat(after.pq).isNotNull();
+
+            // コードブックと符号も同じ
+            float[] q = TestIndexes.randomVector(new SplittableRandom(5));
+            assertThat(after.pq.distanceTable(q)).isEqualTo(before.pq.distanceTable(q));
+            byte[] codesBefore = new byte[before.size * ProductQuantizer.SUBSPACES];
+            byte[] codesAfter = new byte[after.size * ProductQuantizer.SUBSPACES];
+            before.pq.copyCodes(0, before.size, codesBefore);
+            after.pq.copyCodes(0, after.size, codesAfter);
+            assertThat(codesAfter).isEqualTo(codesBefore);
+        }
+    }
+
+    private List<PoseFeatureIndex.Hit> search(double[] query, Integer rerank) {
+        return index.search(query, 10, SearchOptions.of(SearchMode.PQ).withRerank(rerank), null);
+    }
+
+    /**
+     * どれかの行の近く（実際の検索に近いクエリ）
+     */
+    private double[] nearRow(SplittableRandom random) {
+        IndexSegment seg = index.currentSnapshot().segments[0];
+        float[] v = new float[PoseFeatureIndex.DIM];
+        seg.vectors.get(random.nextInt(seg.size) * PoseFeatureIndex.DIM, v, 0, v.length);
+        for (int d = 0; d < v.length; d++) {
+            v[d] += (float) random.nextDouble(-0.05, 0.05);
+        }
+        return TestIndexes.toDoubles(v, 0);
+    }
+
+    private static List<Long> ids(List<PoseFeatureIndex.Hit> hits) {
+        return hits.stream().map(PoseFeatureIndex.Hit::id).toList();
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureBackfillService;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import com.example.mvdecision.pose.PoseLegacyVectorRow;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import com.example.mvdecision.pose.PoseVectorRow;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 起動時のスナップショットファイルの採用判定（DB の行数との比較と、ファイルより新しい行の読み足し）
+ */
+class PoseFeatureIndexSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private final PoseSampleRepository repository = mock(PoseSampleRepository.class);
+    private final List<PoseVectorRow> binaryRows = new ArrayList<>();
+    private final List<PoseLegacyVectorRow> legacyRows = new ArrayList<>();
+    private final List<PoseFeatureIndex> indexes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(repository.streamVectorsAfter(anyLong())).thenAnswer(inv -> {
+            long afterId = inv.getArgument(0);
+            return binaryRows.stream().filter(r -> r.getId() > afterId);
+        });
+        when(repository.streamLegacyVectorsAfter(anyLong())).thenAnswer(inv -> {
+            long afterId = inv.getArgument(0);
+            return legacyRows.stream().filter(r -> r.getId() > afterId);
+        });
+        when(repository.countVectorsUpTo(anyLong())).thenAnswer(inv -> {
+            long upToId = inv.<Long>getArgument(0);
+            return binaryRows.stream().filter(r -> r.getId() <= upToId).count()
+                    + legacyRows.stream().filter(r -> r.getId() <= upToId).count();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        indexes.forEach(PoseFeatureIndex::shutdown);
+    }
+
+    @Test
+    void rowsThatCannotBeIndexedDoNotMakeTheFileStale() throws Exception {
+        SplittableRandom random = new SplittableRandom(1);
+        for (long id = 1; id <= 20; id++) {
+            // id 7 はバイナリの長さが合わない
+            byte[] bin = (id == 7) ? new byte[10] : vector(random);
+            binaryRows.add(new VectorRow(id, bin));
+        }
+        legacyRows.add(new LegacyRow(21, csv(random)));
+        legacyRows.add(new LegacyRow(22, "not,a,vector"));
+        // 最大の id が入れなかった行でも、次の起動でまた読まないように highWaterId に含める
+        legacyRows.add(new LegacyRow(23, " "));
+
+        PoseFeatureIndex first = newIndex();
+        first.load();
+        assertThat(first.size()).isEqualTo(20);
+        waitForSnapshotFile();
+
+        // ファイルを書いた後に増えた行は DB から読み足す
+        binaryRows.add(new VectorRow(24, vector(random)));
+        PoseFeatureIndex second = newIndex();
+        second.load();
+
+        assertThat(second.size()).isEqualTo(21);
+        verify(repository, times(1)).streamVectorsAfter(0L);
+        verify(repository).streamVectorsAfter(23L);
+    }
+
+    @Test
+    void fileIsRejectedWhenTheDatabaseLostRows() throws Exception {
+        SplittableRandom random = new SplittableRandom(2);
+        for (long id = 1; id <= 10; id++) {
+            binaryRows.add(new VectorRow(id, vector(random)));
+        }
+        legacyRows.add(new LegacyRow(11, "not,a,vector"));
+        PoseFeatureIndex first = newIndex();
+        first.load();
+        waitForSnapshotFile();
+
+        // アプリを通さずに消された行がある
+        binaryRows.remove(3);
+        PoseFeatureIndex second = newIndex();
+        second.load();
+
+        assertThat(second.size()).isEqualTo(9);
+        verify(repository, times(2)).streamVectorsAfter(0L);
+        verify(repository, never()).streamVectorsAfter(11L);
+    }
+
+    private PoseFeatureIndex newIndex() {
+        PoseFeatureIndex index = new PoseFeatureIndex(repository, new PoseFeatureBackfillService(repository),
+                mock(PlatformTransactionManager.class), true, dir.toString(), false, 16, 200, 64, false, 4);
+        indexes.add(index);
+        return index;
+    }
+
+    private void waitForSnapshotFile() throws InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!Files.exists(dir.resolve("pose-index.snap"))) {
+            assertThat(System.nanoTime()).as("snapshot file written").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static byte[] vector(SplittableRandom random) {
+        return PoseFeatureUtil.encodeFeatureVector(TestIndexes.randomVector(random), 0);
+    }
+
+    private static String csv(SplittableRandom random) {
+        StringBuilder sb = new StringBuilder();
+        for (float v : TestIndexes.randomVector(random)) {
+            sb.append((sb.length() > 0) ? "," : "").append(v);
+        }
+        return sb.toString();
+    }
+
+    private record VectorRow(long id, byte[] bin) implements PoseVectorRow {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public byte[] getFeatureVectorBin() {
+            return bin;
+        }
+
+        @Override
+        public byte[] getKeypointScoresBin() {
+            return null;
+        }
+
+        @Override
+        public String getDatasetName() {
+            return "dataset";
+        }
+
+        @Override
+        public String getCutCode() {
+            return "C001";
+        }
+    }
+
+    private record LegacyRow(long id, String featureVector) implements PoseLegacyVectorRow {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String getFeatureVector() {
+            return featureVector;
+        }
+
+        @Override
+        public String getDatasetName() {
+            return "dataset";
+        }
+
+        @Override
+        public String getCutCode() {
+            return "C001";
+        }
+    }
+}
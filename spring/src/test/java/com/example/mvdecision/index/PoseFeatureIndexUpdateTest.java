@@ -0,0 +1,208 @@
+package com.example.mvdecision.index;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 取り込み（append）・削除（delete）と検索が同時に走ったときの見え方と、セグメントのまとめ直し
+ */
+class PoseFeatureIndexUpdateTest {
+
+    /** 1 カットの行数。append / delete はカット単位で行う */
+    private static final int ROWS_PER_CUT = 50;
+
+    private static final int CUTS = 40;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong maxId = new AtomicLong();
+    private PoseFeatureIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = TestIndexes.newIndex(dir, false, maxId);
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.shutdown();
+    }
+
+    @Test
+    void appendAndDeleteAreVisibleToTheNextSearch() {
+        SplittableRandom random = new SplittableRandom(1);
+        long epoch = index.epoch();
+        appendCut(0, random);
+        appendCut(1, random);
+        assertThat(index.size()).isEqualTo(2 * ROWS_PER_CUT);
+        assertThat(index.epoch()).isGreaterThan(epoch);
+        assertThat(cutsIn(searchAll(random))).containsOnly(Map.entry(0, ROWS_PER_CUT), Map.entry(1, ROWS_PER_CUT));
+
+        epoch = index.epoch();
+        assertThat(index.delete(null, cut(0))).isEqualTo(ROWS_PER_CUT);
+        assertThat(index.epoch()).isGreaterThan(epoch);
+        assertThat(index.size()).isEqualTo(ROWS_PER_CUT);
+        assertThat(cutsIn(searchAll(random))).containsOnly(Map.entry(1, ROWS_PER_CUT));
+        assertThat(index.search(TestIndexes.toDoubles(TestIndexes.randomVector(random), 0), ROWS_PER_CUT,
+                SearchOptions.EXACT.withFilter(only(cut(0))), null)).isEmpty();
+
+        // 既に消えている・存在しない条件では何も変わらない
+        epoch = index.epoch();
+        assertThat(index.delete(null, cut(0))).isZero();
+        assertThat(index.delete("no-such-dataset", null)).isZero();
+        assertThat(index.epoch()).isEqualTo(epoch);
+    }
+
+    @Test
+    void concurrentSearchesSeeWholeAppendsAndDeletes() throws Exception {
+        // 追加が終わったカット・削除を始めたカット・削除が終わったカット
+        Set<Integer> appended = ConcurrentHashMap.newKeySet();
+        Set<Integer> deleting = ConcurrentHashMap.newKeySet();
+        Set<Integer> deleted = ConcurrentHashMap.newKeySet();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                long seed = 100 + t;
+                readers.add(pool.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(seed);
+                    int searches = 0;
+                    do {
+                        Set<Integer> appendedBefore = new HashSet<>(appended);
+                        Set<Integer> deletedBefore = new HashSet<>(deleted);
+                        Map<Integer, Integer> seen = cutsIn(searchAll(random));
+                        Set<Integer> deletingAfter = new HashSet<>(deleting);
+
+                        // 1 回の検索は 1 つの snapshot だけを見る: カットは丸ごと見えるか、まったく見えないか
+                        assertThat(seen.values()).allMatch(n -> n == ROWS_PER_CUT);
+                        for (int c : deletedBefore) {
+                            assertThat(seen).doesNotContainKey(c);
+                        }
+                        for (int c : appendedBefore) {
+                            if (!deletingAfter.contains(c)) {
+                                assertThat(seen).containsKey(c);
+                            }
+                        }
+
+                        // 絞り込み検索でも同じ
+                        int c = random.nextInt(CUTS);
+                        int filtered = index.search(TestIndexes.toDoubles(TestIndexes.randomVector(random), 0),
+                                2 * ROWS_PER_CUT, SearchOptions.EXACT.withFilter(only(cut(c))), null).size();
+                        assertThat(filtered).isIn(0, ROWS_PER_CUT);
+                        searches++;
+                    } while (writing.get());
+                    return searches;
+                }));
+            }
+
+            Future<?> writer = pool.submit(() -> {
+                SplittableRandom random = new SplittableRandom(2);
+                try {
+                    for (int c = 0; c < CUTS; c++) {
+                        appendCut(c, random);
+                        appended.add(c);
+                        // 3 カットに 1 つは少し後で消す（削除率でのまとめ直しも起きる）
+                        if (c >= 2 && (c - 2) % 3 == 0) {
+                            deleting.add(c - 2);
+                            index.delete(null, cut(c - 2));
+                            deleted.add(c - 2);
+                        }
+                    }
+                } finally {
+                    writing.set(false);
+                }
+            });
+
+            writer.get(60, TimeUnit.SECONDS);
+            for (Future<Integer> reader : readers) {
+                assertThat(reader.get(60, TimeUnit.SECONDS)).isPositive();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        int live = CUTS - deleted.size();
+        assertThat(index.size()).isEqualTo(live * ROWS_PER_CUT);
+        Map<Integer, Integer> seen = cutsIn(searchAll(new SplittableRandom(3)));
+        assertThat(seen).hasSize(live);
+        assertThat(seen.keySet()).doesNotContainAnyElementsOf(deleted);
+        assertThat(index.currentSnapshot().segments.length).isLessThanOrEqualTo(8);
+    }
+
+    @Test
+    void compactionKeepsOnlyLiveRows() {
+        SplittableRandom random = new SplittableRandom(4);
+        for (int c = 0; c < 10; c++) {
+            appendCut(c, random);
+        }
+        // 8 セグメントを超えたところでまとめ直される
+        assertThat(index.currentSnapshot().segments.length).isLessThanOrEqualTo(8);
+        assertThat(cutsIn(searchAll(random))).hasSize(10);
+
+        // 3 / 10 が削除済みになると削除率 0.2 を超えて 1 つにまとめ直される
+        index.delete(null, cut(2));
+        index.delete(null, cut(5));
+        index.delete(null, cut(7));
+        IndexSegment[] segments = index.currentSnapshot().segments;
+        assertThat(segments).hasSize(1);
+        assertThat(segments[0].size).isEqualTo(7 * ROWS_PER_CUT);
+        assertThat(segments[0].deleted).isNull();
+        assertThat(cutsIn(searchAll(random))).containsOnlyKeys(0, 1, 3, 4, 6, 8, 9);
+    }
+
+    private void appendCut(int c, SplittableRandom random) {
+        long firstId = (long) c * ROWS_PER_CUT + 1;
+        maxId.accumulateAndGet(firstId + ROWS_PER_CUT - 1, Math::max);
+        index.append(TestIndexes.rows(firstId, ROWS_PER_CUT, "dataset", cut(c), random));
+    }
+
+    /**
+     * 全行が入る topK で EXACT 検索する
+     */
+    private List<PoseFeatureIndex.Hit> searchAll(SplittableRandom random) {
+        double[] query = TestIndexes.toDoubles(TestIndexes.randomVector(random), 0);
+        return index.search(query, CUTS * ROWS_PER_CUT);
+    }
+
+    /**
+     * カット番号 → 結果に入っていた行数
+     */
+    private static Map<Integer, Integer> cutsIn(List<PoseFeatureIndex.Hit> hits) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (PoseFeatureIndex.Hit hit : hits) {
+            counts.merge((int) ((hit.id() - 1) / ROWS_PER_CUT), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static SearchFilter only(String cutCode) {
+        return SearchFilter.of(List.of(cutCode), null, null, null);
+    }
+
+    private static String cut(int c) {
+        return String.format("C%03d", c);
+    }
+}
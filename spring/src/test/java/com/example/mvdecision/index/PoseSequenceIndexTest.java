@@ -0,0 +1,229 @@
+package com.example.mvdecision.index;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * 下界（LB_Kim / LB_Keogh）と打ち切りで枝刈りした DTW 検索が、枝刈りなしの DTW と同じ結果を返すこと
+ */
+class PoseSequenceIndexTest {
+
+    private static final int DIM = PoseFeatureIndex.DIM;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong maxId = new AtomicLong();
+    private final List<float[]> cuts = new ArrayList<>();
+    private PoseFeatureIndex index;
+    private PoseSequenceIndex sequences;
+
+    @BeforeEach
+    void setUp() {
+        index = TestIndexes.newIndex(dir, false, maxId);
+        sequences = TestIndexes.newSequenceIndex(index, maxId);
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.shutdown();
+    }
+
+    @Test
+    void lowerBoundsAndAbandoningAgreeWithExactDtw() {
+        SplittableRandom random = new SplittableRandom(1);
+        int n = 12;
+        float[] upper = new float[n * DIM];
+        float[] lower = new float[n * DIM];
+        float[] terms = new float[n];
+        float[] tail = new float[n + 1];
+        float[] prev = new float[n];
+        float[] cur = new float[n];
+        for (int trial = 0; trial < 200; trial++) {
+            int band = trial % 5;
+            float[] q = TestIndexes.randomWalk(n, random);
+            float[] c = TestIndexes.randomWalk(n, random);
+            double exact = exactDtw(q, n, c, 0, n, band);
+
+            SequenceDtw.envelope(q, n, band, upper, lower);
+            float keogh = SequenceDtw.lbKeogh(upper, lower, n, c, 0, terms, Float.POSITIVE_INFINITY);
+            assertThat((double) SequenceDtw.lbKim(q, n, c, 0)).isLessThanOrEqualTo(exact * (1 + 1e-5));
+            assertThat((double) keogh).isLessThanOrEqualTo(exact * (1 + 1e-5));
+
+            SequenceDtw.suffixSums(terms, n, tail);
+            assertThat((double) SequenceDtw.dtw(q, n, c, 0, n, band, null, Float.POSITIVE_INFINITY, prev, cur))
+                    .isCloseTo(exact, within(exact * 1e-5));
+            // しきい値より大きければしきい値以上（ABANDONED か本当の値）、小さければ打ち切らずに同じ値
+            float limit = (float) (exact * 0.99);
+            assertThat(SequenceDtw.dtw(q, n, c, 0, n, band, tail, limit, prev, cur)).isGreaterThanOrEqualTo(limit);
+            assertThat((double) SequenceDtw.dtw(q, n, c, 0, n, band, tail, (float) (exact * 1.01), prev, cur))
+                    .isCloseTo(exact, within(exact * 1e-5));
+        }
+    }
+
+    @Test
+    void searchMatchesBruteForceDtw() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int c = 0; c < 40; c++) {
+            // クエリより短いカットも混ぜる
+            appendCut(c, TestIndexes.randomWalk(random.nextInt(4, 60), random));
+        }
+
+        int frames = 10;
+        for (int trial = 0; trial < 30; trial++) {
+            int band = trial % 4;
+            float[] query = noisyWindow(random.nextInt(cuts.size()), frames, random);
+            PoseSequenceIndex.SequenceSearchResult result = sequences.search(query, frames, 5, band);
+            List<double[]> expected = bruteForce(query, frames, band);
+
+            assertThat(result.hits()).hasSize(5);
+            for (int i = 0; i < 5; i++) {
+                PoseSequenceIndex.SequenceHit hit = result.hits().get(i);
+                assertThat(hit.cutCode()).isEqualTo(cut((int) expected.get(i)[0]));
+                assertThat(hit.distance()).isCloseTo(Math.sqrt(expected.get(i)[1]), within(1e-4));
+            }
+            // 最良の区間のフレームも同じ
+            PoseSequenceIndex.SequenceHit top = result.hits().get(0);
+            int topCut = (int) expected.get(0)[0];
+            assertThat(top.startFrame()).isEqualTo((int) expected.get(0)[2]);
+            assertThat(top.frameIds()[0]).isEqualTo(firstId(topCut) + top.startFrame());
+
+            // 枝刈りで DTW を最後まで計算しなかった区間がある
+            assertThat(result.stats().getCandidates())
+                    .isGreaterThan(result.stats().getDtwCompleted());
+        }
+    }
+
+    @Test
+    void libraryFollowsIndexUpdates() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int c = 0; c < 10; c++) {
+            appendCut(c, TestIndexes.randomWalk(30, random));
+        }
+        float[] query = Arrays.copyOfRange(cuts.get(4), 5 * DIM, 15 * DIM);
+        PoseSequenceIndex.SequenceHit top = sequences.search(query, 10, 1, 2).hits().get(0);
+        assertThat(top.cutCode()).isEqualTo(cut(4));
+        assertThat(top.distance()).isZero();
+
+        // 削除したカットは次の検索から出ない
+        index.delete(null, cut(4));
+        assertThat(sequences.search(query, 10, 10, 2).hits())
+                .extracting(PoseSequenceIndex.SequenceHit::cutCode)
+                .hasSize(9)
+                .doesNotContain(cut(4));
+
+        // 追加したカットは次の検索から出る
+        appendCut(10, query);
+        top = sequences.search(query, 10, 1, 2).hits().get(0);
+        assertThat(top.cutCode()).isEqualTo(cut(10));
+        assertThat(top.distance()).isZero();
+    }
+
+    private void appendCut(int c, float[] frames) {
+        cuts.add(frames);
+        long firstId = firstId(c);
+        maxId.accumulateAndGet(firstId + frames.length / DIM - 1, Math::max);
+        index.append(TestIndexes.rows(firstId, frames, "dataset", cut(c)));
+    }
+
+    /**
+     * カット c の中の frames フレームを切り出してノイズを足したもの（短いカットならそのまま伸ばす）
+     */
+    private float[] noisyWindow(int c, int frames, SplittableRandom random) {
+        float[] src = cuts.get(c);
+        int length = src.length / DIM;
+        int start = (length > frames) ? random.nextInt(length - frames + 1) : 0;
+        float[] q = new float[frames * DIM];
+        for (int i = 0; i < frames; i++) {
+            int from = (start + Math.min(i, length - 1)) * DIM;
+            for (int d = 0; d < DIM; d++) {
+                q[i * DIM + d] = src[from + d] + (float) random.nextDouble(-0.05, 0.05);
+            }
+        }
+        return q;
+    }
+
+    /**
+     * すべてのカットについて枝刈りなしで最良の区間を求め、(カット, 距離の二乗, 開始フレーム) を距離順に返す
+     */
+    private List<double[]> bruteForce(float[] q, int n, int band) {
+        List<double[]> results = new ArrayList<>();
+        for (int c = 0; c < cuts.size(); c++) {
+            float[] frames = cuts.get(c);
+            int length = frames.length / DIM;
+            if (length < n) {
+                results.add(new double[] {c, exactDtw(q, n, frames, 0, length, Math.max(band, n - length)), 0});
+                continue;
+            }
+            double best = Double.POSITIVE_INFINITY;
+            int bestAt = -1;
+            for (int start = 0; start + n <= length; start++) {
+                double d = exactDtw(q, n, frames, start * DIM, n, band);
+                if (d < best) {
+                    best = d;
+                    bestAt = start;
+                }
+            }
+            results.add(new double[] {c, best, bestAt});
+        }
+        results.sort(Comparator.comparingDouble(r -> r[1]));
+        return results;
+    }
+
+    /**
+     * 教科書どおりの DTW（全セルを埋める。|i - j| <= band の外は通れない）
+     */
+    private static double exactDtw(float[] q, int n, float[] c, int cBase, int m, int band) {
+        double[][] cost = new double[n][m];
+        for (double[] row : cost) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = Math.max(0, i - band); j <= Math.min(m - 1, i + band); j++) {
+                double d = 0;
+                for (int k = 0; k < DIM; k++) {
+                    double diff = q[i * DIM + k] - c[cBase + j * DIM + k];
+                    d += diff * diff;
+                }
+                double best;
+                if (i == 0 && j == 0) {
+                    best = 0;
+                } else {
+                    best = Double.POSITIVE_INFINITY;
+                    if (i > 0) {
+                        best = Math.min(best, cost[i - 1][j]);
+                    }
+                    if (j > 0) {
+                        best = Math.min(best, cost[i][j - 1]);
+                    }
+                    if (i > 0 && j > 0) {
+                        best = Math.min(best, cost[i - 1][j - 1]);
+                    }
+                }
+                cost[i][j] = best + d;
+            }
+        }
+        return cost[n - 1][m - 1];
+    }
+
+    private static long firstId(int c) {
+        return (long) c * 1000 + 1;
+    }
+
+    private static String cut(int c) {
+        return String.format("C%03d", c);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.mvdecision.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * cutCode / datasetName の絞り込み条件の判定
+ */
+class SearchFilterTest {
+
+    @Test
+    void emptyListsMeanNoFilter() {
+        assertThat(SearchFilter.of(null, List.of(), List.of(" ", ""), null)).isSameAs(SearchFilter.NONE);
+        assertThat(SearchFilter.NONE.matches("C001", "B.zip")).isTrue();
+        assertThat(SearchFilter.NONE.matches(null, null)).isTrue();
+    }
+
+    @Test
+    void rowsWithoutACutCodeAreOutsideANonEmptyInclude() {
+        SearchFilter filter = SearchFilter.of(List.of("C001"), null, null, null);
+        assertThat(filter.matches("C001", "B.zip")).isTrue();
+        assertThat(filter.matches("C002", "B.zip")).isFalse();
+        assertThat(filter.matches(null, "B.zip")).isFalse();
+
+        SearchFilter datasets = SearchFilter.of(null, null, List.of("B.zip"), null);
+        assertThat(datasets.matches("C001", null)).isFalse();
+    }
+
+    @Test
+    void rowsWithoutACutCodeAreNotExcluded() {
+        SearchFilter filter = SearchFilter.of(null, List.of("C001"), null, List.of("A.zip"));
+        assertThat(filter.matches(null, null)).isTrue();
+        assertThat(filter.matches("C002", "B.zip")).isTrue();
+        assertThat(filter.matches("C001", "B.zip")).isFalse();
+        assertThat(filter.matches("C002", "A.zip")).isFalse();
+    }
+
+    @Test
+    void excludeWinsOverInclude() {
+        SearchFilter cuts = SearchFilter.of(List.of("C001", "C002"), List.of("C002"), null, null);
+        assertThat(cuts.matches("C001", "B.zip")).isTrue();
+        assertThat(cuts.matches("C002", "B.zip")).isFalse();
+
+        SearchFilter datasets = SearchFilter.of(null, null, List.of("A.zip", "B.zip"), List.of("A.zip"));
+        assertThat(datasets.matches("C001", "B.zip")).isTrue();
+        assertThat(datasets.matches("C001", "A.zip")).isFalse();
+
+        // cutCode の include に入っていても dataset の exclude で外れる
+        SearchFilter mixed = SearchFilter.of(List.of("C001"), null, null, List.of("A.zip"));
+        assertThat(mixed.matches("C001", "A.zip")).isFalse();
+        assertThat(mixed.matches("C001", "B.zip")).isTrue();
+    }
+
+    @Test
+    void valuesAreTrimmedAndEqualFiltersAreEqual() {
+        SearchFilter a = SearchFilter.of(List.of(" C001", "C002 "), null, null, null);
+        SearchFilter b = SearchFilter.of(List.of("C002", "C001"), List.of(), null, null);
+        assertThat(a).isEqualTo(b).hasSameHashCodeAs(b);
+        assertThat(a.matches("C001", null)).isTrue();
+    }
+}
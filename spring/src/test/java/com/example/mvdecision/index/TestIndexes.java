@@ -0,0 +1,138 @@
+package com.example.mvdecision.index;
+
+import com.example.mvdecision.pose.PoseFeatureBackfillService;
+import com.example.mvdecision.pose.PoseFeatureUtil;
+import com.example.mvdecision.pose.PoseSampleRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * テスト用のインデックス。DB は使わず、行は VectorBlockBuilder で直接詰める。
+ * id はフレーム順（カットごとに連番）に振るので、streamIdsInFrameOrder は 1 から順に返すだけでよい
+ */
+final class TestIndexes {
+
+    private TestIndexes() {
+    }
+
+    /**
+     * 空のインデックス（HNSW なし。スナップショットファイルは書かない）
+     */
+    static PoseFeatureIndex newIndex(Path dir, boolean pq, AtomicLong maxId) {
+        return newIndex(dir, false, pq, maxId);
+    }
+
+    /**
+     * 空のインデックス（hnsw なら追記したセグメントに HNSW グラフを作る）
+     */
+    static PoseFeatureIndex newIndex(Path dir, boolean hnsw, boolean pq, AtomicLong maxId) {
+        PoseSampleRepository repository = repository(maxId);
+        return new PoseFeatureIndex(repository, new PoseFeatureBackfillService(repository), transactionManager(),
+                false, dir.toString(), hnsw, 16, 200, 64, pq, 4);
+    }
+
+    /**
+     * index の上の時系列検索（フレーム順は id 順）
+     */
+    static PoseSequenceIndex newSequenceIndex(PoseFeatureIndex index, AtomicLong maxId) {
+        return new PoseSequenceIndex(index, repository(maxId), transactionManager());
+    }
+
+    /**
+     * id が firstId から始まる count 行。ベクトルは乱数の点から少しずつ動かしていった列（カットのフレーム列に見立てる）
+     */
+    static VectorBlockBuilder rows(long firstId, int count, String datasetName, String cutCode,
+                                   SplittableRandom random) {
+        return rows(firstId, randomWalk(count, random), datasetName, cutCode);
+    }
+
+    /**
+     * id が firstId から始まり、ベクトルが frames（行数 * DIM 個の float）の行
+     */
+    static VectorBlockBuilder rows(long firstId, float[] frames, String datasetName, String cutCode) {
+        int count = frames.length / PoseFeatureIndex.DIM;
+        VectorBlockBuilder rows = new VectorBlockBuilder(count);
+        for (int i = 0; i < count; i++) {
+            rows.addBinary(firstId + i, PoseFeatureUtil.encodeFeatureVector(frames, i * PoseFeatureIndex.DIM), null,
+                    datasetName, cutCode);
+        }
+        return rows;
+    }
+
+    /**
+     * 乱数の点から少しずつ動かしていった count フレームの列
+     */
+    static float[] randomWalk(int count, SplittableRandom random) {
+        int dim = PoseFeatureIndex.DIM;
+        float[] frames = new float[count * dim];
+        float[] v = randomVector(random);
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < dim; d++) {
+                v[d] += (float) random.nextDouble(-0.1, 0.1);
+            }
+            System.arraycopy(v, 0, frames, i * dim, dim);
+        }
+        return frames;
+    }
+
+    static float[] randomVector(SplittableRandom random) {
+        float[] v = new float[PoseFeatureIndex.DIM];
+        for (int d = 0; d < v.length; d++) {
+            v[d] = (float) random.nextDouble(-1, 1);
+        }
+        return v;
+    }
+
+    static double[] toDoubles(float[] v, int offset) {
+        double[] out = new double[PoseFeatureIndex.DIM];
+        for (int d = 0; d < out.length; d++) {
+            out[d] = v[offset + d];
+        }
+        return out;
+    }
+
+    /**
+     * streamIdsInFrameOrder だけに答えるリポジトリ（1..maxId を順に返す）
+     */
+    private static PoseSampleRepository repository(AtomicLong maxId) {
+        return (PoseSampleRepository) Proxy.newProxyInstance(TestIndexes.class.getClassLoader(),
+                new Class<?>[] {PoseSampleRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "streamIdsInFrameOrder":
+                            return LongStream.rangeClosed(1, maxId.get()).boxed();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "TestIndexes.repository";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * 何もしないトランザクション（PoseSequenceIndex の読み取り専用トランザクション用）
+     */
+    private static PlatformTransactionManager transactionManager() {
+        return (PlatformTransactionManager) Proxy.newProxyInstance(TestIndexes.class.getClassLoader(),
+                new Class<?>[] {PlatformTransactionManager.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTransaction":
+                            return new SimpleTransactionStatus();
+                        case "commit":
+                        case "rollback":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
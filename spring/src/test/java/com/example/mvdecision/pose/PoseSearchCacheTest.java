@@ -0,0 +1,98 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.DistanceMetric;
+import com.example.mvdecision.index.SearchFilter;
+import com.example.mvdecision.index.SearchMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 丸めたクエリでの一致と、インデックスの epoch が変わったときの破棄
+ */
+class PoseSearchCacheTest {
+
+    private final PoseSearchCache cache = new PoseSearchCache(true, 100, 0.001);
+
+    @Test
+    void nearlyEqualQueriesShareAnEntry() {
+        PoseSearchByFeatureResponse response = new PoseSearchByFeatureResponse();
+        cache.get(key(cache, 0.5), 1);
+        cache.put(key(cache, 0.5), 1, response);
+
+        assertThat(cache.get(key(cache, 0.5 + 0.0001), 1)).isSameAs(response);
+        assertThat(cache.get(key(cache, 0.5 + 0.01), 1)).isNull();
+        assertThat(cache.get(cache.key(query(0.5), 20, SearchMode.EXACT, null, null, SearchFilter.NONE,
+                DistanceMetric.L2, PoseFeatureUtil.ALL_JOINTS), 1)).isNull();
+        assertThat(cache.get(cache.key(query(0.5), 10, SearchMode.EXACT, null, null,
+                SearchFilter.of(List.of("C001"), null, null, null), DistanceMetric.L2, PoseFeatureUtil.ALL_JOINTS), 1))
+                .isNull();
+        // efSearch は EXACT の結果を変えないのでキーに入らない
+        assertThat(cache.get(cache.key(query(0.5), 10, SearchMode.EXACT, 128, null, SearchFilter.NONE,
+                DistanceMetric.L2, PoseFeatureUtil.ALL_JOINTS), 1)).isSameAs(response);
+
+        PoseSearchCacheStats stats = cache.stats();
+        assertThat(stats.getHits()).isEqualTo(2);
+        assertThat(stats.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    void entriesAreDroppedWhenTheEpochChanges() {
+        PoseSearchByFeatureResponse response = new PoseSearchByFeatureResponse();
+        PoseSearchCache.Key key = key(cache, 0.5);
+        assertThat(cache.get(key, 1)).isNull();
+        cache.put(key, 1, response);
+        assertThat(cache.get(key, 1)).isSameAs(response);
+
+        // 取り込み・削除で epoch が進んだら丸ごと捨てる（古い epoch に戻っても復活しない）
+        assertThat(cache.get(key, 2)).isNull();
+        assertThat(cache.get(key, 1)).isNull();
+        PoseSearchCacheStats stats = cache.stats();
+        assertThat(stats.getInvalidations()).isEqualTo(1);
+        assertThat(stats.getSize()).isZero();
+        assertThat(stats.getEpoch()).isEqualTo(1);
+    }
+
+    @Test
+    void resultsComputedForAnOlderEpochAreNotStored() {
+        PoseSearchCache.Key key = key(cache, 0.5);
+        cache.get(key, 1);
+        // 検索している間に epoch 2 のリクエストがキャッシュを進めた
+        cache.get(key(cache, 0.7), 2);
+        cache.put(key, 1, new PoseSearchByFeatureResponse());
+
+        assertThat(cache.get(key, 2)).isNull();
+        assertThat(cache.stats().getSize()).isZero();
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        PoseSearchCache small = new PoseSearchCache(true, 2, 0.001);
+        PoseSearchByFeatureResponse a = new PoseSearchByFeatureResponse();
+        PoseSearchByFeatureResponse b = new PoseSearchByFeatureResponse();
+        small.get(key(small, 0.1), 1);
+        small.put(key(small, 0.1), 1, a);
+        small.put(key(small, 0.2), 1, b);
+        // a を使ったので、次に入れたときに捨てられるのは b
+        assertThat(small.get(key(small, 0.1), 1)).isSameAs(a);
+        small.put(key(small, 0.3), 1, new PoseSearchByFeatureResponse());
+
+        assertThat(small.get(key(small, 0.2), 1)).isNull();
+        assertThat(small.get(key(small, 0.1), 1)).isSameAs(a);
+        assertThat(small.stats().getEvictions()).isEqualTo(1);
+    }
+
+    private static PoseSearchCache.Key key(PoseSearchCache cache, double value) {
+        return cache.key(query(value), 10, SearchMode.EXACT, null, null, SearchFilter.NONE, DistanceMetric.L2,
+                PoseFeatureUtil.ALL_JOINTS);
+    }
+
+    private static double[] query(double value) {
+        double[] q = new double[PoseFeatureUtil.FEATURE_DIM];
+        Arrays.fill(q, value);
+        return q;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.mvdecision.pose;
+
+import com.example.mvdecision.index.PoseFeatureIndex;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * /search・/search/batch のストリーム出力（ndjson / binary）の形と、チャンクごとに書き出していること
+ */
+class PoseSearchStreamTest {
+
+    private static final int QUERIES = 40;
+    private static final int TOP_K = 3;
+
+    /** id がこの倍数のサンプルは DB に無い（インデックス作成後に消された）ことにする */
+    private static final long MISSING_EVERY = 7;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /** インデックスが呼ばれた時点で out に書かれていたバイト数 */
+    private final List<Integer> writtenBeforeIndexCall = new ArrayList<>();
+
+    /** インデックスが 1 クエリあたりに返す件数の上限（0 なら常に 0 件） */
+    private int available = TOP_K;
+
+    private PoseSearchService service;
+
+    @BeforeEach
+    void setUp() {
+        PoseFeatureIndex index = mock(PoseFeatureIndex.class);
+        when(index.searchBatch(any(), any(), anyInt(), any())).thenAnswer(inv -> {
+            writtenBeforeIndexCall.add(out.size());
+            double[][] queries = inv.getArgument(0);
+            int topK = inv.getArgument(2);
+            List<List<PoseFeatureIndex.Hit>> results = new ArrayList<>();
+            for (double[] query : queries) {
+                results.add(hits(query, topK));
+            }
+            return results;
+        });
+        when(index.search(any(), anyInt(), any(), any()))
+                .thenAnswer(inv -> hits(inv.getArgument(0), inv.getArgument(1)));
+
+        PoseSampleRepository repository = mock(PoseSampleRepository.class);
+        when(repository.findSummariesByIdIn(any())).thenAnswer(inv -> {
+            List<PoseSampleSummary> found = new ArrayList<>();
+            for (Long id : inv.<Collection<Long>>getArgument(0)) {
+                if (id % MISSING_EVERY != 0) {
+                    found.add(new Summary(id));
+                }
+            }
+            return found;
+        });
+
+        PoseSearchCache cache = new PoseSearchCache(false, 10, 0.001);
+        PoseSearchMetrics metrics = new PoseSearchMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP, cache);
+        service = new PoseSearchService(repository, index, cache, metrics);
+    }
+
+    @Test
+    void binaryStreamHasEveryHitInOrder() throws Exception {
+        service.streamBatch(request(), PoseSearchResultWriter.Format.BINARY).writeTo(out);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int q = 0; q < QUERIES; q++) {
+            assertThat(in.readInt()).isEqualTo(q);
+            assertThat(in.readInt()).isEqualTo(TOP_K);
+            for (int r = 0; r < TOP_K; r++) {
+                // binary は DB を引かないので、消されたサンプルもそのまま出る
+                assertThat(in.readLong()).isEqualTo(q * 100L + r + 1);
+                assertThat(in.readFloat()).isEqualTo((float) r);
+            }
+        }
+        assertThat(in.available()).isZero();
+        assertThat(out.size()).isEqualTo(QUERIES * (8 + TOP_K * 12));
+    }
+
+    @Test
+    void ndjsonStreamSkipsSamplesMissingFromTheDatabase() throws Exception {
+        service.streamBatch(request(), PoseSearchResultWriter.Format.NDJSON).writeTo(out);
+
+        ObjectMapper mapper = new ObjectMapper();
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        int expected = 0;
+        int line = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            for (int r = 0; r < TOP_K; r++) {
+                long id = q * 100L + r + 1;
+                if (id % MISSING_EVERY == 0) {
+                    continue;
+                }
+                JsonNode node = mapper.readTree(lines[line++]);
+                assertThat(node.get("query").asInt()).isEqualTo(q);
+                // 消されたサンプルの分 rank は飛ぶ
+                assertThat(node.get("rank").asInt()).isEqualTo(r + 1);
+                assertThat(node.get("id").asLong()).isEqualTo(id);
+                assertThat(node.get("distance").asDouble()).isEqualTo(r);
+                assertThat(node.get("datasetName").asText()).isEqualTo("dataset");
+                expected++;
+            }
+        }
+        assertThat(lines).hasSize(expected);
+    }
+
+    @Test
+    void earlierChunksAreWrittenBeforeLaterQueriesAreSearched() throws Exception {
+        service.streamBatch(request(), PoseSearchResultWriter.Format.BINARY).writeTo(out);
+
+        // 32 クエリずつインデックスに渡し、次のチャンクを検索する前に前のチャンクの結果を送っている
+        assertThat(writtenBeforeIndexCall).containsExactly(0, 32 * (8 + TOP_K * 12));
+    }
+
+    @Test
+    void singleQueryStreamsInBothFormats() throws Exception {
+        service.streamByFeature(single(5), PoseSearchResultWriter.Format.BINARY).writeTo(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(in.readInt()).isZero();
+        assertThat(in.readInt()).isEqualTo(TOP_K);
+        for (int r = 0; r < TOP_K; r++) {
+            assertThat(in.readLong()).isEqualTo(501L + r);
+            assertThat(in.readFloat()).isEqualTo((float) r);
+        }
+        assertThat(in.available()).isZero();
+
+        out.reset();
+        service.streamByFeature(single(5), PoseSearchResultWriter.Format.NDJSON).writeTo(out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(TOP_K);
+        JsonNode first = new ObjectMapper().readTree(lines[0]);
+        assertThat(first.get("query").asInt()).isZero();
+        assertThat(first.get("rank").asInt()).isEqualTo(1);
+        assertThat(first.get("id").asLong()).isEqualTo(501L);
+    }
+
+    @Test
+    void emptyResultsStillSendQueryHeaders() throws Exception {
+        available = 0;
+
+        // binary は 0 件でもクエリごとに (query, count = 0) を送る
+        service.streamByFeature(single(5), PoseSearchResultWriter.Format.BINARY).writeTo(out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(in.readInt()).isZero();
+        assertThat(in.readInt()).isZero();
+        assertThat(in.available()).isZero();
+
+        out.reset();
+        service.streamBatch(request(), PoseSearchResultWriter.Format.BINARY).writeTo(out);
+        in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int q = 0; q < QUERIES; q++) {
+            assertThat(in.readInt()).isEqualTo(q);
+            assertThat(in.readInt()).isZero();
+        }
+        assertThat(in.available()).isZero();
+
+        // ndjson は 0 件なら何も書かない
+        out.reset();
+        service.streamByFeature(single(5), PoseSearchResultWriter.Format.NDJSON).writeTo(out);
+        assertThat(out.size()).isZero();
+        service.streamBatch(request(), PoseSearchResultWriter.Format.NDJSON).writeTo(out);
+        assertThat(out.size()).isZero();
+    }
+
+    /**
+     * クエリ q（query[0] に入っている番号）の r 番目（0 始まり）の結果は id = q * 100 + r + 1、距離 = r
+     */
+    private List<PoseFeatureIndex.Hit> hits(double[] query, int topK) {
+        int q = (int) query[0];
+        List<PoseFeatureIndex.Hit> hits = new ArrayList<>();
+        for (int r = 0; r < Math.min(topK, available); r++) {
+            hits.add(new PoseFeatureIndex.Hit(q * 100L + r + 1, r));
+        }
+        return hits;
+    }
+
+    /**
+     * query[0] にクエリの番号 q を入れた /search のリクエスト
+     */
+    private static PoseSearchByFeatureRequest single(int q) {
+        PoseSearchByFeatureRequest request = new PoseSearchByFeatureRequest();
+        request.setFeatureVector(featureVector(q));
+        request.setTopK(TOP_K);
+        return request;
+    }
+
+    private static String featureVector(int q) {
+        StringBuilder sb = new StringBuilder().append(q);
+        for (int d = 1; d < PoseFeatureUtil.FEATURE_DIM; d++) {
+            sb.append(",0.5");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * query[0] にクエリの番号を入れたバッチ（モックのインデックスはそれを見て結果を作る）
+     */
+    private static PoseSearchBatchRequest request() {
+        List<String> featureVectors = new ArrayList<>();
+        for (int q = 0; q < QUERIES; q++) {
+            featureVectors.add(featureVector(q));
+        }
+        PoseSearchBatchRequest request = new PoseSearchBatchRequest();
+        request.setFeatureVectors(featureVectors);
+        request.setTopK(TOP_K);
+        return request;
+    }
+
+    private record Summary(long id) implements PoseSampleSummary {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String getDatasetName() {
+            return "dataset";
+        }
+
+        @Override
+        public String getImageFileName() {
+            return id + ".png";
+        }
+
+        @Override
+        public String getImagePath() {
+            return "data/datasets/test/" + id + ".png";
+        }
+
+        @Override
+        public String getSourceImagePath() {
+            return "C001/B/" + id + ".png";
+        }
+
+        @Override
+        public String getCutCode() {
+            return "C001";
+        }
+
+        @Override
+        public String getImageEtag() {
+            return null;
+        }
+    }
+}